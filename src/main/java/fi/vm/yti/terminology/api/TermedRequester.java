@@ -14,6 +14,7 @@ import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.Base64;
@@ -197,6 +198,20 @@ public class TermedRequester {
         return mapExceptions(() -> restTemplate.exchange(createUrl(path, parameters), method, new HttpEntity<>(body, createHeaders(username, password, contentType)), responseType).getBody());
     }
 
+    /**
+     * Executes request and passes the response to the extractor without reading the
+     * body into memory first. Extractor is called while the connection is open.
+     */
+    public <TResponse> @Nullable TResponse stream(@NotNull String path,
+                                                  @NotNull HttpMethod method,
+                                                  @NotNull Parameters parameters,
+                                                  @NotNull TermedContentType contentType,
+                                                  @NotNull ResponseExtractor<TResponse> responseExtractor) {
+        logger.debug("Termed request: " + method.toString() + ":" + path);
+        HttpHeaders headers = createHeaders(termedUser, termedPassword, contentType);
+        return mapExceptions(() -> restTemplate.execute(createUrl(path, parameters), method, request -> request.getHeaders().addAll(headers), responseExtractor));
+    }
+
     private static <T> T mapExceptions(Supplier<T> supplier) {
         boolean success = false;
         try {
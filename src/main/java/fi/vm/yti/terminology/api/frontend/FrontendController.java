@@ -42,6 +42,7 @@ import fi.vm.yti.terminology.api.exception.NamespaceInUseException;
 import fi.vm.yti.terminology.api.exception.VocabularyNotFoundException;
 import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchRequest;
 import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchResponse;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSuggestionDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.CountDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.CountSearchResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.CreateVersionDTO;
@@ -49,6 +50,7 @@ import fi.vm.yti.terminology.api.frontend.searchdto.CreateVersionResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.StatusCountSearchResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchRequest;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchResponse;
+import fi.vm.yti.terminology.api.importapi.ImportStatusResponse;
 import fi.vm.yti.terminology.api.model.termed.GenericDeleteAndSave;
 import fi.vm.yti.terminology.api.model.termed.GenericNode;
 import fi.vm.yti.terminology.api.model.termed.GenericNodeInlined;
@@ -79,6 +81,8 @@ public class FrontendController {
 
     private static final Logger logger = LoggerFactory.getLogger(FrontendController.class);
 
+    private static final int MAX_SUGGESTIONS = 50;
+
     public FrontendController(FrontendTermedService termedService,
                               FrontendElasticSearchService elasticSearchService,
                               FrontendGroupManagementService groupManagementService,
@@ -488,6 +492,21 @@ public class FrontendController {
         return elasticSearchService.searchConcept(request);
     }
 
+    @Operation(summary = "Suggest concepts", description = "Type-ahead suggestions for concepts whose label or alternative label starts with the query")
+    @ApiResponse(responseCode = "200", description = "Id, label and terminology of suggested concepts as JSON")
+    @GetMapping(path = "/suggestConcept", produces = APPLICATION_JSON_VALUE)
+    List<ConceptSuggestionDTO> suggestConcept(
+            @Parameter(description = "Beginning of a word of the label") @RequestParam String query,
+            @Parameter(description = "Languages of the labels") @RequestParam(required = false, defaultValue = "fi,sv,en") List<String> language,
+            @Parameter(description = "Limit suggestions to these terminologies") @RequestParam(required = false) List<String> terminologyId,
+            @Parameter(description = "Maximum number of suggestions, at most " + MAX_SUGGESTIONS) @RequestParam(required = false, defaultValue = "10") int size) {
+        logger.debug("GET /suggestConcept requested with query: " + query);
+        return elasticSearchService.suggestConcept(query,
+                language,
+                terminologyId != null ? terminologyId : Collections.emptyList(),
+                Math.max(1, Math.min(size, MAX_SUGGESTIONS)));
+    }
+
     @Operation(summary = "Search for terminologies", description = "Make a terminology search query based on query object")
     @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Terminology search query object as JSON")
     @ApiResponse(responseCode = "200", description = "Terminology search response container object as JSON")
@@ -525,7 +544,7 @@ public class FrontendController {
 
     @Operation(summary = "New version", description = "Creates new version of the terminology")
     @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Terminology's uri and new prefix")
-    @ApiResponse(responseCode = "200", description = "")
+    @ApiResponse(responseCode = "200", description = "Id and URI of the new version and token for following its creation")
     @RequestMapping(value = "/createVersion", method = POST, produces = APPLICATION_JSON_VALUE)
     CreateVersionResponse createTerminologyVersion(@RequestBody CreateVersionDTO createVersionDTO) {
 
@@ -542,6 +561,14 @@ public class FrontendController {
         }
     }
 
+    @Operation(summary = "New version status", description = "Returns status of a new version being created")
+    @ApiResponse(responseCode = "200", description = "Status and progress of the new version")
+    @RequestMapping(value = "/createVersion/status", method = GET, produces = APPLICATION_JSON_VALUE)
+    ImportStatusResponse getCreateVersionStatus(@Parameter(description = "The job token returned by createVersion") @RequestParam UUID jobToken) {
+        logger.info("GET /createVersion/status requested");
+        return termedService.getVersionStatus(jobToken);
+    }
+
     @Operation(summary = "Get status counts", description = "Return status counts for concepts and terms of a terminology")
     @ApiResponse(responseCode = "200", description = "JSON list of status counts of concepts and terms")
     @RequestMapping(value = "/statusCounts", method = GET, produces = APPLICATION_JSON_VALUE)
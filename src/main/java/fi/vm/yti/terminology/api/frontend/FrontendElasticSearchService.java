@@ -10,6 +10,8 @@ import fi.vm.yti.terminology.api.util.RestHighLevelClientWrapper;
 import org.apache.http.HttpHost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Request;
@@ -24,10 +26,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.vm.yti.security.AuthenticatedUserProvider;
 import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptQueryFactory;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptSuggestQueryFactory;
 import fi.vm.yti.terminology.api.frontend.elasticqueries.DeepConceptQueryFactory;
 import fi.vm.yti.terminology.api.frontend.elasticqueries.TerminologyQueryFactory;
 import fi.vm.yti.terminology.api.util.Parameters;
@@ -49,31 +53,50 @@ public class FrontendElasticSearchService {
     private final DeepConceptQueryFactory deepConceptQueryFactory;
     private final CountQueryFactory countQueryFactory;
     private final ConceptQueryFactory conceptQueryFactory;
+    private final ConceptSuggestQueryFactory conceptSuggestQueryFactory;
+    private final OrganizationVisibilityCache visibilityCache;
+    private final SearchResultCache resultCache;
+    private final boolean deepConceptCollapse;
 
     @Autowired
     public FrontendElasticSearchService(@Value("${search.index.name}") String indexName,
                                         @Value("${search.index.mapping.type}") String indexMappingType,
                                         @Value("${namespace.root}") String namespaceRoot,
+                                        @Value("${search.deepConcept.collapse:false}") boolean deepConceptCollapse,
                                         RestHighLevelClientWrapper esRestClient,
                                         ObjectMapper objectMapper,
-                                        AuthenticatedUserProvider userProvider) {
+                                        AuthenticatedUserProvider userProvider,
+                                        OrganizationVisibilityCache visibilityCache,
+                                        SearchResultCache resultCache) {
         this.indexName = indexName;
         this.indexMappingType = indexMappingType;
         this.esRestClient = esRestClient;
         this.objectMapper = objectMapper;
         this.userProvider = userProvider;
+        this.visibilityCache = visibilityCache;
+        this.resultCache = resultCache;
+        this.deepConceptCollapse = deepConceptCollapse;
         this.terminologyQueryFactory = new TerminologyQueryFactory(objectMapper);
         this.deepConceptQueryFactory = new DeepConceptQueryFactory(objectMapper);
         this.conceptQueryFactory = new ConceptQueryFactory(objectMapper, namespaceRoot);
+        this.conceptSuggestQueryFactory = new ConceptSuggestQueryFactory(objectMapper);
         this.countQueryFactory = new CountQueryFactory(objectMapper);
     }
 
     ConceptSearchResponse searchConcept(ConceptSearchRequest request) {
         request.setQuery(request.getQuery() != null ? request.getQuery().trim() : "");
+        final boolean superUser = superUser();
+        final Set<String> privilegedOrganizations = superUser ? Collections.emptySet() : readOrganizations();
+        return resultCache.get("concept", visibilityScope(superUser, privilegedOrganizations), request,
+                ConceptSearchResponse.class, () -> doSearchConcept(request, superUser, privilegedOrganizations));
+    }
+
+    private ConceptSearchResponse doSearchConcept(ConceptSearchRequest request,
+                                                  boolean superUser,
+                                                  Set<String> privilegedOrganizations) {
         try {
-            final boolean superUser = superUser();
             SearchRequest query = conceptQueryFactory.createQuery(request, superUser, limit ->
-                superUser ? Collections.emptySet() : terminologiesMatchingOrganizations(readOrganizations(), limit)
+                superUser ? Collections.emptySet() : terminologiesMatchingOrganizations(privilegedOrganizations, limit)
             );
             SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
             return conceptQueryFactory.parseResponse(response, request);
@@ -82,27 +105,66 @@ public class FrontendElasticSearchService {
         }
     }
 
+    List<ConceptSuggestionDTO> suggestConcept(String query,
+                                              List<String> languages,
+                                              List<String> terminologyIds,
+                                              int size) {
+        final String prefix = query != null ? query.trim() : "";
+        if (prefix.isEmpty() || languages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final boolean superUser = superUser();
+        final Set<String> privilegedOrganizations = superUser ? Collections.emptySet() : readOrganizations();
+        return resultCache.get("suggest", visibilityScope(superUser, privilegedOrganizations),
+                List.of(prefix, languages, terminologyIds, size), new TypeReference<List<ConceptSuggestionDTO>>() {}, () -> {
+                    Set<String> contributorTerminologies = superUser ?
+                            Collections.emptySet() :
+                            terminologiesMatchingOrganizations(privilegedOrganizations, null);
+                    SearchRequest request = conceptSuggestQueryFactory.createQuery(
+                            prefix, languages, terminologyIds, superUser, contributorTerminologies, size);
+                    try {
+                        SearchResponse response = esRestClient.search(request, RequestOptions.DEFAULT);
+                        return conceptSuggestQueryFactory.parseResponse(response, size);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
     TerminologySearchResponse searchTerminology(TerminologySearchRequest request) {
         request.setQuery(request.getQuery() != null ? request.getQuery().trim() : "");
-
         boolean superUser = superUser();
         Set<String> privilegedOrganizations = superUser ? Collections.emptySet() : readOrganizations();
+        return resultCache.get("terminology", visibilityScope(superUser, privilegedOrganizations), request,
+                TerminologySearchResponse.class, () -> doSearchTerminology(request, superUser, privilegedOrganizations));
+    }
+
+    private TerminologySearchResponse doSearchTerminology(TerminologySearchRequest request,
+                                                          boolean superUser,
+                                                          Set<String> privilegedOrganizations) {
 
         Map<String, List<DeepSearchHitListDTO<?>>> deepSearchHits = null;
         if (request.isSearchConcepts() && !request.getQuery().isEmpty()) {
+            if (deepConceptCollapse) {
+                return searchTerminologyWithCollapsedConcepts(request, superUser, privilegedOrganizations);
+            }
             try {
                 Set<String> incompleteFromTerminologies = superUser ?
                         Collections.emptySet() :
-                        terminologiesMatchingOrganizations(privilegedOrganizations, null);
-                SearchRequest query = deepConceptQueryFactory.createQuery(
-                        request.getQuery(),
-                        request.getStatuses(),
-                        request.getPrefLang(),
-                        superUser,
-                        incompleteFromTerminologies);
-                // logger.debug("deepConceptQuery: " + query.toString());
-                SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
-                deepSearchHits = deepConceptQueryFactory.parseResponse(response, request);
+                        cachedTerminologiesMatchingOrganizations(privilegedOrganizations);
+                if (incompleteFromTerminologies != null) {
+                    // Contributor terminologies are known, INCOMPLETE content is filtered in the query
+                    SearchRequest query = deepConceptQueryFactory.createQuery(
+                            request.getQuery(),
+                            request.getStatuses(),
+                            request.getPrefLang(),
+                            superUser,
+                            incompleteFromTerminologies);
+                    SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
+                    deepSearchHits = deepConceptQueryFactory.parseResponse(response, request);
+                } else {
+                    deepSearchHits = searchConceptsWithOrganizations(request, privilegedOrganizations);
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -124,37 +186,95 @@ public class FrontendElasticSearchService {
         }
     }
 
-    CountSearchResponse getCounts() {
-        SearchRequest query = countQueryFactory.createQuery();
+    /**
+     * Deep concept search with field collapsing. Instead of aggregating top concept hits of all
+     * matching terminologies, only ids of the terminologies are aggregated first. Top concept
+     * hits are then fetched with collapse and inner_hits for the terminologies on the result page.
+     */
+    private TerminologySearchResponse searchTerminologyWithCollapsedConcepts(TerminologySearchRequest request,
+                                                                             boolean superUser,
+                                                                             Set<String> privilegedOrganizations) {
+        Set<String> incompleteFromTerminologies = superUser ?
+                Collections.emptySet() :
+                terminologiesMatchingOrganizations(privilegedOrganizations, null);
         try {
-            SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
-            logger.debug(response.toString());
-            return countQueryFactory.parseResponse(response);
+            SearchRequest idsQuery = deepConceptQueryFactory.createTerminologyIdsQuery(
+                    request.getQuery(),
+                    request.getStatuses(),
+                    superUser,
+                    incompleteFromTerminologies);
+            Set<String> conceptTerminologyIds = deepConceptQueryFactory.parseTerminologyIdsResponse(
+                    esRestClient.search(idsQuery, RequestOptions.DEFAULT));
+            logger.debug("Deep concept search resulted in " + conceptTerminologyIds.size() + " terminology matches");
+
+            SearchRequest finalQuery = conceptTerminologyIds.isEmpty() ?
+                    terminologyQueryFactory.createQuery(request, superUser, privilegedOrganizations) :
+                    terminologyQueryFactory.createQuery(request, conceptTerminologyIds, superUser, privilegedOrganizations);
+            SearchResponse response = esRestClient.search(finalQuery, RequestOptions.DEFAULT);
+            TerminologySearchResponse ret = terminologyQueryFactory.parseResponse(response, request, new HashMap<>());
+
+            List<String> pageTerminologyIds = ret.getTerminologies().stream()
+                    .map(TerminologyDTO::getId)
+                    .filter(conceptTerminologyIds::contains)
+                    .collect(Collectors.toList());
+            if (!pageTerminologyIds.isEmpty()) {
+                SearchRequest collapsedQuery = deepConceptQueryFactory.createCollapsedQuery(
+                        request.getQuery(),
+                        request.getStatuses(),
+                        superUser,
+                        incompleteFromTerminologies,
+                        pageTerminologyIds);
+                SearchResponse collapsedResponse = esRestClient.search(collapsedQuery, RequestOptions.DEFAULT);
+                ret.setDeepHits(deepConceptQueryFactory.parseCollapsedResponse(collapsedResponse, request));
+            }
+            return ret;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Counts do not depend on the user, as INCOMPLETE content is never counted. Like the other
+     * counts, aggregations are computed once per index generation and served from the result
+     * cache until documents in the index change.
+     */
+    CountSearchResponse getCounts() {
+        return resultCache.get("counts", "*", "", CountSearchResponse.class, () -> {
+            SearchRequest query = countQueryFactory.createQuery();
+            try {
+                SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
+                logger.debug(response.toString());
+                return countQueryFactory.parseResponse(response);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     CountSearchResponse getVocabularyCounts() {
-        SearchRequest query = countQueryFactory.createVocabularyCountQuery();
-        try {
-            SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
-            return countQueryFactory.parseResponse(response);
-        } catch (IOException e) {
-            logger.error("Error fetching vocabulary counts", e);
-            throw new RuntimeException(e);
-        }
+        return resultCache.get("vocabularyCounts", "*", "", CountSearchResponse.class, () -> {
+            SearchRequest query = countQueryFactory.createVocabularyCountQuery();
+            try {
+                SearchResponse response = esRestClient.search(query, RequestOptions.DEFAULT);
+                return countQueryFactory.parseResponse(response);
+            } catch (IOException e) {
+                logger.error("Error fetching vocabulary counts", e);
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     CountSearchResponse getConceptCounts(UUID vocabularyId)  {
-        SearchRequest request = countQueryFactory.createConceptCountQuery(vocabularyId);
-        try {
-            SearchResponse response = esRestClient.search(request, RequestOptions.DEFAULT);
-            return countQueryFactory.parseResponse(response);
-        } catch (IOException e) {
-            logger.error("Error fetching concept counts", e);
-            throw new RuntimeException(e);
-        }
+        return resultCache.get("conceptCounts", "*", vocabularyId, CountSearchResponse.class, () -> {
+            SearchRequest request = countQueryFactory.createConceptCountQuery(vocabularyId);
+            try {
+                SearchResponse response = esRestClient.search(request, RequestOptions.DEFAULT);
+                return countQueryFactory.parseResponse(response);
+            } catch (IOException e) {
+                logger.error("Error fetching concept counts", e);
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     TerminologySearchResponse findTerminology(UUID terminologyId) {
@@ -172,6 +292,17 @@ public class FrontendElasticSearchService {
         return userProvider.getUser().isSuperuser();
     }
 
+    /**
+     * Callers with equal visibility scope see the same search results: super users see
+     * everything, others see INCOMPLETE content of their organizations.
+     */
+    private static String visibilityScope(boolean superUser, Set<String> privilegedOrganizations) {
+        if (superUser) {
+            return "*";
+        }
+        return String.join(",", new TreeSet<>(privilegedOrganizations));
+    }
+
     private Set<String> readOrganizations() {
         // Any role is OK for reading (viewing data).
         return userProvider.getUser().getRolesInOrganizations().entrySet().stream()
@@ -180,19 +311,67 @@ public class FrontendElasticSearchService {
             .collect(Collectors.toSet());
     }
 
+    /**
+     * Resolves contributor terminologies and executes the deep concept query in a single
+     * multi search, so that the queries are run at the same time. INCOMPLETE concepts are
+     * filtered when parsing the concept response.
+     */
+    private Map<String, List<DeepSearchHitListDTO<?>>> searchConceptsWithOrganizations(TerminologySearchRequest request,
+                                                                                     Set<String> privilegedOrganizations) throws IOException {
+        long generation = visibilityCache.generation();
+        MultiSearchRequest multiSearch = new MultiSearchRequest()
+                .add(terminologyQueryFactory.createMatchingTerminologiesQuery(privilegedOrganizations, null))
+                .add(deepConceptQueryFactory.createQuery(
+                        request.getQuery(),
+                        request.getStatuses(),
+                        request.getPrefLang()));
+        MultiSearchResponse.Item[] responses = esRestClient.msearch(multiSearch, RequestOptions.DEFAULT).getResponses();
+
+        Set<String> incompleteFromTerminologies = Collections.emptySet();
+        if (responses[0].isFailure()) {
+            logger.error("Failed to resolve terminologies based on contributors", responses[0].getFailure());
+        } else {
+            incompleteFromTerminologies = terminologyQueryFactory.parseMatchingTerminologiesResponse(responses[0].getResponse());
+            visibilityCache.put(privilegedOrganizations, incompleteFromTerminologies, generation);
+        }
+        if (responses[1].isFailure()) {
+            throw new IOException("Deep concept query failed", responses[1].getFailure());
+        }
+        return deepConceptQueryFactory.parseResponse(responses[1].getResponse(), request, incompleteFromTerminologies);
+    }
+
+    /**
+     * @return contributor terminologies from cache, empty set if user has no organizations
+     * or null if not cached
+     */
+    private Set<String> cachedTerminologiesMatchingOrganizations(Collection<String> privilegedOrganizations) {
+        if (privilegedOrganizations.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return visibilityCache.getIfPresent(privilegedOrganizations);
+    }
+
     private Set<String> terminologiesMatchingOrganizations(Collection<String> privilegedOrganizations,
                                                            Collection<String> limitToThese) {
-        try {
-            if (privilegedOrganizations.isEmpty()) {
+        Set<String> terminologies = cachedTerminologiesMatchingOrganizations(privilegedOrganizations);
+        if (terminologies == null) {
+            try {
+                long generation = visibilityCache.generation();
+                SearchRequest sr = terminologyQueryFactory.createMatchingTerminologiesQuery(privilegedOrganizations, null);
+                logger.debug("terminologiesMatchingOrganizations query: " + sr.toString());
+                SearchResponse response = esRestClient.search(sr, RequestOptions.DEFAULT);
+                terminologies = terminologyQueryFactory.parseMatchingTerminologiesResponse(response);
+                visibilityCache.put(privilegedOrganizations, terminologies, generation);
+            } catch (Exception e) {
+                logger.error("Failed to resolve terminologies based on contributors", e);
                 return Collections.emptySet();
             }
-            SearchRequest sr = terminologyQueryFactory.createMatchingTerminologiesQuery(privilegedOrganizations, limitToThese);
-            logger.debug("terminologiesMatchingOrganizations query: " + sr.toString());
-            SearchResponse response = esRestClient.search(sr, RequestOptions.DEFAULT);
-            return terminologyQueryFactory.parseMatchingTerminologiesResponse(response);
-        } catch (Exception e) {
-            logger.error("Failed to resolve terminologies based on contributors", e);
         }
-        return Collections.emptySet();
+        if (limitToThese != null && !limitToThese.isEmpty()) {
+            return terminologies.stream()
+                    .filter(limitToThese::contains)
+                    .collect(Collectors.toSet());
+        }
+        return terminologies;
     }
 }
@@ -11,6 +11,7 @@ import fi.vm.yti.terminology.api.TermedRequester;
 import fi.vm.yti.terminology.api.exception.NamespaceInUseException;
 import fi.vm.yti.terminology.api.exception.NodeNotFoundException;
 import fi.vm.yti.terminology.api.exception.VocabularyNotFoundException;
+import fi.vm.yti.terminology.api.importapi.ImportStatusResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.CreateVersionDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.CreateVersionResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.StatusCountDTO;
@@ -33,7 +34,6 @@ import org.springframework.stereotype.Service;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -54,12 +54,11 @@ public class FrontendTermedService {
     private static final Logger logger = LoggerFactory.getLogger(FrontendTermedService.class);
 
     private static final String USER_PASSWORD = "user";
-    private static final Pattern UUID_PATTERN = Pattern
-            .compile("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
-    private static final Object USER_LOCK = new Object();
 
     private final TermedRequester termedRequester;
-    private final FrontendGroupManagementService groupManagementService;
+    private final UserDirectory userDirectory;
+    private final TermedUserRegistry termedUserRegistry;
+    private final VocabularyVersionService versionService;
     private final AuthenticatedUserProvider userProvider;
     private final AuthorizationManager authorizationManager;
     private final String namespaceRoot;
@@ -69,13 +68,17 @@ public class FrontendTermedService {
     private final Cache<String, JsonNode> nodeListCache;
 
     @Autowired
-    public FrontendTermedService(TermedRequester termedRequester, FrontendGroupManagementService groupManagementService,
-            AuthenticatedUserProvider userProvider, AuthorizationManager authorizationManager,
+    public FrontendTermedService(TermedRequester termedRequester, UserDirectory userDirectory,
+            TermedUserRegistry termedUserRegistry, VocabularyVersionService versionService,
+            AuthenticatedUserProvider userProvider,
+            AuthorizationManager authorizationManager,
             @Value("${namespace.root}") String namespaceRoot,
             @Value("${termed.cache.expiration:1800}") Long cacheExpireTime,
             fi.vm.yti.terminology.api.mscr.PIDService PIDService) {
         this.termedRequester = termedRequester;
-        this.groupManagementService = groupManagementService;
+        this.userDirectory = userDirectory;
+        this.termedUserRegistry = termedUserRegistry;
+        this.versionService = versionService;
         this.userProvider = userProvider;
         this.authorizationManager = authorizationManager;
         this.namespaceRoot = namespaceRoot;
@@ -127,8 +130,7 @@ public class FrontendTermedService {
         if (result.isEmpty()) {
             throw new NodeNotFoundException(graphId, asList(NodeType.Vocabulary, NodeType.TerminologicalVocabulary));
         } else {
-            return userNameToDisplayName(result.get(0), new UserIdToDisplayNameMapper(),
-                    authorizationManager.isUserPartOfOrganization(graphId));
+            return userNameToDisplayName(result.get(0), authorizationManager.isUserPartOfOrganization(graphId));
         }
     }
 
@@ -266,8 +268,7 @@ public class FrontendTermedService {
             if(!isPartOfOrganization){
                 node.getProperties().remove("editorialNote");
             }
-            return userNameToDisplayName(node, new UserIdToDisplayNameMapper(),
-                    isPartOfOrganization);
+            return userNameToDisplayName(node, isPartOfOrganization);
         }
     }
 
@@ -298,8 +299,7 @@ public class FrontendTermedService {
         if (result.size() == 0) {
             throw new NodeNotFoundException(graphId, collectionId);
         } else {
-            return userNameToDisplayName(result.get(0), new UserIdToDisplayNameMapper(),
-                    authorizationManager.isUserPartOfOrganization(graphId));
+            return userNameToDisplayName(result.get(0), authorizationManager.isUserPartOfOrganization(graphId));
         }
     }
 
@@ -357,6 +357,34 @@ public class FrontendTermedService {
                 }));
     }
 
+    /**
+     * Fetches given references of all concepts in the graph with a single query.
+     *
+     * @return referenced node identifiers of each concept, keyed by concept id
+     */
+    public @NotNull Map<UUID, List<Identifier>> getConceptReferences(UUID graphId, Collection<String> referenceNames) {
+        Parameters params = new Parameters();
+        params.add("select", "id");
+        params.add("select", "type");
+        referenceNames.forEach(name -> params.add("select", "references." + name));
+        params.add("where", "graph.id:" + graphId);
+        params.add("where", "type.id:" + NodeType.Concept);
+        params.add("max", "-1");
+
+        List<GenericNodeInlined> result = requireNonNull(termedRequester.exchange("/node-trees", GET, params,
+                new ParameterizedTypeReference<List<GenericNodeInlined>>() {
+                }));
+
+        Map<UUID, List<Identifier>> conceptReferences = new HashMap<>(result.size() * 2);
+        for (GenericNodeInlined concept : result) {
+            List<Identifier> identifiers = new ArrayList<>();
+            referenceNames.forEach(name -> concept.getReferences().getOrDefault(name, emptyList())
+                    .forEach(ref -> identifiers.add(ref.getIdentifier())));
+            conceptReferences.put(concept.getId(), identifiers);
+        }
+        return conceptReferences;
+    }
+
     @NotNull
     public JsonNode getNodeListWithoutReferencesOrReferrers(NodeType nodeType) {
 
@@ -512,7 +540,11 @@ public class FrontendTermedService {
         return requireNonNull(termedRequester.exchange("/graphs/" + graphId, GET, Parameters.empty(), Graph.class));
     }
 
-    public CreateVersionResponse createVersion(CreateVersionDTO createVersionDTO) throws Exception {
+    /**
+     * Checks the request and starts copying the vocabulary in the background. Status of the
+     * copy can be followed with the job token of the response.
+     */
+    public CreateVersionResponse createVersion(CreateVersionDTO createVersionDTO) {
         logger.info("Creating new version from vocabulary {}. New prefix {}",
                 createVersionDTO.getGraphId(), createVersionDTO.getNewCode());
 
@@ -522,80 +554,23 @@ public class FrontendTermedService {
             throw new NamespaceInUseException();
         }
 
-        Dump dump = termedRequester.exchange("/graphs/" + createVersionDTO.getGraphId() + "/dump",
-                GET, Parameters.empty(), Dump.class);
+        Graph oldGraph = termedRequester.exchange("/graphs/" + createVersionDTO.getGraphId(),
+                GET, Parameters.empty(), Graph.class);
 
-        if (dump == null || dump.getGraphs().isEmpty()) {
+        if (oldGraph == null) {
             throw new VocabularyNotFoundException(createVersionDTO.getGraphId());
         }
 
-        Graph oldGraph = dump.getGraphs().get(0);
         UUID newGraphId = UUID.randomUUID();
-        String PID = PIDService.mint(newGraphId.toString());
-        
-        
-        Graph graph = new Graph(newGraphId,
-                createVersionDTO.getNewCode(),
-                PID,
-                oldGraph.getRoles(),
-                oldGraph.getPermissions(),
-                oldGraph.getProperties());
-
-        List<MetaNode> metaNodes = dump.getTypes().stream().map(t -> new MetaNode(
-                t.getId(),
-                t.getUri(),
-                t.getIndex(),
-                t.getGraph(),
-                t.getPermissions(),
-                t.getProperties(),
-                t.getTextAttributes(),
-                t.getReferenceAttributes())
-            .copyToGraph(newGraphId)
-        ).collect(Collectors.toList());
-
-        // Create id map for saving references
-        Map<UUID, UUID> nodeIdMap = new HashMap<>();
-        dump.getNodes().stream().forEach(n -> nodeIdMap.put(n.getId(), UUID.randomUUID()));
-        dump.getNodes().stream().forEach(n -> System.out.println(n.getUri() + " " + n.getId()));
-        
-
-        List<GenericNode> nodes = dump.getNodes().stream().map(n -> new GenericNode(
-                nodeIdMap.get(n.getId()),
-                n.getCode(),
-                (n.getUri().contains("@concept") ? PID + "@concept=" + nodeIdMap.get(n.getId()) : PID) ,
-                n.getNumber(),
-                n.getCreatedBy(),
-                n.getCreatedDate(),
-                n.getLastModifiedBy(),
-                n.getLastModifiedDate(),
-                n.getType(),
-                getNewVersionProperties(n),
-                n.getReferences(),
-                n.getReferrers())
-            .copyAllToGraph(newGraphId, nodeIdMap)
-        ).collect(Collectors.toList());	
-
-        Dump newVersion = new Dump(asList(graph), metaNodes, nodes);
-
-        try {
-            UUID username = ensureTermedUser(null);
-            termedRequester.exchange("/dump", POST, Parameters.empty(), String.class,
-                    newVersion, username.toString(), USER_PASSWORD);
-        } catch (Exception e) {
-            logger.error("Error creating new version", e);
-
-            try {
-                // If an error occurs, graph has been created in some cases. Try to delete that
-                removeTypes(newGraphId, getTypes(newGraphId));
-                deleteGraph(newGraphId);
-            } catch (Exception ex) {
-                logger.error("Cannot delete graph " + newGraphId, ex);
-            }
+        UUID username = ensureTermedUser(null);
+        UUID jobToken = versionService.start(createVersionDTO.getGraphId(), newGraphId,
+                createVersionDTO.getNewCode(), username.toString());
 
-            throw e;
-        }
+        return new CreateVersionResponse(newGraphId, formatNamespace(createVersionDTO.getNewCode()), jobToken);
+    }
 
-        return new CreateVersionResponse(newGraphId, formatNamespace(createVersionDTO.getNewCode()));
+    public ImportStatusResponse getVersionStatus(UUID jobToken) {
+        return versionService.getStatus(jobToken);
     }
 
     public void flushCache() {
@@ -603,45 +578,6 @@ public class FrontendTermedService {
         nodeListCache.invalidateAll();
     }
 
-    private Map<String, List<Attribute>> getNewVersionProperties(GenericNode node) {
-        Map<String, List<Attribute>> properties = new HashMap<>();
-        var originalProperties = node.getProperties();
-
-        originalProperties.keySet().stream().forEach(key -> {
-
-            var originalAttributes = originalProperties.get(key);
-
-            // change all statuses to DRAFT
-            if ("status".equals(key)) {
-                var newAttributes = originalAttributes.stream().map(att ->
-                   new Attribute(att.getLang(), "DRAFT", null)
-                ).collect(Collectors.toList());
-
-                properties.put(key, newAttributes);
-            } else if ("prefLabel".equals(key) && isVocabulary(node)) {
-                var newAttributes = originalAttributes.stream().map(att ->
-                        new Attribute(att.getLang(), att.getValue() + " (Copy)", null)
-                ).collect(Collectors.toList());
-
-                properties.put(key, newAttributes);
-            } else {
-                properties.put(key, originalAttributes);
-            }
-        });
-
-        // store origin of new version
-        if (isVocabulary(node)) {
-            properties.put("origin", List.of(new Attribute("", node.getUri())));
-        }
-
-        return properties;
-    }
-
-    private boolean isVocabulary(Node node) {
-        return asList(NodeType.TerminologicalVocabulary, NodeType.Vocabulary)
-                .contains(node.getType().getId());
-    }
-
     public @NotNull List<Identifier> getAllNodeIdentifiers(Set<UUID> graphIds) {
 
         Parameters params = new Parameters();
@@ -712,96 +648,68 @@ public class FrontendTermedService {
             throw new RuntimeException("Logged in user needed for the operation");
         }
 
-        if (findTermedUser(user) == null) {
-            synchronized (USER_LOCK) {
-                if (findTermedUser(user) == null) {
-                    createTermedUser(user, externalUserId);
-                }
-            }
-        }
-
-        if (externalUserId != null) {
-            return externalUserId;
-        } else {
-            return user.getId();
-        }
-    }
-
-    private @Nullable TermedUser findTermedUser(YtiUser user) {
-        if (user == null || user.getId() == null) {
-            return null;
-        }
-        Parameters params = Parameters.single("username", user.getId().toString());
-        return termedRequester.exchange("/users", GET, params, TermedUser.class);
-    }
-
-    private void createTermedUser(YtiUser user, UUID externalUserId) {
-        Parameters params = Parameters.single("sync", "true");
-        String userIdForTermedUser = externalUserId == null ? user.getId().toString() : externalUserId.toString();
-        TermedUser termedUser = new TermedUser(userIdForTermedUser, USER_PASSWORD, "ADMIN");
-        logger.info("Creating termed user for: {}", userIdForTermedUser);
-        termedRequester.exchange("/users", POST, params, String.class, termedUser);
+        UUID username = externalUserId != null ? externalUserId : user.getId();
+        termedUserRegistry.ensure(username.toString());
+        return username;
     }
 
     private String formatNamespace(@NotNull String prefix) {
         return this.namespaceRoot + prefix + '/';
     }
 
+    private GenericNodeInlined userNameToDisplayName(GenericNodeInlined node, boolean mapUserNames) {
+        if (!mapUserNames) {
+            return userNameToDisplayName(node, (UserIdToDisplayNameMapper) null);
+        }
+        Set<String> userIds = new HashSet<>();
+        collectUserIds(node, userIds);
+        return userNameToDisplayName(node, new UserIdToDisplayNameMapper(userIds));
+    }
+
+    /**
+     * @param userIdToDisplayNameMapper null if user names are not shown
+     */
     private GenericNodeInlined userNameToDisplayName(GenericNodeInlined node,
-                                                     UserIdToDisplayNameMapper userIdToDisplayNameMapper,
-                                                     boolean mapUserNames) {
+                                                     @Nullable UserIdToDisplayNameMapper userIdToDisplayNameMapper) {
+        boolean mapUserNames = userIdToDisplayNameMapper != null;
         return new GenericNodeInlined(node.getId(), node.getCode(), node.getUri(), node.getNumber(),
                 mapUserNames ? userIdToDisplayNameMapper.map(node.getCreatedBy()) : null, node.getCreatedDate(),
                 mapUserNames ? userIdToDisplayNameMapper.map(node.getLastModifiedBy()) : null, node.getLastModifiedDate(),
                 node.getType(), node.getProperties(),
-                mapMapValues(node.getReferences(), x -> userNameToDisplayName(x, userIdToDisplayNameMapper, mapUserNames)),
-                mapMapValues(node.getReferrers(), x -> userNameToDisplayName(x, userIdToDisplayNameMapper, mapUserNames)));
+                mapMapValues(node.getReferences(), x -> userNameToDisplayName(x, userIdToDisplayNameMapper)),
+                mapMapValues(node.getReferrers(), x -> userNameToDisplayName(x, userIdToDisplayNameMapper)));
     }
 
-    private GenericNode userNameToDisplayName(GenericNode node, UserIdToDisplayNameMapper userIdToDisplayNameMapper) {
-
-        return new GenericNode(node.getId(), node.getCode(), node.getUri(), node.getNumber(),
-                userIdToDisplayNameMapper.map(node.getCreatedBy()), node.getCreatedDate(),
-                userIdToDisplayNameMapper.map(node.getLastModifiedBy()), node.getLastModifiedDate(), node.getType(),
-                node.getProperties(), node.getReferences(), node.getReferrers());
+    private static void collectUserIds(GenericNodeInlined node, Set<String> userIds) {
+        userIds.add(node.getCreatedBy());
+        userIds.add(node.getLastModifiedBy());
+        node.getReferences().values().forEach(nodes -> nodes.forEach(x -> collectUserIds(x, userIds)));
+        node.getReferrers().values().forEach(nodes -> nodes.forEach(x -> collectUserIds(x, userIds)));
     }
 
     private static <K, V> Map<K, List<V>> mapMapValues(Map<K, List<V>> map, Function<V, V> mapper) {
         return map.entrySet().stream().collect(toMap(Map.Entry::getKey, e -> mapToList(e.getValue(), mapper)));
     }
 
-    private static boolean isUUID(String s) {
-        return UUID_PATTERN.matcher(s).matches();
-    }
-
     private static void addGraphTypeIds(UUID graphId, Parameters params) {
         params.add("graphTypeId", graphId.toString());
         params.add("graphTypeId", DomainIndex.ORGANIZATION_DOMAIN.getGraphId().toString());
         params.add("graphTypeId", DomainIndex.GROUP_DOMAIN.getGraphId().toString());
     }
 
-    // XXX consider cache spanning to multiple requests
+    /**
+     * Display names of the users of one request, resolved in one batch from {@link UserDirectory}
+     */
     private class UserIdToDisplayNameMapper {
 
-        private final Map<String, String> cache = new HashMap<>();
+        private final Map<String, String> displayNames;
 
-        private String map(String userId) {
-            return cache.computeIfAbsent(userId, this::mapRemote);
+        private UserIdToDisplayNameMapper(Collection<String> userIds) {
+            this.displayNames = userDirectory.displayNames(userIds);
         }
 
-        private String mapRemote(String userId) {
-
-            if (!isUUID(userId)) {
-                return "";
-            }
-
-            GroupManagementUser user = groupManagementService.findUser(userId);
-
-            if (user != null) {
-                return user.getDisplayName();
-            } else {
-                return "";
-            }
+        private String map(String userId) {
+            return userId != null ? displayNames.getOrDefault(userId, "") : "";
         }
     }
 
@@ -0,0 +1,85 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+
+/**
+ * Terminologies where given organizations are contributors, used for showing INCOMPLETE
+ * content in search. Key is the sorted set of organization ids, so the same organizations
+ * in a different order share the entry. All entries are invalidated when documents in
+ * the vocabulary index change. The change event is published only after the write is
+ * searchable, so values loaded after the invalidation reflect it.
+ */
+@Component
+public class OrganizationVisibilityCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrganizationVisibilityCache.class);
+
+    private final Cache<String, Set<String>> cache;
+    /** Incremented on invalidation, values loaded before that are not stored */
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public OrganizationVisibilityCache(@Value("${search.visibility.cache.expiration:1800}") Long cacheExpireTime) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
+                .maximumSize(1000)
+                .build();
+    }
+
+    /**
+     * @return cached terminologies or null if not cached
+     */
+    public @Nullable Set<String> getIfPresent(@NotNull Collection<String> organizationIds) {
+        return cache.getIfPresent(key(organizationIds));
+    }
+
+    /**
+     * Current generation, read before loading a value for {@link #put}.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stores terminologies loaded for organizations unless the index has changed
+     * after given generation was read.
+     */
+    public void put(@NotNull Collection<String> organizationIds, @NotNull Set<String> terminologyIds, long loadedGeneration) {
+        String key = key(organizationIds);
+        cache.put(key, Set.copyOf(terminologyIds));
+        if (generation.get() != loadedGeneration) {
+            cache.invalidate(key);
+        }
+    }
+
+    @EventListener
+    public void onSearchIndexChanged(SearchIndexChangedEvent event) {
+        if (event.isVocabularyIndex()) {
+            generation.incrementAndGet();
+            cache.invalidateAll();
+            logger.debug("Organization visibility cache invalidated");
+        }
+    }
+
+    private static String key(Collection<String> organizationIds) {
+        return String.join(",", new TreeSet<>(organizationIds));
+    }
+}
@@ -0,0 +1,134 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Results of frontend searches. Key consists of the index generation, type of the search,
+ * visibility scope of the caller and the request serialized as JSON. Generation is
+ * incremented whenever documents in the search index change, so results read before
+ * the change are never returned.
+ *
+ * Results are cached as serialized JSON and every read gets its own copy, so callers may
+ * modify the returned result.
+ *
+ * Cache statistics are bound to the actuator metrics as "cache.*" meters with tag
+ * cache=searchResults, and hit ratio as "search.result.cache.hit.ratio".
+ */
+@Component
+public class SearchResultCache implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchResultCache.class);
+
+    static final String CACHE_NAME = "searchResults";
+
+    private final ObjectMapper objectMapper;
+    private final Cache<String, byte[]> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public SearchResultCache(ObjectMapper objectMapper,
+                             @Value("${search.result.cache.expiration:300}") Long cacheExpireTime,
+                             @Value("${search.result.cache.size:1000}") Long cacheSize) {
+        this.objectMapper = objectMapper;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+    }
+
+    public <T> T get(@NotNull String type, @NotNull String scope, @NotNull Object request,
+                     @NotNull Class<T> resultType, @NotNull Supplier<T> search) {
+        return get(type, scope, request, objectMapper.constructType(resultType), search);
+    }
+
+    public <T> T get(@NotNull String type, @NotNull String scope, @NotNull Object request,
+                     @NotNull TypeReference<T> resultType, @NotNull Supplier<T> search) {
+        return get(type, scope, request, objectMapper.getTypeFactory().constructType(resultType), search);
+    }
+
+    /**
+     * Returns cached result for the request or executes the search and caches its result.
+     *
+     * @param type  type of the search, requests of different searches may serialize equally
+     * @param scope visibility scope of the caller, callers with equal scope see the same results
+     */
+    private <T> T get(String type, String scope, Object request, JavaType resultType, Supplier<T> search) {
+        String key;
+        try {
+            key = generation.get() + "|" + type + "|" + scope + "|" + objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            logger.warn("Search request cannot be used as cache key", e);
+            return search.get();
+        }
+
+        try {
+            byte[] result = cache.get(key, () -> objectMapper.writeValueAsBytes(search.get()));
+            return objectMapper.readerFor(resultType)
+                    .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                    .readValue(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JsonProcessingException) {
+                throw new UncheckedIOException((JsonProcessingException) e.getCause());
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    @EventListener
+    public void onSearchIndexChanged(SearchIndexChangedEvent event) {
+        // Results cached with previous generation are never read again, drop them right away
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        logger.debug("Search result cache invalidated after change in index " + event.getIndex());
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        Gauge.builder("search.result.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .tags(Tags.of("cache", CACHE_NAME))
+                .description("Ratio of search requests served from cache")
+                .register(registry);
+    }
+}
@@ -0,0 +1,93 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.Striped;
+
+import fi.vm.yti.terminology.api.TermedRequester;
+import fi.vm.yti.terminology.api.util.Parameters;
+
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.POST;
+
+/**
+ * Usernames known to exist in Termed. Existing users are loaded when the application is ready
+ * and users found or created later are added, so only the first write of a new user goes to
+ * Termed before the actual write. Provisioning locks only the user being provisioned.
+ */
+@Component
+public class TermedUserRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TermedUserRegistry.class);
+
+    private static final String USER_PASSWORD = "user";
+
+    private final TermedRequester termedRequester;
+    private final Set<String> provisioned = ConcurrentHashMap.newKeySet();
+    private final Striped<Lock> locks = Striped.lazyWeakLock(64);
+
+    @Autowired
+    public TermedUserRegistry(TermedRequester termedRequester) {
+        this.termedRequester = termedRequester;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        try {
+            List<TermedUser> users = termedRequester.exchange("/users", GET, Parameters.empty(),
+                    new ParameterizedTypeReference<List<TermedUser>>() {});
+            if (users != null) {
+                users.forEach(user -> provisioned.add(user.getUsername()));
+                logger.info("Loaded " + users.size() + " termed users");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Loading termed users failed, users are provisioned on first use", e);
+        }
+    }
+
+    /**
+     * Creates Termed user with the given username unless it already exists
+     */
+    public void ensure(@NotNull String username) {
+        if (provisioned.contains(username)) {
+            return;
+        }
+        Lock lock = locks.get(username);
+        lock.lock();
+        try {
+            if (provisioned.contains(username)) {
+                return;
+            }
+            if (findTermedUser(username) == null) {
+                createTermedUser(username);
+            }
+            provisioned.add(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TermedUser findTermedUser(String username) {
+        Parameters params = Parameters.single("username", username);
+        return termedRequester.exchange("/users", GET, params, TermedUser.class);
+    }
+
+    private void createTermedUser(String username) {
+        Parameters params = Parameters.single("sync", "true");
+        TermedUser termedUser = new TermedUser(username, USER_PASSWORD, "ADMIN");
+        logger.info("Creating termed user for: {}", username);
+        termedRequester.exchange("/users", POST, params, String.class, termedUser);
+    }
+}
@@ -0,0 +1,153 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Display names of group management users shared by all requests. The whole user list is
+ * loaded with one request at startup and refreshed in the background.
+ *
+ * Users missing from the list, e.g. created after the last refresh, are resolved per request:
+ * a single missing user is fetched by id, several missing users are resolved with one reload
+ * of the list. If the list was reloaded too recently, missing users are fetched by id.
+ * Unknown users are remembered for a while, so that they are not requested again on every
+ * request.
+ */
+@Component
+public class UserDirectory {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserDirectory.class);
+
+    private static final Pattern UUID_PATTERN = Pattern
+            .compile("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+
+    private final FrontendGroupManagementService groupManagementService;
+    /** Reload of the list for missing users is not done more often than this */
+    private final long minReloadIntervalNanos;
+    /** Users resolved one by one, unknown users as empty display name */
+    private final Cache<String, String> resolved;
+
+    private volatile Map<String, String> displayNames = Map.of();
+    private volatile long loaded;
+
+    @Autowired
+    public UserDirectory(FrontendGroupManagementService groupManagementService,
+                         @Value("${groupmanagement.users.reload.interval:60}") Long minReloadInterval,
+                         @Value("${groupmanagement.users.cache.expiration:600}") Long cacheExpireTime) {
+        this.groupManagementService = groupManagementService;
+        this.minReloadIntervalNanos = TimeUnit.SECONDS.toNanos(minReloadInterval);
+        this.resolved = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
+                .maximumSize(10000)
+                .build();
+        this.loaded = System.nanoTime() - minReloadIntervalNanos;
+    }
+
+    /**
+     * Loads the user list right after startup and then periodically
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${groupmanagement.users.refresh:300000}")
+    public void refresh() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            logger.warn("Refreshing users from group management failed", e);
+        }
+    }
+
+    /**
+     * @return display names by user id, empty for unknown users and ids that are not UUIDs
+     */
+    public @NotNull Map<String, String> displayNames(@NotNull Collection<String> userIds) {
+        Map<String, String> result = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        collect(userIds, result, missing);
+
+        if (missing.size() > 1 && reloadIfOlderThanInterval()) {
+            Set<String> stillMissing = new LinkedHashSet<>();
+            collect(missing, result, stillMissing);
+            // list is current, so the rest are not known by group management
+            stillMissing.forEach(userId -> {
+                resolved.put(userId, "");
+                result.put(userId, "");
+            });
+            missing.clear();
+        }
+
+        // list was reloaded too recently or only one user is missing
+        for (String userId : missing) {
+            GroupManagementUser user = groupManagementService.findUser(userId);
+            String displayName = user != null ? user.getDisplayName() : "";
+            resolved.put(userId, displayName);
+            result.put(userId, displayName);
+        }
+        return result;
+    }
+
+    private void collect(Collection<String> userIds, Map<String, String> result, Set<String> missing) {
+        Map<String, String> current = displayNames;
+        for (String userId : userIds) {
+            if (userId == null || result.containsKey(userId)) {
+                continue;
+            }
+            if (!UUID_PATTERN.matcher(userId).matches()) {
+                result.put(userId, "");
+                continue;
+            }
+            String displayName = current.get(userId);
+            if (displayName == null) {
+                displayName = resolved.getIfPresent(userId);
+            }
+            if (displayName != null) {
+                result.put(userId, displayName);
+            } else {
+                missing.add(userId);
+            }
+        }
+    }
+
+    /**
+     * @return true if the list was reloaded by this or a concurrent caller
+     */
+    private boolean reloadIfOlderThanInterval() {
+        long before = loaded;
+        synchronized (this) {
+            if (loaded != before) {
+                return true;
+            }
+            if (System.nanoTime() - loaded < minReloadIntervalNanos) {
+                return false;
+            }
+            reload();
+            return true;
+        }
+    }
+
+    private synchronized void reload() {
+        List<GroupManagementUser> users = groupManagementService.getUsers();
+        Map<String, String> names = new HashMap<>(users.size() * 2);
+        users.forEach(user -> names.put(user.getId().toString(), user.getDisplayName()));
+        displayNames = names;
+        loaded = System.nanoTime();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded " + names.size() + " users from group management");
+        }
+    }
+}
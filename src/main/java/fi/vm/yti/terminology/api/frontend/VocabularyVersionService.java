@@ -0,0 +1,551 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.vm.yti.terminology.api.TermedContentType;
+import fi.vm.yti.terminology.api.TermedRequester;
+import fi.vm.yti.terminology.api.exception.VocabularyNotFoundException;
+import fi.vm.yti.terminology.api.importapi.ImportStatusMessage;
+import fi.vm.yti.terminology.api.importapi.ImportStatusResponse;
+import fi.vm.yti.terminology.api.importapi.ImportStatusResponse.ImportStatus;
+import fi.vm.yti.terminology.api.importapi.YtiMQService;
+import fi.vm.yti.terminology.api.model.termed.Attribute;
+import fi.vm.yti.terminology.api.model.termed.Dump;
+import fi.vm.yti.terminology.api.model.termed.GenericDeleteAndSave;
+import fi.vm.yti.terminology.api.model.termed.GenericNode;
+import fi.vm.yti.terminology.api.model.termed.Graph;
+import fi.vm.yti.terminology.api.model.termed.Identifier;
+import fi.vm.yti.terminology.api.model.termed.MetaNode;
+import fi.vm.yti.terminology.api.model.termed.Node;
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+import fi.vm.yti.terminology.api.model.termed.Property;
+import fi.vm.yti.terminology.api.mscr.PIDService;
+import fi.vm.yti.terminology.api.util.Parameters;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static org.springframework.http.HttpMethod.DELETE;
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.POST;
+import static org.springframework.http.HttpMethod.PUT;
+
+/**
+ * Creates new versions of vocabularies as background jobs. The dump of the source vocabulary
+ * is read twice as a stream, one node at a time, so memory use does not depend on vocabulary
+ * size. The first pass creates the graph, its types and the nodes without references, and the
+ * second pass patches the references when all nodes they may point to exist. Nodes are sent
+ * to Termed in chunks.
+ *
+ * Ids of copied nodes are derived from the new graph id and the original node id, so that
+ * references can be rewritten without keeping an id map.
+ *
+ * Status of a job is kept in the status queue like the status of imports, so it can be queried
+ * from any instance. The new graph is marked in progress until the copy is complete, and graphs
+ * whose job has not made progress for a while are removed, see {@link #removeAbandonedVersions()}.
+ */
+@Service
+public class VocabularyVersionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VocabularyVersionService.class);
+
+    private static final String USER_PASSWORD = "user";
+
+    static final String VERSION_JOB_PROPERTY = "versionJob";
+    static final String VERSION_JOB_UPDATED_PROPERTY = "versionJobUpdated";
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofMinutes(1);
+
+    private final TermedRequester termedRequester;
+    private final PIDService pidService;
+    private final TaskExecutor taskExecutor;
+    private final ObjectMapper objectMapper;
+    private final YtiMQService ytiMQService;
+    private final int chunkSize;
+    private final Duration abandonedAfter;
+
+    @Autowired
+    public VocabularyVersionService(TermedRequester termedRequester,
+                                    PIDService pidService,
+                                    @Qualifier("specificTaskExecutor") TaskExecutor taskExecutor,
+                                    ObjectMapper objectMapper,
+                                    YtiMQService ytiMQService,
+                                    @Value("${version.chunk.size:500}") int chunkSize,
+                                    @Value("${version.abandoned.after:1800}") long abandonedAfterSeconds) {
+        this.termedRequester = termedRequester;
+        this.pidService = pidService;
+        this.taskExecutor = taskExecutor;
+        this.objectMapper = objectMapper;
+        this.ytiMQService = ytiMQService;
+        this.chunkSize = chunkSize;
+        this.abandonedAfter = Duration.ofSeconds(abandonedAfterSeconds);
+    }
+
+    /**
+     * Starts copying the source vocabulary to a new graph
+     *
+     * @param username Termed user the nodes are saved as, must exist
+     * @return token for querying the status of the job
+     */
+    public @NotNull UUID start(@NotNull UUID sourceGraphId,
+                               @NotNull UUID newGraphId,
+                               @NotNull String newCode,
+                               @NotNull String username) {
+        UUID jobToken = UUID.randomUUID();
+        VersionJob job = new VersionJob(jobToken, newGraphId, username);
+        job.publish();
+        taskExecutor.execute(() -> run(job, sourceGraphId, newGraphId, newCode, username));
+        return jobToken;
+    }
+
+    public @NotNull ImportStatusResponse getStatus(@NotNull UUID jobToken) {
+        StringBuffer payload = new StringBuffer();
+        HttpStatus status = ytiMQService.getStatus(jobToken, payload);
+        ImportStatusResponse response = status != HttpStatus.NO_CONTENT
+                ? ImportStatusResponse.fromString(payload.toString())
+                : null;
+        if (response == null) {
+            response = new ImportStatusResponse();
+            response.setStatus(ImportStatus.NOT_FOUND);
+        }
+        return response;
+    }
+
+    /**
+     * Removes graphs left in progress by jobs that have stopped, e.g. because the instance running
+     * them was restarted. A running job updates the graph at least every {@link #HEARTBEAT_INTERVAL}
+     * while it saves nodes.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${version.abandoned.check:600000}")
+    void removeAbandonedVersions() {
+        List<Graph> graphs = termedRequester.exchange("/graphs", GET, Parameters.single("max", "-1"),
+                new ParameterizedTypeReference<List<Graph>>() {});
+        if (graphs == null) {
+            return;
+        }
+        Instant abandoned = Instant.now().minus(abandonedAfter);
+        for (Graph graph : graphs) {
+            String jobToken = propertyValue(graph, VERSION_JOB_PROPERTY);
+            String updated = propertyValue(graph, VERSION_JOB_UPDATED_PROPERTY);
+            if (jobToken == null || (updated != null && Instant.parse(updated).isAfter(abandoned))) {
+                continue;
+            }
+            logger.warn("Removing version {} abandoned by job {}", graph.getId(), jobToken);
+            try {
+                removeGraph(graph.getId());
+                ImportStatusResponse response = new ImportStatusResponse();
+                response.setStatus(ImportStatus.FAILURE);
+                response.addStatusMessage(new ImportStatusMessage(ImportStatusMessage.Level.ERROR, "Vocabulary",
+                        "Creating the version was interrupted"));
+                ytiMQService.setStatus(YtiMQService.STATUS_FAILED, jobToken, null, graph.getId().toString(),
+                        response.toString());
+            } catch (Exception e) {
+                logger.error("Cannot delete graph " + graph.getId(), e);
+            }
+        }
+    }
+
+    private static String propertyValue(Graph graph, String property) {
+        List<Property> values = graph.getProperties().get(property);
+        return values != null && !values.isEmpty() ? values.get(0).getValue() : null;
+    }
+
+    private void run(VersionJob job, UUID sourceGraphId, UUID newGraphId, String newCode, String username) {
+        logger.info("Creating version {} of vocabulary {}", newGraphId, sourceGraphId);
+        job.status = ImportStatus.PROCESSING;
+        job.publish();
+        try {
+            String pid = pidService.mint(newGraphId.toString());
+
+            NodeChunks saved = new NodeChunks(save -> post(new GenericDeleteAndSave(emptyList(), save), username),
+                    job::nodesSaved);
+            DumpReader createNodes = new DumpReader() {
+                @Override
+                void beforeNodes() {
+                    job.graph = createGraph(graph, types, newGraphId, newCode, pid, job);
+                }
+
+                @Override
+                void node(GenericNode node) {
+                    job.nodeRead();
+                    saved.add(copyWithoutReferences(node, sourceGraphId, newGraphId, pid));
+                }
+            };
+            readDump(sourceGraphId, createNodes);
+            if (createNodes.graph == null) {
+                throw new VocabularyNotFoundException(sourceGraphId);
+            }
+            saved.flush();
+            job.allRead();
+
+            NodeChunks patched = new NodeChunks(
+                    patch -> post(new GenericDeleteAndSave(emptyList(), emptyList(), patch), username),
+                    job::nodesSaved);
+            readDump(sourceGraphId, new DumpReader() {
+                @Override
+                void node(GenericNode node) {
+                    patched.add(copyReferences(node, sourceGraphId, newGraphId, pid));
+                }
+            });
+            patched.flush();
+
+            job.complete();
+            logger.info("Created version {} of vocabulary {} with {} nodes", newGraphId, sourceGraphId, saved.count);
+        } catch (Exception e) {
+            logger.error("Error creating new version", e);
+            try {
+                // graph may have been created, try to delete it
+                removeGraph(newGraphId);
+            } catch (Exception ex) {
+                logger.error("Cannot delete graph " + newGraphId, ex);
+            }
+            job.fail(e);
+        }
+    }
+
+    /**
+     * Reads graphs and types of the dump and passes nodes one at a time to the reader.
+     * Termed writes graphs and types before nodes.
+     */
+    void readDump(UUID graphId, DumpReader reader) {
+        termedRequester.stream("/graphs/" + graphId + "/dump", GET, Parameters.empty(), TermedContentType.JSON,
+                response -> {
+                    try (InputStream in = response.getBody()) {
+                        readDump(in, reader);
+                    }
+                    return null;
+                });
+    }
+
+    void readDump(InputStream in, DumpReader reader) throws IOException {
+        boolean nodesStarted = false;
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("graphs".equals(field)) {
+                    List<Graph> graphs = objectMapper.readValue(parser, new TypeReference<List<Graph>>() {});
+                    reader.graph = graphs.isEmpty() ? null : graphs.get(0);
+                } else if ("types".equals(field)) {
+                    if (nodesStarted) {
+                        throw new IllegalStateException("Types after nodes in dump");
+                    }
+                    reader.types = objectMapper.readValue(parser, new TypeReference<List<MetaNode>>() {});
+                } else if ("nodes".equals(field) && value == JsonToken.START_ARRAY) {
+                    if (reader.graph == null) {
+                        throw new IllegalStateException("Nodes before graph in dump");
+                    }
+                    nodesStarted = true;
+                    reader.beforeNodes();
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        reader.node(objectMapper.readValue(parser, GenericNode.class));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (!nodesStarted && reader.graph != null) {
+            reader.beforeNodes();
+        }
+    }
+
+    /**
+     * Creates the graph marked in progress by the job
+     *
+     * @return the graph without the marker
+     */
+    private Graph createGraph(Graph oldGraph, List<MetaNode> types, UUID newGraphId, String newCode, String pid,
+                              VersionJob job) {
+        Graph graph = new Graph(newGraphId,
+                newCode,
+                pid,
+                oldGraph.getRoles(),
+                oldGraph.getPermissions(),
+                oldGraph.getProperties());
+
+        List<MetaNode> metaNodes = new ArrayList<>(types.size());
+        types.forEach(type -> metaNodes.add(type.copyToGraph(newGraphId)));
+
+        termedRequester.exchange("/dump", POST, Parameters.empty(), String.class,
+                new Dump(asList(inProgress(graph, job.jobToken, Instant.now())), metaNodes, emptyList()),
+                job.username, USER_PASSWORD);
+        return graph;
+    }
+
+    private static Graph inProgress(Graph graph, UUID jobToken, Instant updated) {
+        Map<String, List<Property>> properties = new HashMap<>(graph.getProperties());
+        properties.put(VERSION_JOB_PROPERTY, List.of(new Property("", jobToken.toString())));
+        properties.put(VERSION_JOB_UPDATED_PROPERTY, List.of(new Property("", updated.toString())));
+        return new Graph(graph.getId(), graph.getCode(), graph.getUri(), graph.getRoles(), graph.getPermissions(),
+                properties);
+    }
+
+    private void saveGraph(Graph graph) {
+        termedRequester.exchange("/graphs/" + graph.getId(), PUT, Parameters.empty(), String.class, graph);
+    }
+
+    private void post(GenericDeleteAndSave deleteAndSave, String username) {
+        Parameters params = new Parameters();
+        params.add("changeset", "true");
+        termedRequester.exchange("/nodes", POST, params, String.class, deleteAndSave, username, USER_PASSWORD);
+    }
+
+    private void removeGraph(UUID graphId) {
+        Parameters nodeParams = new Parameters();
+        nodeParams.add("select", "id");
+        nodeParams.add("select", "type");
+        nodeParams.add("where", "graph.id:" + graphId);
+        nodeParams.add("max", "-1");
+        List<Identifier> nodes = termedRequester.exchange("/node-trees", GET, nodeParams,
+                new ParameterizedTypeReference<List<Identifier>>() {});
+        if (nodes != null && !nodes.isEmpty()) {
+            Parameters params = new Parameters();
+            params.add("batch", "true");
+            params.add("disconnect", "true");
+            termedRequester.exchange("/nodes", DELETE, params, String.class, nodes);
+        }
+
+        List<MetaNode> types = termedRequester.exchange("/graphs/" + graphId + "/types", GET,
+                Parameters.single("max", "-1"), new ParameterizedTypeReference<List<MetaNode>>() {});
+        if (types != null) {
+            termedRequester.exchange("/graphs/" + graphId + "/types", DELETE, Parameters.single("batch", "true"),
+                    String.class, types);
+        }
+        termedRequester.exchange("/graphs/" + graphId, DELETE, Parameters.empty(), String.class);
+    }
+
+    static UUID newNodeId(UUID newGraphId, UUID nodeId) {
+        return UUID.nameUUIDFromBytes((newGraphId + "/" + nodeId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static GenericNode copyWithoutReferences(GenericNode node, UUID sourceGraphId, UUID newGraphId, String pid) {
+        return copy(node, newGraphId, pid, newVersionProperties(node), emptyMap())
+                .copyAllToGraph(newGraphId, nodeIdMapper(sourceGraphId, newGraphId));
+    }
+
+    static GenericNode copyReferences(GenericNode node, UUID sourceGraphId, UUID newGraphId, String pid) {
+        return copy(node, newGraphId, pid, emptyMap(), node.getReferences())
+                .copyAllToGraph(newGraphId, nodeIdMapper(sourceGraphId, newGraphId));
+    }
+
+    private static GenericNode copy(GenericNode node,
+                                    UUID newGraphId,
+                                    String pid,
+                                    Map<String, List<Attribute>> properties,
+                                    Map<String, List<Identifier>> references) {
+        UUID newId = newNodeId(newGraphId, node.getId());
+        return new GenericNode(
+                newId,
+                node.getCode(),
+                node.getUri() != null && node.getUri().contains("@concept") ? pid + "@concept=" + newId : pid,
+                node.getNumber(),
+                node.getCreatedBy(),
+                node.getCreatedDate(),
+                node.getLastModifiedBy(),
+                node.getLastModifiedDate(),
+                node.getType(),
+                properties,
+                references,
+                emptyMap());
+    }
+
+    /**
+     * Nodes of the source graph are copied, references to other graphs are kept
+     */
+    private static Function<Identifier, UUID> nodeIdMapper(UUID sourceGraphId, UUID newGraphId) {
+        return identifier -> sourceGraphId.equals(identifier.getType().getGraphId())
+                ? newNodeId(newGraphId, identifier.getId())
+                : identifier.getId();
+    }
+
+    private static Map<String, List<Attribute>> newVersionProperties(GenericNode node) {
+        Map<String, List<Attribute>> properties = new HashMap<>();
+
+        node.getProperties().forEach((key, originalAttributes) -> {
+            // change all statuses to DRAFT
+            if ("status".equals(key)) {
+                List<Attribute> newAttributes = new ArrayList<>();
+                originalAttributes.forEach(att -> newAttributes.add(new Attribute(att.getLang(), "DRAFT", null)));
+                properties.put(key, newAttributes);
+            } else if ("prefLabel".equals(key) && isVocabulary(node)) {
+                List<Attribute> newAttributes = new ArrayList<>();
+                originalAttributes.forEach(att ->
+                        newAttributes.add(new Attribute(att.getLang(), att.getValue() + " (Copy)", null)));
+                properties.put(key, newAttributes);
+            } else {
+                properties.put(key, originalAttributes);
+            }
+        });
+
+        // store origin of new version
+        if (isVocabulary(node)) {
+            properties.put("origin", List.of(new Attribute("", node.getUri())));
+        }
+
+        return properties;
+    }
+
+    private static boolean isVocabulary(Node node) {
+        return asList(NodeType.TerminologicalVocabulary, NodeType.Vocabulary)
+                .contains(node.getType().getId());
+    }
+
+    abstract static class DumpReader {
+
+        Graph graph;
+        List<MetaNode> types = emptyList();
+
+        /**
+         * Called once after graph and types have been read
+         */
+        void beforeNodes() {
+        }
+
+        abstract void node(GenericNode node);
+    }
+
+    /**
+     * Collects nodes to chunks of at most chunk size and sends full chunks
+     */
+    private final class NodeChunks {
+
+        private final Consumer<List<GenericNode>> send;
+        private final IntConsumer sent;
+        private List<GenericNode> chunk = new ArrayList<>();
+        private int count;
+
+        private NodeChunks(Consumer<List<GenericNode>> send, IntConsumer sent) {
+            this.send = send;
+            this.sent = sent;
+        }
+
+        void add(GenericNode node) {
+            chunk.add(node);
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!chunk.isEmpty()) {
+                List<GenericNode> full = chunk;
+                chunk = new ArrayList<>(chunkSize);
+                send.accept(full);
+                count += full.size();
+                sent.accept(full.size());
+            }
+        }
+    }
+
+    /**
+     * Progress of a job, updated by the worker thread only. Both passes are counted, so the
+     * total is twice the node count. Status is published after every chunk.
+     */
+    private final class VersionJob {
+
+        private final UUID jobToken;
+        private final UUID newGraphId;
+        private final String username;
+        private ImportStatus status = ImportStatus.QUEUED;
+        private int read;
+        private boolean allRead;
+        private int saved;
+        private String error;
+        private Graph graph;
+        private Instant heartbeat = Instant.now();
+
+        private VersionJob(UUID jobToken, UUID newGraphId, String username) {
+            this.jobToken = jobToken;
+            this.newGraphId = newGraphId;
+            this.username = username;
+        }
+
+        private void nodeRead() {
+            read++;
+        }
+
+        private void allRead() {
+            allRead = true;
+        }
+
+        private void nodesSaved(int count) {
+            saved += count;
+            publish();
+            Instant now = Instant.now();
+            if (graph != null && now.isAfter(heartbeat.plus(HEARTBEAT_INTERVAL))) {
+                saveGraph(inProgress(graph, jobToken, now));
+                heartbeat = now;
+            }
+        }
+
+        private void complete() {
+            // remove the marker
+            saveGraph(graph);
+            status = ImportStatus.SUCCESS;
+            publish();
+        }
+
+        private void fail(Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            status = ImportStatus.FAILURE;
+            publish();
+        }
+
+        private void publish() {
+            int mqStatus = status == ImportStatus.SUCCESS ? YtiMQService.STATUS_READY
+                    : status == ImportStatus.FAILURE ? YtiMQService.STATUS_FAILED
+                    : YtiMQService.STATUS_PROCESSING;
+            ytiMQService.setStatus(mqStatus, jobToken.toString(), username, newGraphId.toString(),
+                    toResponse().toString());
+        }
+
+        private ImportStatusResponse toResponse() {
+            ImportStatusResponse response = new ImportStatusResponse();
+            response.setStatus(status);
+            int currentRead = read;
+            if (status != ImportStatus.QUEUED) {
+                response.setProcessingTotal(2 * currentRead);
+                response.setProcessingProgress(Math.min(saved, 2 * currentRead));
+            }
+            if (allRead) {
+                response.setResultsCreated(currentRead);
+            }
+            if (error != null) {
+                response.addStatusMessage(new ImportStatusMessage(ImportStatusMessage.Level.ERROR, "Vocabulary", error));
+            }
+            return response;
+        }
+    }
+}
@@ -25,7 +25,6 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.vm.yti.terminology.api.frontend.searchdto.ConceptDTO;
@@ -33,6 +32,8 @@ import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchRequest;
 import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchResponse;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySimpleDTO;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.api.util.IndexUtil;
+import fi.vm.yti.terminology.api.util.SearchAfterCursor;
 
 public class ConceptQueryFactory {
 
@@ -44,6 +45,17 @@ public class ConceptQueryFactory {
 
     private static final Logger log = LoggerFactory.getLogger(ConceptQueryFactory.class);
 
+    /**
+     * Concept fields matched with the search term, and their boosts
+     */
+    public static final Map<String, Float> TEXT_FIELDS = Map.of(
+        "label", 5.0f,
+        "altLabel", 3.0f,
+        "searchTerm", 3.0f,
+        "hiddenTerm", 3.0f,
+        "notRecommendedSynonym", 1.5f,
+        "definition", 3.0f);
+
     private final ObjectMapper objectMapper;
     private final Pattern terminologyCodePattern;
 
@@ -63,14 +75,7 @@ public class ConceptQueryFactory {
         List<QueryBuilder> mustNotParts = new ArrayList<>();
 
         if (request.getQuery() != null && !request.getQuery().isEmpty()) {
-            mustParts.add(ElasticRequestUtils.buildPrefixSuffixQuery(request.getQuery())
-                .field("label.*", 5.0f)
-                .field("altLabel.*", 3.0f)
-                .field("searchTerm.*", 3.0f)
-                .field("hiddenTerm.*", 3.0f)
-                .field("notRecommendedSynonym.*", 1.5f)
-                .field("definition.*", 3.0f)
-            );
+            mustParts.add(ElasticRequestUtils.buildPrefixSuffixFieldQuery(request.getQuery(), TEXT_FIELDS));
         }
 
         final boolean directConceptsGiven = request.getConceptId() != null && request.getConceptId().length > 0;
@@ -158,6 +163,7 @@ public class ConceptQueryFactory {
 
         SearchSourceBuilder ssb = new SearchSourceBuilder()
             .query(combinedQuery)
+            .fetchSource(ConceptSource.FIELDS, null)
             .size(request.getPageSize() != null ? request.getPageSize().intValue() : 100)
             .from(request.getPageFrom() != null ? request.getPageFrom().intValue() : 0);
 
@@ -173,7 +179,13 @@ public class ConceptQueryFactory {
                     .order(sortBy == ConceptSearchRequest.SortBy.PREF_LABEL ? sortDirection.getEsOrder() : SortOrder.ASC)
                     .unmappedType("keyword"));
         }
+        SearchAfterCursor.addTieBreakerSort(ssb);
+        SearchAfterCursor.applyCursor(ssb, request.getSearchAfter());
+
         SearchRequest sr = new SearchRequest("concepts").source(ssb);
+        if (directTerminologiesGiven) {
+            sr.routing(IndexUtil.conceptRouting(Arrays.asList(request.getTerminologyId())));
+        }
         log.debug("Concept Query request: {}", sr);
         return sr;
     }
@@ -194,14 +206,14 @@ public class ConceptQueryFactory {
 
                     for (SearchHit hit : hits) {
                         try {
-                            final JsonNode concept = objectMapper.readTree(hit.getSourceAsString());
-                            final String id = ElasticRequestUtils.getTextValueOrNull(concept, "id");
-                            final String uri = ElasticRequestUtils.getTextValueOrNull(concept, "uri");
-                            final String status = ElasticRequestUtils.getTextValueOrNull(concept, "status");
-                            final Map<String, String> labelMap = ElasticRequestUtils.labelFromKeyValueNode(concept.get("label"));
-                            final Map<String, String> altLabelMap = ElasticRequestUtils.labelFromKeyValueNode(concept.get("altLabel"));
-                            final Map<String, String> definitionMap = ElasticRequestUtils.labelFromKeyValueNode(concept.get("definition"));
-                            final String modifiedString = ElasticRequestUtils.getTextValueOrNull(concept, "modified");
+                            final ConceptSource concept = ElasticRequestUtils.readSource(objectMapper, hit, ConceptSource.class);
+                            final String id = concept.getId();
+                            final String uri = concept.getUri();
+                            final String status = concept.getStatus();
+                            final Map<String, String> labelMap = ElasticRequestUtils.labelFromLocalizable(concept.getLabel());
+                            final Map<String, String> altLabelMap = ElasticRequestUtils.labelFromLocalizable(concept.getAltLabel());
+                            final Map<String, String> definitionMap = ElasticRequestUtils.labelFromLocalizable(concept.getDefinition());
+                            final String modifiedString = concept.getModified();
                             Instant modified = null;
                             if (modifiedString != null) {
                                 try {
@@ -210,17 +222,17 @@ public class ConceptQueryFactory {
                                     log.warn("Could not parse modified timestamp", e);
                                 }
                             }
-                            final List<String> narrower = getIdList(concept, "narrower");
-                            final List<String> broader = getIdList(concept, "broader");
+                            final List<String> narrower = getIdList(concept.getNarrower());
+                            final List<String> broader = getIdList(concept.getBroader());
 
                             TerminologySimpleDTO terminology = null;
-                            final JsonNode terminologyNode = concept.get("vocabulary");
+                            final ConceptSource.VocabularySource terminologyNode = concept.getVocabulary();
                             if (terminologyNode != null) {
-                                final String terminologyId = ElasticRequestUtils.getTextValueOrNull(terminologyNode, "id");
-                                final String terminologyStatus = ElasticRequestUtils.getTextValueOrNull(terminologyNode, "status");
-                                final String terminologyUri = ElasticRequestUtils.getTextValueOrNull(terminologyNode, "uri");
-                                final String terminologyType = ElasticRequestUtils.getTextValueOrNull(terminologyNode, "type");
-                                final Map<String, String> terminologyLabelMap = ElasticRequestUtils.labelFromKeyValueNode(terminologyNode.get("label"));
+                                final String terminologyId = terminologyNode.getId();
+                                final String terminologyStatus = terminologyNode.getStatus();
+                                final String terminologyUri = terminologyNode.getUri();
+                                final String terminologyType = terminologyNode.getType();
+                                final Map<String, String> terminologyLabelMap = ElasticRequestUtils.labelFromLocalizable(terminologyNode.getLabel());
                                 String terminologyCode = null;
                                 if (terminologyUri != null) {
                                     Matcher m = terminologyCodePattern.matcher(terminologyUri);
@@ -241,20 +253,29 @@ public class ConceptQueryFactory {
                         }
                     }
                 }
-                return new ConceptSearchResponse(total, request.getPageFrom() != null ? request.getPageFrom().intValue() : 0, concepts);
+                final ConceptSearchResponse ret = new ConceptSearchResponse(total, resultStart(request), concepts);
+                ret.setSearchAfter(SearchAfterCursor.nextCursor(hits, request.getPageSize() != null ? request.getPageSize().intValue() : 100));
+                return ret;
             }
         }
         return new ConceptSearchResponse();
     }
 
-    private List<String> getIdList(JsonNode node,
-                                   String field) {
+    /**
+     * Offset is not known when paging with a searchAfter cursor
+     */
+    private static Integer resultStart(ConceptSearchRequest request) {
+        if (request.getSearchAfter() != null && !request.getSearchAfter().isEmpty()) {
+            return null;
+        }
+        return request.getPageFrom() != null ? request.getPageFrom().intValue() : 0;
+    }
+
+    private List<String> getIdList(List<String> ids) {
         List<String> ret = null;
-        JsonNode arrayNode = node.get(field);
-        if (arrayNode != null && arrayNode.isArray() && arrayNode.size() > 0) {
+        if (ids != null && !ids.isEmpty()) {
             ret = new ArrayList<>();
-            for (JsonNode idNode : arrayNode) {
-                String id = idNode.textValue();
+            for (String id : ids) {
                 if (id != null && !id.isEmpty()) {
                     ret.add(id);
                 }
@@ -0,0 +1,109 @@
+package fi.vm.yti.terminology.api.frontend.elasticqueries;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Fields of a concept document rendered by frontend searches. Decoded directly from the
+ * source bytes of a hit, see {@link fi.vm.yti.terminology.api.util.ElasticRequestUtils#readSource}.
+ * Fields not fetched with source filtering are null.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ConceptSource {
+
+    /**
+     * Source fields needed for {@link ConceptSource}, use with source filtering
+     */
+    static final String[] FIELDS = {
+            "id", "uri", "status", "label", "altLabel", "definition", "modified", "narrower", "broader",
+            "vocabulary.id", "vocabulary.uri", "vocabulary.status", "vocabulary.type", "vocabulary.label"
+    };
+
+    private String id;
+    private String uri;
+    private String status;
+    @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+    private Map<String, List<String>> label;
+    @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+    private Map<String, List<String>> altLabel;
+    @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+    private Map<String, List<String>> definition;
+    private String modified;
+    private List<String> narrower;
+    private List<String> broader;
+    private VocabularySource vocabulary;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Map<String, List<String>> getLabel() {
+        return label;
+    }
+
+    public Map<String, List<String>> getAltLabel() {
+        return altLabel;
+    }
+
+    public Map<String, List<String>> getDefinition() {
+        return definition;
+    }
+
+    public String getModified() {
+        return modified;
+    }
+
+    public List<String> getNarrower() {
+        return narrower;
+    }
+
+    public List<String> getBroader() {
+        return broader;
+    }
+
+    public VocabularySource getVocabulary() {
+        return vocabulary;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class VocabularySource {
+
+        private String id;
+        private String uri;
+        private String status;
+        private String type;
+        @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+        private Map<String, List<String>> label;
+
+        public String getId() {
+            return id;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Map<String, List<String>> getLabel() {
+            return label;
+        }
+    }
+}
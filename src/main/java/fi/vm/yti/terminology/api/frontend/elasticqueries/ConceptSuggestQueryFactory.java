@@ -0,0 +1,158 @@
+package fi.vm.yti.terminology.api.frontend.elasticqueries;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.SuggestBuilder;
+import org.elasticsearch.search.suggest.SuggestBuilders;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
+import org.elasticsearch.search.suggest.completion.context.CategoryQueryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSuggestionDTO;
+import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySimpleDTO;
+import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.api.util.IndexUtil;
+
+/**
+ * Type-ahead suggestions for concepts with the completion suggester. Suggestions are read
+ * from an in-memory structure of the completion fields, no query is executed and only id,
+ * label and terminology of the concept are fetched.
+ *
+ * Visibility of INCOMPLETE content is handled with the category context of the suggestions,
+ * see {@link IndexUtil#SUGGEST_VISIBILITY_CONTEXT}.
+ */
+public class ConceptSuggestQueryFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(ConceptSuggestQueryFactory.class);
+
+    private static final String[] SOURCE_FIELDS = { "id", "label", "vocabulary.id", "vocabulary.label" };
+
+    private final ObjectMapper objectMapper;
+
+    public ConceptSuggestQueryFactory(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param languages                 one suggester is executed per language
+     * @param terminologyIds            limit suggestions to these terminologies, empty for all
+     * @param contributorTerminologies  terminologies whose INCOMPLETE content is shown to the user
+     */
+    public SearchRequest createQuery(String query,
+                                     Collection<String> languages,
+                                     Collection<String> terminologyIds,
+                                     boolean superUser,
+                                     Collection<String> contributorTerminologies,
+                                     int size) {
+
+        List<CategoryQueryContext> contexts = createContexts(terminologyIds, superUser, contributorTerminologies);
+
+        SuggestBuilder suggestBuilder = new SuggestBuilder();
+        for (String language : languages) {
+            CompletionSuggestionBuilder suggestion = SuggestBuilders
+                    .completionSuggestion(IndexUtil.SUGGEST_FIELD + "." + language)
+                    .prefix(query)
+                    .skipDuplicates(true)
+                    .size(size);
+            if (!contexts.isEmpty()) {
+                Map<String, List<? extends ToXContent>> queryContexts = new LinkedHashMap<>();
+                queryContexts.put(IndexUtil.SUGGEST_VISIBILITY_CONTEXT, contexts);
+                suggestion.contexts(queryContexts);
+            }
+            suggestBuilder.addSuggestion(language, suggestion);
+        }
+
+        SearchSourceBuilder ssb = new SearchSourceBuilder()
+                .size(0)
+                .fetchSource(SOURCE_FIELDS, null)
+                .suggest(suggestBuilder);
+
+        SearchRequest sr = new SearchRequest("concepts")
+                .routing(IndexUtil.conceptRouting(terminologyIds))
+                .source(ssb);
+        log.debug("Concept suggest request: {}", sr);
+        return sr;
+    }
+
+    /**
+     * Merges suggestions of all languages, best first. Concept suggested in many languages
+     * is returned once.
+     */
+    public List<ConceptSuggestionDTO> parseResponse(SearchResponse response,
+                                                    int size) {
+        Suggest suggest = response != null ? response.getSuggest() : null;
+        if (suggest == null) {
+            return new ArrayList<>();
+        }
+
+        List<CompletionSuggestion.Entry.Option> options = new ArrayList<>();
+        suggest.filter(CompletionSuggestion.class).forEach(s -> options.addAll(s.getOptions()));
+        options.sort(Comparator.comparing(CompletionSuggestion.Entry.Option::getScore).reversed());
+
+        Map<String, ConceptSuggestionDTO> suggestions = new LinkedHashMap<>();
+        for (CompletionSuggestion.Entry.Option option : options) {
+            if (suggestions.size() >= size) {
+                break;
+            }
+            SearchHit hit = option.getHit();
+            if (hit == null || suggestions.containsKey(hit.getId())) {
+                continue;
+            }
+            try {
+                ConceptSource concept = ElasticRequestUtils.readSource(objectMapper, hit, ConceptSource.class);
+                Map<String, String> label = ElasticRequestUtils.labelFromLocalizable(concept.getLabel());
+
+                TerminologySimpleDTO terminology = null;
+                ConceptSource.VocabularySource terminologyNode = concept.getVocabulary();
+                if (terminologyNode != null) {
+                    terminology = new TerminologySimpleDTO(
+                            terminologyNode.getId(),
+                            null,
+                            null,
+                            null,
+                            null,
+                            ElasticRequestUtils.labelFromLocalizable(terminologyNode.getLabel()));
+                }
+                suggestions.put(hit.getId(), new ConceptSuggestionDTO(concept.getId(), option.getText().string(), label, terminology));
+            } catch (Exception e) {
+                log.error("Error while parsing a concept suggestion", e);
+            }
+        }
+        return new ArrayList<>(suggestions.values());
+    }
+
+    private static List<CategoryQueryContext> createContexts(Collection<String> terminologyIds,
+                                                             boolean superUser,
+                                                             Collection<String> contributorTerminologies) {
+        List<String> categories;
+        if (superUser) {
+            categories = new ArrayList<>(terminologyIds);
+        } else if (terminologyIds.isEmpty()) {
+            categories = new ArrayList<>(contributorTerminologies);
+            categories.add(IndexUtil.PUBLIC_SUGGESTION);
+        } else {
+            categories = terminologyIds.stream()
+                    .map(id -> contributorTerminologies.contains(id) ? id : IndexUtil.PUBLIC_SUGGESTION + ":" + id)
+                    .collect(Collectors.toList());
+        }
+        return categories.stream()
+                .map(category -> CategoryQueryContext.builder().setCategory(category).build())
+                .collect(Collectors.toList());
+    }
+}
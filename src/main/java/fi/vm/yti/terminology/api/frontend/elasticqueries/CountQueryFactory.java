@@ -66,6 +66,7 @@ public class CountQueryFactory {
                 .must(QueryBuilders.matchQuery("vocabulary.id", vocabularyId.toString()));
 
         return new SearchRequest("concepts")
+                .routing(vocabularyId.toString())
                 .source(new SearchSourceBuilder()
                         .size(0)
                         .query(query)
@@ -1,8 +1,11 @@
 package fi.vm.yti.terminology.api.frontend.elasticqueries;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,7 +14,9 @@ import java.util.regex.Pattern;
 import fi.vm.yti.terminology.api.exception.InvalidQueryException;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.InnerHitBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.script.Script;
@@ -19,17 +24,22 @@ import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.max.MaxAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
+import org.elasticsearch.search.aggregations.metrics.tophits.TopHitsAggregationBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.collapse.CollapseBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSimpleDTO;
@@ -37,12 +47,20 @@ import fi.vm.yti.terminology.api.frontend.searchdto.DeepSearchConceptHitListDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.DeepSearchHitListDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchRequest;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.api.util.IndexUtil;
 
 public class DeepConceptQueryFactory {
 
     private static final Logger log = LoggerFactory.getLogger(DeepConceptQueryFactory.class);
 
     private static final FetchSourceContext sourceIncludes = new FetchSourceContext(true, new String[]{ "id", "uri", "status", "label", "vocabulary" }, new String[]{});
+    private static final String VISIBLE_CONCEPTS = "visible_concepts";
+    private static final String BEST_CONCEPT_HIT = "best_concept_hit";
+    private static final String GROUP_BY_TERMINOLOGY = "group_by_terminology";
+    private static final String TOP_CONCEPT_HITS = "top_concept_hits";
+    private static final String TERMINOLOGY_FIELD = "vocabulary.id";
+    private static final int TOP_HITS_SIZE = 6;
+    private static final int MAX_TERMINOLOGIES = 1000;
     private static final Script topHitScript = new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, "_score", Collections.emptyMap());
 
     private final ObjectMapper objectMapper;
@@ -56,36 +74,159 @@ public class DeepConceptQueryFactory {
                                      String prefLang,
                                      boolean superUser,
                                      Set<String> incompleteFromTerminologies) {
-        var mustQueries = new ArrayList<QueryBuilder>();
+        var mustQueries = visibleConceptQueries(query, statuses, superUser, incompleteFromTerminologies);
 
-        // NOTE: In deep concept query the query should always be non-empty.
-        var labelQuery = ElasticRequestUtils.buildPrefixSuffixQuery(query)
-                .field("label.*", 5.0f)
-                .field("altLabel.*", 3.0f)
-                .field("searchTerm.*", 3.0f)
-                .field("hiddenTerm.*", 3.0f)
-                .field("notRecommendedSynonym.*", 1.5f)
-                .field("definition.*", 3.0f);
-        mustQueries.add(labelQuery);
+        SearchRequest sr = new SearchRequest("concepts")
+            .source(new SearchSourceBuilder()
+                .query(combineQueries(mustQueries))
+                .size(0)
+                .aggregation(groupByTerminology()));
+        log.debug("Deep Concept Query request: {}", sr.toString());
+        return sr;
+    }
 
-        if (statuses != null && statuses.length > 0) {
-            var statusQuery = ElasticRequestUtils.buildStatusQuery(statuses, "status");
-            mustQueries.add(statusQuery);
+    /**
+     * First part of the deep concept search with field collapsing. Resolves only ids of the
+     * terminologies having matching concepts, without top hits per terminology. Like in
+     * {@link #groupByTerminology()}, terminologies are ordered by their best concept score,
+     * so the same terminologies are kept when more than {@link #MAX_TERMINOLOGIES} match.
+     * Top hits are fetched with {@link #createCollapsedQuery} for the terminologies on the
+     * result page.
+     */
+    public SearchRequest createTerminologyIdsQuery(String query,
+                                                   String[] statuses,
+                                                   boolean superUser,
+                                                   Set<String> incompleteFromTerminologies) {
+        var mustQueries = visibleConceptQueries(query, statuses, superUser, incompleteFromTerminologies);
+
+        SearchRequest sr = new SearchRequest("concepts")
+            .source(new SearchSourceBuilder()
+                .query(combineQueries(mustQueries))
+                .size(0)
+                .aggregation(AggregationBuilders.terms(GROUP_BY_TERMINOLOGY)
+                    .field(TERMINOLOGY_FIELD)
+                    .size(MAX_TERMINOLOGIES)
+                    .order(BucketOrder.aggregation(BEST_CONCEPT_HIT, false))
+                    .subAggregation(bestConceptHit())));
+        log.debug("Deep Concept terminology ids request: {}", sr.toString());
+        return sr;
+    }
+
+    public Set<String> parseTerminologyIdsResponse(SearchResponse response) {
+        Set<String> ret = new LinkedHashSet<>();
+        try {
+            Terms groupBy = response.getAggregations().get(GROUP_BY_TERMINOLOGY);
+            for (Terms.Bucket bucket : groupBy.getBuckets()) {
+                ret.add(bucket.getKeyAsString());
+            }
+        } catch (Exception e) {
+            log.error("Cannot parse deep concept terminology ids response", e);
         }
+        return ret;
+    }
+
+    /**
+     * Top concept hits of given terminologies with field collapsing: one hit per terminology,
+     * best concepts of the terminology as its inner hits. Response is parsed with
+     * {@link #parseCollapsedResponse(SearchResponse, TerminologySearchRequest)}.
+     *
+     * @param terminologyIds terminologies on the current result page
+     */
+    public SearchRequest createCollapsedQuery(String query,
+                                              String[] statuses,
+                                              boolean superUser,
+                                              Set<String> incompleteFromTerminologies,
+                                              Collection<String> terminologyIds) {
+        var mustQueries = visibleConceptQueries(query, statuses, superUser, incompleteFromTerminologies);
+        mustQueries.add(QueryBuilders.termsQuery(TERMINOLOGY_FIELD, terminologyIds));
+
+        SearchRequest sr = new SearchRequest("concepts")
+            .routing(IndexUtil.conceptRouting(terminologyIds))
+            .source(new SearchSourceBuilder()
+                .query(combineQueries(mustQueries))
+                .size(terminologyIds.size())
+                .fetchSource(false)
+                .collapse(new CollapseBuilder(TERMINOLOGY_FIELD)
+                    .setInnerHits(new InnerHitBuilder()
+                        .setName(TOP_CONCEPT_HITS)
+                        .setSize(TOP_HITS_SIZE)
+                        .addSort(SortBuilders.scoreSort().order(SortOrder.DESC))
+                        .setFetchSourceContext(sourceIncludes))));
+        log.debug("Deep Concept collapsed request: {}", sr.toString());
+        return sr;
+    }
+
+    /**
+     * Deep concept query for a non-superuser whose contributor terminologies are not
+     * known yet. INCOMPLETE concepts are not filtered out from the query, instead each
+     * terminology bucket also contains top hits of visible concepts only. Right hits are
+     * picked in {@link #parseResponse(SearchResponse, TerminologySearchRequest, Set)} when
+     * the terminologies are known, so both can be queried at the same time.
+     * <p>
+     * Terminologies are ranked by their best visible concept, so hidden hits cannot push
+     * visible terminologies past {@link #MAX_TERMINOLOGIES}. Contributor terminologies
+     * whose hits are all INCOMPLETE are ranked after the visible ones.
+     */
+    public SearchRequest createQuery(String query,
+                                     String[] statuses,
+                                     String prefLang) {
+        var mustQueries = labelAndStatusQueries(query, statuses);
+
+        SearchRequest sr = new SearchRequest("concepts")
+            .source(new SearchSourceBuilder()
+                .query(combineQueries(mustQueries))
+                .size(0)
+                .aggregation(groupByTerminology()
+                    .order(BucketOrder.compound(
+                        BucketOrder.aggregation(VISIBLE_CONCEPTS + ">" + BEST_CONCEPT_HIT, false),
+                        BucketOrder.aggregation(BEST_CONCEPT_HIT, false)))
+                    .subAggregation(AggregationBuilders.filter(VISIBLE_CONCEPTS, visibleConceptQuery())
+                        .subAggregation(topConceptHits())
+                        .subAggregation(bestConceptHit()))));
+        log.debug("Deep Concept Query request: {}", sr.toString());
+        return sr;
+    }
+
+    private List<QueryBuilder> visibleConceptQueries(String query,
+                                                     String[] statuses,
+                                                     boolean superUser,
+                                                     Set<String> incompleteFromTerminologies) {
+        var mustQueries = labelAndStatusQueries(query, statuses);
 
         // Block INCOMPLETE concepts from being shown to users who are not
         // contributors of the terminology. Needed when the terminology itself
         // is in some visible state.
         if (!superUser) {
             var incompleteQuery = QueryBuilders.boolQuery()
-                    .should(QueryBuilders.boolQuery()
-                            .mustNot(QueryBuilders.termQuery("status", "INCOMPLETE"))
-                            .mustNot(QueryBuilders.termQuery("vocabulary.status", "INCOMPLETE")))
-                    .should(QueryBuilders.termsQuery("vocabulary.id", incompleteFromTerminologies))
+                    .should(visibleConceptQuery())
+                    .should(QueryBuilders.termsQuery(TERMINOLOGY_FIELD, incompleteFromTerminologies))
                     .minimumShouldMatch(1);
             mustQueries.add(incompleteQuery);
         }
+        return mustQueries;
+    }
+
+    private List<QueryBuilder> labelAndStatusQueries(String query, String[] statuses) {
+        var mustQueries = new ArrayList<QueryBuilder>();
+
+        // NOTE: In deep concept query the query should always be non-empty.
+        var labelQuery = ElasticRequestUtils.buildPrefixSuffixFieldQuery(query, ConceptQueryFactory.TEXT_FIELDS);
+        mustQueries.add(labelQuery);
 
+        if (statuses != null && statuses.length > 0) {
+            var statusQuery = ElasticRequestUtils.buildStatusQuery(statuses, "status");
+            mustQueries.add(statusQuery);
+        }
+        return mustQueries;
+    }
+
+    private QueryBuilder visibleConceptQuery() {
+        return QueryBuilders.boolQuery()
+                .mustNot(QueryBuilders.termQuery("status", "INCOMPLETE"))
+                .mustNot(QueryBuilders.termQuery("vocabulary.status", "INCOMPLETE"));
+    }
+
+    private QueryBuilder combineQueries(List<QueryBuilder> mustQueries) {
         QueryBuilder withIncompleteHandling;
         if (mustQueries.size() > 1) {
             withIncompleteHandling = QueryBuilders.boolQuery();
@@ -99,58 +240,104 @@ public class DeepConceptQueryFactory {
         } else {
             throw new InvalidQueryException();
         }
+        return withIncompleteHandling;
+    }
 
-        SearchRequest sr = new SearchRequest("concepts")
-            .source(new SearchSourceBuilder()
-                .query(withIncompleteHandling)
-                .size(0)
-                .aggregation(AggregationBuilders.terms("group_by_terminology")
-                    .field("vocabulary.id")
-                    .size(1000)
-                    .order(BucketOrder.aggregation("best_concept_hit", false))
-                    .subAggregation(AggregationBuilders.topHits("top_concept_hits")
-                        .sort(SortBuilders.scoreSort().order(SortOrder.DESC))
-                        .size(6)
-                        .fetchSource(sourceIncludes))
-                    .subAggregation(AggregationBuilders.max("best_concept_hit")
-                        .script(topHitScript))));
-        log.debug("Deep Concept Query request: {}", sr.toString());
-        return sr;
+    private TermsAggregationBuilder groupByTerminology() {
+        return AggregationBuilders.terms(GROUP_BY_TERMINOLOGY)
+            .field(TERMINOLOGY_FIELD)
+            .size(MAX_TERMINOLOGIES)
+            .order(BucketOrder.aggregation(BEST_CONCEPT_HIT, false))
+            .subAggregation(topConceptHits())
+            .subAggregation(bestConceptHit());
+    }
+
+    private MaxAggregationBuilder bestConceptHit() {
+        return AggregationBuilders.max(BEST_CONCEPT_HIT)
+            .script(topHitScript);
+    }
+
+    private TopHitsAggregationBuilder topConceptHits() {
+        return AggregationBuilders.topHits(TOP_CONCEPT_HITS)
+            .sort(SortBuilders.scoreSort().order(SortOrder.DESC))
+            .size(TOP_HITS_SIZE)
+            .fetchSource(sourceIncludes);
     }
 
     public Map<String, List<DeepSearchHitListDTO<?>>> parseResponse(SearchResponse response, TerminologySearchRequest request) {
+        return parseResponse(response, request, null);
+    }
+
+    /**
+     * @param incompleteFromTerminologies when response is for a query without INCOMPLETE
+     *                                    filtering, terminologies where all hits are visible.
+     *                                    Other terminologies use visible concept hits only.
+     */
+    public Map<String, List<DeepSearchHitListDTO<?>>> parseResponse(SearchResponse response,
+                                                                    TerminologySearchRequest request,
+                                                                    Set<String> incompleteFromTerminologies) {
         Map<String, List<DeepSearchHitListDTO<?>>> ret = new HashMap<>();
         try {
             Pattern highlightPattern = ElasticRequestUtils.createHighlightPattern(request.getQuery());
-            Terms groupBy = response.getAggregations().get("group_by_terminology");
+            Terms groupBy = response.getAggregations().get(GROUP_BY_TERMINOLOGY);
             for (Terms.Bucket bucket : groupBy.getBuckets()) {
-                TopHits hitsAggr = bucket.getAggregations().get("top_concept_hits");
-                SearchHits hits = hitsAggr.getHits();
-
-                long total = hits.getTotalHits();
-                if (total > 0) {
-                    String terminologyId = bucket.getKeyAsString();
-                    List<ConceptSimpleDTO> topHits = new ArrayList<>();
-                    DeepSearchConceptHitListDTO hitList = new DeepSearchConceptHitListDTO(total, topHits);
-                    ret.put(terminologyId, Collections.singletonList(hitList));
-
-                    for (SearchHit hit : hits.getHits()) {
-                        JsonNode concept = objectMapper.readTree(hit.getSourceAsString());
-                        String conceptId = ElasticRequestUtils.getTextValueOrNull(concept, "id");
-                        String conceptUri = ElasticRequestUtils.getTextValueOrNull(concept, "uri");
-                        String conceptStatus = ElasticRequestUtils.getTextValueOrNull(concept, "status");
-                        Map<String, String> labelMap = ElasticRequestUtils.labelFromKeyValueNode(concept.get("label"));
-
-                        ElasticRequestUtils.highlightLabel(labelMap, highlightPattern);
-
-                        ConceptSimpleDTO dto = new ConceptSimpleDTO(conceptId, conceptUri, conceptStatus, labelMap);
-                        topHits.add(dto);
-                    }
+                String terminologyId = bucket.getKeyAsString();
+                Aggregations aggregations = bucket.getAggregations();
+                if (incompleteFromTerminologies != null && !incompleteFromTerminologies.contains(terminologyId)) {
+                    Filter visible = aggregations.get(VISIBLE_CONCEPTS);
+                    aggregations = visible.getAggregations();
                 }
+                TopHits hitsAggr = aggregations.get(TOP_CONCEPT_HITS);
+                addHitList(ret, terminologyId, hitsAggr.getHits(), highlightPattern);
             }
         } catch (Exception e) {
             log.error("Cannot parse deep concept query response", e);
         }
         return ret;
     }
+
+    /**
+     * Parses response of {@link #createCollapsedQuery} to the same form as
+     * {@link #parseResponse(SearchResponse, TerminologySearchRequest)}.
+     */
+    public Map<String, List<DeepSearchHitListDTO<?>>> parseCollapsedResponse(SearchResponse response,
+                                                                             TerminologySearchRequest request) {
+        Map<String, List<DeepSearchHitListDTO<?>>> ret = new HashMap<>();
+        try {
+            Pattern highlightPattern = ElasticRequestUtils.createHighlightPattern(request.getQuery());
+            for (SearchHit collapsed : response.getHits().getHits()) {
+                DocumentField terminologyField = collapsed.field(TERMINOLOGY_FIELD);
+                SearchHits hits = collapsed.getInnerHits().get(TOP_CONCEPT_HITS);
+                addHitList(ret, terminologyField.getValue().toString(), hits, highlightPattern);
+            }
+        } catch (Exception e) {
+            log.error("Cannot parse deep concept collapsed response", e);
+        }
+        return ret;
+    }
+
+    private void addHitList(Map<String, List<DeepSearchHitListDTO<?>>> ret,
+                            String terminologyId,
+                            SearchHits hits,
+                            Pattern highlightPattern) throws IOException {
+        long total = hits.getTotalHits();
+        if (total > 0) {
+            List<ConceptSimpleDTO> topHits = new ArrayList<>();
+            DeepSearchConceptHitListDTO hitList = new DeepSearchConceptHitListDTO(total, topHits);
+            ret.put(terminologyId, Collections.singletonList(hitList));
+
+            for (SearchHit hit : hits.getHits()) {
+                ConceptSource concept = ElasticRequestUtils.readSource(objectMapper, hit, ConceptSource.class);
+                String conceptId = concept.getId();
+                String conceptUri = concept.getUri();
+                String conceptStatus = concept.getStatus();
+                Map<String, String> labelMap = ElasticRequestUtils.labelFromLocalizable(concept.getLabel());
+
+                ElasticRequestUtils.highlightLabel(labelMap, highlightPattern);
+
+                ConceptSimpleDTO dto = new ConceptSimpleDTO(conceptId, conceptUri, conceptStatus, labelMap);
+                topHits.add(dto);
+            }
+        }
+    }
 }
@@ -18,7 +18,6 @@ import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.vm.yti.terminology.api.frontend.searchdto.DeepSearchHitListDTO;
@@ -28,6 +27,7 @@ import fi.vm.yti.terminology.api.frontend.searchdto.TerminologyDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchRequest;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchResponse;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.api.util.SearchAfterCursor;
 
 public class TerminologyQueryFactory {
 
@@ -69,6 +69,7 @@ public class TerminologyQueryFactory {
                 additionalTerminologyIds,
                 pageSize(request),
                 pageFrom(request),
+                request.getSearchAfter(),
                 superUser,
                 privilegedOrganizations,
                 request.getPrefLang());
@@ -84,12 +85,14 @@ public class TerminologyQueryFactory {
                                       Collection<String> additionalTerminologyIds,
                                       int pageSize,
                                       int pageFrom,
+                                      String searchAfter,
                                       boolean superUser,
                                       Set<String> privilegedOrganizations,
                                       String prefLang) {
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
             .from(pageFrom)
-            .size(pageSize);
+            .size(pageSize)
+            .fetchSource(TerminologySource.FIELDS, null);
 
         QueryBuilder incompleteQuery = statusAndContributorQuery(privilegedOrganizations);
 
@@ -225,6 +228,8 @@ public class TerminologyQueryFactory {
                     .order(SortOrder.ASC)
                     .unmappedType("keyword"));
         }
+        SearchAfterCursor.addTieBreakerSort(sourceBuilder);
+        SearchAfterCursor.applyCursor(sourceBuilder, searchAfter);
 
         SearchRequest sr = new SearchRequest(INDEX_NAME)
             .source(sourceBuilder);
@@ -251,6 +256,7 @@ public class TerminologyQueryFactory {
         return new SearchRequest(INDEX_NAME)
             .source(new SearchSourceBuilder()
                 .size(1000)
+                .fetchSource(TerminologySource.ID_FIELDS, null)
                 .query(finalQuery));
         //.fetchSource(false));
         //log.debug("createMatchingTerminologiesQuery Query request: " + sr.toString());
@@ -263,6 +269,7 @@ public class TerminologyQueryFactory {
         return new SearchRequest(INDEX_NAME)
                 .source(new SearchSourceBuilder()
                         .size(1)
+                        .fetchSource(TerminologySource.FIELDS, null)
                         .query(query)
                 );
     }
@@ -271,9 +278,9 @@ public class TerminologyQueryFactory {
         Set<String> ret = new HashSet<>();
         for (SearchHit hit : response.getHits()) {
             try {
-                JsonNode terminology = objectMapper.readTree(hit.getSourceAsString());
+                TerminologySource terminology = ElasticRequestUtils.readSource(objectMapper, hit, TerminologySource.class);
                 //ret.add(hit.getId());
-                ret.add(terminology.get("type").get("graph").get("id").textValue());
+                ret.add(terminology.getGraphId());
             } catch (Exception e) {
                 log.error("Cannot parse matching terminologies response", e);
             }
@@ -285,53 +292,49 @@ public class TerminologyQueryFactory {
                                                    TerminologySearchRequest request,
                                                    Map<String, List<DeepSearchHitListDTO<?>>> deepSearchHitList) {
         List<TerminologyDTO> terminologies = new ArrayList<>();
-        var ret = new TerminologySearchResponse(0, pageFrom(request), terminologies, deepSearchHitList);
+        var ret = new TerminologySearchResponse(0, resultStart(request), terminologies, deepSearchHitList);
         try {
             SearchHits hits = response.getHits();
             ret.setTotalHitCount(hits.getTotalHits());
             var highlightPattern = ElasticRequestUtils.createHighlightPattern(request.getQuery());
             for (SearchHit hit : hits) {
-                JsonNode terminology = objectMapper.readTree(hit.getSourceAsString());
-                // NOTE: terminology.get("id") would make more sense, but currently concepts contain only graph id => use it here also.
-                String terminologyId = terminology.get("type").get("graph").get("id").textValue();
-                String terminologyCode = ElasticRequestUtils.getTextValueOrNull(terminology, "code");
-                String terminologyUri = ElasticRequestUtils.getTextValueOrNull(terminology, "uri");
-
-                JsonNode properties = terminology.get("properties");
-                JsonNode statusArray = properties.get("status");
-                String terminologyStatus = statusArray != null && statusArray.has(0) ? statusArray.get(0).get("value").textValue() : "DRAFT";
-                JsonNode terminologyTypeArray = properties.get("terminologyType");
-                String terminologyType = terminologyTypeArray != null ? (terminologyTypeArray.has(0) ? terminologyTypeArray.get(0).get("value").textValue() : "TERMINOLOGICAL_VOCABULARY") : "TERMINOLOGICAL_VOCABULARY";
-                Map<String, String> labelMap = ElasticRequestUtils.labelFromLangValueArray(properties.get("prefLabel"));
-                Map<String, String> descriptionMap = ElasticRequestUtils.labelFromLangValueArray(properties.get("description"));
+                TerminologySource terminology = ElasticRequestUtils.readSource(objectMapper, hit, TerminologySource.class);
+                String terminologyId = terminology.getGraphId();
+                String terminologyCode = terminology.getCode();
+                String terminologyUri = terminology.getUri();
+
+                TerminologySource.Properties properties = terminology.getProperties();
+                String terminologyStatus = Objects.requireNonNullElse(TerminologySource.firstValue(properties.getStatus()), "DRAFT");
+                String terminologyType = Objects.requireNonNullElse(TerminologySource.firstValue(properties.getTerminologyType()), "TERMINOLOGICAL_VOCABULARY");
+                Map<String, String> labelMap = TerminologySource.localized(properties.getPrefLabel());
+                Map<String, String> descriptionMap = TerminologySource.localized(properties.getDescription());
 
                 if(!request.getHideHighlights()){
                     ElasticRequestUtils.highlightLabel(labelMap, highlightPattern);
                 }
 
-                JsonNode references = terminology.get("references");
-                JsonNode domainArray = references.get("inGroup");
-                JsonNode contributorArray = references.get("contributor");
+                TerminologySource.References references = terminology.getReferences();
+                List<TerminologySource.Reference> domainArray = references.getInGroup();
+                List<TerminologySource.Reference> contributorArray = references.getContributor();
                 List<InformationDomainDTO> domains = new ArrayList<>();
                 List<OrganizationDTO> contributors = new ArrayList<>();
                 if (domainArray != null) {
-                    for (JsonNode domain : domainArray) {
-                        String domainId = domain.get("id").textValue();
-                        Map<String, String> domainLabel = ElasticRequestUtils.labelFromLangValueArray(domain.get("properties").get("prefLabel"));
-                        domains.add(new InformationDomainDTO(domainId, domainLabel));
+                    for (TerminologySource.Reference domain : domainArray) {
+                        Map<String, String> domainLabel = TerminologySource.localized(domain.getProperties().getPrefLabel());
+                        domains.add(new InformationDomainDTO(domain.getId(), domainLabel));
                     }
                 }
                 if (contributorArray != null) {
-                    for (JsonNode contributor : contributorArray) {
-                        String orgId = contributor.get("id").textValue();
-                        Map<String, String> orgLabel = ElasticRequestUtils.labelFromLangValueArray(contributor.get("properties").get("prefLabel"));
-                        contributors.add(new OrganizationDTO(orgId, orgLabel));
+                    for (TerminologySource.Reference contributor : contributorArray) {
+                        Map<String, String> orgLabel = TerminologySource.localized(contributor.getProperties().getPrefLabel());
+                        contributors.add(new OrganizationDTO(contributor.getId(), orgLabel));
                     }
                 }
 
                 terminologies.add(new TerminologyDTO(terminologyId, terminologyCode, terminologyUri, terminologyStatus, terminologyType, labelMap, descriptionMap, domains, contributors));
 
             }
+            ret.setSearchAfter(SearchAfterCursor.nextCursor(hits.getHits(), pageSize(request)));
         } catch (Exception e) {
             log.error("Cannot parse terminology query response", e);
         }
@@ -346,6 +349,16 @@ public class TerminologyQueryFactory {
         return DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * Offset is not known when paging with a searchAfter cursor
+     */
+    private Integer resultStart(TerminologySearchRequest request) {
+        if (request.getSearchAfter() != null && !request.getSearchAfter().isEmpty()) {
+            return null;
+        }
+        return pageFrom(request);
+    }
+
     private int pageFrom(TerminologySearchRequest request) {
         Integer from = request.getPageFrom();
         if (from != null && from >= 0) {
@@ -0,0 +1,174 @@
+package fi.vm.yti.terminology.api.frontend.elasticqueries;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Fields of a terminology document (Termed node) rendered by frontend searches. Decoded
+ * directly from the source bytes of a hit, see
+ * {@link fi.vm.yti.terminology.api.util.ElasticRequestUtils#readSource}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TerminologySource {
+
+    /**
+     * Source fields needed for {@link TerminologySource}, use with source filtering
+     */
+    static final String[] FIELDS = {
+            "type.graph.id", "code", "uri",
+            "properties.prefLabel", "properties.description", "properties.status", "properties.terminologyType",
+            "references.inGroup.id", "references.inGroup.properties.prefLabel",
+            "references.contributor.id", "references.contributor.properties.prefLabel"
+    };
+
+    /**
+     * Source fields needed for resolving only the terminology id
+     */
+    static final String[] ID_FIELDS = { "type.graph.id" };
+
+    private Type type;
+    private String code;
+    private String uri;
+    private Properties properties;
+    private References references;
+
+    /**
+     * NOTE: id of the node would make more sense, but currently concepts contain only graph id => use it here also.
+     */
+    public String getGraphId() {
+        return type != null && type.graph != null ? type.graph.id : null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public Properties getProperties() {
+        return properties;
+    }
+
+    public References getReferences() {
+        return references;
+    }
+
+    /**
+     * @return localized values by language, same as {@link fi.vm.yti.terminology.api.util.ElasticRequestUtils#labelFromLangValueArray}
+     */
+    static Map<String, String> localized(List<LangValue> values) {
+        Map<String, String> ret = new HashMap<>();
+        if (values != null) {
+            for (LangValue value : values) {
+                ret.put(value.lang, value.value);
+            }
+        }
+        return !ret.isEmpty() ? ret : null;
+    }
+
+    /**
+     * @return value of a single valued property or null
+     */
+    static String firstValue(List<LangValue> values) {
+        return values != null && !values.isEmpty() ? values.get(0).value : null;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Type {
+
+        private Graph graph;
+
+        public Graph getGraph() {
+            return graph;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Graph {
+
+        private String id;
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Properties {
+
+        private List<LangValue> prefLabel;
+        private List<LangValue> description;
+        private List<LangValue> status;
+        private List<LangValue> terminologyType;
+
+        public List<LangValue> getPrefLabel() {
+            return prefLabel;
+        }
+
+        public List<LangValue> getDescription() {
+            return description;
+        }
+
+        public List<LangValue> getStatus() {
+            return status;
+        }
+
+        public List<LangValue> getTerminologyType() {
+            return terminologyType;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class References {
+
+        private List<Reference> inGroup;
+        private List<Reference> contributor;
+
+        public List<Reference> getInGroup() {
+            return inGroup;
+        }
+
+        public List<Reference> getContributor() {
+            return contributor;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Reference {
+
+        private String id;
+        private Properties properties;
+
+        public String getId() {
+            return id;
+        }
+
+        public Properties getProperties() {
+            return properties;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class LangValue {
+
+        private String lang;
+        private String value;
+
+        public String getLang() {
+            return lang;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
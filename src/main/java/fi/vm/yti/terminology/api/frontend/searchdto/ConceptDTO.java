@@ -13,6 +13,10 @@ public class ConceptDTO extends ConceptSimpleDTO {
     private List<String> broader;
     private TerminologySimpleDTO terminology;
 
+    // Jackson constructor
+    private ConceptDTO() {
+    }
+
     public ConceptDTO(final String id,
                       final String uri,
                       final String status,
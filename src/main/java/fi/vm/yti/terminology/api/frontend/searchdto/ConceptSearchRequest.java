@@ -55,6 +55,7 @@ public class ConceptSearchRequest {
     private String sortLanguage;
     private Integer pageSize;
     private Integer pageFrom;
+    private String searchAfter;
     private Boolean highlight;
     private Options options;
 
@@ -154,6 +155,17 @@ public class ConceptSearchRequest {
         this.pageFrom = pageFrom;
     }
 
+    /**
+     * Cursor returned as searchAfter of the previous page. When given, pageFrom is ignored.
+     */
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+
+    public void setSearchAfter(final String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
+
     public Boolean getHighlight() {
         return highlight;
     }
@@ -193,6 +205,7 @@ public class ConceptSearchRequest {
             ", sortLanguage='" + sortLanguage + '\'' +
             ", pageSize=" + pageSize +
             ", pageFrom=" + pageFrom +
+            ", searchAfter='" + searchAfter + '\'' +
             ", highlight=" + highlight +
             ", options=" + options +
             '}';
@@ -3,11 +3,14 @@ package fi.vm.yti.terminology.api.frontend.searchdto;
 import java.util.Collections;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class ConceptSearchResponse {
 
     private long totalHitCount;
-    private int resultStart;
+    private Integer resultStart;
     private List<ConceptDTO> concepts;
+    private String searchAfter;
 
     public ConceptSearchResponse() {
         this.totalHitCount = 0;
@@ -16,7 +19,7 @@ public class ConceptSearchResponse {
     }
 
     public ConceptSearchResponse(final long totalHitCount,
-                                 final int resultStart,
+                                 final Integer resultStart,
                                  final List<ConceptDTO> concepts) {
         this.totalHitCount = totalHitCount;
         this.resultStart = resultStart;
@@ -31,11 +34,15 @@ public class ConceptSearchResponse {
         this.totalHitCount = totalHitCount;
     }
 
-    public int getResultStart() {
+    /**
+     * Offset of the first result, null when the page was requested with a searchAfter cursor
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getResultStart() {
         return resultStart;
     }
 
-    public void setResultStart(final int resultStart) {
+    public void setResultStart(final Integer resultStart) {
         this.resultStart = resultStart;
     }
 
@@ -46,4 +53,15 @@ public class ConceptSearchResponse {
     public void setConcepts(final List<ConceptDTO> concepts) {
         this.concepts = concepts;
     }
+
+    /**
+     * Cursor for the next page, null if this is the last page
+     */
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+
+    public void setSearchAfter(final String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
 }
@@ -9,6 +9,10 @@ public class ConceptSimpleDTO {
     private String status;
     private Map<String, String> label;
 
+    // Jackson constructor
+    protected ConceptSimpleDTO() {
+    }
+
     public ConceptSimpleDTO(final String id,
                             final String uri,
                             final String status,
@@ -0,0 +1,60 @@
+package fi.vm.yti.terminology.api.frontend.searchdto;
+
+import java.util.Map;
+
+public class ConceptSuggestionDTO {
+
+    private String id;
+    private String text;
+    private Map<String, String> label;
+    private TerminologySimpleDTO terminology;
+
+    // Jackson constructor
+    private ConceptSuggestionDTO() {
+    }
+
+    public ConceptSuggestionDTO(final String id,
+                                final String text,
+                                final Map<String, String> label,
+                                final TerminologySimpleDTO terminology) {
+        this.id = id;
+        this.text = text;
+        this.label = label;
+        this.terminology = terminology;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    /**
+     * Label or alternative label matching the input
+     */
+    public String getText() {
+        return text;
+    }
+
+    public void setText(final String text) {
+        this.text = text;
+    }
+
+    public Map<String, String> getLabel() {
+        return label;
+    }
+
+    public void setLabel(final Map<String, String> label) {
+        this.label = label;
+    }
+
+    public TerminologySimpleDTO getTerminology() {
+        return terminology;
+    }
+
+    public void setTerminology(final TerminologySimpleDTO terminology) {
+        this.terminology = terminology;
+    }
+}
@@ -5,10 +5,12 @@ import java.util.UUID;
 public class CreateVersionResponse {
     UUID newGraphId;
     String uri;
+    UUID jobToken;
 
-    public CreateVersionResponse(UUID newGraphId, String uri) {
+    public CreateVersionResponse(UUID newGraphId, String uri, UUID jobToken) {
         this.newGraphId = newGraphId;
         this.uri = uri;
+        this.jobToken = jobToken;
     }
 
     public UUID getNewGraphId() {
@@ -26,4 +28,12 @@ public class CreateVersionResponse {
     public void setUri(String uri) {
         this.uri = uri;
     }
+
+    public UUID getJobToken() {
+        return jobToken;
+    }
+
+    public void setJobToken(UUID jobToken) {
+        this.jobToken = jobToken;
+    }
 }
@@ -2,6 +2,11 @@ package fi.vm.yti.terminology.api.frontend.searchdto;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "type")
+@JsonSubTypes(@JsonSubTypes.Type(value = DeepSearchConceptHitListDTO.class, name = "CONCEPT"))
 public abstract class DeepSearchHitListDTO<T> {
     public enum Type {CONCEPT};
 
@@ -7,6 +7,10 @@ public class InformationDomainDTO {
     private String id;
     private Map<String, String> label;
 
+    // Jackson constructor
+    private InformationDomainDTO() {
+    }
+
     public InformationDomainDTO(final String id,
                                 final Map<String, String> label) {
         this.id = id;
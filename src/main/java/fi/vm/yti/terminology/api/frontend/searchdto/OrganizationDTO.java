@@ -6,6 +6,10 @@ public class OrganizationDTO {
     private String id;
     private Map<String, String> label;
 
+    // Jackson constructor
+    private OrganizationDTO() {
+    }
+
     public OrganizationDTO(final String id,
                            final Map<String, String> label) {
         this.id = id;
@@ -9,6 +9,10 @@ public class TerminologyDTO extends TerminologySimpleDTO {
     private List<InformationDomainDTO> informationDomains;
     private List<OrganizationDTO> contributors;
 
+    // Jackson constructor
+    private TerminologyDTO() {
+    }
+
     public TerminologyDTO(final String id,
                           final String code,
                           final String uri,
@@ -22,6 +22,7 @@ public class TerminologySearchRequest {
 
     private Integer pageSize;
     private Integer pageFrom;
+    private String searchAfter;
 
     private boolean hideHighlights;
 
@@ -106,6 +107,17 @@ public class TerminologySearchRequest {
         this.pageFrom = pageFrom;
     }
 
+    /**
+     * Cursor returned as searchAfter of the previous page. When given, pageFrom is ignored.
+     */
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+
+    public void setSearchAfter(final String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
+
     public String getLanguage() {
         return language;
     }
@@ -130,6 +142,7 @@ public class TerminologySearchRequest {
             ", prefLang=" + prefLang +
             ", pageSize=" + pageSize +
             ", pageFrom=" + pageFrom +
+            ", searchAfter='" + searchAfter + '\'' +
             '}';
     }
 }
@@ -3,13 +3,20 @@ package fi.vm.yti.terminology.api.frontend.searchdto;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class TerminologySearchResponse {
     private long totalHitCount;
-    private int resultStart;
+    private Integer resultStart;
     private List<TerminologyDTO> terminologies;
     private Map<String, List<DeepSearchHitListDTO<?>>> deepHits;
+    private String searchAfter;
+
+    // Jackson constructor
+    private TerminologySearchResponse() {
+    }
 
-    public TerminologySearchResponse(long totalHitCount, int resultStart, List<TerminologyDTO> terminologies, Map<String, List<DeepSearchHitListDTO<?>>> deepHits) {
+    public TerminologySearchResponse(long totalHitCount, Integer resultStart, List<TerminologyDTO> terminologies, Map<String, List<DeepSearchHitListDTO<?>>> deepHits) {
         this.totalHitCount = totalHitCount;
         this.resultStart = resultStart;
         this.terminologies = terminologies;
@@ -24,11 +31,15 @@ public class TerminologySearchResponse {
         this.totalHitCount = totalHitCount;
     }
 
-    public int getResultStart() {
+    /**
+     * Offset of the first result, null when the page was requested with a searchAfter cursor
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getResultStart() {
         return resultStart;
     }
 
-    public void setResultStart(final int resultStart) {
+    public void setResultStart(final Integer resultStart) {
         this.resultStart = resultStart;
     }
 
@@ -47,4 +58,15 @@ public class TerminologySearchResponse {
     public void setDeepHits(final Map<String, List<DeepSearchHitListDTO<?>>> deepHits) {
         this.deepHits = deepHits;
     }
+
+    /**
+     * Cursor for the next page, null if this is the last page
+     */
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+
+    public void setSearchAfter(final String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
 }
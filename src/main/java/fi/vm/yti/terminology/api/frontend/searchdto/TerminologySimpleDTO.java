@@ -11,6 +11,10 @@ public class TerminologySimpleDTO {
     private String type;
     private Map<String, String> label;
 
+    // Jackson constructor
+    protected TerminologySimpleDTO() {
+    }
+
     public TerminologySimpleDTO(final String id,
                                 final String code,
                                 final String uri,
@@ -5,7 +5,6 @@ import static org.springframework.http.HttpMethod.GET;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.StringReader;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -17,14 +16,11 @@ import fi.vm.yti.security.Role;
 import fi.vm.yti.security.YtiUser;
 import fi.vm.yti.terminology.api.importapi.excel.ExcelCreator;
 import fi.vm.yti.terminology.api.importapi.excel.JSONWrapper;
-import fi.vm.yti.terminology.api.mscr.SKOSMapper;
+import fi.vm.yti.terminology.api.mscr.SKOSStreamMapper;
 import fi.vm.yti.terminology.api.security.AuthorizationTermedService;
 import jakarta.ws.rs.InternalServerErrorException;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -37,6 +33,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jms.annotation.EnableJms;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import fi.vm.yti.terminology.api.TermedContentType;
 import fi.vm.yti.terminology.api.TermedRequester;
@@ -270,23 +267,20 @@ public class ExportService {
                 .body(new InputStreamResource(in));
     }
 
-	public ResponseEntity<?> getSKOS(UUID vocabularyId, Lang lang) {
-		String response = getFullVocabularyTXT(vocabularyId);
-		Model model = ModelFactory.createDefaultModel();
-		StringReader reader = new StringReader(response);
-		model.read(reader, null, "TTL");
-		reader.close();
-		
-		SKOSMapper m = new SKOSMapper();
-		Model resultModel = m.mapTermedToSKOS(model);
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		RDFDataMgr.write(out, resultModel, lang);
-		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
-		
+	public ResponseEntity<StreamingResponseBody> getSKOS(UUID vocabularyId, Lang lang) {
+		Parameters params = this.constructFullVocabularyQuery();
+		params.add("Content-Type", TermedContentType.RDF_TURTLE.getContentType());
+		String path = "/graphs/" + vocabularyId.toString() + "/node-trees";
+
+		// Termed response is mapped to SKOS while it is read and written directly to the client
+		StreamingResponseBody body = out -> termedRequester.stream(path, GET, params, TermedContentType.RDF_TURTLE, response -> {
+			SKOSStreamMapper.map(response.getBody(), out, lang);
+			return null;
+		});
+
 		return ResponseEntity
                 .ok()
-                .contentType(MediaType.valueOf(TermedContentType.RDF_TURTLE.getContentType()))
-                .body(new InputStreamResource(in));		
-		
+                .contentType(MediaType.valueOf(lang.getHeaderString()))
+                .body(body);
 	}
 }
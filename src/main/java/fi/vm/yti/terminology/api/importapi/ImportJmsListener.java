@@ -1,21 +1,16 @@
 package fi.vm.yti.terminology.api.importapi;
 
-import java.io.Reader;
-import java.io.StringReader;
+import java.io.IOException;
 import java.util.UUID;
 
 import javax.jms.JMSException;
 import javax.jms.Session;
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Marshaller;
-import jakarta.xml.bind.Unmarshaller;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.annotation.Header;
@@ -24,17 +19,19 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.stereotype.Component;
 
-import fi.vm.yti.terminology.api.model.ntrf.VOCABULARY;
-
 @Component
 public class ImportJmsListener {
 
     private static final Logger logger = LoggerFactory.getLogger(ImportJmsListener.class);
 
-    private final NtrfMapper ntrfMapper;
+    /** Mapper keeps the state of one import, so each message gets its own */
+    private final ObjectProvider<NtrfMapper> ntrfMappers;
+    private final NtrfDocumentStore documentStore;
 
-    public ImportJmsListener(NtrfMapper ntrfMapper) {
-        this.ntrfMapper = ntrfMapper;
+    public ImportJmsListener(ObjectProvider<NtrfMapper> ntrfMappers,
+                             NtrfDocumentStore documentStore) {
+        this.ntrfMappers = ntrfMappers;
+        this.documentStore = documentStore;
     }
 
     /**
@@ -59,14 +56,18 @@ public class ImportJmsListener {
 
         String payload = "{}";
 
-        // Process ntrf item
+        // Process ntrf item, payload is the reference of the uploaded document in the document store
+        String document = message.getPayload();
         try {
-            VOCABULARY voc = NtrfUtil.unmarshallXmlDocument(message.getPayload());
-            payload = ntrfMapper.mapNtrfDocument(jobtoken, UUID.fromString(vocabularyId), voc, UUID.fromString(userId));
+            payload = ntrfMappers.getObject().mapNtrfDocument(jobtoken, UUID.fromString(vocabularyId), documentStore.reader(document), UUID.fromString(userId));
         } catch (XMLStreamException se) {
             logger.error(se.getMessage(), se);
         } catch(JAXBException je) {
             logger.error(je.getMessage(), je);
+        } catch (IOException ie) {
+            logger.error(ie.getMessage(), ie);
+        } finally {
+            documentStore.remove(document);
         }
 
         logger.info("Import handled: {}", payload);
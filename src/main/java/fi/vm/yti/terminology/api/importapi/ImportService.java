@@ -2,11 +2,8 @@ package fi.vm.yti.terminology.api.importapi;
 
 import static fi.vm.yti.security.AuthorizationException.check;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,9 +13,7 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.annotation.PreDestroy;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import org.apache.poi.openxml4j.util.ZipSecureFile;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -47,7 +42,7 @@ import fi.vm.yti.terminology.api.importapi.excel.ExcelParser;
 import fi.vm.yti.terminology.api.importapi.excel.TerminologyImportDTO;
 import fi.vm.yti.terminology.api.importapi.simpleexcel.SimpleExcelParser;
 import fi.vm.yti.terminology.api.migration.DomainIndex;
-import fi.vm.yti.terminology.api.model.ntrf.VOCABULARY;
+import fi.vm.yti.terminology.api.model.ntrf.RECORD;
 import fi.vm.yti.terminology.api.model.termed.Attribute;
 import fi.vm.yti.terminology.api.model.termed.GenericNode;
 import fi.vm.yti.terminology.api.model.termed.Graph;
@@ -55,10 +50,7 @@ import fi.vm.yti.terminology.api.model.termed.NodeType;
 import fi.vm.yti.terminology.api.mscr.SKOSMapper;
 import fi.vm.yti.terminology.api.security.AuthorizationManager;
 import fi.vm.yti.terminology.api.util.JsonUtils;
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Marshaller;
-import jakarta.xml.bind.Unmarshaller;
 
 @Service
 @EnableJms
@@ -92,6 +84,7 @@ public class ImportService {
     private final AuthenticatedUserProvider userProvider;
     private final AuthorizationManager authorizationManager;
     private final YtiMQService ytiMQService;
+    private final NtrfDocumentStore documentStore;
 
     private final String subSystem;
     private final Integer batchSize;
@@ -102,6 +95,7 @@ public class ImportService {
                          AuthenticatedUserProvider userProvider,
                          AuthorizationManager authorizationManager,
                          YtiMQService ytiMQService,
+                         NtrfDocumentStore documentStore,
                          @Value("${mq.active.subsystem}") String subSystem,
                          @Value("${mq.batch.size:100}") Integer batchSize) {
         this.groupManagementService = groupManagementService;
@@ -110,6 +104,7 @@ public class ImportService {
         this.authorizationManager = authorizationManager;
         this.subSystem = subSystem;
         this.ytiMQService = ytiMQService;
+        this.documentStore = documentStore;
         this.batchSize = batchSize;
     }
 
@@ -196,62 +191,60 @@ public class ImportService {
         }
         rv = new ImportResponse(operationId.toString()).toString();
         // Handle incoming xml
+        String document = null;
+        boolean sent = false;
         try {
             ytiMQService.setStatus(YtiMQService.STATUS_PREPROCESSING, operationId.toString(), userProvider.getUser().getId().toString(), vocabulary.getUri(),"Validating");
-            JAXBContext jc = JAXBContext.newInstance(VOCABULARY.class);
-            // Disable DOCTYPE-directive from incoming file.
-            XMLInputFactory xif = XMLInputFactory.newFactory();
-            xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
-            xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
-            XMLStreamReader xsr = xif.createXMLStreamReader(file.getInputStream());
-            Unmarshaller unmarshaller = jc.createUnmarshaller();
-            Marshaller marshaller = jc.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            // At last, resolve ntrf-POJO's
-            VOCABULARY voc = (VOCABULARY) unmarshaller.unmarshal(xsr);
-
-            // All set up, execute actual import
-            List<?> l = voc.getRECORDAndHEADAndDIAG();
-            LOGGER.info("Incoming objects count={}", l.size());
+            // Upload is stored once, only its reference is passed to the import listener in the message
+            try (InputStream is = file.getInputStream()) {
+                document = documentStore.store(operationId, is);
+            }
+            // Go through the document without unmarshalling it to check that it is readable
+            int recordCount = documentStore.reader(document).count(RECORD.class);
+
+            LOGGER.info("Incoming records count={}", recordCount);
             ImportStatusResponse response = new ImportStatusResponse();
             response.setStatus(ImportStatus.PREPROCESSING);
-            response.addStatusMessage(new ImportStatusMessage("Vocabulary",l.size()+" items validated"));
-            response.setProcessingTotal(l.size());
+            response.addStatusMessage(new ImportStatusMessage("Vocabulary",recordCount+" items validated"));
+            response.setProcessingTotal(recordCount);
             ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, operationId.toString(), userProvider.getUser().getId().toString(), vocabulary.getUri(),response.toString());
-            StringWriter sw = new StringWriter();
-            marshaller.marshal(voc, sw);
             // Add application specific headers
             MessageHeaderAccessor accessor = new MessageHeaderAccessor();
             accessor.setHeader("vocabularyId",vocabularyId.toString());
             accessor.setHeader("format","NTRF");
-            int stat = ytiMQService.handleImportAsync(operationId, accessor, subSystem, vocabulary.getUri(), sw.toString());
+            int stat = ytiMQService.handleImportAsync(operationId, accessor, subSystem, vocabulary.getUri(), document);
             if(stat != HttpStatus.OK.value()){
                 LOGGER.error("Import failed code:{}", stat);
+            } else {
+                sent = true;
             }
         } catch (IOException | JAXBException | XMLStreamException e){
             LOGGER.error("Incoming transform error={}", e, e);
+        } finally {
+            // Import listener removes the document after processing it
+            if (document != null && !sent) {
+                documentStore.remove(document);
+            }
         }
         return new ResponseEntity<>( rv, HttpStatus.OK);
     }
 
-    public UUID handleSimpleSKOSImport(UUID terminologyId, InputStream is) throws Exception {
-    	SKOSMapper m = new SKOSMapper();    	    	
-    	InputStream is2 = null;
-    	try {
-    		File outputFile = m.mapToSimpleExcel(is);
-    		is2 = new FileInputStream(outputFile);
-    		return handleSimpleExcelImport(terminologyId, is2, true);
-    	}catch(Exception ex) {
-    		if(is2 != null) {
-    			try {
-					is2.close();
-				} catch (IOException ioex) {
-					throw ioex;
-				}
-    		}
-    		throw ex;
-    	}
-    }    
+    public UUID handleSimpleSKOSImport(UUID terminologyId, InputStream is) throws NullPointerException {
+        check(authorizationManager.canModifyAllGraphs(List.of(terminologyId)));
+        boolean exists = terminologyExists(terminologyId);
+        if (!exists) {
+            throw new NullPointerException("Terminology doesnt exist");
+        }
+
+        var node = termedService.getVocabulary(terminologyId);
+        List<String> languages = node.getProperties().get("language").stream().map(Attribute::getValue).collect(Collectors.toList());
+
+        // Concepts are mapped directly to nodes, original URIs are preserved
+        List<GenericNode> nodes = new SKOSMapper().mapToNodes(is, terminologyId, languages);
+
+        return startSimpleImport(terminologyId, node.getUri(), nodes);
+    }
+
     public UUID handleSimpleExcelImport(UUID terminologyId, InputStream is) throws NullPointerException {
     	return handleSimpleExcelImport(terminologyId, is, false);
     	
@@ -283,7 +276,11 @@ public class ImportService {
     		});
         	
         }
-        
+
+        return startSimpleImport(terminologyId, node.getUri(), nodes);
+    }
+
+    private UUID startSimpleImport(UUID terminologyId, String terminologyUri, List<GenericNode> nodes) {
         check(authorizationManager.canModifyNodes(nodes));
 
         //JOB
@@ -295,7 +292,7 @@ public class ImportService {
 
         List<List<GenericNode>> batches = ImportUtil.getBatches(nodes, batchSize);
 
-        ytiMQService.handleExcelImportAsync(jobToken, accessor, node.getUri(), batches);
+        ytiMQService.handleExcelImportAsync(jobToken, accessor, terminologyUri, batches);
 
         return jobToken;
     }
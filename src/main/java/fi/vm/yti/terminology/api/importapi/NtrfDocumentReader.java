@@ -0,0 +1,139 @@
+package fi.vm.yti.terminology.api.importapi;
+
+import fi.vm.yti.terminology.api.model.ntrf.REFERENCES;
+import fi.vm.yti.terminology.api.model.ntrf.VOCABULARY;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+import jakarta.xml.bind.annotation.XmlRootElement;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Reads top level elements (RECORD, DIAG, REFERENCES...) of a NTRF document.
+ *
+ * When created for a stored document, document is streamed from the file with StAX and
+ * only the requested elements are unmarshalled, one at a time. Each call to
+ * {@link #forEach} is a new pass over the file, so memory use is proportional to a single
+ * element, not to the document.
+ */
+public class NtrfDocumentReader {
+
+    private final Path document;
+    private final VOCABULARY vocabulary;
+
+    /**
+     * @param document NTRF document file, encoding is detected by the XML parser
+     */
+    public NtrfDocumentReader(Path document) {
+        this.document = document;
+        this.vocabulary = null;
+    }
+
+    /**
+     * @param vocabulary already unmarshalled NTRF document
+     */
+    public NtrfDocumentReader(VOCABULARY vocabulary) {
+        this.document = null;
+        this.vocabulary = vocabulary;
+    }
+
+    /**
+     * Counts top level elements of given type. Elements are skipped, not unmarshalled.
+     */
+    public int count(Class<?> type) throws XMLStreamException, JAXBException, IOException {
+        return iterate(type, null);
+    }
+
+    /**
+     * Unmarshals top level elements of given type in document order and passes them to the consumer.
+     *
+     * @return number of elements handled
+     */
+    public <T> int forEach(Class<T> type, Consumer<? super T> consumer) throws XMLStreamException, JAXBException, IOException {
+        return iterate(type, consumer);
+    }
+
+    private <T> int iterate(Class<T> type, Consumer<? super T> consumer) throws XMLStreamException, JAXBException, IOException {
+        if (vocabulary != null) {
+            return iterateInMemory(type, consumer);
+        }
+
+        String elementName = type.getAnnotation(XmlRootElement.class).name();
+        Unmarshaller unmarshaller = NtrfUtil.getUnmarshaller();
+        int count = 0;
+
+        try (InputStream is = Files.newInputStream(document)) {
+            XMLStreamReader xsr = NtrfUtil.createXMLStreamReader(is);
+            try {
+                // Move inside root element (VOCABULARY), skipping prolog and DOCTYPE
+                while (!xsr.isStartElement()) {
+                    xsr.next();
+                }
+                xsr.next();
+
+                while (xsr.getEventType() != XMLStreamReader.END_DOCUMENT) {
+                    if (!xsr.isStartElement()) {
+                        xsr.next();
+                        continue;
+                    }
+                    if (elementName.equals(xsr.getLocalName())) {
+                        count++;
+                        if (consumer != null) {
+                            // Unmarshaller leaves the reader positioned after the element's end tag
+                            consumer.accept(unmarshaller.unmarshal(xsr, type).getValue());
+                            continue;
+                        }
+                    }
+                    skipElement(xsr);
+                }
+            } finally {
+                xsr.close();
+            }
+        }
+        return count;
+    }
+
+    private <T> int iterateInMemory(Class<T> type, Consumer<? super T> consumer) {
+        int count = 0;
+        if (type == REFERENCES.class) {
+            if (vocabulary.getREFERENCES() != null) {
+                count++;
+                if (consumer != null) {
+                    consumer.accept(type.cast(vocabulary.getREFERENCES()));
+                }
+            }
+            return count;
+        }
+        for (Object o : vocabulary.getRECORDAndHEADAndDIAG()) {
+            if (type.isInstance(o)) {
+                count++;
+                if (consumer != null) {
+                    consumer.accept(type.cast(o));
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Moves reader from the start tag of current element to the event following its end tag.
+     */
+    private static void skipElement(XMLStreamReader xsr) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xsr.next();
+            if (event == XMLStreamReader.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            }
+        }
+        xsr.next();
+    }
+}
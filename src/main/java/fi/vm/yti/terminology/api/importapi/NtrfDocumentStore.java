@@ -0,0 +1,93 @@
+package fi.vm.yti.terminology.api.importapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Uploaded NTRF documents waiting for the import listener. The upload is written once to
+ * the store and only its reference is passed in the import message. Each pass of
+ * {@link NtrfDocumentReader} streams the document from the store.
+ *
+ * When several instances consume the import queue, the directory must be on storage
+ * shared by all of them.
+ */
+@Component
+public class NtrfDocumentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(NtrfDocumentStore.class);
+
+    private static final String SUFFIX = ".xml";
+
+    private final Path directory;
+    private final long retentionHours;
+
+    public NtrfDocumentStore(@Value("${ntrf.import.dir:${java.io.tmpdir}/ntrf-import}") String directory,
+                             @Value("${ntrf.import.retention.hours:24}") long retentionHours) {
+        this.directory = Path.of(directory);
+        this.retentionHours = retentionHours;
+    }
+
+    /**
+     * @return reference to the stored document
+     */
+    public String store(UUID operationId, InputStream document) throws IOException {
+        Files.createDirectories(directory);
+        String reference = operationId.toString();
+        Files.copy(document, path(reference), StandardCopyOption.REPLACE_EXISTING);
+        return reference;
+    }
+
+    public NtrfDocumentReader reader(String reference) {
+        return new NtrfDocumentReader(path(reference));
+    }
+
+    public void remove(String reference) {
+        try {
+            Files.deleteIfExists(path(reference));
+        } catch (IOException e) {
+            logger.warn("Could not remove NTRF document {}", reference, e);
+        }
+    }
+
+    /**
+     * Removes documents left behind by imports that never finished, e.g. because the
+     * instance processing them was stopped.
+     */
+    @Scheduled(cron = "${ntrf.import.cleanup:0 15 5 * * *}")
+    public void removeAbandonedDocuments() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Instant expired = Instant.now().minus(retentionHours, ChronoUnit.HOURS);
+        try (DirectoryStream<Path> documents = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path document : documents) {
+                if (Files.getLastModifiedTime(document).toInstant().isBefore(expired)) {
+                    logger.info("Removing abandoned NTRF document {}", document.getFileName());
+                    Files.deleteIfExists(document);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not remove abandoned NTRF documents", e);
+        }
+    }
+
+    /**
+     * Reference comes from a message, so only operation ids are accepted
+     */
+    private Path path(String reference) {
+        return directory.resolve(UUID.fromString(reference) + SUFFIX);
+    }
+}
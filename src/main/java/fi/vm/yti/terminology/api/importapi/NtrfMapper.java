@@ -2,8 +2,10 @@ package fi.vm.yti.terminology.api.importapi;
 
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
 import static org.springframework.http.HttpMethod.POST;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
@@ -14,16 +16,21 @@ import java.util.regex.Matcher;
 
 import java.util.stream.Collectors;
 
+import javax.xml.stream.XMLStreamException;
+
 import fi.vm.yti.terminology.api.frontend.Status;
 import fi.vm.yti.terminology.api.model.ntrf.*;
 import fi.vm.yti.terminology.api.model.termed.*;
 import fi.vm.yti.terminology.api.resolve.ResolveService;
 import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
 
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpServerErrorException;
 
@@ -35,11 +42,28 @@ import fi.vm.yti.terminology.api.importapi.ImportStatusResponse.ImportStatus;
 import fi.vm.yti.terminology.api.util.JsonUtils;
 import fi.vm.yti.terminology.api.util.Parameters;
 
+/**
+ * Maps one NTRF document to Termed nodes. Ids, pending concept links, status messages and
+ * counters of the import are kept in fields, so a new instance is used for each import.
+ */
 @Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 public class NtrfMapper {
 
     private static final String USER_PASSWORD = "user";
     private static final UUID NULL_ID = UUID.fromString("00000000-0000-0000-0000-000000000000");
+    /**
+     * Concept references which are removed before existing concept is updated
+     */
+    private static final List<String> CLEANED_REFERENCES = List.of(
+            "prefLabelXl",
+            "altLabelXl",
+            "notRecommendedSynonym",
+            "exactMatch",
+            "closeMatch",
+            "broadMatch",
+            "relatedMatch",
+            "narrowMatch");
 
     private final TermedRequester termedRequester;
     private final FrontendTermedService termedService;
@@ -62,6 +86,11 @@ public class NtrfMapper {
      * reference resolving after all concepts and terms are created
      */
     private final HashMap<String, UUID> createdIdMap = new HashMap<>();
+    /**
+     * Map containing existing concept id as a key and its term and match references
+     * as a value. Fetched with one query per import and used when updating concepts.
+     */
+    private final Map<UUID, List<Identifier>> conceptReferenceIndex = new HashMap<>();
 
     /**
      * Map binding together reference string and external URL fromn ntrf
@@ -81,6 +110,8 @@ public class NtrfMapper {
     private final List<StatusMessage> statusList = new ArrayList<>();
 
     int errorCount = 0;
+    private int flushCount = 0;
+    private int currentCount = 0;
 
     private static final Logger logger = LoggerFactory.getLogger(NtrfMapper.class);
 
@@ -130,13 +161,27 @@ public class NtrfMapper {
     }
 
     /**
-     * Executes import operation. Reads incoming xml and process it
+     * Executes import operation for an already unmarshalled document
+     * 
+     * @param vocabularyId
+     * @param ntrfDocument
+     * @return
+     */
+    public String mapNtrfDocument(String jobtoken, UUID vocabularyId, VOCABULARY ntrfDocument, UUID userId)
+            throws IOException, XMLStreamException, JAXBException {
+        return mapNtrfDocument(jobtoken, vocabularyId, new NtrfDocumentReader(ntrfDocument), userId);
+    }
+
+    /**
+     * Executes import operation. Reads incoming xml and process it. Document is read
+     * element by element, so the whole vocabulary is never held in memory.
      * 
      * @param vocabularyId
      * @param ntrfDocument
      * @return
      */
-    public String mapNtrfDocument(String jobtoken, UUID vocabularyId, VOCABULARY ntrfDocument, UUID userId) {
+    public String mapNtrfDocument(String jobtoken, UUID vocabularyId, NtrfDocumentReader ntrfDocument, UUID userId)
+            throws IOException, XMLStreamException, JAXBException {
         logger.info("mapNtRfDocument: Vocabulary Id: {}", vocabularyId);
 
         Graph vocabulary;
@@ -161,83 +206,38 @@ public class NtrfMapper {
             return "Vocabulary:<" + vocabularyId + "> initialization error";
         }
 
-        // Get statistic of terms
-        List<?> l = ntrfDocument.getRECORDAndHEADAndDIAG();
-        logger.info("Incoming objects count={}", l.size());
+        // Prefetch references of existing concepts, which are cleaned when concept is updated
+        conceptReferenceIndex.clear();
+        if (!idMap.isEmpty()) {
+            conceptReferenceIndex.putAll(termedService.getConceptReferences(vocabularyId, CLEANED_REFERENCES));
+        }
 
         // Get all reference-elements and build reference-url-map
-        List<REFERENCES> externalReferences = l.stream()
-                .filter(REFERENCES.class::isInstance)
-                .map(o -> (REFERENCES) o)
-                .collect(Collectors.toList());
+        int referenceCount = ntrfDocument.forEach(REFERENCES.class,
+                references -> handleReferences(singletonList(references), referenceMap));
+        logger.info("Incoming reference count={}", referenceCount);
 
-        handleReferences(externalReferences, referenceMap);
-        logger.info("Incoming reference count={}", externalReferences.size());
-
-        // Get all records (mapped to terms) from incoming ntrf-document. Check object
-        // type and typecast matching objects to list<>
-        List<RECORD> records = l.stream()
-                .filter(RECORD.class::isInstance)
-                .map(o -> (RECORD) o)
-                .collect(Collectors.toList());
+        // Get statistic of records (mapped to terms) from incoming ntrf-document
+        int recordCount = ntrfDocument.count(RECORD.class);
+        logger.info("Incoming records count={}", recordCount);
 
-        logger.info("Incoming records count={}", records.size());
         List<GenericNode> addNodeList = new ArrayList<>();
         List<Identifier> deleteNodeList = new ArrayList<>();
 
         ImportStatusResponse response = new ImportStatusResponse();
         response.setStatus(ImportStatus.PROCESSING);
         response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Import started"));
-        response.setProcessingTotal(records.size());
+        response.setProcessingTotal(recordCount);
         response.setProcessingProgress(0);
 
         ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, jobtoken, userId.toString(), vocabulary.getUri(),
                 response.toString());
-        int flushCount = 0;
-        int currentCount = 0;
-
-        for (RECORD o : records) {
-            currentRecord = o.getNumb();
-            handleRECORD(vocabulary, o, addNodeList, deleteNodeList);
-            flushCount++;
-            currentCount++;
-            response.setStatus(ImportStatus.PROCESSING);
-            response.clearStatusMessages(); // Forget previous
-            response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Processing records"));
-            response.setProcessingProgress(currentCount);
-            response.setResultsError(errorCount);
-            ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, jobtoken, userId.toString(), vocabulary.getUri(),
-                    response.toString());
-            // Flush datablock to the termed
-            if (flushCount > 100) {
-                flushCount = 0;
-                GenericDeleteAndSave operation = new GenericDeleteAndSave(deleteNodeList, addNodeList);
-
-                if (logger.isDebugEnabled()) {
-                    logger.debug(JsonUtils.prettyPrintJsonAsString(operation));
-                }
+        flushCount = 0;
+        currentCount = 0;
 
-                response.setStatus(ImportStatus.PROCESSING);
-                response.clearStatusMessages(); // Forget previous
-                if (!updateAndDeleteInternalNodes(userId, operation, true)) {
-                    response.addStatusMessage(new ImportStatusMessage("Vocabulary",
-                            "Processing records, import failed for " + currentRecord));
-                    errorCount++;
-                } else {
-                    response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Processing records"));
-                    // Import successfull, add id:s to resolved one.
-                    addNodeList.forEach(node -> {
-                        // Add id for reference resolving
-                        createdIdMap.put(node.getCode(), node.getId());
-                    });
-                }
-                response.setProcessingProgress(currentCount);
-                ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, jobtoken, userId.toString(), vocabulary.getUri(),
-                        response.toString());
+        ntrfDocument.forEach(RECORD.class,
+                o -> processRecord(jobtoken, userId, vocabulary, o, addNodeList, deleteNodeList, response));
 
-                addNodeList.clear();
-            }
-        }
         GenericDeleteAndSave operation = new GenericDeleteAndSave(deleteNodeList, addNodeList);
 
         if (logger.isDebugEnabled()) {
@@ -256,6 +256,7 @@ public class NtrfMapper {
         }
 
         List<GenericNode> addNodeListReferences = new ArrayList<>();
+        conceptReferenceIndex.clear();
 
         // ReInitialize caches and after that, resolve rcon- and ncon-references
         idMap.clear();
@@ -267,19 +268,14 @@ public class NtrfMapper {
         handleLinks(userId, vocabulary);
 
         // Handle DIAG-elements and create collections from them
-        List<DIAG> DIAGList = l.stream()
-                .filter(DIAG.class::isInstance)
-                .map(o -> (DIAG) o)
-                .collect(Collectors.toList());
+        int diagCount = ntrfDocument.forEach(DIAG.class,
+                o -> handleDIAG(vocabulary, o, addNodeListReferences));
 
-        logger.debug("DIAG-count={}", DIAGList.size());
+        logger.debug("DIAG-count={}", diagCount);
 
-        for (DIAG o : DIAGList) {
-            handleDIAG(vocabulary, o, addNodeListReferences);
-        }
         response.setStatus(ImportStatus.PROCESSING);
-        response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Processing DIAG number=" + DIAGList.size()));
-        response.setProcessingProgress(records.size());
+        response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Processing DIAG number=" + diagCount));
+        response.setProcessingProgress(recordCount);
         ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, jobtoken, userId.toString(), vocabulary.getUri(),
                 response.toString());
         // Add DIAG-list to vocabulary
@@ -295,7 +291,7 @@ public class NtrfMapper {
 
         Long endTime = new Date().getTime();
         logger.info("Operation took {} s", (endTime - startTime) / 1000);
-        logger.info("NTRF-imported {} concepts", records.size());
+        logger.info("NTRF-imported {} concepts", recordCount);
       
         response.clearStatusMessages();
 
@@ -305,8 +301,8 @@ public class NtrfMapper {
             logger.info("Item: {} value: {}", m.getRecord(), m.getMessage());
         });
 
-        response.setProcessingTotal(records.size());
-        response.setProcessingProgress(records.size());
+        response.setProcessingTotal(recordCount);
+        response.setProcessingProgress(recordCount);
         response.setResultsWarning(statusList.size());
         response.setResultsError(errorCount);
 
@@ -325,6 +321,53 @@ public class NtrfMapper {
         return response.toString();
     }
 
+    /**
+     * Maps single RECORD and flushes collected nodes to termed every 100 records
+     */
+    private void processRecord(String jobtoken, UUID userId, Graph vocabulary, RECORD o,
+            List<GenericNode> addNodeList, List<Identifier> deleteNodeList, ImportStatusResponse response) {
+        currentRecord = o.getNumb();
+        handleRECORD(vocabulary, o, addNodeList, deleteNodeList);
+        flushCount++;
+        currentCount++;
+        response.setStatus(ImportStatus.PROCESSING);
+        response.clearStatusMessages(); // Forget previous
+        response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Processing records"));
+        response.setProcessingProgress(currentCount);
+        response.setResultsError(errorCount);
+        ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, jobtoken, userId.toString(), vocabulary.getUri(),
+                response.toString());
+        // Flush datablock to the termed
+        if (flushCount > 100) {
+            flushCount = 0;
+            GenericDeleteAndSave operation = new GenericDeleteAndSave(deleteNodeList, addNodeList);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug(JsonUtils.prettyPrintJsonAsString(operation));
+            }
+
+            response.setStatus(ImportStatus.PROCESSING);
+            response.clearStatusMessages(); // Forget previous
+            if (!updateAndDeleteInternalNodes(userId, operation, true)) {
+                response.addStatusMessage(new ImportStatusMessage("Vocabulary",
+                        "Processing records, import failed for " + currentRecord));
+                errorCount++;
+            } else {
+                response.addStatusMessage(new ImportStatusMessage("Vocabulary", "Processing records"));
+                // Import successfull, add id:s to resolved one.
+                addNodeList.forEach(node -> {
+                    // Add id for reference resolving
+                    createdIdMap.put(node.getCode(), node.getId());
+                });
+            }
+            response.setProcessingProgress(currentCount);
+            ytiMQService.setStatus(YtiMQService.STATUS_PROCESSING, jobtoken, userId.toString(), vocabulary.getUri(),
+                    response.toString());
+
+            addNodeList.clear();
+        }
+    }
+
     private void addConMap(Map<String, List<ConnRef>> conMap, String connType, UUID userId,
             Graph vocabulary) {
         List<GenericNode> addNodeList = new ArrayList<>();
@@ -600,19 +643,18 @@ public class NtrfMapper {
      */
     private void cleanReferences(UUID graphId, UUID conceptId, List<Identifier> deleteNodeList) {
         logger.info("clearTerm from: {} concept: {}", graphId, conceptId);
+        // Use prefetched references, each concept is cleaned only once
+        List<Identifier> prefetched = conceptReferenceIndex.remove(conceptId);
+        if (prefetched != null) {
+            deleteNodeList.addAll(prefetched);
+            return;
+        }
         // Get concept
         GenericNode node = termedService.getConceptNode(graphId, conceptId);
         // get references and delete terms and synonyms
         Map<String, List<Identifier>> references = node.getReferences();
 
-        deleteNodeList.addAll(references.getOrDefault("prefLabelXl", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("altLabelXl", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("notRecommendedSynonym", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("exactMatch", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("closeMatch", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("broadMatch", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("relatedMatch", new ArrayList<>()));
-        deleteNodeList.addAll(references.getOrDefault("narrowMatch", new ArrayList<>()));
+        CLEANED_REFERENCES.forEach(name -> deleteNodeList.addAll(references.getOrDefault(name, new ArrayList<>())));
     }
 
     /**
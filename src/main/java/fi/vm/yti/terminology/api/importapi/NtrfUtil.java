@@ -10,6 +10,7 @@ import jakarta.xml.bind.*;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
@@ -17,20 +18,83 @@ import java.util.List;
 
 public class NtrfUtil {
 
+    /**
+     * Creating a context for the generated NTRF model is expensive, so one thread safe
+     * instance is created lazily on first use and shared. (Un)marshallers are not thread
+     * safe and are kept per thread instead.
+     */
+    private static class ContextHolder {
+        private static final JAXBContext CONTEXT = createContext();
+    }
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLER = ThreadLocal.withInitial(() -> {
+        try {
+            return getContext().createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Could not create NTRF unmarshaller", e);
+        }
+    });
+
+    private static final ThreadLocal<Marshaller> MARSHALLER = ThreadLocal.withInitial(() -> {
+        try {
+            return getContext().createMarshaller();
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Could not create NTRF marshaller", e);
+        }
+    });
+
+    public static JAXBContext getContext() {
+        return ContextHolder.CONTEXT;
+    }
+
+    /**
+     * @return unmarshaller bound to the current thread
+     */
+    public static Unmarshaller getUnmarshaller() {
+        return UNMARSHALLER.get();
+    }
+
+    /**
+     * @return marshaller bound to the current thread
+     */
+    public static Marshaller getMarshaller() {
+        return MARSHALLER.get();
+    }
+
+    /**
+     * Creates stream reader with DOCTYPE-directive and external entities disabled.
+     */
+    public static XMLStreamReader createXMLStreamReader(InputStream is) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(is);
+    }
+
+    public static XMLStreamReader createXMLStreamReader(Reader reader) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(reader);
+    }
+
     public static VOCABULARY unmarshallXmlDocument(String message) throws JAXBException, XMLStreamException {
-        JAXBContext jc = JAXBContext.newInstance(VOCABULARY.class);
+        // Unmarshall XMl with JAXB
+        XMLStreamReader xsr = createXMLStreamReader(new StringReader(message));
+        // At last, resolve ntrf-POJO's
+        return (VOCABULARY) getUnmarshaller().unmarshal(xsr);
+    }
+
+    private static JAXBContext createContext() {
+        try {
+            return JAXBContext.newInstance(VOCABULARY.class);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Could not create NTRF JAXB context", e);
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
         // Disable DOCTYPE-directive from incoming file.
         XMLInputFactory xif = XMLInputFactory.newFactory();
         xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
         xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
-        // Unmarshall XMl with JAXB
-        Reader inReader = new StringReader(message);
-        XMLStreamReader xsr = xif.createXMLStreamReader(inReader);
-        Unmarshaller unmarshaller = jc.createUnmarshaller();
-        Marshaller marshaller = jc.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-        // At last, resolve ntrf-POJO's
-        return (VOCABULARY) unmarshaller.unmarshal(xsr);
+        return xif;
     }
 
     public static String getLink(String uri, String href, List<Serializable> linkContent, String type) {
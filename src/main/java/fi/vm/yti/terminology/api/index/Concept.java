@@ -2,6 +2,7 @@ package fi.vm.yti.terminology.api.index;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import fi.vm.yti.terminology.api.util.IndexUtil;
 import org.jetbrains.annotations.NotNull;
@@ -260,6 +261,17 @@ final class Concept {
         return formDocumentId(vocabulary.getGraphId(), id);
     }
 
+    /**
+     * Concept documents are routed by the graph id of the vocabulary, see {@link #formRouting(UUID)}
+     */
+    @NotNull String getRouting() {
+        return formRouting(vocabulary.getGraphId());
+    }
+
+    static @NotNull String formRouting(@NotNull UUID graphId) {
+        return graphId.toString();
+    }
+
     static @NotNull String formDocumentId(@NotNull UUID graphId, @NotNull UUID conceptId) {
         return graphId + "/" + conceptId;
     }
@@ -272,7 +284,7 @@ final class Concept {
         return narrowerIds;
     }
 
-    @NotNull JsonNode toElasticSearchDocument(ObjectMapper mapper) {
+    @NotNull ObjectNode toElasticSearchDocument(ObjectMapper mapper) {
 
         ObjectNode output = mapper.createObjectNode();
 
@@ -286,6 +298,7 @@ final class Concept {
         output.set("hiddenTerm", localizableToJson(mapper, hiddenTerm));
         output.set("notRecommendedSynonym", localizableToJson(mapper, notRecommendedSynonym));
         output.set("sortByLabel", localizableToJson(mapper, IndexUtil.createSortLabels(label)));
+        output.set(IndexUtil.SUGGEST_FIELD, suggestToJson(mapper));
 
         if (createdDate != null) {
             output.put("created", createdDate);
@@ -309,4 +322,43 @@ final class Concept {
 
         return output;
     }
+
+    /**
+     * Completion suggester input per language, preferred labels are weighted over alternative labels.
+     */
+    private @NotNull ObjectNode suggestToJson(ObjectMapper mapper) {
+
+        ObjectNode output = mapper.createObjectNode();
+        List<String> contexts = IndexUtil.createSuggestContexts(vocabulary.getGraphId().toString(),
+                "INCOMPLETE".equals(status) || "INCOMPLETE".equals(vocabulary.getStatus()));
+
+        Set<String> languages = new LinkedHashSet<>(label.keySet());
+        languages.addAll(altLabel.keySet());
+
+        for (String language : languages) {
+            ArrayNode entries = mapper.createArrayNode();
+            addSuggestEntry(mapper, entries, label.getOrDefault(language, Collections.emptyList()), 2, contexts);
+            addSuggestEntry(mapper, entries, altLabel.getOrDefault(language, Collections.emptyList()), 1, contexts);
+            if (entries.size() > 0) {
+                output.set(language, entries);
+            }
+        }
+
+        return output;
+    }
+
+    private static void addSuggestEntry(ObjectMapper mapper,
+                                        ArrayNode entries,
+                                        List<String> labels,
+                                        int weight,
+                                        List<String> contexts) {
+        List<String> inputs = IndexUtil.createSuggestInputs(labels);
+        if (inputs.isEmpty()) {
+            return;
+        }
+        ObjectNode entry = entries.addObject();
+        entry.set("input", mapper.valueToTree(inputs));
+        entry.put("weight", weight);
+        entry.putObject("contexts").set(IndexUtil.SUGGEST_VISIBILITY_CONTEXT, mapper.valueToTree(contexts));
+    }
 }
@@ -3,6 +3,8 @@ package fi.vm.yti.terminology.api.index;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import fi.vm.yti.terminology.api.exception.ElasticEndpointException;
 import fi.vm.yti.terminology.api.util.RestHighLevelClientWrapper;
@@ -15,24 +17,31 @@ import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
 import java.io.*;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import fi.vm.yti.terminology.api.util.Parameters;
+import fi.vm.yti.terminology.api.util.SearchHitStream;
 
 import static fi.vm.yti.terminology.api.util.ElasticRequestUtils.responseContentAsJson;
 import static fi.vm.yti.terminology.api.util.ElasticRequestUtils.responseContentAsString;
@@ -45,6 +54,27 @@ public class IndexElasticSearchService {
 
     private static final Logger log = LoggerFactory.getLogger(IndexElasticSearchService.class);
 
+    /**
+     * Deleted concepts are kept in this index as tombstones for the change feed of the
+     * integration API. Unlike the other indices it is not deleted on restart, as deletions
+     * can not be restored by reindexing. Tombstones older than the retention period are
+     * removed daily.
+     *
+     * Concepts deleted while the concept index is dropped and rebuilt, i.e. on restart with
+     * deleteIndexOnAppRestart or when the mapping is outdated, get no tombstone. Reindexing
+     * of the existing index, see {@link #reindex()}, writes tombstones for them.
+     */
+    public static final String TOMBSTONE_INDEX = "concept_tombstones";
+    /**
+     * Time a concept document or tombstone was written, by the clock of this application.
+     * Documents are indexed asynchronously after the modification in Termed, so the change
+     * feed is ordered by this instead of the modification time.
+     */
+    public static final String INDEXED_FIELD = "indexed";
+    private static final String TOMBSTONE_MAPPING_TYPE = "tombstone";
+    private static final String TOMBSTONE_MAPPING_FILE = "create_tombstone_mappings.json";
+    private static final String[] TOMBSTONE_FIELDS = { "id", "uri", "status", "created", "vocabulary.id", "vocabulary.uri", "vocabulary.status" };
+
     private final RestClient esRestClient;
     private final RestHighLevelClientWrapper esHiLvClient;
 
@@ -55,9 +85,11 @@ public class IndexElasticSearchService {
 
     private final String indexMappingType;
     private final boolean deleteIndexOnAppRestart;
+    private final int tombstoneRetentionDays;
 
     private final IndexTermedService termedApiService;
     private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Autowired
     public IndexElasticSearchService(@Value("${search.host.url}") String searchHostUrl,
@@ -67,18 +99,22 @@ public class IndexElasticSearchService {
             @Value("${search.index.name}") String indexName,
             @Value("${search.index.mapping.type}") String indexMappingType,
             @Value("${search.index.deleteIndexOnAppRestart}") boolean deleteIndexOnAppRestart,
+            @Value("${search.index.tombstone.retentionDays:180}") int tombstoneRetentionDays,
             IndexTermedService termedApiService,
             ObjectMapper objectMapper,
-            final RestHighLevelClientWrapper esHiLvClient) {
+            final RestHighLevelClientWrapper esHiLvClient,
+            ApplicationEventPublisher eventPublisher) {
         this.createIndexFilename = createIndexFilename;
         this.createMappingsFilename = createMappingsFilename;
         this.indexName = indexName;
         this.indexMappingType = indexMappingType;
         this.deleteIndexOnAppRestart = deleteIndexOnAppRestart;
+        this.tombstoneRetentionDays = tombstoneRetentionDays;
         this.termedApiService = termedApiService;
         this.objectMapper = objectMapper;
         this.esRestClient = esHiLvClient.getLowLevelClient();
         this.esHiLvClient = esHiLvClient; // Use that for resource api
+        this.eventPublisher = eventPublisher;
     }
 
     public void initIndex() {
@@ -94,35 +130,157 @@ public class IndexElasticSearchService {
             log.info("Init index =" + indexNames[x] + " - " + indexMaps[x] + " - " + indexMappingTypes[x]);
             initIndex(indexNames[x], indexMaps[x], indexMappingTypes[x]);
         }
+        initTombstoneIndex();
+    }
+
+    private void initTombstoneIndex() {
+        if (!indexExists(TOMBSTONE_INDEX)) {
+            if (createIndex(TOMBSTONE_INDEX)) {
+                createMapping(TOMBSTONE_INDEX, TOMBSTONE_MAPPING_FILE, TOMBSTONE_MAPPING_TYPE);
+            }
+        } else if (createMapping(TOMBSTONE_INDEX, TOMBSTONE_MAPPING_FILE, TOMBSTONE_MAPPING_TYPE)) {
+            // Fields are only added to the mapping. Tombstones written before the indexed field
+            // existed are ordered by their time of deletion.
+            ObjectNode body = objectMapper.createObjectNode();
+            body.putObject("query").putObject("bool").putArray("must_not").addObject()
+                    .putObject("exists").put("field", INDEXED_FIELD);
+            body.putObject("script")
+                    .put("lang", "painless")
+                    .put("source", "ctx._source." + INDEXED_FIELD + " = ctx._source.modified");
+            Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST",
+                    "/" + TOMBSTONE_INDEX + "/_update_by_query", singletonMap("refresh", "true"),
+                    new NStringEntity(body.toString(), ContentType.APPLICATION_JSON)));
+            if (!isSuccess(response)) {
+                log.warn("Unable to add indexed time to tombstones");
+            }
+        }
     }
 
     public void initIndex(String index, String mapping, String mappingType) {
 
         if (deleteIndexOnAppRestart) {
             deleteIndex(index);
+        } else if (indexExists(index) && isMappingOutdated(index, mapping, mappingType)) {
+            log.info("Mapping of elasticsearch index " + index + " is outdated, rebuilding the index");
+            rebuildIndex(index, mapping, mappingType);
+            return;
         }
 
-        if (!indexExists(index) && createIndex(index) && createMapping(index, mapping, mappingType)) {
+        if (!indexExists(index) && createIndexWithMapping(index, mapping, mappingType)) {
             doFullIndexing();
         }
     }
 
+    /**
+     * Index with a versioned mapping is created as "index_v&lt;version&gt;" and used through
+     * an alias with the index name, so that it can be rebuilt, see {@link #rebuildIndex}.
+     */
+    private boolean createIndexWithMapping(String index, String mapping, String mappingType) {
+
+        int version = mappingVersion(mapping);
+        if (version == 0) {
+            return createIndex(index) && createMapping(index, mapping, mappingType);
+        }
+
+        String versionedIndex = versionedIndexName(index, version);
+        if (indexExists(versionedIndex)) {
+            // left over from an interrupted rebuild
+            deleteIndex(versionedIndex);
+        }
+        if (!createIndex(versionedIndex) || !createMapping(versionedIndex, mapping, mappingType)) {
+            return false;
+        }
+        ArrayNode actions = objectMapper.createArrayNode();
+        actions.addObject().putObject("add").put("index", versionedIndex).put("alias", index);
+        return updateAliases(actions);
+    }
+
+    /**
+     * Routing and other mapping level settings can not be changed on an existing index, so an
+     * index created with an older mapping is rebuilt to a new index. Searches use the old index
+     * until all documents are written, then the alias is moved to the new index and the old
+     * index is removed in one request. If writing fails, the old index is kept.
+     *
+     * Index is rebuilt before Termed notifications are registered. Changes written to the old
+     * index by other instances meanwhile are missing from the new index until the next reindexing.
+     */
+    private void rebuildIndex(String index, String mapping, String mappingType) {
+
+        String newIndex = versionedIndexName(index, mappingVersion(mapping));
+        List<String> oldIndices = concreteIndices(index);
+
+        if (indexExists(newIndex)) {
+            // left over from an interrupted rebuild
+            deleteIndex(newIndex);
+        }
+        if (!createIndex(newIndex) || !createMapping(newIndex, mapping, mappingType)) {
+            log.warn("Unable to create elasticsearch index " + newIndex + ", using outdated index " + index);
+            deleteIndex(newIndex);
+            return;
+        }
+        if (!indexAllDocuments(index, newIndex)) {
+            log.warn("Indexing to " + newIndex + " failed, using outdated index " + index);
+            deleteIndex(newIndex);
+            return;
+        }
+
+        ArrayNode actions = objectMapper.createArrayNode();
+        actions.addObject().putObject("add").put("index", newIndex).put("alias", index);
+        oldIndices.forEach(oldIndex -> actions.addObject().putObject("remove_index").put("index", oldIndex));
+        if (updateAliases(actions)) {
+            log.info("Elasticsearch index " + index + " rebuilt to " + newIndex);
+        } else {
+            log.warn("Unable to move alias " + index + " to " + newIndex + ", using outdated index");
+            deleteIndex(newIndex);
+        }
+        indexChanged(index);
+    }
+
+    private boolean indexAllDocuments(String index, String targetIndex) {
+        if (!SearchIndexChangedEvent.CONCEPTS.equals(index)) {
+            return reindexVocabularies(targetIndex);
+        }
+        boolean success = true;
+        for (UUID graphId : termedApiService.fetchAllAvailableGraphIds()) {
+            success &= reindexGraph(graphId, targetIndex, false);
+        }
+        return success;
+    }
+
+    /**
+     * Concept documents are overwritten and concepts which were not written are removed
+     * afterwards, so that concepts deleted without an index update get tombstones.
+     */
     public void reindex() {
         log.info("Starting reindexing task..");
         // Clean vocabularies
         deleteAllDocumentsFromNamedIndex("vocabularies");
-        this.deleteAllDocumentsFromIndex();
-        this.doFullIndexing();
+        String started = Instant.now().toString();
+        if (this.doFullIndexing()) {
+            removeConceptsIndexedBefore(started);
+        } else {
+            log.warn("Indexing of some concepts failed, concepts not reindexed are kept");
+        }
         log.info("Finished reindexing!");
     }
 
-    private void doFullIndexing() {
-        reindexVocabularies();
+    /**
+     * @return false if writing concepts of some terminology failed
+     */
+    private boolean doFullIndexing() {
+        reindexVocabularies(SearchIndexChangedEvent.VOCABULARIES);
         // Index concepts from all vocabularies
-        termedApiService.fetchAllAvailableGraphIds().forEach(graphId -> reindexGraph(graphId, false));
+        boolean success = true;
+        for (UUID graphId : termedApiService.fetchAllAvailableGraphIds()) {
+            success &= reindexGraph(graphId, SearchIndexChangedEvent.CONCEPTS, false);
+        }
+        return success;
     }
 
-    private void reindexVocabularies() {
+    /**
+     * @return false if writing the vocabularies failed
+     */
+    private boolean reindexVocabularies(String index) {
         // Index vocabularies
         long start = System.currentTimeMillis();
         // index also all vocabulary-objects
@@ -139,13 +297,13 @@ public class IndexElasticSearchService {
             }
         });
         if (vocabularies.isEmpty()) {
-            return; // Nothing to do
+            return true; // Nothing to do
         }
         ObjectMapper mapper = new ObjectMapper();
         List<String> indexLines = new ArrayList<>();
         vocabularies.forEach(o -> {
             try {
-                String line = "{\"index\":{\"_index\": \"vocabularies\", \"_type\": \"vocabulary" + "\", \"_id\":"
+                String line = "{\"index\":{\"_index\": \"" + index + "\", \"_type\": \"vocabulary" + "\", \"_id\":"
                           + o.get("id") + "}}\n" + Vocabulary.toElasticSearchVocabularyIndexObject(mapper, o) + "\n";
                 indexLines.add(line);
                 if (log.isDebugEnabled()) {
@@ -156,10 +314,10 @@ public class IndexElasticSearchService {
                 e.printStackTrace();
             }
         });
-        String index = indexLines.stream().collect(Collectors.joining("\n"));
+        String update = indexLines.stream().collect(Collectors.joining("\n"));
         String delete = "";
         // Content type changed for elastic search 6.x
-        HttpEntity entity = new NStringEntity(index + delete,
+        HttpEntity entity = new NStringEntity(update + delete,
                 ContentType.create("application/json", StandardCharsets.UTF_8));
         // ContentType.create("application/json", StandardCharsets.UTF_8));
         // ContentType.create("application/x-ndjson", StandardCharsets.UTF_8));
@@ -170,15 +328,18 @@ public class IndexElasticSearchService {
             log.debug("Request:" + entity);
         }
         Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_bulk", params, entity));
+        indexChanged(SearchIndexChangedEvent.VOCABULARIES);
         long end = System.currentTimeMillis();
         if (log.isDebugEnabled()) {
             log.debug("Response:" + response + "\n Response status line" + response.getStatusLine());
         }      
         if (isSuccess(response)) {
             log.info("Successfully indexed " + vocabularies.size()+" terminologies in "+(end-start)+"ms");
+            return true;
         } else {
             log.warn("Unable to add or update document to elasticsearch index: " + vocabularies.size()+" took "+(end-start)+"ms");
             log.info(responseContentAsString(response));
+            return false;
         }
     }
 
@@ -206,6 +367,7 @@ public class IndexElasticSearchService {
             params.put("refresh", "wait_for");
 
             Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_bulk", params, entity));
+            indexChanged(SearchIndexChangedEvent.VOCABULARIES, vocId);
 
             long end = System.currentTimeMillis();
             if (isSuccess(response)) {
@@ -234,7 +396,7 @@ public class IndexElasticSearchService {
         }
         // if treshold is , make full reindex
         if (nodes.hasVocabulary() && nodes.getVocabularyIds().size() > fullReindexNodeCountThreshold) {
-            reindexVocabularies();
+            reindexVocabularies(SearchIndexChangedEvent.VOCABULARIES);
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("partial update!");
@@ -249,7 +411,7 @@ public class IndexElasticSearchService {
             }
         }
         if (nodes.hasVocabulary() || nodes.getConceptsIds().size() > fullReindexNodeCountThreshold) {
-            reindexGraph(nodes.getGraphId(), true);
+            reindexGraph(nodes.getGraphId(), SearchIndexChangedEvent.CONCEPTS, true);
         } else {
             List<Concept> updatedConcepts = termedApiService.getConcepts(nodes.getGraphId(), nodes.getConceptsIds());
             List<Concept> conceptsBeforeUpdate = getConceptsFromIndex(nodes.getGraphId(), nodes.getConceptsIds());
@@ -258,7 +420,8 @@ public class IndexElasticSearchService {
             List<Concept> updateToIndex = Stream.concat(updatedConcepts.stream(), possiblyUpdatedConcepts.stream())
                     .collect(toList());
 
-            bulkUpdateAndDeleteDocumentsToIndex(nodes.getGraphId(), updateToIndex, emptyList(), true);
+            bulkUpdateAndDeleteDocumentsToIndex(SearchIndexChangedEvent.CONCEPTS, nodes.getGraphId(), updateToIndex,
+                    emptyList(), true);
         }
     }
 
@@ -267,6 +430,9 @@ public class IndexElasticSearchService {
         int fullReindexNodeCountThreshold = 20;
 
         if (nodes.hasVocabulary()) {
+            ObjectNode vocabularyQuery = objectMapper.createObjectNode();
+            vocabularyQuery.putObject("term").put("vocabulary.id", nodes.getGraphId().toString());
+            createTombstones(vocabularyQuery);
             // First delete concepts and then
             deleteDocumentsFromIndexByGraphId(nodes.getGraphId());
             // In case of treshold overcome, make full reindex
@@ -277,14 +443,19 @@ public class IndexElasticSearchService {
                 });
             }
         } else {
+            ObjectNode conceptsQuery = objectMapper.createObjectNode();
+            ArrayNode documentIds = conceptsQuery.putObject("ids").putArray("values");
+            nodes.getConceptsIds().forEach(id -> documentIds.add(Concept.formDocumentId(nodes.getGraphId(), id)));
+            createTombstones(conceptsQuery);
+
             List<Concept> conceptsBeforeDelete = getConceptsFromIndex(nodes.getGraphId(), nodes.getConceptsIds());
             List<Concept> possiblyUpdatedConcepts = termedApiService.getConcepts(nodes.getGraphId(),
                     broaderAndNarrowerIds(singletonList(conceptsBeforeDelete)));
 
-            bulkUpdateAndDeleteDocumentsToIndex(nodes.getGraphId(), possiblyUpdatedConcepts, nodes.getConceptsIds(),
-                    true);
+            bulkUpdateAndDeleteDocumentsToIndex(SearchIndexChangedEvent.CONCEPTS, nodes.getGraphId(),
+                    possiblyUpdatedConcepts, nodes.getConceptsIds(), true);
             nodes.getConceptsIds().forEach(id -> {
-                deleteDocumentsFromNamedIndexByGraphId(id, "concepts");
+                deleteDocumentsFromNamedIndexById(id, "concepts", nodes.getGraphId(), Concept.formRouting(nodes.getGraphId()));
             });
         }
     }
@@ -296,15 +467,17 @@ public class IndexElasticSearchService {
                 .collect(Collectors.toSet());
     }
 
-    private void reindexGraph(@NotNull UUID graphId, boolean waitForRefresh) {
+    private boolean reindexGraph(@NotNull UUID graphId, @NotNull String index, boolean waitForRefresh) {
         List<Concept> concepts = termedApiService.getAllConceptsForGraph(graphId);
         long start = System.currentTimeMillis();
         if (concepts != null && !concepts.isEmpty()) {
-        bulkUpdateAndDeleteDocumentsToIndex(graphId, concepts, emptyList(), waitForRefresh);
+            boolean success = bulkUpdateAndDeleteDocumentsToIndex(index, graphId, concepts, emptyList(), waitForRefresh);
             long end = System.currentTimeMillis();
 
             log.info("Graph:" + graphId + " Indexed " + concepts.size() + " concepts in "+(end-start)+"ms");
+            return success;
         }
+        return true;
     }
 
     private void deleteIndex() {
@@ -316,15 +489,53 @@ public class IndexElasticSearchService {
     }
 
     private void deleteIndex(String index) {
-        log.info("Deleting elasticsearch index: " + index);
+        for (String concreteIndex : concreteIndices(index)) {
+            log.info("Deleting elasticsearch index: " + concreteIndex);
 
-        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("DELETE", "/" + index));
+            Response response = alsoUnsuccessful(() -> esRestClient.performRequest("DELETE", "/" + concreteIndex));
+            indexChanged(index);
 
+            if (isSuccess(response)) {
+                log.info("Elasticsearch index deleted: " + concreteIndex);
+            } else {
+                log.info("Elasticsearch index:" + concreteIndex + " not deleted. Maybe because it did not exist?");
+            }
+        }
+    }
+
+    /**
+     * @return indices of given alias, or the index itself if it is not an alias
+     */
+    private List<String> concreteIndices(String index) {
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("GET", "/_alias/" + index));
         if (isSuccess(response)) {
-            log.info("Elasticsearch index deleted: " + index);
-        } else {
-            log.info("Elasticsearch index:" + index + " not deleted. Maybe because it did not exist?");
+            List<String> indices = new ArrayList<>();
+            responseContentAsJson(objectMapper, response).fieldNames().forEachRemaining(indices::add);
+            if (!indices.isEmpty()) {
+                return indices;
+            }
         }
+        return singletonList(index);
+    }
+
+    private boolean updateAliases(ArrayNode actions) {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.set("actions", actions);
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_aliases", emptyMap(),
+                new NStringEntity(body.toString(), ContentType.APPLICATION_JSON)));
+        if (!isSuccess(response)) {
+            log.warn("Unable to update elasticsearch aliases: " + responseContentAsString(response));
+            return false;
+        }
+        return true;
+    }
+
+    private static String versionedIndexName(String index, int version) {
+        return index + "_v" + version;
+    }
+
+    private int mappingVersion(String mapping) {
+        return readJsonResource(mapping).path("_meta").path("version").asInt(0);
     }
 
     private boolean indexExists(String index) {
@@ -354,6 +565,34 @@ public class IndexElasticSearchService {
         }
     }
 
+    /**
+     * Compares the version in "_meta" of the mapping file with the one of the mapping in the index.
+     * Mapping without a version is version 0.
+     */
+    private boolean isMappingOutdated(String index, String mapping, String mappingType) {
+
+        int version = mappingVersion(mapping);
+        if (version == 0) {
+            return false;
+        }
+
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("GET",
+                "/" + index + "/_mapping/" + mappingType));
+        if (!isSuccess(response)) {
+            log.warn("Unable to read elasticsearch index mapping type: " + mappingType);
+            return false;
+        }
+
+        // Response is keyed by the index behind the alias
+        int indexVersion = Integer.MAX_VALUE;
+        for (JsonNode indexMapping : responseContentAsJson(objectMapper, response)) {
+            indexVersion = Math.min(indexVersion,
+                    indexMapping.path("mappings").path(mappingType).path("_meta").path("version").asInt(0));
+        }
+        log.info("Elasticsearch index " + index + " mapping version " + indexVersion + ", current " + version);
+        return indexVersion < version;
+    }
+
     private boolean createMapping(String index, String mapping, String mappingType) {
 
         HttpEntity entity = createHttpEntity(mapping);
@@ -374,40 +613,45 @@ public class IndexElasticSearchService {
         }
     }
 
-    private @NotNull String createBulkIndexMetaAndSource(@NotNull Concept concept) {
-        return createBulkIndexMetaAndSource(concept, "concepts");
-    }
-
     // private @NotNull String createBulkIndexMetaAndSource(@NotNull JsonNode
     // vocabulary) {
     // return createBulkIndexMetaAndSource(concept, "concept");
     // }
 
-    private @NotNull String createBulkIndexMetaAndSource(@NotNull Concept concept, String index) {
+    private @NotNull String createBulkIndexMetaAndSource(@NotNull String index, @NotNull Concept concept,
+            @NotNull String indexed) {
+        ObjectNode document = concept.toElasticSearchDocument(objectMapper);
+        document.put(INDEXED_FIELD, indexed);
         return "{\"index\":{\"_index\": \"" + index + "\", \"_type\": \"concept\", \"_id\":\"" + concept.getDocumentId()
-                + "\"}}\n" + concept.toElasticSearchDocument(objectMapper) + "\n";
+                + "\", \"routing\":\"" + concept.getRouting()
+                + "\"}}\n" + document + "\n";
     }
 
-    private @NotNull String createBulkDeleteMeta(@NotNull UUID graphId, @NotNull UUID conceptId) {
-        return "{\"delete\":{\"_index\": \"" + indexName + "\", \"_type\": \"concept\", \"_id\":\""
-                + Concept.formDocumentId(graphId, conceptId) + "\"}}\n";
+    private @NotNull String createBulkDeleteMeta(@NotNull String index, @NotNull UUID graphId, @NotNull UUID conceptId) {
+        return "{\"delete\":{\"_index\": \"" + index + "\", \"_type\": \"concept\", \"_id\":\""
+                + Concept.formDocumentId(graphId, conceptId) + "\", \"routing\":\"" + Concept.formRouting(graphId)
+                + "\"}}\n";
     }
 
-    private void bulkUpdateAndDeleteDocumentsToIndex(@NotNull UUID graphId, @NotNull List<Concept> updateConcepts,
-            @NotNull List<UUID> deleteConceptsIds, boolean waitForRefresh) {
+    /**
+     * @return false if the bulk request failed
+     */
+    private boolean bulkUpdateAndDeleteDocumentsToIndex(@NotNull String index, @NotNull UUID graphId,
+            @NotNull List<Concept> updateConcepts, @NotNull List<UUID> deleteConceptsIds, boolean waitForRefresh) {
 
         if (updateConcepts.size() == 0 && deleteConceptsIds.size() == 0) {
-            return; // nothing to do
+            return true; // nothing to do
         }
 
         // https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-bulk.html
 
-        String index = updateConcepts.stream().map(this::createBulkIndexMetaAndSource)
+        String indexed = Instant.now().toString();
+        String update = updateConcepts.stream().map(concept -> createBulkIndexMetaAndSource(index, concept, indexed))
                 .collect(Collectors.joining("\n"));
-        String delete = deleteConceptsIds.stream().map(id -> createBulkDeleteMeta(graphId, id))
+        String delete = deleteConceptsIds.stream().map(id -> createBulkDeleteMeta(index, graphId, id))
                 .collect(Collectors.joining("\n"));
         // Changed content type for elastic search 6.x
-        HttpEntity entity = new NStringEntity(index + delete,
+        HttpEntity entity = new NStringEntity(update + delete,
                 // ContentType.create("application/x-ndjson"));
                 ContentType.create("application/json", StandardCharsets.UTF_8));
         // ContentType.create("application/x-ndjson", StandardCharsets.UTF_8));
@@ -420,6 +664,7 @@ public class IndexElasticSearchService {
         }
 
         Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/_bulk", params, entity));
+        indexChanged(SearchIndexChangedEvent.CONCEPTS, graphId);
 
         if (isSuccess(response)) {
             if (updateConcepts.size() > 0 && log.isDebugEnabled()) {
@@ -430,22 +675,77 @@ public class IndexElasticSearchService {
                 log.debug("Successfully deleted concepts  documents from elasticsearch index: "
                         + deleteConceptsIds.size());
             }
+            return true;
         } else {
             log.warn("Unable to add or update concepts document to elasticsearch index: " + updateConcepts.size());
             log.warn("Unable to delete concepts document from elasticsearch index: " + deleteConceptsIds.size());
+            return false;
+        }
+    }
+
+    /**
+     * Copies concepts matching given query to the tombstone index, to be called before the
+     * concepts are deleted. Done with _reindex, so that tombstones for all concepts of a
+     * terminology are written without reading the concepts here. Document ids and routing
+     * are kept, modified and indexed are the time of deletion.
+     */
+    private void createTombstones(@NotNull JsonNode query) {
+
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode source = body.putObject("source");
+        source.put("index", SearchIndexChangedEvent.CONCEPTS);
+        source.set("query", query);
+        ArrayNode fields = source.putArray("_source");
+        Arrays.stream(TOMBSTONE_FIELDS).forEach(fields::add);
+        body.putObject("dest")
+                .put("index", TOMBSTONE_INDEX)
+                .put("type", TOMBSTONE_MAPPING_TYPE);
+        ObjectNode script = body.putObject("script");
+        script.put("lang", "painless");
+        script.put("source", "ctx._source.modified = params.deleted; ctx._source." + INDEXED_FIELD
+                + " = params.deleted; ctx._source.deleted = true");
+        script.putObject("params").put("deleted", Instant.now().toString());
+
+        HttpEntity entity = new NStringEntity(body.toString(), ContentType.APPLICATION_JSON);
+        Response response = alsoUnsuccessful(
+                () -> esRestClient.performRequest("POST", "/_reindex", singletonMap("refresh", "true"), entity));
+        indexChanged(TOMBSTONE_INDEX);
+
+        if (isSuccess(response)) {
+            log.info("Created tombstones of deleted concepts: " + responseContentAsJson(objectMapper, response).path("created"));
+        } else {
+            log.warn("Unable to create tombstones of deleted concepts");
+            log.info(responseContentAsString(response));
         }
     }
 
     private void deleteDocumentsFromNamedIndexByGraphId(@NotNull UUID graphId, @NotNull String index) {
+        deleteDocumentsFromNamedIndexById(graphId, index, graphId, null);
+    }
+
+    /**
+     * @param id      id of the documents to delete
+     * @param graphId terminology of the documents, published as the changed graph
+     * @param routing routing of the documents to delete, null if not routed
+     */
+    private void deleteDocumentsFromNamedIndexById(@NotNull UUID id, @NotNull String index,
+            @NotNull UUID graphId, @Nullable String routing) {
 
-        HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"id\": \"" + graphId + "\"}}}",
+        HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"id\": \"" + id + "\"}}}",
                 ContentType.APPLICATION_JSON);
+        Map<String, String> params = new HashMap<>();
+        // deletion must be searchable before caches are invalidated
+        params.put("refresh", "true");
+        if (routing != null) {
+            params.put("routing", routing);
+        }
         Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", emptyMap(), body));
+                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", params, body));
+        indexChanged(index, graphId);
 
         if (isSuccess(response)) {
             log.info(responseContentAsString(response));
-            log.info("Successfully deleted documents from elasticsearch index from graph: " + graphId);
+            log.info("Successfully deleted documents " + id + " from elasticsearch index from graph: " + graphId);
         } else {
             log.warn("Unable to delete documents from elasticsearch index");
         }
@@ -455,8 +755,12 @@ public class IndexElasticSearchService {
 
         HttpEntity body = new NStringEntity("{\"query\": { \"match\": {\"vocabulary.id\": \"" + graphId + "\"}}}",
                 ContentType.APPLICATION_JSON);
+        Map<String, String> params = new HashMap<>();
+        params.put("refresh", "true");
+        params.put("routing", Concept.formRouting(graphId));
         Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + indexName + "/_delete_by_query", emptyMap(), body));
+                () -> esRestClient.performRequest("POST", "/" + indexName + "/_delete_by_query", params, body));
+        indexChanged(SearchIndexChangedEvent.CONCEPTS, graphId);
 
         if (isSuccess(response)) {
             log.info(responseContentAsString(response));
@@ -466,21 +770,63 @@ public class IndexElasticSearchService {
         }
     }
 
-    private void deleteAllDocumentsFromIndex() {
+    /**
+     * Concepts not written since given time have been deleted from Termed without an index
+     * update, e.g. while this application was not running.
+     */
+    private void removeConceptsIndexedBefore(@NotNull String time) {
+
+        // reindexed documents must be visible to the queries below
+        alsoUnsuccessful(() -> esRestClient.performRequest("POST", "/" + SearchIndexChangedEvent.CONCEPTS + "/_refresh"));
+
+        ObjectNode query = objectMapper.createObjectNode();
+        ObjectNode bool = query.putObject("bool");
+        bool.putArray("should")
+                .add(objectMapper.createObjectNode().set("range",
+                        objectMapper.createObjectNode().set(INDEXED_FIELD,
+                                objectMapper.createObjectNode().put("lt", time))))
+                .addObject().putObject("bool").putArray("must_not").addObject()
+                .putObject("exists").put("field", INDEXED_FIELD);
+        bool.put("minimum_should_match", 1);
+        createTombstones(query);
+
+        ObjectNode body = objectMapper.createObjectNode();
+        body.set("query", query);
+        Map<String, String> params = new HashMap<>();
+        params.put("refresh", "true");
+        // concepts updated meanwhile are not deleted
+        params.put("conflicts", "proceed");
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST",
+                "/" + SearchIndexChangedEvent.CONCEPTS + "/_delete_by_query", params,
+                new NStringEntity(body.toString(), ContentType.APPLICATION_JSON)));
+        indexChanged(SearchIndexChangedEvent.CONCEPTS);
 
-        HttpEntity body = new NStringEntity("{\"query\": { \"match_all\": {}}}", ContentType.APPLICATION_JSON);
-        // Response response = alsoUnsuccessful(() ->
-        // esRestClient.performRequest("POST",
-        // "/" + indexName + "/" + indexMappingType + "/_delete_by_query", emptyMap(),
-        // body));
-        Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + indexName + "/_delete_by_query", emptyMap(), body));
+        if (isSuccess(response)) {
+            log.info("Removed concepts not found in reindexing: " + responseContentAsJson(objectMapper, response).path("deleted"));
+        } else {
+            log.warn("Unable to remove concepts not found in reindexing");
+        }
+    }
+
+    /**
+     * Change feed consumers polling less often than the retention period miss deletions
+     * and have to read all resources again.
+     */
+    @Scheduled(cron = "${search.index.tombstone.cleanup:0 30 4 * * *}")
+    public void removeExpiredTombstones() {
+
+        String expired = Instant.now().minus(tombstoneRetentionDays, ChronoUnit.DAYS).toString();
+        ObjectNode body = objectMapper.createObjectNode();
+        body.putObject("query").putObject("range").putObject("modified").put("lt", expired);
+        Response response = alsoUnsuccessful(() -> esRestClient.performRequest("POST",
+                "/" + TOMBSTONE_INDEX + "/_delete_by_query", singletonMap("refresh", "true"),
+                new NStringEntity(body.toString(), ContentType.APPLICATION_JSON)));
+        indexChanged(TOMBSTONE_INDEX);
 
         if (isSuccess(response)) {
-            log.info(responseContentAsString(response));
-            log.info("Successfully deleted all documents from elasticsearch index");
+            log.info("Removed expired tombstones: " + responseContentAsJson(objectMapper, response).path("deleted"));
         } else {
-            log.warn("Unable to delete documents from elasticsearch index");
+            log.warn("Unable to remove expired tombstones");
         }
     }
 
@@ -488,7 +834,8 @@ public class IndexElasticSearchService {
 
         HttpEntity body = new NStringEntity("{\"query\": { \"match_all\": {}}}", ContentType.APPLICATION_JSON);
         Response response = alsoUnsuccessful(
-                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", emptyMap(), body));
+                () -> esRestClient.performRequest("POST", "/" + index + "/_delete_by_query", singletonMap("refresh", "true"), body));
+        indexChanged(index);
 
         if (isSuccess(response)) {
             log.info(responseContentAsString(response));
@@ -532,16 +879,9 @@ public class IndexElasticSearchService {
             if (log.isDebugEnabled()) {
                 log.debug("Search result count=" + response.getHits().getTotalHits());
             }
-            // setResultCounts(meta, response);
-            // String -> JSON
-            obj = objectMapper.readTree(response.toString());
-            /*
-             * response.getHits().forEach(hit -> { try { String resp =
-             * hit.getSourceAsString(); // String -> JSON obj = objectMapper.readTree(resp);
-             * } catch (final IOException e) {
-             * log.error("getContainers reading value from JSON string failed: " +
-             * hit.getSourceAsString(), e); throw new RuntimeException(e); } });
-             */
+            // Response -> JSON bytes -> JSON, without an intermediate String
+            BytesReference bytes = XContentHelper.toXContent(response, XContentType.JSON, false);
+            obj = objectMapper.readTree(bytes.streamInput());
         } catch (final IOException e) {
             log.error("SearchRequest failed!", e);
             throw new RuntimeException(e);
@@ -549,6 +889,29 @@ public class IndexElasticSearchService {
         return obj;
     }
 
+    /**
+     * Executes the search with the low level client and reads hits from the raw response as they
+     * are consumed, see {@link SearchHitStream}. Caller must close the returned stream.
+     */
+    public @NotNull SearchHitStream searchHitStream(SearchRequest sr) {
+        Map<String, String> params = new HashMap<>();
+        if (sr.routing() != null) {
+            params.put("routing", sr.routing());
+        }
+        if (sr.indicesOptions().ignoreUnavailable()) {
+            params.put("ignore_unavailable", "true");
+        }
+        String endpoint = "/" + String.join(",", sr.indices()) + "/_search";
+        HttpEntity body = new NStringEntity(sr.source().toString(), ContentType.APPLICATION_JSON);
+        try {
+            Response response = esRestClient.performRequest("POST", endpoint, params, body);
+            return new SearchHitStream(objectMapper, response.getEntity().getContent());
+        } catch (final IOException e) {
+            log.error("SearchRequest failed!", e);
+            throw new RuntimeException(e);
+        }
+    }
+
     public @Nullable JsonNode freeSearchFromIndex(String query, String indexName) {
         Parameters params = new Parameters();
         params.add("source", query.toString());
@@ -575,24 +938,41 @@ public class IndexElasticSearchService {
         }
     }
 
-    private @Nullable Concept getConceptFromIndex(@NotNull UUID graphId, @NotNull UUID conceptId) {
+    private @NotNull List<Concept> getConceptsFromIndex(@NotNull UUID graphId, @NotNull Collection<UUID> conceptIds) {
+
+        if (conceptIds.isEmpty()) {
+            return emptyList();
+        }
+
+        // All concepts of the graph are in the same shard => one multi get request to one shard
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode ids = body.putArray("ids");
+        conceptIds.forEach(conceptId -> ids.add(Concept.formDocumentId(graphId, conceptId)));
 
-        String documentId = Concept.formDocumentId(graphId, conceptId);
         Response response = alsoUnsuccessful(() -> esRestClient.performRequest("GET",
-                "/" + indexName + "/concept/" + urlEncode(documentId) + "/_source"));
+                "/" + SearchIndexChangedEvent.CONCEPTS + "/concept/_mget", singletonMap("routing", Concept.formRouting(graphId)),
+                new NStringEntity(body.toString(), ContentType.APPLICATION_JSON)));
 
-        if (isSuccess(response)) {
-            return Concept.createFromIndex(objectMapper, responseContentAsJson(objectMapper, response));
-        } else {
-            return null;
+        if (!isSuccess(response)) {
+            log.warn("Unable to get concepts from elasticsearch index, graph: " + graphId);
+            return emptyList();
         }
+
+        List<Concept> concepts = new ArrayList<>();
+        for (JsonNode doc : responseContentAsJson(objectMapper, response).path("docs")) {
+            if (doc.path("found").asBoolean(false)) {
+                concepts.add(Concept.createFromIndex(objectMapper, doc.get("_source")));
+            }
+        }
+        return concepts;
     }
 
-    private @NotNull List<Concept> getConceptsFromIndex(@NotNull UUID graphId, @NotNull Collection<UUID> conceptIds) {
+    private void indexChanged(@NotNull String index) {
+        eventPublisher.publishEvent(new SearchIndexChangedEvent(index));
+    }
 
-        // TODO inefficient implementation
-        return conceptIds.stream().map(conceptId -> this.getConceptFromIndex(graphId, conceptId))
-                .filter(Objects::nonNull).collect(toList());
+    private void indexChanged(@NotNull String index, @NotNull UUID graphId) {
+        eventPublisher.publishEvent(new SearchIndexChangedEvent(index, graphId));
     }
 
     private @NotNull Response alsoUnsuccessful(@NotNull ResponseSupplier supplier) {
@@ -605,14 +985,6 @@ public class IndexElasticSearchService {
         }
     }
 
-    private static @NotNull String urlEncode(@NotNull String str) {
-        try {
-            return URLEncoder.encode(str, StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private interface ResponseSupplier {
         @NotNull
         Response get() throws IOException;
@@ -624,13 +996,16 @@ public class IndexElasticSearchService {
     }
 
     private @NotNull HttpEntity createHttpEntity(@NotNull String classPathResourceJsonFile) {
+        return new NStringEntity(readJsonResource(classPathResourceJsonFile).toString(), ContentType.APPLICATION_JSON);
+    }
+
+    private @NotNull JsonNode readJsonResource(@NotNull String classPathResourceJsonFile) {
 
         ClassPathResource resource = new ClassPathResource(classPathResourceJsonFile);
 
         try (InputStream is = resource.getInputStream()) {
             InputStreamReader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
-            JsonNode jsonNode = objectMapper.readTree(reader);
-            return new NStringEntity(jsonNode.toString(), ContentType.APPLICATION_JSON);
+            return objectMapper.readTree(reader);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
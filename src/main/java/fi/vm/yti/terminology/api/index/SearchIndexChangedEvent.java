@@ -0,0 +1,54 @@
+package fi.vm.yti.terminology.api.index;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Published by {@link IndexElasticSearchService} after documents of an index have been
+ * written or deleted, so that data derived from the index can be invalidated.
+ */
+public class SearchIndexChangedEvent {
+
+    public static final String CONCEPTS = "concepts";
+    public static final String VOCABULARIES = "vocabularies";
+
+    private final String index;
+    private final UUID graphId;
+
+    public SearchIndexChangedEvent(@NotNull String index) {
+        this(index, null);
+    }
+
+    /**
+     * @param graphId terminology whose documents changed, null if documents of several or
+     *                unknown terminologies changed
+     */
+    public SearchIndexChangedEvent(@NotNull String index, @Nullable UUID graphId) {
+        this.index = index;
+        this.graphId = graphId;
+    }
+
+    public @NotNull String getIndex() {
+        return index;
+    }
+
+    public @Nullable UUID getGraphId() {
+        return graphId;
+    }
+
+    /**
+     * @return true if the vocabulary index is changed, index may be a comma separated list
+     */
+    public boolean isVocabularyIndex() {
+        return Arrays.stream(index.split(","))
+                .anyMatch(name -> VOCABULARIES.equals(name.trim()));
+    }
+
+    @Override
+    public String toString() {
+        return "SearchIndexChangedEvent{index='" + index + "', graphId=" + graphId + "}";
+    }
+}
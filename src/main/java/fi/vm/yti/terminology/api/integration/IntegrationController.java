@@ -2,10 +2,10 @@ package fi.vm.yti.terminology.api.integration;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -17,6 +17,7 @@ import org.apache.commons.lang3.LocaleUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -24,13 +25,8 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.json.JsonMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
 
 import fi.vm.yti.security.AuthenticatedUserProvider;
@@ -44,6 +40,7 @@ import fi.vm.yti.terminology.api.model.integration.IntegrationResourceRequest;
 import fi.vm.yti.terminology.api.model.integration.PrivateConceptSuggestionRequest;
 import fi.vm.yti.terminology.api.model.integration.ResourcesResponse;
 import fi.vm.yti.terminology.api.model.integration.ResponseWrapper;
+import fi.vm.yti.terminology.api.util.SearchAfterCursor;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -104,10 +101,11 @@ public class IntegrationController {
     @ApiResponse(responseCode = "404", description = "Service not found")
     @ApiResponse(responseCode = "500", description = "Internal server error")
     @GetMapping(path = "/containers", produces = APPLICATION_JSON_VALUE)
-    ResponseEntity<String> containers(
+    ResponseEntity<StreamingResponseBody> containers(
         @Parameter(description = "Language code for sorting results", example = "fi") @RequestParam(required = false) String language,
         @Parameter(description = "Pagination parameter for page size", example = "100") @RequestParam(defaultValue = "10000") int pageSize,
         @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from,
+        @Parameter(description = "Pagination cursor, meta.searchAfter of the previous page. When given, start index is ignored.") @RequestParam(required = false) String searchAfter,
         @Parameter(description = "Status enumerations in CSL format", example = "DRAFT,VALID") @RequestParam(required = false) Set<String> status,
         @Parameter(description = "URI of the requested containers in CSL format") @RequestParam(required = false) Set<String> uri,
         @Parameter(description = "Textual search query") @RequestParam(required = false) String searchTerm,
@@ -124,6 +122,7 @@ public class IntegrationController {
         containersRequest.setLanguage(language);
         containersRequest.setPageSize(pageSize);
         containersRequest.setPageFrom(from);
+        containersRequest.setSearchAfter(searchAfter);
 
         // Change status into upper case
         if (status != null) {
@@ -139,7 +138,7 @@ public class IntegrationController {
         containersRequest.setIncludeIncompleteFrom(includeIncompleteFrom);
         String validationResult = validateContainersInput(containersRequest);
         if (validationResult != null) {
-            return new ResponseEntity<>("{\"errorMessage\":\"" + validationResult + "\"}", HttpStatus.BAD_REQUEST);
+            return badRequest(validationResult);
         }
         return integrationService.handleContainers(containersRequest);
     }
@@ -157,14 +156,14 @@ public class IntegrationController {
         required = true
     )
     @PostMapping(path = "/containers", produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
-    ResponseEntity<String> containers(@RequestBody IntegrationContainerRequest containersRequest) {
+    ResponseEntity<StreamingResponseBody> containers(@RequestBody IntegrationContainerRequest containersRequest) {
         if (logger.isDebugEnabled()) {
             logger.debug("integrationController.containers.POST");
         }
 
         String validationResult = validateContainersInput(containersRequest);
         if (validationResult != null) {
-            return new ResponseEntity<>("{\"errorMessage\":\"" + validationResult + "\"}", HttpStatus.BAD_REQUEST);
+            return badRequest(validationResult);
         }
 
         return integrationService.handleContainers(containersRequest);
@@ -179,7 +178,7 @@ public class IntegrationController {
     @ApiResponse(responseCode = "404", description = "Service not found")
     @ApiResponse(responseCode = "500", description = "Internal server error")
     @GetMapping(path = "/resources", produces = APPLICATION_JSON_VALUE)
-    ResponseEntity<String> resources(
+    ResponseEntity<StreamingResponseBody> resources(
         @Parameter(description = "Container (terminology) URL list. If not set then list/search from all containers.") @RequestParam(required = false) Set<String> container,
         @Parameter(description = "Resource (concept) uri list. If set then return only given resources.") @RequestParam(required = false) Set<String> uri,
         @Parameter(description = "Resource (concept) uri list. If set then exclude given resources from results.") @RequestParam(required = false) Set<String> filter,
@@ -191,7 +190,9 @@ public class IntegrationController {
         @Parameter(description = "After date filtering parameter, results will be resources with modified date after this ISO 8601 formatted date string") @RequestParam(required = false) String after,
         @Parameter(description = "Textual search query") @RequestParam(required = false) String searchTerm,
         @Parameter(description = "Pagination parameter for page size", example = "100") @RequestParam(defaultValue = "10000") int pageSize,
-        @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from) {
+        @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from,
+        @Parameter(description = "Pagination cursor, meta.searchAfter of the previous page. When given, start index is ignored.") @RequestParam(required = false) String searchAfter,
+        @Parameter(description = "Boolean whether to list resources as a change feed: sorted by the time of indexing, deleted resources included with deleted=true. Changes of the last seconds are left for the next poll. Cursor of the last page can be used on the next poll.") @RequestParam(required = false) boolean changes) {
 
         if (logger.isDebugEnabled()) {
             logger.debug("integrationController.resources");
@@ -212,18 +213,20 @@ public class IntegrationController {
         request.setSearchTerm(searchTerm);
         request.setPageSize(pageSize);
         request.setPageFrom(from);
+        request.setSearchAfter(searchAfter);
+        request.setChanges(changes);
         request.setIncludeIncomplete(includeIncomplete);
         request.setIncludeIncompleteFrom(includeIncompleteFrom);
         request.setUri(uri);
         String validationResult = validateResourcesInput(request);
         if (validationResult != null) {
-            return new ResponseEntity<>("{\"errorMessage\":\"" + validationResult + "\"}", HttpStatus.BAD_REQUEST);
+            return badRequest(validationResult);
         }
         return integrationService.handleResources(request);
     }
 
     @GetMapping(path = "/vocabularyAsEnum", produces = APPLICATION_JSON_VALUE)
-    ResponseEntity<String> vocabularyAsEnum(@RequestParam(required = true) String vocabularyID, @RequestParam(required = true) String lang) throws JsonMappingException, JsonProcessingException {
+    ResponseEntity<String> vocabularyAsEnum(@RequestParam(required = true) String vocabularyID, @RequestParam(required = true) String lang) {
     	IntegrationResourceRequest request = new IntegrationResourceRequest();
         request.setVocabulary(vocabularyID);
         request.setLanguage(lang);
@@ -232,23 +235,7 @@ public class IntegrationController {
             return new ResponseEntity<>("{\"errorMessage\":\"" + validationResult + "\"}", HttpStatus.BAD_REQUEST);
         }
         
-        ResponseEntity<String> response =  integrationService.handleResources(request);       
-        JsonMapper m = new JsonMapper();
-        JsonNode node = m.readTree(response.getBody());
-        
-        Iterator<JsonNode> concepts = node.get("results").elements();
-        
-        ObjectNode r = m.createObjectNode();
-        ArrayNode enums = m.createArrayNode();
-        while(concepts.hasNext()) {
-        	JsonNode pref =  concepts.next().get("prefLabel");        	
-        	if(pref != null && pref.has(lang)) {
-        		enums.add(pref.get(lang).asText());
-        	}
-        }
-        r.set("enum", enums);
-        return  ResponseEntity.ok(m.writeValueAsString(r));
-    	
+        return ResponseEntity.ok(integrationService.vocabularyAsEnum(vocabularyID, lang));
     }
     
     @Operation(summary = "Get concept list", description = "List or search for resources, i.e., the concepts. See also the alternative GET request variant.")
@@ -264,18 +251,23 @@ public class IntegrationController {
         required = true
     )
     @PostMapping(path = "/resources", produces = APPLICATION_JSON_VALUE, consumes = APPLICATION_JSON_VALUE)
-    ResponseEntity<String> resources(@RequestBody IntegrationResourceRequest resourceRequest) {
+    ResponseEntity<StreamingResponseBody> resources(@RequestBody IntegrationResourceRequest resourceRequest) {
         if (logger.isDebugEnabled()) {
             logger.debug("integrationController.resources.POST");
         }
         String validationResult = validateResourcesInput(resourceRequest);
         if (validationResult != null) {
-            return new ResponseEntity<>("{\"errorMessage\":\"" + validationResult + "\"}", HttpStatus.BAD_REQUEST);
+            return badRequest(validationResult);
         }
 
         return integrationService.handleResources(resourceRequest);
     }
 
+    private static ResponseEntity<StreamingResponseBody> badRequest(String validationResult) {
+        byte[] error = ("{\"errorMessage\":\"" + validationResult + "\"}").getBytes(StandardCharsets.UTF_8);
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(out -> out.write(error));
+    }
+
     /**
      * Check whether incoming request parameters are valid Mainly checks that date
      * strings are acceptable
@@ -299,6 +291,9 @@ public class IntegrationController {
         if (containersRequest.getPageFrom() != null && containersRequest.getPageFrom() < 0) {
             rv.add("Illegal pageFrom:" + containersRequest.getPageFrom());
         }
+        if (!SearchAfterCursor.isValid(containersRequest.getSearchAfter())) {
+            rv.add("Illegal searchAfter:" + containersRequest.getSearchAfter());
+        }
         if (containersRequest.getStatus() != null) {
             Set<String> statusSet = containersRequest.getStatus();
             Set<String> validStatuses = Stream
@@ -353,6 +348,9 @@ public class IntegrationController {
         if (containersRequest.getPageFrom() != null && containersRequest.getPageFrom() < 0) {
             rv.add("Illegal pageFrom:" + containersRequest.getPageFrom());
         }
+        if (!SearchAfterCursor.isValid(containersRequest.getSearchAfter())) {
+            rv.add("Illegal searchAfter:" + containersRequest.getSearchAfter());
+        }
         if (containersRequest.getStatus() != null) {
             Set<String> statusSet = containersRequest.getStatus();
             Set<String> validStatuses = Stream
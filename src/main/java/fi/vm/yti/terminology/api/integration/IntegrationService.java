@@ -3,6 +3,10 @@ package fi.vm.yti.terminology.api.integration;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -16,12 +20,17 @@ import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
@@ -36,8 +45,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import fi.vm.yti.security.AuthenticatedUserProvider;
 import fi.vm.yti.terminology.api.TermedRequester;
@@ -53,7 +64,6 @@ import fi.vm.yti.terminology.api.model.integration.LocalizedString;
 import fi.vm.yti.terminology.api.model.integration.Meta;
 import fi.vm.yti.terminology.api.model.integration.PrivateConceptSuggestionRequest;
 import fi.vm.yti.terminology.api.model.integration.ResourcesResponse;
-import fi.vm.yti.terminology.api.model.integration.ResponseWrapper;
 import fi.vm.yti.terminology.api.model.termed.Attribute;
 import fi.vm.yti.terminology.api.model.termed.GenericDeleteAndSave;
 import fi.vm.yti.terminology.api.model.termed.GenericNode;
@@ -63,7 +73,10 @@ import fi.vm.yti.terminology.api.model.termed.Identifier;
 import fi.vm.yti.terminology.api.model.termed.MetaNode;
 import fi.vm.yti.terminology.api.model.termed.TypeId;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.api.util.IndexUtil;
 import fi.vm.yti.terminology.api.util.JsonUtils;
+import fi.vm.yti.terminology.api.util.SearchAfterCursor;
+import fi.vm.yti.terminology.api.util.SearchHitStream;
 
 @Service
 public class IntegrationService {
@@ -84,14 +97,30 @@ public class IntegrationService {
     private final static boolean CONFIG_DO_NOT_CHECK_STATE_OF_GIVEN_CONTAINERS = true;
 
     private static final Logger logger = LoggerFactory.getLogger(IntegrationService.class);
+    /**
+     * Shared writer for streamed container and resource responses. Results are written to the
+     * response one at a time, so output is not flushed after each value.
+     */
+    private static final ObjectWriter RESPONSE_WRITER = new ObjectMapper()
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final int ENUM_PAGE_SIZE = 1000;
     private static final Set<String> sortLanguages = new HashSet<>(Arrays.asList("fi", "en", "sv"));
     private final FrontendTermedService termedService;
     private final IndexElasticSearchService elasticSearchService;
     private final AuthenticatedUserProvider userProvider;
+    private final VocabularyEnumCache vocabularyEnumCache;
     private final String indexName;
     private final String VOCABULARY_INDEX = "vocabularies";
     private final String CONCEPTS_INDEX = "concepts";
     private final Pattern namespacePattern;
+    /**
+     * Concepts are visible to search some time after the indexed time is stamped. The change
+     * feed leaves out writes more recent than this, so that the cursor does not pass them.
+     */
+    private final Duration changesLag;
 
     /**
      * Map containing metadata types. used when creating nodes.
@@ -101,16 +130,20 @@ public class IntegrationService {
     @Autowired
     public IntegrationService(TermedRequester termedRequester, FrontendGroupManagementService groupManagementService,
             FrontendTermedService frontendTermedService, IndexElasticSearchService elasticSearchService,
-            AuthenticatedUserProvider userProvider, @Value("${search.index.name}") String indexName,
-            @Value("${namespace.root}") String namespaceRoot) {
+            AuthenticatedUserProvider userProvider, VocabularyEnumCache vocabularyEnumCache,
+            @Value("${search.index.name}") String indexName,
+            @Value("${namespace.root}") String namespaceRoot,
+            @Value("${integration.changes.lagSeconds:30}") long changesLagSeconds) {
         this.termedService = frontendTermedService;
         this.elasticSearchService = elasticSearchService;
         this.userProvider = userProvider;
+        this.vocabularyEnumCache = vocabularyEnumCache;
         this.indexName = indexName;
         this.namespacePattern = Pattern.compile(Pattern.quote(namespaceRoot) + "[a-z0-9][^/]+");
+        this.changesLag = Duration.ofSeconds(changesLagSeconds);
     }
 
-    ResponseEntity<String> handleContainers(IntegrationContainerRequest request) {
+    ResponseEntity<StreamingResponseBody> handleContainers(IntegrationContainerRequest request) {
 
         if (logger.isDebugEnabled()) {
             logger.debug("GET /containers requested. status=" + request.getStatus());
@@ -121,53 +154,44 @@ public class IntegrationService {
             logger.debug("HandleContainers() query=" + sr.source().toString());
         }
 
-        JsonNode r = elasticSearchService.freeSearchFromIndex(sr);
+        // Search is executed before the response is committed, so that its errors are handled as usual
+        SearchHitStream hits = elasticSearchService.searchHitStream(sr);
 
-        // logger.info(" result:" + JsonUtils.prettyPrintJsonAsString(r));
-        // Use highLevel API result so
-        logger.debug("Raw json-result:" + r);
         Meta meta = new Meta();
         meta.setAfter(request.getAfter());
         meta.setPageSize(request.getPageSize());
-        meta.setFrom(request.getPageFrom());
-        // Response item list
-        List<ContainersResponse> resp = new ArrayList<>();
-        if (r != null) {
-            r = r.get("hits");
-            // Total hits
-            if (r.get("total") != null) {
-                meta.setTotalResults(r.get("total").asInt());
-            }
-            r = r.get("hits");
-            r.forEach(hit -> {
-                JsonNode source = hit.get("_source");
-                if (source != null) {
-                    // System.out.println("containers-Response=" +
-                    // JsonUtils.prettyPrintJsonAsString(source));
-                    ContainersResponse cr = parseContainerResponse(source);
-                    // Set return type
-                    cr.setType("terminology");
-                    resp.add(cr);
-                } else {
-                    logger.error("Missing containers source. Hits:" + hit);
+        // offset is not known when paging with a searchAfter cursor
+        meta.setFrom(request.getSearchAfter() == null || request.getSearchAfter().isEmpty() ? request.getPageFrom() : null);
+
+        StreamingResponseBody body = out -> {
+            try (SearchHitStream h = hits; JsonGenerator generator = RESPONSE_WRITER.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("results");
+                while (h.hasNext()) {
+                    JsonNode hit = h.next();
+                    JsonNode source = hit.get("_source");
+                    if (source != null) {
+                        ContainersResponse cr = parseContainerResponse(source);
+                        // Set return type
+                        cr.setType("terminology");
+                        RESPONSE_WRITER.writeValue(generator, cr);
+                    } else {
+                        logger.error("Missing containers source. Hits:" + hit);
+                    }
                 }
-            });
-            meta.setResultCount(r.size());
-        }
+                generator.writeEndArray();
+
+                // Total hits
+                meta.setTotalResults(h.getTotal());
+                meta.setResultCount(h.getCount());
+                meta.setSearchAfter(SearchAfterCursor.nextCursor(h, sr.source().size()));
+                generator.writeFieldName("meta");
+                RESPONSE_WRITER.writeValue(generator, meta);
+                generator.writeEndObject();
+            }
+        };
 
-        ResponseWrapper<ContainersResponse> wrapper = new ResponseWrapper<>();
-        wrapper.setMeta(meta);
-        wrapper.setResults(resp);
-        
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        try {
-            return new ResponseEntity<>(mapper.writeValueAsString(wrapper), HttpStatus.OK);
-        } catch (JsonProcessingException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        return new ResponseEntity<>("{}", HttpStatus.UNPROCESSABLE_ENTITY);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     private SearchRequest createContainersQuery(IntegrationContainerRequest request) {
@@ -290,6 +314,8 @@ public class IntegrationService {
             // System.out.println("Add sort language:" + request.getLanguage());
             addLanguagePrefLabelSort(request.getLanguage(), "uri", "uri", sourceBuilder);
         }
+        SearchAfterCursor.addTieBreakerSort(sourceBuilder);
+        SearchAfterCursor.applyCursor(sourceBuilder, request.getSearchAfter());
 
         if (logger.isDebugEnabled()) {
             logger.debug("SearchRequest=" + sr);
@@ -392,7 +418,7 @@ public class IntegrationService {
         return respItem;
     }
 
-    ResponseEntity<String> handleResources(IntegrationResourceRequest request) {
+    ResponseEntity<StreamingResponseBody> handleResources(IntegrationResourceRequest request) {
         if (logger.isDebugEnabled()) {
             logger.debug("(GET/POST) /resources requested. URL=" + request.getContainer() + " UriSet="
                     + request.getFilter());
@@ -403,66 +429,132 @@ public class IntegrationService {
             logger.debug("HandleVocabularies() query=" + sr.source().toString());
         }
 
-        JsonNode r = elasticSearchService.freeSearchFromIndex(sr);
-        // Use highLevel API result so
-        if (logger.isDebugEnabled()) {
-            logger.debug("raw json-result:" + r);
-        }
+        // Search is executed before the response is committed, so that its errors are handled as usual
+        SearchHitStream hits = elasticSearchService.searchHitStream(sr);
+
         Meta meta = new Meta();
         meta.setAfter(request.getAfter());
         meta.setPageSize(request.getPageSize());
-        meta.setFrom(request.getPageFrom());
+        // offset is not known when paging with a searchAfter cursor
+        meta.setFrom(request.getSearchAfter() == null || request.getSearchAfter().isEmpty() ? request.getPageFrom() : null);
         // If we ask all from all vocabularies, set default pagesize as 1000
         if ((request.getContainer() == null || request.getContainer().isEmpty()) && request.getPageSize() != null
                 && request.getPageSize() < 1) {
             meta.setPageSize(1000);
         }
-        // Response item list
-        List<ResourcesResponse> resp = new ArrayList<>();
-        if (r != null) {
-            r = r.get("hits");
-            // Total hits
-            if (r.get("total") != null) {
-                meta.setTotalResults(r.get("total").asInt());
-            }
-            r = r.get("hits");
-            r.forEach(hit -> {
-                JsonNode source = hit.get("_source");
-                if (source != null) {
-                    ResourcesResponse node = parseResourceResponse(source);
-                    node.setType("concept");
-                    if (node.getUri() != null && node.getPrefLabel() != null && node.getStatus() != null) {
-                        resp.add(node);
+
+        StreamingResponseBody body = out -> {
+            try (SearchHitStream h = hits; JsonGenerator generator = RESPONSE_WRITER.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("results");
+                while (h.hasNext()) {
+                    JsonNode hit = h.next();
+                    JsonNode source = hit.get("_source");
+                    if (source != null && source.path("deleted").asBoolean(false)) {
+                        // Tombstone of a deleted concept, modified is the time of deletion
+                        ResourcesResponse node = parseResourceResponse(source);
+                        node.setType("concept");
+                        node.setDeleted(true);
+                        RESPONSE_WRITER.writeValue(generator, node);
+                    } else if (source != null) {
+                        ResourcesResponse node = parseResourceResponse(source);
+                        node.setType("concept");
+                        if (node.getUri() != null && node.getPrefLabel() != null && node.getStatus() != null) {
+                            RESPONSE_WRITER.writeValue(generator, node);
+                        } else {
+                            logger.error("Resource response missing mandatory fields. dropping " + node);
+                        }
                     } else {
-                        logger.error("Resource response missing mandatory fields. dropping " + node);
+                        logger.error("handleResources hit=" + hit);
                     }
+                }
+                generator.writeEndArray();
+
+                // Total hits
+                meta.setTotalResults(h.getTotal());
+                meta.setResultCount(h.getCount());
+                if (request.getChanges()) {
+                    // Change feed continues from the last change, or from the same place if there were none
+                    String cursor = SearchAfterCursor.lastCursor(h);
+                    meta.setSearchAfter(cursor != null ? cursor : request.getSearchAfter());
                 } else {
-                    logger.error("handleResources hit=" + hit);
+                    meta.setSearchAfter(SearchAfterCursor.nextCursor(h, sr.source().size()));
                 }
-            });
-            meta.setResultCount(r.size());
-        } else {
-            // Empty result list
-            meta.setResultCount(0);
-        }
-        if (logger.isDebugEnabled()) {
-            logger.debug("total result count=" + meta.getTotalResults());
-            logger.debug("current block  result count=" + meta.getResultCount());
-        }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("total result count=" + meta.getTotalResults());
+                    logger.debug("current block  result count=" + meta.getResultCount());
+                }
+                generator.writeFieldName("meta");
+                RESPONSE_WRITER.writeValue(generator, meta);
+                generator.writeEndObject();
+            }
+        };
 
-        ResponseWrapper<ResourcesResponse> wrapper = new ResponseWrapper<>();
-        wrapper.setMeta(meta);
-        wrapper.setResults(resp);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        try {
-            return new ResponseEntity<>(mapper.writeValueAsString(wrapper), HttpStatus.OK);
-        } catch (JsonProcessingException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    /**
+     * Preferred labels of the concepts of a vocabulary in given language, as JSON schema enum.
+     * Cached until concepts of the vocabulary change.
+     */
+    String vocabularyAsEnum(String vocabularyUri, String language) {
+        return vocabularyEnumCache.get(vocabularyUri, language, () -> loadVocabularyEnum(vocabularyUri, language));
+    }
+
+    /**
+     * Reads all pages of the vocabulary, fetching only uri and label in given language
+     */
+    private VocabularyEnumCache.VocabularyEnum loadVocabularyEnum(String vocabularyUri, String language) {
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        ArrayNode enums = result.putArray("enum");
+        String graphId = null;
+        String cursor = null;
+        do {
+            SearchRequest sr = createVocabularyEnumQuery(vocabularyUri, language, cursor);
+            try (SearchHitStream hits = elasticSearchService.searchHitStream(sr)) {
+                while (hits.hasNext()) {
+                    JsonNode source = hits.next().path("_source");
+                    JsonNode label = source.path("label").path(language).path(0);
+                    if (source.hasNonNull("uri") && label.isTextual()) {
+                        enums.add(Jsoup.clean(label.asText(), Whitelist.none()));
+                    }
+                    if (graphId == null) {
+                        graphId = source.path("vocabulary").path("id").textValue();
+                    }
+                }
+                cursor = SearchAfterCursor.nextCursor(hits, ENUM_PAGE_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } while (cursor != null);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Vocabulary " + vocabularyUri + " as enum, " + enums.size() + " labels in " + language);
         }
-        return new ResponseEntity<>("{}", HttpStatus.UNPROCESSABLE_ENTITY);
+        return new VocabularyEnumCache.VocabularyEnum(graphId, result.toString());
+    }
+
+    /**
+     * Same visibility as resources of a vocabulary queried without includeIncomplete, see
+     * {@link #createResourcesQuery}
+     */
+    private SearchRequest createVocabularyEnumQuery(String vocabularyUri, String language, String cursor) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery("vocabulary.uri", vocabularyUri))
+                .filter(QueryBuilders.existsQuery("uri"))
+                .filter(QueryBuilders.existsQuery("status"))
+                .filter(QueryBuilders.existsQuery("label." + language))
+                .mustNot(QueryBuilders.termQuery("vocabulary.status", "INCOMPLETE"));
+
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(query)
+                .size(ENUM_PAGE_SIZE)
+                .fetchSource(new String[] { "uri", "label." + language, "vocabulary.id" }, null)
+                .sort(SortBuilders.fieldSort("sortByLabel." + language).order(SortOrder.ASC)
+                        .unmappedType("keyword"));
+        SearchAfterCursor.addTieBreakerSort(sourceBuilder);
+        SearchAfterCursor.applyCursor(sourceBuilder, cursor);
+        return new SearchRequest(CONCEPTS_INDEX).source(sourceBuilder);
     }
 
     /**
@@ -557,8 +649,8 @@ public class IntegrationService {
         // if search-term is given, match for all labels
         if (request.getSearchTerm() != null && !request.getSearchTerm().isEmpty()) {
             logger.info("Additional SearchTerm=" + request.getSearchTerm());
-            QueryStringQueryBuilder labelQuery = ElasticRequestUtils.buildPrefixSuffixQuery(request.getSearchTerm())
-                    .field("label.*");
+            QueryBuilder labelQuery = ElasticRequestUtils.buildPrefixSuffixFieldQuery(request.getSearchTerm(),
+                    Map.of("label", 1.0f));
             mustList.add(labelQuery);
         }
 
@@ -601,14 +693,35 @@ public class IntegrationService {
             sourceBuilder.size(10000);
         }
 
-        String[] includeFields = new String[] { "id", "label", "definition", "modified", "created", "status", "uri" };
+        String[] includeFields = new String[] { "id", "label", "definition", "modified", "created", "status", "uri", "deleted" };
         sourceBuilder.fetchSource(includeFields, null);
         // Add endpoint into the request
-        SearchRequest sr = new SearchRequest(CONCEPTS_INDEX).source(sourceBuilder);
-        // Add label sorting according to label
-        if (request.getLanguage() != null && !request.getLanguage().isEmpty()) {
-            addLanguagePrefLabelSort(request.getLanguage(), "sortByLabel.fi", "label", sourceBuilder);
+        SearchRequest sr;
+        if (request.getChanges()) {
+            // Change feed: tombstones of deleted concepts are listed with the concepts in the order of
+            // indexing, so that the consumer can continue from the cursor of the last page. Modification
+            // time can not be used, as concepts are indexed asynchronously after they are modified.
+            sr = new SearchRequest(CONCEPTS_INDEX, IndexElasticSearchService.TOMBSTONE_INDEX)
+                    .indicesOptions(IndicesOptions.lenientExpandOpen())
+                    .source(sourceBuilder);
+            mustList.add(QueryBuilders.rangeQuery(IndexElasticSearchService.INDEXED_FIELD)
+                    .lt(Instant.now().minus(changesLag).toString()));
+            sourceBuilder.sort(SortBuilders.fieldSort(IndexElasticSearchService.INDEXED_FIELD).order(SortOrder.ASC));
+        } else {
+            sr = new SearchRequest(CONCEPTS_INDEX).source(sourceBuilder);
+            // Add label sorting according to label
+            if (request.getLanguage() != null && !request.getLanguage().isEmpty()) {
+                addLanguagePrefLabelSort(request.getLanguage(), "sortByLabel.fi", "label", sourceBuilder);
+            }
         }
+        if (terminologyNsUris != null) {
+            // Concepts are routed by terminology, query only the shards of the given containers.
+            // Containers not matching a terminology might still match concepts, so all shards
+            // are searched unless every container was resolved.
+            sr.routing(IndexUtil.conceptRouting(resolveTerminologiesMatchingNsUris(terminologyNsUris)));
+        }
+        SearchAfterCursor.addTieBreakerSort(sourceBuilder);
+        SearchAfterCursor.applyCursor(sourceBuilder, request.getSearchAfter());
         if (logger.isDebugEnabled()) {
             logger.info("SearchRequest=" + sr);
             logger.debug(sr.source().toString());
@@ -703,11 +816,11 @@ public class IntegrationService {
     private void addLanguagePrefLabelSort(final String language, final String backupSortField,
             final String sortFieldWithoutLanguage, final SearchSourceBuilder searchBuilder) {
         if (language != null && !language.isEmpty()) {
-            searchBuilder.sort(SortBuilders.fieldSort("label." + language + ".keyword").order(SortOrder.ASC)
+            searchBuilder.sort(SortBuilders.fieldSort("sortByLabel." + language).order(SortOrder.ASC)
                     .unmappedType("keyword"));
             sortLanguages.forEach(sortLanguage -> {
                 if (!language.equalsIgnoreCase(sortLanguage)) {
-                    searchBuilder.sort(SortBuilders.fieldSort("label." + sortLanguage + ".keyword").order(SortOrder.ASC)
+                    searchBuilder.sort(SortBuilders.fieldSort("sortByLabel." + sortLanguage).order(SortOrder.ASC)
                             .unmappedType("keyword"));
                 }
             });
@@ -898,6 +1011,50 @@ public class IntegrationService {
 
     }
 
+    /**
+     * Fetch ids for all terminologies having given namespace URIs.
+     *
+     * @param nsUris namespace URIs of the terminologies
+     * @return set of terminology UUIDs as strings, null if some of the namespace URIs did not
+     * match any terminology, or the terminologies could not be resolved
+     */
+    private Set<String> resolveTerminologiesMatchingNsUris(Set<String> nsUris) {
+        Set<String> ret = new HashSet<>();
+        Set<String> unresolved = new HashSet<>(nsUris);
+        try {
+            BoolQueryBuilder query = QueryBuilders.boolQuery();
+            for (String nsUri : nsUris) {
+                query.should(QueryBuilders.prefixQuery("uri", nsUri));
+            }
+            SearchRequest request = new SearchRequest(VOCABULARY_INDEX)
+                    .source(new SearchSourceBuilder()
+                            .query(query.minimumShouldMatch(1))
+                            .fetchSource(new String[] { "uri", "type.graph.id" }, null)
+                            .size(1000));
+            JsonNode response = elasticSearchService.freeSearchFromIndex(request);
+            if (response == null || !response.has("hits")) {
+                return null;
+            }
+            JsonNode hits = response.get("hits").path("hits");
+            if (response.get("hits").path("total").asLong() > hits.size()) {
+                return null;
+            }
+            for (JsonNode hit : hits) {
+                String uri = hit.get("_source").path("uri").asText();
+                unresolved.removeIf(uri::startsWith);
+                ret.add(hit.get("_source").get("type").get("graph").get("id").textValue());
+            }
+        } catch (Exception e) {
+            logger.error("Error while resolving terminologies matching namespace URIs.", e);
+            return null;
+        }
+        if (!unresolved.isEmpty()) {
+            logger.debug("No terminology found for namespace URIs " + unresolved);
+            return null;
+        }
+        return ret;
+    }
+
     /**
      * Fetch ids for all terminologies that have contributor match with given
      * organization ids.
@@ -0,0 +1,149 @@
+package fi.vm.yti.terminology.api.integration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+
+/**
+ * Rendered vocabularyAsEnum responses by vocabulary URI and language. Each entry remembers
+ * the terminology it was read from and the index generation of that terminology, which is
+ * renewed when documents of the terminology change. Changes in other terminologies do
+ * not invalidate the entry. Changes without a known terminology invalidate everything.
+ *
+ * Generations are kept only for terminologies with cached entries and expire with them.
+ * A generation is the change count at the time it was created or renewed, so a terminology
+ * whose generation was dropped never gets a generation its old entries would match.
+ */
+@Component
+public class VocabularyEnumCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VocabularyEnumCache.class);
+
+    private final Cache<String, CachedEnum> cache;
+    /** Incremented on every change, values loaded across a change are not stored */
+    private final AtomicLong changes = new AtomicLong();
+    /** Incremented on changes without a known terminology */
+    private final AtomicLong resets = new AtomicLong();
+    private final Cache<String, Long> generations;
+
+    @Autowired
+    public VocabularyEnumCache(@Value("${integration.enum.cache.expiration:3600}") Long cacheExpireTime) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
+                .maximumSize(1000)
+                .build();
+        // accessed whenever an entry of the terminology is stored, so outlives its entries
+        this.generations = CacheBuilder.newBuilder()
+                .expireAfterAccess(cacheExpireTime, TimeUnit.SECONDS)
+                .maximumSize(1000)
+                .build();
+    }
+
+    /**
+     * Returns cached enum or loads it. Loaded enum is stored unless the index changed
+     * while it was loaded.
+     */
+    public @NotNull String get(@NotNull String vocabularyUri,
+                               @NotNull String language,
+                               @NotNull Supplier<VocabularyEnum> load) {
+        String key = vocabularyUri + "|" + language;
+        CachedEnum cached = cache.getIfPresent(key);
+        if (cached != null && cached.resets == resets.get() && cached.generation == currentGeneration(cached.graphId)) {
+            return cached.json;
+        }
+
+        long changesBefore = changes.get();
+        long resetsBefore = resets.get();
+        VocabularyEnum loaded = load.get();
+        long generation = generation(loaded.graphId);
+        if (changes.get() == changesBefore) {
+            cache.put(key, new CachedEnum(loaded.graphId, loaded.json, resetsBefore, generation));
+        }
+        return loaded.json;
+    }
+
+    @EventListener
+    public void onSearchIndexChanged(SearchIndexChangedEvent event) {
+        long change = changes.incrementAndGet();
+        if (event.getGraphId() != null) {
+            // terminologies without cached entries are not tracked
+            generations.asMap().replace(event.getGraphId().toString(), change);
+        } else {
+            resets.incrementAndGet();
+            cache.invalidateAll();
+            logger.debug("Vocabulary enum cache invalidated after change in index " + event.getIndex());
+        }
+    }
+
+    /**
+     * Enum of a vocabulary without concepts is valid until anything changes
+     */
+    private long generation(@Nullable String graphId) {
+        if (graphId == null) {
+            return changes.get();
+        }
+        return generations.asMap().computeIfAbsent(graphId, id -> changes.get());
+    }
+
+    /**
+     * @return generation of the terminology, -1 if it is no longer tracked
+     */
+    private long currentGeneration(@Nullable String graphId) {
+        if (graphId == null) {
+            return changes.get();
+        }
+        Long generation = generations.getIfPresent(graphId);
+        return generation != null ? generation : -1;
+    }
+
+    long trackedTerminologies() {
+        generations.cleanUp();
+        return generations.size();
+    }
+
+    /**
+     * Enum rendered as JSON and the terminology it was read from
+     */
+    public static final class VocabularyEnum {
+
+        private final String graphId;
+        private final String json;
+
+        /**
+         * @param graphId terminology of the concepts, null if there were none
+         */
+        public VocabularyEnum(@Nullable String graphId, @NotNull String json) {
+            this.graphId = graphId;
+            this.json = json;
+        }
+    }
+
+    private static final class CachedEnum {
+
+        private final String graphId;
+        private final String json;
+        private final long resets;
+        private final long generation;
+
+        private CachedEnum(String graphId, String json, long resets, long generation) {
+            this.graphId = graphId;
+            this.json = json;
+            this.resets = resets;
+            this.generation = generation;
+        }
+    }
+}
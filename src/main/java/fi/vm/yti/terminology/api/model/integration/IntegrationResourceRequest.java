@@ -34,6 +34,8 @@ public class IntegrationResourceRequest {
 
     private Integer pageSize;
     private Integer pageFrom;
+    private String searchAfter;
+    private boolean changes;
 
     public IntegrationResourceRequest(){}
 
@@ -164,6 +166,26 @@ public class IntegrationResourceRequest {
         this.pageFrom = pageFrom;
     }
 
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+
+    public void setSearchAfter(final String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
+
+    /**
+     * @return true if resources are listed as a change feed: sorted by modified, including
+     * tombstones of deleted resources
+     */
+    public boolean getChanges() {
+        return changes;
+    }
+
+    public void setChanges(final boolean changes) {
+        this.changes = changes;
+    }
+
     @Override
     public String toString() {
         return "IntegrationResourceRequest{" +
@@ -179,6 +201,8 @@ public class IntegrationResourceRequest {
             ", includeIncompleteFrom=" + includeIncompleteFrom +
             ", pageSize=" + pageSize +
             ", pageFrom=" + pageFrom +
+            ", searchAfter=" + searchAfter +
+            ", changes=" + changes +
             '}';
     }
 
@@ -15,7 +15,7 @@ import com.fasterxml.jackson.databind.util.StdDateFormat;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @XmlType(
-    propOrder = { "code", "message", "pageSize", "from", "resultCount", "totalResults", "after", "afterResourceUrl", "nextPage" }
+    propOrder = { "code", "message", "pageSize", "from", "resultCount", "totalResults", "after", "afterResourceUrl", "nextPage", "searchAfter" }
 )
 @Schema(
     description = "Meta information model for API responses"
@@ -33,6 +33,7 @@ public class Meta {
     private Date after;
     private String afterResourceUrl;
     private String nextPage;
+    private String searchAfter;
     private String entityIdentifier;
     private String nonTranslatableMessage;
 
@@ -161,6 +162,18 @@ public class Meta {
         this.nextPage = nextPage;
     }
 
+    /**
+     * Cursor for the next page, null if this is the last page. In a change feed the cursor is
+     * returned also for the last page, to continue from on the next poll.
+     */
+    public String getSearchAfter() {
+        return this.searchAfter;
+    }
+
+    public void setSearchAfter(String searchAfter) {
+        this.searchAfter = searchAfter;
+    }
+
     public static Date parseAfterFromString(String after) {
         if (after != null) {
             StdDateFormat dateFormat = new StdDateFormat().withColonInTimeZone(true);
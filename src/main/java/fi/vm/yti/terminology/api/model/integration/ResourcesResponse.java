@@ -11,7 +11,7 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 @JsonInclude(Include.NON_NULL)
-@JsonPropertyOrder({ "uri", "type", "container", "prefLabel", "description", "status", "created", "modified" })
+@JsonPropertyOrder({ "uri", "type", "container", "prefLabel", "description", "status", "created", "modified", "deleted" })
 public class ResourcesResponse implements Serializable {
 
     private String uri = null;
@@ -25,6 +25,7 @@ public class ResourcesResponse implements Serializable {
     private String created = null;
     private String modified = null;
     private String type = null;
+    private Boolean deleted = null;
 
     private final static long serialVersionUID = 306028529823257143L;
 
@@ -98,6 +99,17 @@ public class ResourcesResponse implements Serializable {
         this.modified = modified;
     }
 
+    /**
+     * True for a tombstone of a deleted resource in a change feed, otherwise not set
+     */
+    public Boolean getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(Boolean deleted) {
+        this.deleted = deleted;
+    }
+
     @Override
     public String toString() {
         String value = "{\"uri\":\"" + this.uri + "\"," +
@@ -107,7 +119,8 @@ public class ResourcesResponse implements Serializable {
             "\"description\":\"" + this.description + "\"," +
             "\"status\":\"" + this.status + "\"," +
             "\"created\":\"" + this.created + "\"," +
-            "\"modified\":\"" + this.modified + "\"}";
+            "\"modified\":\"" + this.modified + "\"," +
+            "\"deleted\":\"" + this.deleted + "\"}";
         return value;
     }
 }
@@ -198,9 +198,10 @@ public final class GenericNode implements Node, Serializable {
      * Copies all nodes and attributes to new graph with new ids
      *
      * @param graphId new graph id
+     * @param nodeIdMapper new id of a referenced node
      * @return
      */
-    public GenericNode copyAllToGraph(UUID graphId, Map<UUID, UUID> nodeIdMap) {
+    public GenericNode copyAllToGraph(UUID graphId, Function<Identifier, UUID> nodeIdMapper) {
 
         TypeId newType = type.copyToGraph(graphId);
 
@@ -211,8 +212,7 @@ public final class GenericNode implements Node, Serializable {
         Map<String, List<Identifier>> referrersNewGraph = new HashMap<>();
 
         Function<Identifier, Identifier> mapper = i -> {
-            // use node's original id if not present in id map
-            UUID newId = nodeIdMap.getOrDefault(i.getId(), i.getId());
+            UUID newId = nodeIdMapper.apply(i);
             TypeId typeId;
 
             // use original identifier for organization and group references
@@ -9,21 +9,26 @@ import java.util.UUID;
 import static java.util.Collections.emptyMap;
 import static java.util.UUID.randomUUID;
 
-@JsonIgnoreProperties(value = { "properties", "references", "number", "createdBy", "createdDate", "lastModifiedBy", "lastModifiedDate" })
+@JsonIgnoreProperties(value = { "references", "number", "createdBy", "createdDate", "lastModifiedBy", "lastModifiedDate" })
 public final class OrganizationReferrersNode {
 
     private final UUID id;
     private final TypeId type;
+    private final Map<String, List<Attribute>> properties;
     private final Map<String, List<GenericNode>> referrers;
 
     // Jackson constructor
     private OrganizationReferrersNode() {
-        this(randomUUID(), TypeId.placeholder(), emptyMap());
+        this(randomUUID(), TypeId.placeholder(), emptyMap(), emptyMap());
     }
 
-    public OrganizationReferrersNode(UUID id, TypeId type, Map<String, List<GenericNode>> referrers) {
+    public OrganizationReferrersNode(UUID id,
+                                     TypeId type,
+                                     Map<String, List<Attribute>> properties,
+                                     Map<String, List<GenericNode>> referrers) {
         this.id = id;
         this.type = type;
+        this.properties = properties;
         this.referrers = referrers;
     }
 
@@ -43,6 +48,10 @@ public final class OrganizationReferrersNode {
         return type;
     }
 
+    public Map<String, List<Attribute>> getProperties() {
+        return properties;
+    }
+
     public Map<String, List<GenericNode>> getReferrers() {
         return referrers;
     }
@@ -3,10 +3,17 @@ package fi.vm.yti.terminology.api.mscr;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.function.Consumer;
 
 import org.apache.jena.query.Query;
@@ -17,9 +24,8 @@ import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.NodeIterator;
 import org.apache.jena.rdf.model.Property;
-import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.vocabulary.DC;
@@ -28,12 +34,13 @@ import org.apache.jena.vocabulary.OWL;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.SKOS;
 import org.apache.jena.vocabulary.SKOSXL;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFCell;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
+import fi.vm.yti.terminology.api.exception.ExcelParseException;
+import fi.vm.yti.terminology.api.importapi.NtrfUtil;
+import fi.vm.yti.terminology.api.importapi.simpleexcel.SimpleExcelParser;
 import fi.vm.yti.terminology.api.model.ntrf.DEF;
 import fi.vm.yti.terminology.api.model.ntrf.ECON;
 import fi.vm.yti.terminology.api.model.ntrf.LANG;
@@ -42,12 +49,23 @@ import fi.vm.yti.terminology.api.model.ntrf.RECORD;
 import fi.vm.yti.terminology.api.model.ntrf.TE;
 import fi.vm.yti.terminology.api.model.ntrf.TERM;
 import fi.vm.yti.terminology.api.model.ntrf.VOCABULARY;
-import jakarta.xml.bind.JAXBContext;
+import fi.vm.yti.terminology.api.model.termed.Attribute;
+import fi.vm.yti.terminology.api.model.termed.GenericNode;
+import fi.vm.yti.terminology.api.model.termed.GraphId;
+import fi.vm.yti.terminology.api.model.termed.Identifier;
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+import fi.vm.yti.terminology.api.model.termed.TypeId;
+import fi.vm.yti.terminology.api.validation.ValidationConstants;
 import jakarta.xml.bind.Marshaller;
 
-
 public class SKOSMapper {
 
+	private static final String CONCEPT_TYPE_URI = "http://www.w3.org/2004/02/skos/core#Concept";
+	private static final String LANGUAGE = "en";
+	private static final String STATUS = "DRAFT";
+	private static final String[] SIMPLE_EXCEL_COLUMNS = new String[]{"prefLabel_en", "definition_en", "uri", "status"};
+	private static final int ROW_ACCESS_WINDOW = 100;
+
 	private List<Resource> getLeafConcepts(Model inputModel) {
 		List<Resource> r = new ArrayList<Resource>();
 
@@ -111,31 +129,77 @@ public class SKOSMapper {
 		}
 	}
 	
-	private Resource getParent(Resource concept, Model model) {
-		if (concept.hasProperty(SKOS.broader)) {
-			return concept.getPropertyResourceValue(SKOS.broader);
-		} else if (model.listSubjectsWithProperty(SKOS.narrower, concept).hasNext()) {
-			return model.listSubjectsWithProperty(SKOS.narrower, concept).next();
+	/**
+	 * Orders concepts so that every concept is listed after all of its parents. Only
+	 * resources typed skos:Concept are listed, relations to other resources are ignored.
+	 * Parent and child relations are read once from skos:broader and skos:narrower
+	 * statements and each concept is listed once, so the cost is linear to the number of concepts
+	 * and relations. Concepts in a cycle are listed in document order when no other
+	 * concept can be taken.
+	 */
+	List<Resource> getConceptsInHierarchyOrder(Model model) {
+		Map<Resource, Set<Resource>> children = new HashMap<>();
+		Map<Resource, Integer> parentCount = new HashMap<>();
+		Set<Resource> concepts = new LinkedHashSet<>();
+
+		model.listSubjectsWithProperty(RDF.type, SKOS.Concept)
+				.filterKeep(Resource::isURIResource)
+				.forEachRemaining(concepts::add);
+		model.listStatements(null, SKOS.broader, (RDFNode) null).forEachRemaining(stmt ->
+				addChild(children, parentCount, concepts, stmt.getObject(), stmt.getSubject()));
+		model.listStatements(null, SKOS.narrower, (RDFNode) null).forEachRemaining(stmt ->
+				addChild(children, parentCount, concepts, stmt.getSubject(), stmt.getObject()));
+
+		List<Resource> ordered = new ArrayList<>(concepts.size());
+		Set<Resource> added = new HashSet<>();
+		for (Resource root : concepts) {
+			if (!parentCount.containsKey(root)) {
+				addHierarchy(root, children, parentCount, added, ordered);
+			}
+		}
+		for (Resource concept : concepts) {
+			addHierarchy(concept, children, parentCount, added, ordered);
 		}
-		return null;
+		return ordered;
 	}
 
-	private List<Resource> getChildren(Resource concept, Model model) {
-		List<Resource> children = new ArrayList<Resource>();
-		ResIterator i = model.listSubjectsWithProperty(SKOS.broader, concept);
-		NodeIterator i2 = model.listObjectsOfProperty(concept, SKOS.narrower);
-		while (i.hasNext()) {
-			children.add(i.next());
+	private void addChild(Map<Resource, Set<Resource>> children, Map<Resource, Integer> parentCount, Set<Resource> concepts, RDFNode parent, RDFNode child) {
+		if (!concepts.contains(parent) || !concepts.contains(child) || parent.equals(child)) {
+			return;
 		}
-		while (i2.hasNext()) {
-			Resource candidate = i2.next().asResource();
-			if (!children.contains(candidate)) {
-				children.add(candidate);
-			}
-
+		Resource p = parent.asResource();
+		Resource c = child.asResource();
+		if (children.computeIfAbsent(p, k -> new LinkedHashSet<>()).add(c)) {
+			parentCount.merge(c, 1, Integer::sum);
 		}
+	}
 
-		return children;
+	/**
+	 * Adds given concept and then, depth first, each descendant whose parents all have been added.
+	 */
+	private void addHierarchy(Resource root, Map<Resource, Set<Resource>> children, Map<Resource, Integer> parentCount, Set<Resource> added, List<Resource> ordered) {
+		if (added.contains(root)) {
+			return;
+		}
+		Deque<Resource> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Resource concept = stack.pop();
+			if (!added.add(concept)) {
+				continue;
+			}
+			ordered.add(concept);
+			List<Resource> ready = new ArrayList<>();
+			for (Resource child : children.getOrDefault(concept, Collections.emptySet())) {
+				if (parentCount.merge(child, -1, Integer::sum) == 0 && !added.contains(child)) {
+					ready.add(child);
+				}
+			}
+			// Push in reverse so that children are listed in document order
+			for (int i = ready.size() - 1; i >= 0; i--) {
+				stack.push(ready.get(i));
+			}
+		}
 	}
 
 	private void handleConcept(Resource concept, Model model, VOCABULARY v) {
@@ -176,54 +240,6 @@ public class SKOSMapper {
 		v.getRECORDAndHEADAndDIAG().add(r);
 	}
 	
-	private void handleConcept(Resource concept, Model model, XSSFSheet v, Set<String> added) {
-		String uri = concept.getURI();
-		if(added.contains(uri)) {
-			return;
-		}
-		String prefLabel = getPrefLabel(concept);
-		String description = propertyToString(concept, SKOS.definition);
-		if (description == null) {
-			description = "";
-		}
-		String localName = getLocalName(concept);
-
-				
-		 XSSFRow row = v.createRow(v.getLastRowNum() +1 );
-		 XSSFCell uriCell = row.createCell(2);
-	     uriCell.setCellValue(uri);
-		 XSSFCell labelCell = row.createCell(0);
-		 labelCell.setCellValue(prefLabel);
-		 XSSFCell defCell = row.createCell(1);
-		 defCell.setCellValue(description);
-		 XSSFCell statusCell = row.createCell(3);
-		 statusCell.setCellValue("DRAFT");
-		 
-		 added.add(uri);
-
-	}
-	
-	private void traverseUp(Resource r, Model inputModel, XSSFSheet v, Set<String> added) throws Exception {
-		// Add n to A to maintain bottom up nature
-		if (r == null)
-			return;
-		// Go to parent
-		Resource parent = getParent(r, inputModel);
-		if (parent == null) {
-			// we are at a top concept
-			handleConcept(r, inputModel, v, added);
-			return;
-		}
-		List<Resource> children = getChildren(parent, inputModel);
-		handleConcept(parent, inputModel, v, added);
-		for (Resource child : children) {
-			handleConcept(child, inputModel, v, added);
-
-		}
-		// When done with adding all p's children, continue traversing up
-		traverseUp(parent, inputModel, v, added);
-	}
-	
 	public File mapToNTRF(InputStream is) throws Exception {
 		VOCABULARY v = new VOCABULARY();
 		
@@ -233,48 +249,100 @@ public class SKOSMapper {
 		for (Resource leaf : leafs) {
 			//traverseUp(leaf, model, v);
 		}
-		JAXBContext jaxbContext = JAXBContext.newInstance(VOCABULARY.class);
-		Marshaller marshaller = jaxbContext.createMarshaller();
+		Marshaller marshaller = NtrfUtil.getMarshaller();
 		//File file = File.createTempFile("skos", "ntrf");
 		File file = new File("test.xml");
 		marshaller.marshal(v, file);
 		return file;
 	}
 	
+	private String getDefinition(Resource concept) {
+		String description = propertyToString(concept, SKOS.definition);
+		return description == null ? "" : description;
+	}
+
+	/**
+	 * Writes concepts to a simple Excel import file. Rows are streamed to disk,
+	 * so only a small window of rows is kept in memory.
+	 */
 	public File mapToSimpleExcel(InputStream is) throws Exception {
-		Workbook wb = new XSSFWorkbook();
-	    XSSFSheet sheet = (XSSFSheet) wb.createSheet();		
-	    XSSFRow rowHeader = sheet.createRow(0);
-	    ArrayList<String> columnNames = new ArrayList<String>();
+		Model model = ModelFactory.createDefaultModel();
+		model.read(is, null, "TTL");
+
+		SXSSFWorkbook wb = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
+		try {
+			Sheet sheet = wb.createSheet();
+			Row rowHeader = sheet.createRow(0);
+			for (int j = 0; j < SIMPLE_EXCEL_COLUMNS.length; j++) {
+				rowHeader.createCell(j).setCellValue(SIMPLE_EXCEL_COLUMNS[j]);
+			}
+
+			int rowNum = 1;
+			for (Resource concept : getConceptsInHierarchyOrder(model)) {
+				Row row = sheet.createRow(rowNum++);
+				row.createCell(0).setCellValue(getPrefLabel(concept));
+				row.createCell(1).setCellValue(getDefinition(concept));
+				row.createCell(2).setCellValue(concept.getURI());
+				row.createCell(3).setCellValue(STATUS);
+			}
+
+			File file = File.createTempFile("skos", "xlsx");
+			try (FileOutputStream os = new FileOutputStream(file)) {
+				wb.write(os);
+			}
+			return file;
+		} finally {
+			wb.dispose();
+			wb.close();
+		}
+	}
 
-	    
-	    columnNames.add("prefLabel_en");	    
-	    columnNames.add("definition_en");
-	    columnNames.add("uri");
-	    columnNames.add("status");
-	    for (int j = 0; j < columnNames.size(); j++) {
-	        // create first row
-	        XSSFCell cell = rowHeader.createCell(j);
-	        cell.setCellValue(columnNames.get(j));
-	    }	    
-	    
-	    Set<String> added = new HashSet<String>();
-	    Model model = ModelFactory.createDefaultModel();
+	/**
+	 * Maps concepts directly to nodes, same as {@link SimpleExcelParser#buildNodes}
+	 * produces from the file written by {@link #mapToSimpleExcel(InputStream)}: one
+	 * DRAFT concept with an English prefLabel term, definition and original URI.
+	 *
+	 * @param is            SKOS document in Turtle
+	 * @param terminologyId Terminology id
+	 * @param languages     Terminology languages
+	 * @return List of generic nodes to be saved
+	 */
+	public List<GenericNode> mapToNodes(InputStream is, UUID terminologyId, List<String> languages) {
+		if (!languages.contains(LANGUAGE)) {
+			throw new ExcelParseException("terminology-no-language");
+		}
+		Model model = ModelFactory.createDefaultModel();
 		model.read(is, null, "TTL");
-		List<Resource> leafs = getLeafConcepts(model);
-		for (Resource leaf : leafs) {
-			traverseUp(leaf, model, sheet, added);
+
+		SimpleExcelParser parser = new SimpleExcelParser();
+		List<GenericNode> nodes = new ArrayList<>();
+		for (Resource concept : getConceptsInHierarchyOrder(model)) {
+			String prefLabel = getPrefLabel(concept);
+			if (prefLabel.replace("\u00a0", "").isBlank()) {
+				throw new ExcelParseException("prefLabel-row-missing");
+			}
+			Map<String, List<Attribute>> properties = new HashMap<>();
+			String definition = getDefinition(concept);
+			if (!definition.isBlank()) {
+				if (definition.length() >= ValidationConstants.TEXT_AREA_MAX_LENGTH) {
+					throw new ExcelParseException("value-not-valid");
+				}
+				properties.put("definition", List.of(new Attribute(LANGUAGE, definition)));
+			}
+			properties.put("status", List.of(new Attribute("", STATUS)));
+
+			GenericNode term = parser.createTerm(LANGUAGE, prefLabel, STATUS, terminologyId);
+			Map<String, List<Identifier>> references = new HashMap<>();
+			references.put("prefLabelXl", List.of(term.getIdentifier()));
+
+			GenericNode node = new GenericNode(new TypeId(NodeType.Concept, new GraphId(terminologyId), CONCEPT_TYPE_URI), properties, references);
+			node.setUri(concept.getURI());
+			nodes.add(term);
+			nodes.add(node);
 		}
-		File file = File.createTempFile("skos", "xlsx");
-		FileOutputStream os = new FileOutputStream(file);
-		wb.write(os);
-		wb.close();
-		os.close();
-		
-		return file;
-		
+		return nodes;
 	}
-	
+
 	private void addProperty(Resource source, Property sourceProp, Resource target, Property targetProp) {
 		Statement stmt =source.getProperty(sourceProp);
 		if(stmt != null) {
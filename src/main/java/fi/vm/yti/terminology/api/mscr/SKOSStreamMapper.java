@@ -0,0 +1,236 @@
+package fi.vm.yti.terminology.api.mscr;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.DC;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.SKOS;
+import org.apache.jena.vocabulary.SKOSXL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming version of {@link SKOSMapper#mapTermedToSKOS}. Reads Termed Turtle export
+ * triple by triple and writes SKOS triples to the output as soon as a node (subject)
+ * is complete, so neither the source nor the result graph is kept in memory.
+ *
+ * Termed writes all triples of a node in one block. Only state which cannot be
+ * resolved from a single node is kept: literal forms of terms which are read before
+ * their concept, and concepts which are read before the concept scheme. Subjects of
+ * closed blocks are remembered, so that a node split into several blocks fails the
+ * mapping instead of producing a partial or duplicate concept.
+ */
+public class SKOSStreamMapper extends StreamRDFBase {
+
+    private static final Logger logger = LoggerFactory.getLogger(SKOSStreamMapper.class);
+
+    private static final String TERMED_NS = "http://purl.org/termed/properties/";
+    private static final String SKOS_OLD_NS = "http://www.w3.org/2008/05/skos#";
+
+    private static final Node TERMED_CREATED = NodeFactory.createURI(TERMED_NS + "createdDate");
+    private static final Node TERMED_MODIFIED = NodeFactory.createURI(TERMED_NS + "lastModifiedDate");
+    private static final Node TERMED_NUMBER = NodeFactory.createURI(TERMED_NS + "number");
+
+    private final StreamRDF output;
+
+    private Node currentSubject;
+    private final List<Triple> subjectTriples = new ArrayList<>();
+    private final Set<Node> handledSubjects = new HashSet<>();
+
+    private Node scheme;
+    /** Literal form of terms read before the concept referring to them */
+    private final Map<Node, Node> literalForms = new HashMap<>();
+    /** Concepts waiting for the literal form of their prefLabel term */
+    private final Map<Node, Node> labelConcepts = new HashMap<>();
+    /** Mapped triples of concepts read before the concept scheme */
+    private final Map<Node, List<Triple>> pendingConcepts = new LinkedHashMap<>();
+
+    public SKOSStreamMapper(StreamRDF output) {
+        this.output = output;
+    }
+
+    /**
+     * Maps Termed Turtle export to SKOS in given language. Formats with a streaming
+     * writer (Turtle, N-Triples) are written while the input is read; other formats
+     * (JSON-LD) collect the mapped triples before writing.
+     */
+    public static void map(InputStream in, OutputStream out, Lang lang) {
+        if (StreamRDFWriter.registered(lang)) {
+            StreamRDF writer = StreamRDFWriter.getWriterStream(out, lang);
+            RDFParser.source(in).lang(Lang.TTL).parse(new SKOSStreamMapper(writer));
+        } else {
+            Graph graph = GraphFactory.createDefaultGraph();
+            RDFParser.source(in).lang(Lang.TTL).parse(new SKOSStreamMapper(StreamRDFLib.graph(graph)));
+            RDFDataMgr.write(out, graph, lang);
+        }
+    }
+
+    @Override
+    public void start() {
+        output.start();
+        output.prefix("skos", SKOS.uri);
+        output.prefix("dc", DC.NS);
+        output.prefix("dcterms", DCTerms.NS);
+        output.prefix("owl", OWL.NS);
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        if (!triple.getSubject().equals(currentSubject)) {
+            handleSubject();
+            currentSubject = triple.getSubject();
+            if (!handledSubjects.add(currentSubject)) {
+                throw new RiotException("Triples of " + currentSubject + " are not in one block");
+            }
+        }
+        subjectTriples.add(triple);
+    }
+
+    @Override
+    public void finish() {
+        handleSubject();
+        if (!pendingConcepts.isEmpty()) {
+            logger.warn("Concept scheme not found, {} concepts skipped", pendingConcepts.size());
+        }
+        output.finish();
+    }
+
+    private void handleSubject() {
+        if (subjectTriples.isEmpty()) {
+            return;
+        }
+        Node subject = currentSubject;
+        if (subject.isURI()) {
+            if (scheme == null && hasType(SKOS.ConceptScheme.asNode())) {
+                handleScheme(subject);
+            } else if (hasType(SKOS.Concept.asNode())) {
+                handleConcept(subject);
+            }
+        }
+        Node literalForm = firstObject(SKOSXL.literalForm.asNode());
+        if (literalForm != null) {
+            handleLiteralForm(subject, literalForm);
+        }
+        subjectTriples.clear();
+    }
+
+    private void handleScheme(Node subject) {
+        scheme = subject;
+        output.triple(Triple.create(subject, RDF.type.asNode(), SKOS.ConceptScheme.asNode()));
+        copyFirst(subject, SKOS.prefLabel.asNode(), DC.title.asNode(), output::triple);
+        copyFirst(subject, TERMED_CREATED, DCTerms.created.asNode(), output::triple);
+        copyFirst(subject, TERMED_MODIFIED, DCTerms.modified.asNode(), output::triple);
+        copyFirst(subject, TERMED_NUMBER, OWL.versionInfo.asNode(), output::triple);
+
+        pendingConcepts.forEach((concept, triples) -> {
+            if (inScheme(concept)) {
+                output.triple(Triple.create(concept, SKOS.inScheme.asNode(), scheme));
+                triples.forEach(output::triple);
+            }
+        });
+        pendingConcepts.clear();
+        labelConcepts.values().removeIf(concept -> !inScheme(concept));
+    }
+
+    private void handleConcept(Node subject) {
+        // only add concepts where the id starts with the vocabulary uri
+        if (scheme != null && !inScheme(subject)) {
+            return;
+        }
+        Set<Triple> mapped = new LinkedHashSet<>();
+        mapped.add(Triple.create(subject, RDF.type.asNode(), SKOS.Concept.asNode()));
+        copyFirst(subject, SKOS.definition.asNode(), SKOS.definition.asNode(), mapped::add);
+        copyFirst(subject, TERMED_CREATED, DCTerms.created.asNode(), mapped::add);
+        copyFirst(subject, TERMED_MODIFIED, DCTerms.modified.asNode(), mapped::add);
+
+        // only the first term is mapped to prefLabel
+        Node prefLabelTerm = firstObject(SKOSXL.prefLabel.asNode());
+        if (prefLabelTerm != null) {
+            Node literalForm = literalForms.remove(prefLabelTerm);
+            if (literalForm != null) {
+                mapped.add(Triple.create(subject, SKOS.prefLabel.asNode(), literalForm));
+            } else {
+                labelConcepts.put(prefLabelTerm, subject);
+            }
+        }
+
+        for (Triple t : subjectTriples) {
+            String predicate = t.getPredicate().getURI();
+            if (predicate.startsWith(SKOS.uri) || predicate.startsWith(SKOS_OLD_NS)) {
+                // add all skos properties
+                mapped.add(t);
+            }
+        }
+
+        if (scheme != null) {
+            output.triple(Triple.create(subject, SKOS.inScheme.asNode(), scheme));
+            mapped.forEach(output::triple);
+        } else {
+            pendingConcepts.put(subject, new ArrayList<>(mapped));
+        }
+    }
+
+    private void handleLiteralForm(Node term, Node literalForm) {
+        Node concept = labelConcepts.remove(term);
+        if (concept == null) {
+            literalForms.put(term, literalForm);
+            return;
+        }
+        Triple prefLabel = Triple.create(concept, SKOS.prefLabel.asNode(), literalForm);
+        List<Triple> pending = pendingConcepts.get(concept);
+        if (pending != null) {
+            pending.add(prefLabel);
+        } else {
+            output.triple(prefLabel);
+        }
+    }
+
+    private boolean inScheme(Node concept) {
+        return concept.getURI().startsWith(scheme.getURI());
+    }
+
+    private boolean hasType(Node type) {
+        return subjectTriples.stream()
+                .anyMatch(t -> t.getPredicate().equals(RDF.type.asNode()) && t.getObject().equals(type));
+    }
+
+    private Node firstObject(Node predicate) {
+        return subjectTriples.stream()
+                .filter(t -> t.getPredicate().equals(predicate))
+                .map(Triple::getObject)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private void copyFirst(Node subject, Node sourcePredicate, Node targetPredicate, Consumer<Triple> target) {
+        Node object = firstObject(sourcePredicate);
+        if (object != null) {
+            target.accept(Triple.create(subject, targetPredicate, object));
+        }
+    }
+}
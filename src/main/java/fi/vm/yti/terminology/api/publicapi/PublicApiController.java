@@ -4,6 +4,8 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -33,10 +35,16 @@ public class PublicApiController {
 
     @Operation(summary = "Get list of all terminologies", description = "Get list of all terminologies", deprecated = true)
     @ApiResponse(responseCode = "200", description = "Terminology list as a JSON array")
+    @ApiResponse(responseCode = "304", description = "Terminology list has not changed since the ETag given in If-None-Match")
     @GetMapping(path = "/vocabularies", produces = APPLICATION_JSON_VALUE)
-    List<PublicApiVocabulary> getVocabularyList() {
+    ResponseEntity<List<PublicApiVocabulary>> getVocabularyList() {
         logger.info("GET /vocabularies requested");
-        return termedService.getVocabularyList();
+        VocabularyListCache.Snapshot vocabularies = termedService.getVocabularyList();
+        // Conditional request with a matching If-None-Match is answered with 304 by Spring
+        return ResponseEntity.ok()
+            .cacheControl(CacheControl.noCache())
+            .eTag(vocabularies.getETag())
+            .body(vocabularies.getVocabularies());
     }
 
     @Operation(summary = "Search for concepts", description = "Perform index search for concepts", deprecated = true)
@@ -45,9 +53,11 @@ public class PublicApiController {
     List<PublicApiConcept> searchConceptWithStatus(@Parameter(description = "Serch term for elastic search") @RequestParam(required = false, defaultValue = "") String searchTerm,
                                                    @Parameter(description = "Terminology ID. If missing search concepts from all terminologies.") @RequestParam(required = false) String vocabularyId,
                                                    @Parameter(description = "Status for filtering. If missing, show all.") @RequestParam(required = false) String status,
-                                                   @Parameter(description = "Language for filtering. If missing, search labels in any language-") @RequestParam(required = false) String language) {
+                                                   @Parameter(description = "Language for filtering. If missing, search labels in any language-") @RequestParam(required = false) String language,
+                                                   @Parameter(description = "Pagination parameter for start index", example = "0") @RequestParam(required = false, defaultValue = "0") int from,
+                                                   @Parameter(description = "Pagination parameter for page size, at most 1000", example = "100") @RequestParam(required = false, defaultValue = "100") int pageSize) {
 
         logger.info("GET /searchconcept requested");
-        return publicApiElasticSearchService.searchConcept(searchTerm, vocabularyId, status, language);
+        return publicApiElasticSearchService.searchConcept(searchTerm, vocabularyId, status, language, from, pageSize);
     }
 }
@@ -2,168 +2,163 @@ package fi.vm.yti.terminology.api.publicapi;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
 
-import org.apache.http.HttpHost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.nio.entity.NStringEntity;
-import org.elasticsearch.client.Request;
-import org.elasticsearch.client.Response;
-import org.elasticsearch.client.RestClient;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.core.io.JsonStringEncoder;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import fi.vm.yti.terminology.api.index.IndexTermedService;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptSource;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
-import static fi.vm.yti.terminology.api.util.ElasticRequestUtils.responseContentAsJson;
+import fi.vm.yti.terminology.api.util.IndexUtil;
+import fi.vm.yti.terminology.api.util.RestHighLevelClientWrapper;
 
 @Service
 public class PublicApiElasticSearchService {
 
     private static final Logger logger = LoggerFactory.getLogger(PublicApiElasticSearchService.class);
 
-    private final String indexName;
-    private final String indexMappingType;
+    static final int MAX_PAGE_SIZE = 1000;
 
-    private final RestClient esRestClient;
+    private static final String[] SOURCE_FIELDS = {
+            "id", "uri", "status", "label", "definition", "vocabulary.id", "vocabulary.uri", "vocabulary.label"
+    };
 
-    private final IndexTermedService indexTermedService;
-
-    private static Locale[] availableLocales;
-    private static Set<String> uniqueNonNullLanguages;
+    private final RestHighLevelClientWrapper esRestClient;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public PublicApiElasticSearchService(@Value("${search.host.url}") String searchHostUrl,
-                                         @Value("${search.host.port}") int searchHostPort,
-                                         @Value("${search.host.scheme}") String searchHostScheme,
-                                         @Value("${search.index.name}") String indexName,
-                                         @Value("${search.index.mapping.type}") String indexMappingType,
-                                         IndexTermedService indexTermedService) {
-        this.indexName = indexName;
-        this.indexMappingType = indexMappingType;
-        this.esRestClient = RestClient.builder(new HttpHost(searchHostUrl, searchHostPort, searchHostScheme)).build();
-        this.indexTermedService = indexTermedService;
+    public PublicApiElasticSearchService(RestHighLevelClientWrapper esRestClient,
+                                         ObjectMapper objectMapper) {
+        this.esRestClient = esRestClient;
+        this.objectMapper = objectMapper;
     }
 
-    static {
-        availableLocales = Locale.getAvailableLocales();
-        uniqueNonNullLanguages = new HashSet<>();
+    List<PublicApiConcept> searchConcept(String searchTerm,
+                                         String vocabularyId,
+                                         String status,
+                                         String language,
+                                         int from,
+                                         int pageSize) {
 
-        for (Locale locale : availableLocales) {
-            if (!locale.getLanguage().isEmpty() && !uniqueNonNullLanguages.contains(locale.getLanguage())) {
-                uniqueNonNullLanguages.add(locale.getLanguage());
-            }
+        SearchRequest sr = createConceptQuery(searchTerm, vocabularyId, status, language, from, pageSize);
+        try {
+            SearchResponse response = esRestClient.search(sr, RequestOptions.DEFAULT);
+            return parseConcepts(response);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    List<PublicApiConcept> searchConcept(String searchTerm,
-                                         String vocabularyId,
-                                         String status,
-                                         String language) {
+    /**
+     * Label match with status and terminology filters. Without language labels of all languages are matched.
+     */
+    static SearchRequest createConceptQuery(String searchTerm,
+                                            String vocabularyId,
+                                            String status,
+                                            String language,
+                                            int from,
+                                            int pageSize) {
 
-        final String endpoint = "/" + indexName + "/" + indexMappingType + "/_search";
         final boolean terminologyGiven = vocabularyId != null && !vocabularyId.isEmpty() && !"0".equals(vocabularyId);
 
-        StringBuilder queryBuilder = new StringBuilder();
-        if (language != null && !language.isEmpty() && ElasticRequestUtils.LANGUAGE_CODE_PATTERN.matcher(language).matches()) {
-            String labelPart = "label." + language;
-            logger.debug("Searching concepts based on '" + labelPart + "'");
-            if (!terminologyGiven) {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"" + labelPart + "\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
+        String labelField = "label.*";
+        if (language != null && !language.isEmpty()) {
+            if (ElasticRequestUtils.LANGUAGE_CODE_PATTERN.matcher(language).matches()) {
+                labelField = "label." + language;
+                logger.debug("Searching concepts based on '" + labelField + "'");
             } else {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"match\":{\"vocabulary.id\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(vocabularyId, queryBuilder);
-                queryBuilder.append("\"}},{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"" + labelPart + "\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
-            }
-        } else {
-            if (language != null && !language.isEmpty()) {
                 logger.warn("Rejected concept search language specifier: '" + language + "'");
             }
-            if (!terminologyGiven) {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"label.*\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
-            } else {
-                queryBuilder.append("{\"query\":{\"bool\":{\"must\":[{\"match\":{\"vocabulary.id\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(vocabularyId, queryBuilder);
-                queryBuilder.append("\"}},{\"multi_match\":{\"query\":\"");
-                JsonStringEncoder.getInstance().quoteAsString(searchTerm, queryBuilder);
-                queryBuilder.append("\",\"fields\":[\"label.*\"],\"type\":\"best_fields\",\"minimum_should_match\":\"90%\"}}],\"must_not\":[]}},\"highlight\":{\"pre_tags\":[\"<b>\"],\"post_tags\":[\"</b>\"],\"fields\":{\"label.*\":{}}},\"from\":0,\"size\":100,\"sort\":[\"_score\"]}");
-            }
         }
 
-        NStringEntity body = new NStringEntity(queryBuilder.toString(), ContentType.APPLICATION_JSON);
+        BoolQueryBuilder query = QueryBuilders.boolQuery()
+                .must(QueryBuilders.multiMatchQuery(searchTerm != null ? searchTerm : "", labelField)
+                        .type(MultiMatchQueryBuilder.Type.BEST_FIELDS)
+                        .minimumShouldMatch("90%"));
+        if (terminologyGiven) {
+            query.filter(QueryBuilders.termQuery("vocabulary.id", vocabularyId));
+        }
+        if (status != null && !status.isEmpty()) {
+            query.filter(QueryBuilders.termQuery("status", status.toUpperCase(Locale.ROOT)));
+        }
 
-        try {
-            Request request = new Request("GET", endpoint);
-            request.setEntity(body);
-            Response response = esRestClient.performRequest(request);
-            ObjectMapper om = new ObjectMapper();
-            return getAsPublicApiConcepts(status, responseContentAsJson(om, response));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(query)
+                .fetchSource(SOURCE_FIELDS, null)
+                .from(Math.max(from, 0))
+                .size(Math.max(0, Math.min(pageSize, MAX_PAGE_SIZE)));
+
+        SearchRequest sr = new SearchRequest("concepts").source(sourceBuilder);
+        if (terminologyGiven) {
+            sr.routing(IndexUtil.conceptRouting(List.of(vocabularyId)));
         }
+        logger.debug("Public concept search request: {}", sr);
+        return sr;
     }
 
-    private List<PublicApiConcept> getAsPublicApiConcepts(String status,
-                                                          JsonNode concepts) {
+    List<PublicApiConcept> parseConcepts(SearchResponse response) {
         List<PublicApiConcept> result = new ArrayList<>();
-        JsonNode hitsNode = concepts.path("hits").path("hits");
-        for (JsonNode jsonNode : hitsNode) {
-            boolean addItem = true;
-            PublicApiConcept concept = new PublicApiConcept();
-            concept.setId(UUID.fromString(jsonNode.path("_source").path("id").asText()));
-            concept.setVocabularyId(UUID.fromString(jsonNode.path("_source").path("vocabulary").path("id").asText()));
-            concept.setVocabularyUri(jsonNode.path("_source").path("vocabulary").path("uri").asText());
-            concept.setPrefLabel(extractLocalizableFromGivenField(jsonNode.path("_source"), "label"));
-            concept.setDefinition(extractLocalizableFromGivenField(jsonNode.path("_source"), "definition"));
-            concept.setVocabularyPrefLabel(extractLocalizableFromGivenField(jsonNode.path("_source").path("vocabulary"), "label"));
-            concept.setUri(jsonNode.path("_source").path("uri").asText());
-            concept.setStatus(jsonNode.path("_source").path("status").asText());
-
-            // Filtering out items which status  does not match to given one.
-            if (status != null && !status.isEmpty()) {
-                if (!concept.getStatus().equalsIgnoreCase(status)) {
-                    addItem = false;
+        for (SearchHit hit : response.getHits().getHits()) {
+            try {
+                ConceptSource source = ElasticRequestUtils.readSource(objectMapper, hit, ConceptSource.class);
+                if (source != null) {
+                    result.add(toPublicApiConcept(source));
                 }
-            }
-            if (addItem) {
-                result.add(concept);
+            } catch (Exception e) {
+                logger.error("Error while parsing a concept hit", e);
             }
         }
         return result;
     }
 
-    public HashMap<String, String> extractLocalizableFromGivenField(JsonNode node,
-                                                                    String fieldName) {
-        HashMap<String, String> result = new HashMap<>();
-
-        uniqueNonNullLanguages.forEach(language -> {
-            JsonNode theNode = node.get(fieldName).get(language);
-            if (theNode != null) {
-                result.put(language, Jsoup.clean(node.get(fieldName).get(language).get(0).textValue(), Whitelist.none()));
-            }
-        });
+    static PublicApiConcept toPublicApiConcept(ConceptSource source) {
+        PublicApiConcept concept = new PublicApiConcept();
+        concept.setId(UUID.fromString(source.getId()));
+        concept.setUri(source.getUri());
+        concept.setStatus(source.getStatus());
+        concept.setPrefLabel(localized(source.getLabel()));
+        concept.setDefinition(localized(source.getDefinition()));
+        ConceptSource.VocabularySource vocabulary = source.getVocabulary();
+        if (vocabulary != null) {
+            concept.setVocabularyId(UUID.fromString(vocabulary.getId()));
+            concept.setVocabularyUri(vocabulary.getUri());
+            concept.setVocabularyPrefLabel(localized(vocabulary.getLabel()));
+        } else {
+            concept.setVocabularyPrefLabel(new HashMap<>());
+        }
+        return concept;
+    }
 
+    /**
+     * First value of each language present in the localizable, HTML removed
+     */
+    static HashMap<String, String> localized(Map<String, List<String>> localizable) {
+        HashMap<String, String> result = new HashMap<>();
+        if (localizable != null) {
+            localizable.forEach((language, values) -> {
+                if (values != null && !values.isEmpty() && values.get(0) != null) {
+                    result.put(language, Jsoup.clean(values.get(0), Whitelist.none()));
+                }
+            });
+        }
         return result;
     }
 }
@@ -4,8 +4,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import org.jetbrains.annotations.NotNull;
@@ -26,14 +29,24 @@ import static org.springframework.http.HttpMethod.GET;
 public class PublicApiTermedService {
 
     private final TermedRequester termedRequester;
+    private final VocabularyListCache vocabularyListCache;
 
     @Autowired
-    public PublicApiTermedService(TermedRequester termedRequester) {
+    public PublicApiTermedService(TermedRequester termedRequester,
+                                  VocabularyListCache vocabularyListCache) {
         this.termedRequester = termedRequester;
+        this.vocabularyListCache = vocabularyListCache;
+    }
+
+    /**
+     * @return snapshot of the vocabulary list, fetched from Termed only when the snapshot is invalidated or expired
+     */
+    @NotNull VocabularyListCache.Snapshot getVocabularyList() {
+        return vocabularyListCache.get(this::fetchVocabularyList);
     }
 
     @SuppressWarnings("Duplicates")
-    @NotNull List<PublicApiVocabulary> getVocabularyList() {
+    private @NotNull List<PublicApiVocabulary> fetchVocabularyList() {
         Parameters params = new Parameters();
         params.add("select", "id");
         params.add("select", "uri");
@@ -56,8 +69,11 @@ public class PublicApiTermedService {
 
     private List<PublicApiVocabulary> extractResultFromNodeTrees(List<GenericNode> vocabsFromNodeTrees) {
         List<PublicApiVocabulary> result = new ArrayList<>();
-        List<String> codesAlreadyAdded = new ArrayList<>();
+        Set<UUID> graphsAlreadyAdded = new HashSet<>();
         for (GenericNode genericNode : vocabsFromNodeTrees) {
+            if (!graphsAlreadyAdded.add(genericNode.getType().getGraphId())) {
+                continue;
+            }
             PublicApiVocabulary vocabulary = new PublicApiVocabulary();
             vocabulary.setId(genericNode.getType().getGraphId());
             vocabulary.setUri(genericNode.getUri());
@@ -70,10 +86,7 @@ public class PublicApiTermedService {
             } else {
                 vocabulary.setLanguages(Arrays.asList("en", "fi", "sv"));
             }
-            if (!codesAlreadyAdded.contains(genericNode.getType().getGraphId().toString())) {
-                result.add(vocabulary);
-                codesAlreadyAdded.add(genericNode.getType().getGraphId().toString());
-            }
+            result.add(vocabulary);
         }
         return result;
     }
@@ -0,0 +1,109 @@
+package fi.vm.yti.terminology.api.publicapi;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+
+/**
+ * Snapshot of the public vocabulary list. Rebuilt when documents in the vocabulary index
+ * change, i.e. after vocabulary level notifications, or when older than the expiration time.
+ * One caller rebuilds the snapshot while others wait for it.
+ *
+ * ETag of the snapshot is a hash of its JSON, so a rebuilt list with equal content keeps
+ * the same ETag and clients can revalidate with If-None-Match.
+ */
+@Component
+public class VocabularyListCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VocabularyListCache.class);
+
+    private final ObjectMapper objectMapper;
+    private final long expirationNanos;
+    /** Incremented on invalidation, snapshots loaded before that are not stored */
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public VocabularyListCache(ObjectMapper objectMapper,
+                               @Value("${publicapi.vocabularies.cache.expiration:60}") Long cacheExpireTime) {
+        this.objectMapper = objectMapper;
+        this.expirationNanos = TimeUnit.SECONDS.toNanos(cacheExpireTime);
+    }
+
+    public @NotNull Snapshot get(@NotNull Supplier<List<PublicApiVocabulary>> load) {
+        Snapshot current = snapshot;
+        if (isValid(current)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (isValid(current)) {
+                return current;
+            }
+            long loadedGeneration = generation.get();
+            List<PublicApiVocabulary> vocabularies = List.copyOf(load.get());
+            Snapshot loaded = new Snapshot(vocabularies, eTag(vocabularies), System.nanoTime());
+            if (generation.get() == loadedGeneration) {
+                snapshot = loaded;
+            }
+            return loaded;
+        }
+    }
+
+    @EventListener
+    public void onSearchIndexChanged(SearchIndexChangedEvent event) {
+        if (event.isVocabularyIndex()) {
+            generation.incrementAndGet();
+            snapshot = null;
+            logger.debug("Public vocabulary list invalidated");
+        }
+    }
+
+    private boolean isValid(Snapshot current) {
+        return current != null && System.nanoTime() - current.loaded < expirationNanos;
+    }
+
+    private String eTag(List<PublicApiVocabulary> vocabularies) {
+        try {
+            return "\"" + DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(vocabularies)) + "\"";
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static final class Snapshot {
+
+        private final List<PublicApiVocabulary> vocabularies;
+        private final String eTag;
+        private final long loaded;
+
+        private Snapshot(List<PublicApiVocabulary> vocabularies, String eTag, long loaded) {
+            this.vocabularies = vocabularies;
+            this.eTag = eTag;
+            this.loaded = loaded;
+        }
+
+        public @NotNull List<PublicApiVocabulary> getVocabularies() {
+            return vocabularies;
+        }
+
+        public @NotNull String getETag() {
+            return eTag;
+        }
+    }
+}
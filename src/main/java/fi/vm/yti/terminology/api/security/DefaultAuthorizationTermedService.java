@@ -1,71 +1,138 @@
 package fi.vm.yti.terminology.api.security;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
 import fi.vm.yti.terminology.api.TermedRequester;
-import fi.vm.yti.terminology.api.model.termed.GenericNode;
-import fi.vm.yti.terminology.api.model.termed.Identifier;
-import fi.vm.yti.terminology.api.model.termed.NodeType;
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
 import fi.vm.yti.terminology.api.util.Parameters;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static fi.vm.yti.terminology.api.model.termed.VocabularyNodeType.TerminologicalVocabulary;
 import static fi.vm.yti.terminology.api.model.termed.VocabularyNodeType.Vocabulary;
-import static fi.vm.yti.terminology.api.util.CollectionUtils.mapToSet;
-import static fi.vm.yti.terminology.api.util.CollectionUtils.requireSingle;
-import static java.util.Collections.emptyList;
+import static java.util.Objects.requireNonNull;
 import static org.springframework.http.HttpMethod.GET;
 
+/**
+ * Contributor organizations of all terminologies held in memory. The whole map is loaded with
+ * one query at startup and periodically, and a terminology is reloaded when its vocabulary
+ * document is reindexed, i.e. after the vocabulary node has changed. Changes of concept
+ * documents are ignored. Terminologies created after the last load are fetched on first use.
+ * If a reload fails the previously loaded organizations are kept.
+ */
 @Service
 public class DefaultAuthorizationTermedService implements AuthorizationTermedService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultAuthorizationTermedService.class);
 
-    private final Cache<UUID, Set<UUID>> cache;
     private final TermedRequester termedRequester;
+    private final TaskExecutor taskExecutor;
+    private final ConcurrentMap<UUID, Set<UUID>> organizationsByGraph = new ConcurrentHashMap<>();
+    private final AtomicBoolean reloadAllPending = new AtomicBoolean();
 
     @Autowired
-    public DefaultAuthorizationTermedService(
-            TermedRequester termedRequester,
-            @Value("${termed.cache.expiration:1800}") Long cacheExpireTime
-    ) {
+    public DefaultAuthorizationTermedService(TermedRequester termedRequester,
+                                             @Qualifier("specificTaskExecutor") TaskExecutor taskExecutor) {
         this.termedRequester = termedRequester;
-
-        this.cache = CacheBuilder.newBuilder()
-                .expireAfterWrite(cacheExpireTime, TimeUnit.SECONDS)
-                .maximumSize(1000)
-                .build();
+        this.taskExecutor = taskExecutor;
     }
 
     @NotNull public Set<UUID> getOrganizationIds(UUID graphId) {
-        Set<UUID> uuids = null;
+        Set<UUID> organizationIds = organizationsByGraph.get(graphId);
+        if (organizationIds != null) {
+            return organizationIds;
+        }
+        organizationIds = reload(graphId);
+        return organizationIds != null ? organizationIds : Collections.emptySet();
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${authorization.organizations.refresh:1800000}")
+    public void refresh() {
         try {
-            uuids = cache.get(graphId, () -> fetchOrganizationIds(graphId));
-        } catch (ExecutionException e) {
-            LOG.error("Error fetching cached organization ids", e);
+            reloadAll();
+        } catch (RuntimeException e) {
+            LOG.warn("Loading organizations of terminologies failed", e);
         }
-        return uuids;
     }
 
-    private Set<UUID> fetchOrganizationIds(UUID graphId) {
-        List<GenericNode> result = termedRequester
-                .exchange(String.format("/graphs/%s/types/%s/nodes", graphId, NodeType.TerminologicalVocabulary),
-                        GET,
-                        new Parameters(),
-                        new ParameterizedTypeReference<>() {}
-                );
-        GenericNode vocabularyNode = requireSingle(result);
+    @EventListener
+    public void onSearchIndexChanged(SearchIndexChangedEvent event) {
+        if (!event.isVocabularyIndex()) {
+            return;
+        }
+        if (event.getGraphId() == null) {
+            // whole vocabulary index rewritten, reload in the background and coalesce repeated events
+            if (reloadAllPending.compareAndSet(false, true)) {
+                taskExecutor.execute(() -> {
+                    reloadAllPending.set(false);
+                    refresh();
+                });
+            }
+            return;
+        }
+        try {
+            reload(event.getGraphId());
+        } catch (RuntimeException e) {
+            // previous organizations are used until the next successful reload
+            LOG.warn("Reloading organizations after " + event + " failed", e);
+        }
+    }
 
-        return mapToSet(vocabularyNode.getReferences().getOrDefault("contributor", emptyList()), Identifier::getId);
+    synchronized void reloadAll() {
+        Map<UUID, Set<UUID>> loaded = fetchOrganizationIds(null);
+        organizationsByGraph.putAll(loaded);
+        organizationsByGraph.keySet().retainAll(loaded.keySet());
+        LOG.info("Loaded organizations of " + loaded.size() + " terminologies");
+    }
+
+    /**
+     * @return organizations of the terminology or null if the terminology does not exist
+     */
+    private synchronized @Nullable Set<UUID> reload(UUID graphId) {
+        Set<UUID> organizationIds = fetchOrganizationIds(graphId).get(graphId);
+        if (organizationIds != null) {
+            organizationsByGraph.put(graphId, organizationIds);
+        } else {
+            organizationsByGraph.remove(graphId);
+        }
+        return organizationIds;
+    }
+
+    /**
+     * @param graphId terminology to fetch or null for all terminologies
+     */
+    private Map<UUID, Set<UUID>> fetchOrganizationIds(@Nullable UUID graphId) {
+        Parameters params = new Parameters();
+        params.add("select", "id");
+        params.add("select", "type");
+        params.add("select", "references.contributor");
+        String types = "(type.id:" + Vocabulary + " OR type.id:" + TerminologicalVocabulary + ")";
+        params.add("where", graphId != null ? "graph.id:" + graphId + " AND " + types : types);
+        params.add("max", "-1");
+
+        JsonNode vocabularies = requireNonNull(termedRequester.exchange("/node-trees", GET, params, JsonNode.class));
+
+        Map<UUID, Set<UUID>> result = new HashMap<>();
+        for (JsonNode vocabulary : vocabularies) {
+            UUID vocabularyGraphId = UUID.fromString(vocabulary.path("type").path("graph").path("id").asText());
+            Set<UUID> organizationIds = new HashSet<>();
+            for (JsonNode contributor : vocabulary.path("references").path("contributor")) {
+                organizationIds.add(UUID.fromString(contributor.path("id").asText()));
+            }
+            result.put(vocabularyGraphId, Collections.unmodifiableSet(organizationIds));
+        }
+        return result;
     }
 }
@@ -1,33 +1,59 @@
 package fi.vm.yti.terminology.api.synchronization;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import fi.vm.yti.terminology.api.TermedRequester;
 import fi.vm.yti.terminology.api.model.termed.*;
 import fi.vm.yti.terminology.api.util.Parameters;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static fi.vm.yti.terminology.api.util.CollectionUtils.filterToList;
 import static java.util.Objects.requireNonNull;
 import static org.springframework.http.HttpMethod.GET;
 import static org.springframework.http.HttpMethod.POST;
 
+/**
+ * Synchronizes organizations from group management to Termed. Organizations are compared by
+ * a hash of their content and only added, changed and removed organizations are sent. Nothing
+ * is sent when organizations are unchanged. Changed organization counts are published as
+ * "organization.synchronization.changes" tagged with change=added|changed|removed, and the
+ * total of the latest successful run as "organization.synchronization.last.changes".
+ */
 @Service
-public class SynchronizationService {
+public class SynchronizationService implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SynchronizationService.class);
 
     private final String groupManagementUrl;
     private final String organizationGraphId;
     private final RestTemplate restTemplate;
     private final TermedRequester termedRequester;
 
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong lastChanges = new AtomicLong();
+
     @Autowired
     SynchronizationService(@Value("${groupmanagement.url}") String groupManagementUrl,
                            @Value("${organization.graph}") String organizationGraphId,
@@ -42,42 +68,102 @@ public class SynchronizationService {
     public void synchronize() {
 
         List<GroupManagementOrganization> organizations = getGroupManagementOrganizations();
-
-        Set<UUID> removedOrganizations = organizations.stream()
-                .filter(GroupManagementOrganization::isRemoved)
-                .map(GroupManagementOrganization::getUuid)
-                .collect(Collectors.toSet());
-
-        List<Identifier> delete =
-                filterToList(getUnusedOrganizationIds(), o -> removedOrganizations.contains(o.getId()));
-
-        List<OrganizationNode> save = organizations.stream()
-                .filter(o -> !o.isRemoved())
-                .map(o -> OrganizationNode.fromGroupManagement(o, organizationGraphId))
-                .collect(Collectors.toList());
+        Map<UUID, OrganizationReferrersNode> existing = getTermedOrganizations().stream()
+                .collect(Collectors.toMap(OrganizationReferrersNode::getId, Function.identity(), (a, b) -> a));
+
+        List<Identifier> delete = new ArrayList<>();
+        List<OrganizationNode> save = new ArrayList<>();
+        int addedCount = 0;
+
+        for (GroupManagementOrganization organization : organizations) {
+            OrganizationReferrersNode node = existing.get(organization.getUuid());
+            if (organization.isRemoved()) {
+                // organizations still referred to by terminologies are kept
+                if (node != null && !node.hasReferrers()) {
+                    delete.add(node.getIdentifier());
+                }
+                continue;
+            }
+            OrganizationNode organizationNode = OrganizationNode.fromGroupManagement(organization, organizationGraphId);
+            if (node == null) {
+                save.add(organizationNode);
+                addedCount++;
+            } else if (!contentHash(organizationNode.getProperties()).equals(contentHash(node.getProperties()))) {
+                save.add(organizationNode);
+            }
+        }
+
+        int changedCount = save.size() - addedCount;
+
+        if (save.isEmpty() && delete.isEmpty()) {
+            logger.debug("Organizations are up to date");
+            lastChanges.set(0);
+            return;
+        }
+
+        logger.info("Synchronizing organizations: " + addedCount + " added, " + changedCount + " changed, " +
+                delete.size() + " removed");
 
         Parameters params = new Parameters();
         params.add("changeset", "true");
 
         termedRequester.exchange("/nodes", POST, params, String.class, new DeleteAndSaveOrganizations(delete, save));
+
+        // counted only when the changes are saved, a failed run is retried with the same changes
+        added.addAndGet(addedCount);
+        changed.addAndGet(changedCount);
+        removed.addAndGet(delete.size());
+        lastChanges.set(save.size() + delete.size());
     }
 
-    private @NotNull List<Identifier> getUnusedOrganizationIds() {
+    /**
+     * Hash of the synchronized content, independent of the order of the attributes
+     */
+    static String contentHash(Map<String, List<Attribute>> properties) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        properties.entrySet().stream()
+                .filter(property -> property.getValue() != null && !property.getValue().isEmpty())
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(property -> {
+                    hasher.putString(property.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+                    property.getValue().stream()
+                            .map(attribute -> attribute.getLang() + "\u0000" + attribute.getValue())
+                            .sorted()
+                            .forEach(attribute -> hasher.putString(attribute, StandardCharsets.UTF_8).putByte((byte) 0));
+                    hasher.putByte((byte) 1);
+                });
+        return hasher.hash().toString();
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        bindChangeCounter(registry, "added", added);
+        bindChangeCounter(registry, "changed", changed);
+        bindChangeCounter(registry, "removed", removed);
+        Gauge.builder("organization.synchronization.last.changes", lastChanges, AtomicLong::get)
+                .description("Organizations changed by the latest synchronization")
+                .register(registry);
+    }
+
+    private static void bindChangeCounter(MeterRegistry registry, String change, AtomicLong count) {
+        FunctionCounter.builder("organization.synchronization.changes", count, AtomicLong::get)
+                .tags(Tags.of("change", change))
+                .description("Organizations changed by synchronization")
+                .register(registry);
+    }
+
+    private @NotNull List<OrganizationReferrersNode> getTermedOrganizations() {
 
         Parameters params = new Parameters();
         params.add("select", "id");
         params.add("select", "type");
+        params.add("select", "properties.prefLabel");
         params.add("where", "type.id:" + NodeType.Organization);
         params.add("max", "-1");
         params.add("select", "referrers.*");
 
-        List<OrganizationReferrersNode> organizations =
-                termedRequester.exchange("/node-trees", GET, params, new ParameterizedTypeReference<List<OrganizationReferrersNode>>() {});
-
-        return requireNonNull(organizations).stream()
-                .filter(o -> !o.hasReferrers())
-                .map(OrganizationReferrersNode::getIdentifier)
-                .collect(Collectors.toList());
+        return requireNonNull(termedRequester.exchange("/node-trees", GET, params,
+                new ParameterizedTypeReference<List<OrganizationReferrersNode>>() {}));
     }
 
     private @NotNull List<GroupManagementOrganization> getGroupManagementOrganizations() {
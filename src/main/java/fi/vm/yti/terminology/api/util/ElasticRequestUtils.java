@@ -8,16 +8,25 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.queryparser.flexible.standard.QueryParserUtil;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +47,16 @@ public final class ElasticRequestUtils {
     private static final Pattern LUCENE_PLAIN_QUERY_PATTERN = Pattern.compile(LUCENE_PLAIN_QUERY_PATTERN_STRING, Pattern.UNICODE_CHARACTER_CLASS);
     private static final Pattern LUCENE_GIVEN_QUERY_PATTERN = Pattern.compile(LUCENE_ASTERISK_QUERY_PATTERN_STRING, Pattern.UNICODE_CHARACTER_CLASS);
 
+    /** Index time edge n-gram fields, see create_concept_mappings.json */
+    public static final String PREFIX_FIELD = "prefix.";
+    public static final String SUFFIX_FIELD = "suffix.";
+
+    private static final ThreadLocal<StandardQueryParser> QUERY_PARSER = ThreadLocal.withInitial(() -> {
+        final StandardQueryParser parser = new StandardQueryParser();
+        parser.setAllowLeadingWildcard(true);
+        return parser;
+    });
+
     private ElasticRequestUtils() {
         // prevent construction
     }
@@ -59,11 +78,9 @@ public final class ElasticRequestUtils {
                     parsedQuery = sanitized;
                 }
                 if (parsedQuery != null) {
-                    final StandardQueryParser parser = new StandardQueryParser();
                     try {
-                        parser.setAllowLeadingWildcard(true);
                         LOG.debug("Using Lucene query: '{}'", parsedQuery);
-                        parsedQuery = parser.parse(parsedQuery, "").toString();
+                        parsedQuery = QUERY_PARSER.get().parse(parsedQuery, "").toString();
                         return QueryBuilders.queryStringQuery(parsedQuery);
                     } catch (final QueryNodeException e) {
                         // nop
@@ -74,6 +91,78 @@ public final class ElasticRequestUtils {
         LOG.warn("Search term string disqualified: '{}'", searchTerm);
         throw new InvalidQueryException();
     }
+    /**
+     * Same matching as {@link #buildPrefixSuffixQuery}: each word of the search term must match
+     * a whole word, the beginning of a word or the end of a word. Beginnings and ends are
+     * matched against edge n-gram fields {@link #PREFIX_FIELD} and {@link #SUFFIX_FIELD}
+     * created at index time instead of wildcard queries, which would have to go through
+     * all terms of the index.
+     * <p>
+     * Asterisks given by the user narrow the match: "foo*" matches only beginnings of words,
+     * "*foo" only ends of words and "*foo*" anything the plain word matches. An asterisk
+     * inside a word, e.g. "f*o", can not be served by the n-gram fields and is run as
+     * a wildcard query on the original fields.
+     *
+     * @param fields field names without language, e.g. "label", and their boosts
+     */
+    public static QueryBuilder buildPrefixSuffixFieldQuery(final String searchTerm,
+                                                           final Map<String, Float> fields) {
+        final String trimmed = searchTerm != null ? searchTerm.trim().toLowerCase() : "";
+        if (trimmed.isEmpty() || trimmed.contains("**")) {
+            LOG.warn("Search term string disqualified: '{}'", searchTerm);
+            throw new InvalidQueryException();
+        }
+
+        final BoolQueryBuilder query = QueryBuilders.boolQuery();
+        for (String word : QUERY_SPLITTER_PATTERN.split(trimmed)) {
+            final boolean anyStart = word.startsWith("*");
+            final boolean anyEnd = word.endsWith("*");
+            String stripped = anyStart ? word.substring(1) : word;
+            if (anyEnd && !stripped.isEmpty()) {
+                stripped = stripped.substring(0, stripped.length() - 1);
+            }
+            if (stripped.isEmpty()) {
+                LOG.warn("Search term string disqualified: '{}'", searchTerm);
+                throw new InvalidQueryException();
+            }
+
+            if (stripped.contains("*")) {
+                query.must(wildcardQuery(word, fields));
+            } else if (anyEnd && !anyStart) {
+                query.must(multiMatchQuery(stripped, fields, PREFIX_FIELD, ""));
+            } else if (anyStart && !anyEnd) {
+                query.must(multiMatchQuery(stripped, fields, SUFFIX_FIELD, ""));
+            } else {
+                query.must(QueryBuilders.boolQuery()
+                        .should(multiMatchQuery(stripped, fields, "", ".*"))
+                        .should(multiMatchQuery(stripped, fields, PREFIX_FIELD, ""))
+                        .should(multiMatchQuery(stripped, fields, SUFFIX_FIELD, ""))
+                        .minimumShouldMatch(1));
+            }
+        }
+        return query.must().size() == 1 ? query.must().get(0) : query;
+    }
+
+    private static QueryStringQueryBuilder wildcardQuery(final String word,
+                                                         final Map<String, Float> fields) {
+        final String escaped = Arrays.stream(word.split("\\*", -1))
+                .map(QueryParserUtil::escape)
+                .collect(Collectors.joining("*"));
+        final QueryStringQueryBuilder query = QueryBuilders.queryStringQuery(escaped)
+                .allowLeadingWildcard(true);
+        fields.forEach((field, boost) -> query.field(field + ".*", boost));
+        return query;
+    }
+
+    private static MultiMatchQueryBuilder multiMatchQuery(final String word,
+                                                          final Map<String, Float> fields,
+                                                          final String prefix,
+                                                          final String suffix) {
+        final MultiMatchQueryBuilder query = QueryBuilders.multiMatchQuery(word).operator(Operator.AND);
+        fields.forEach((field, boost) -> query.field(prefix + field + suffix, boost));
+        return query;
+    }
+
     public static MatchQueryBuilder buildStatusQuery(final String[] statuses, final String field) {
         var validStatuses = new String[] {
                 "INCOMPLETE",
@@ -99,13 +188,11 @@ public final class ElasticRequestUtils {
                 .filter(x -> Arrays.asList(validStatuses).contains(x))
                 .collect(Collectors.toList());
         var filteredStatusQuery = String.join(" OR ", filteredStatuses);
-        final StandardQueryParser parser = new StandardQueryParser();
         try {
-            parser.setAllowLeadingWildcard(true);
             LOG.debug("Using Lucene query: '{}'", filteredStatusQuery);
             return QueryBuilders.matchQuery(
                     field,
-                    parser.parse(filteredStatusQuery, "").toString());
+                    QUERY_PARSER.get().parse(filteredStatusQuery, "").toString());
         } catch (final QueryNodeException e) {
             LOG.warn("status filter disqualified: '{}'", String.join(", ", statuses));
             throw new InvalidQueryException();
@@ -147,6 +234,38 @@ public final class ElasticRequestUtils {
         return !ret.isEmpty() ? ret : null;
     }
 
+    /**
+     * @return first value of each language, same as {@link #labelFromKeyValueNode} for decoded source
+     */
+    public static Map<String, String> labelFromLocalizable(Map<String, List<String>> localizable) {
+        Map<String, String> ret = new HashMap<>();
+        if (localizable != null) {
+            localizable.forEach((language, values) -> {
+                if (values != null && !values.isEmpty()) {
+                    ret.put(language, values.get(0));
+                }
+            });
+        }
+        return !ret.isEmpty() ? ret : null;
+    }
+
+    /**
+     * Decodes the source of a hit directly from its bytes, without converting it to a String
+     * or building a JSON tree first.
+     *
+     * @return decoded source or null if the hit has no source
+     */
+    public static <T> T readSource(@NotNull ObjectMapper objectMapper,
+                                   @NotNull SearchHit hit,
+                                   @NotNull Class<T> type) throws IOException {
+        BytesReference source = hit.getSourceRef();
+        if (source == null) {
+            return null;
+        }
+        BytesRef bytes = source.toBytesRef();
+        return objectMapper.readValue(bytes.bytes, bytes.offset, bytes.length, type);
+    }
+
     public static Map<String, String> labelFromLangValueArray(JsonNode labelArray) {
         Map<String, String> ret = new HashMap<>();
         if (labelArray != null) {
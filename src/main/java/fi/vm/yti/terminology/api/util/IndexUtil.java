@@ -1,8 +1,12 @@
 package fi.vm.yti.terminology.api.util;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
@@ -11,6 +15,31 @@ public class IndexUtil {
 
     static final List<String> SORT_LABEL_LANGUAGES = List.of("fi", "sv", "en");
 
+    /**
+     * Completion field of concepts, one subfield per language
+     */
+    public static final String SUGGEST_FIELD = "suggest";
+    /**
+     * Category context of suggestions. Contains terminology id, so contributors can see all
+     * suggestions of their terminologies, and for content not in INCOMPLETE state also
+     * {@link #PUBLIC_SUGGESTION} and {@link #PUBLIC_SUGGESTION}:terminology id.
+     */
+    public static final String SUGGEST_VISIBILITY_CONTEXT = "visibility";
+    public static final String PUBLIC_SUGGESTION = "public";
+
+    /**
+     * Concept documents are routed by the graph id of their terminology, so that
+     * operations on concepts of some terminologies go only to the shards holding them.
+     *
+     * @return routing value of a request limited to given terminologies, null if not limited
+     */
+    public static String conceptRouting(Collection<String> terminologyIds) {
+        if (terminologyIds == null || terminologyIds.isEmpty()) {
+            return null;
+        }
+        return String.join(",", new LinkedHashSet<>(terminologyIds));
+    }
+
     public static Map<String, List<String>> createSortLabels(Map<String, List<String>> label) {
         Map<String, List<String>> result = new LinkedHashMap<>();
 
@@ -42,4 +71,33 @@ public class IndexUtil {
 
         return result;
     }
+
+    /**
+     * Completion suggester matches from the beginning of the input, so each label is added
+     * starting from each of its words, e.g. "kansallinen palveluväylä" is suggested for both
+     * "kans" and "palv".
+     */
+    public static List<String> createSuggestInputs(Collection<String> labels) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String label : labels) {
+            String trimmed = label.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            result.add(trimmed);
+            for (int i = 1; i < trimmed.length(); i++) {
+                if (Character.isWhitespace(trimmed.charAt(i - 1)) && !Character.isWhitespace(trimmed.charAt(i))) {
+                    result.add(trimmed.substring(i));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    public static List<String> createSuggestContexts(String terminologyId, boolean incomplete) {
+        if (incomplete) {
+            return List.of(terminologyId);
+        }
+        return List.of(terminologyId, PUBLIC_SUGGESTION, PUBLIC_SUGGESTION + ":" + terminologyId);
+    }
 }
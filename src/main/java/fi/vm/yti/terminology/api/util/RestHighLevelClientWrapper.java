@@ -1,5 +1,7 @@
 package fi.vm.yti.terminology.api.util;
 
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
@@ -13,5 +15,9 @@ public interface RestHighLevelClientWrapper {
             SearchRequest searchRequest,
             RequestOptions options) throws IOException;
 
+    MultiSearchResponse msearch(
+            MultiSearchRequest multiSearchRequest,
+            RequestOptions options) throws IOException;
+
     RestClient getLowLevelClient();
 }
@@ -1,4 +1,6 @@
 package fi.vm.yti.terminology.api.util;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
@@ -22,6 +24,12 @@ public class RestHighLevelClientWrapperImpl implements RestHighLevelClientWrappe
         return client.search(searchRequest, options);
     }
 
+    public MultiSearchResponse msearch(
+            MultiSearchRequest multiSearchRequest,
+            RequestOptions options) throws IOException {
+        return client.msearch(multiSearchRequest, options);
+    }
+
     public RestClient getLowLevelClient() {
         return this.client.getLowLevelClient();
     }
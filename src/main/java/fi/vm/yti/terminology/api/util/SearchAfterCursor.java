@@ -0,0 +1,160 @@
+package fi.vm.yti.terminology.api.util;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.vm.yti.terminology.api.exception.InvalidQueryException;
+
+/**
+ * Cursor based paging with Elasticsearch search_after. Cursor is the sort values of the
+ * last hit of a page as URL safe base64 encoded JSON, clients should treat it as opaque.
+ *
+ * Unlike from/size, the cost of a page does not depend on its depth and paging is not
+ * limited by index.max_result_window. Sort must be total, so the document id is added
+ * as the last sort key.
+ */
+public final class SearchAfterCursor {
+
+    public static final String TIE_BREAKER_FIELD = "id";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SearchAfterCursor() {
+        // prevent construction
+    }
+
+    /**
+     * Adds id as the last sort key. Queries without explicit sort are sorted by score first.
+     */
+    public static void addTieBreakerSort(@NotNull SearchSourceBuilder sourceBuilder) {
+        if (sourceBuilder.sorts() == null || sourceBuilder.sorts().isEmpty()) {
+            sourceBuilder.sort(SortBuilders.scoreSort());
+        } else if (sourceBuilder.sorts().stream()
+                .anyMatch(s -> s instanceof FieldSortBuilder && TIE_BREAKER_FIELD.equals(((FieldSortBuilder) s).getFieldName()))) {
+            return;
+        }
+        sourceBuilder.sort(SortBuilders.fieldSort(TIE_BREAKER_FIELD).order(SortOrder.ASC).unmappedType("keyword"));
+    }
+
+    /**
+     * Sets the page to start after given cursor. From is reset, as it cannot be combined
+     * with search_after.
+     *
+     * @throws InvalidQueryException if cursor is not valid
+     */
+    public static void applyCursor(@NotNull SearchSourceBuilder sourceBuilder,
+                                   @Nullable String cursor) {
+        if (cursor != null && !cursor.isEmpty()) {
+            sourceBuilder.from(0);
+            sourceBuilder.searchAfter(decode(cursor));
+        }
+    }
+
+    /**
+     * @return cursor for the next page or null if this was the last page
+     */
+    public static @Nullable String nextCursor(@Nullable SearchHit[] hits,
+                                              int pageSize) {
+        if (hits == null || hits.length == 0 || hits.length < pageSize) {
+            return null;
+        }
+        Object[] sortValues = hits[hits.length - 1].getSortValues();
+        return sortValues != null && sortValues.length > 0 ? encode(sortValues) : null;
+    }
+
+    /**
+     * @param hits hits array of raw JSON search response
+     * @return cursor for the next page or null if this was the last page
+     */
+    public static @Nullable String nextCursor(@Nullable JsonNode hits,
+                                              int pageSize) {
+        if (hits == null || !hits.isArray() || hits.size() < pageSize) {
+            return null;
+        }
+        return lastCursor(hits);
+    }
+
+    /**
+     * @param hits hits array of raw JSON search response
+     * @return cursor after the last hit, also on the last page, or null if there are no hits
+     */
+    public static @Nullable String lastCursor(@Nullable JsonNode hits) {
+        if (hits == null || !hits.isArray() || hits.size() == 0) {
+            return null;
+        }
+        return encode(hits.get(hits.size() - 1).get("sort"));
+    }
+
+    /**
+     * @param hits streamed hits of raw JSON search response, all read
+     * @return cursor for the next page or null if this was the last page
+     */
+    public static @Nullable String nextCursor(@NotNull SearchHitStream hits,
+                                              int pageSize) {
+        if (hits.getCount() == 0 || hits.getCount() < pageSize) {
+            return null;
+        }
+        return lastCursor(hits);
+    }
+
+    /**
+     * @param hits streamed hits of raw JSON search response, all read
+     * @return cursor after the last hit, also on the last page, or null if there were no hits
+     */
+    public static @Nullable String lastCursor(@NotNull SearchHitStream hits) {
+        return encode(hits.getLastSortValues());
+    }
+
+    private static @Nullable String encode(@Nullable JsonNode sortValues) {
+        if (sortValues == null || !sortValues.isArray() || sortValues.size() == 0) {
+            return null;
+        }
+        return encode(MAPPER.convertValue(sortValues, Object[].class));
+    }
+
+    public static @NotNull String encode(@NotNull Object[] sortValues) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(sortValues));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @throws InvalidQueryException if cursor is not valid
+     */
+    public static @NotNull Object[] decode(@NotNull String cursor) {
+        try {
+            Object[] sortValues = MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), Object[].class);
+            if (sortValues.length == 0) {
+                throw new InvalidQueryException("Invalid cursor");
+            }
+            return sortValues;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidQueryException("Invalid cursor");
+        }
+    }
+
+    public static boolean isValid(@Nullable String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return true;
+        }
+        try {
+            decode(cursor);
+            return true;
+        } catch (InvalidQueryException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package fi.vm.yti.terminology.api.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads hits of a raw JSON search response one at a time, so that only the current hit is
+ * held as a JSON tree. Total hit count is read before the first hit, count and sort values
+ * of the last hit are available after all hits have been read.
+ */
+public final class SearchHitStream implements Iterator<JsonNode>, Closeable {
+
+    private final ObjectMapper objectMapper;
+    private final JsonParser parser;
+
+    private Integer total;
+    private boolean inHits;
+    private JsonNode next;
+    private int count;
+    private JsonNode lastSortValues;
+
+    public SearchHitStream(@NotNull ObjectMapper objectMapper,
+                           @NotNull InputStream in) throws IOException {
+        this.objectMapper = objectMapper;
+        this.parser = objectMapper.getFactory().createParser(in);
+        try {
+            seekHits();
+        } catch (IOException e) {
+            parser.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Positions the parser at the start of hits.hits, reading hits.total on the way
+     */
+    private void seekHits() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("hits".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String hitsField = parser.getCurrentName();
+                    JsonToken hitsValue = parser.nextToken();
+                    if ("total".equals(hitsField)) {
+                        JsonNode totalNode = objectMapper.readTree(parser);
+                        // total is an object in newer Elasticsearch versions
+                        total = (totalNode.isObject() ? totalNode.path("value") : totalNode).asInt();
+                    } else if ("hits".equals(hitsField) && hitsValue == JsonToken.START_ARRAY) {
+                        inHits = true;
+                        return;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return;
+            }
+            parser.skipChildren();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && inHits) {
+            try {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    next = objectMapper.readTree(parser);
+                    count++;
+                    lastSortValues = next.get("sort");
+                } else {
+                    inHits = false;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public JsonNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        JsonNode hit = next;
+        next = null;
+        return hit;
+    }
+
+    /**
+     * @return hits.total of the response or null if not present
+     */
+    public @Nullable Integer getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of hits read so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return sort values of the last hit read or null if none
+     */
+    public @Nullable JsonNode getLastSortValues() {
+        return lastSortValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
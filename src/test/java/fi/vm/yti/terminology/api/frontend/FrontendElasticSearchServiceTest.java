@@ -8,10 +8,14 @@ import fi.vm.yti.security.AuthenticatedUserProvider;
 import fi.vm.yti.security.Role;
 import fi.vm.yti.security.YtiUser;
 import fi.vm.yti.terminology.api.config.JsonConfig;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.CountQueryFactory;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSimpleDTO;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchRequest;
 import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySearchResponse;
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
 import fi.vm.yti.terminology.api.util.RestHighLevelClientWrapper;
 import fi.vm.yti.terminology.elasticsearch.EsUtils;
+import org.elasticsearch.action.search.MultiSearchRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.junit.jupiter.api.AfterEach;
@@ -37,7 +41,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
-@Import({ JsonConfig.class, FrontendElasticSearchService.class })
+@Import({ JsonConfig.class, FrontendElasticSearchService.class, OrganizationVisibilityCache.class, SearchResultCache.class })
 @ExtendWith(SpringExtension.class) // TODO: read this https://rieckpil.de/what-the-heck-is-the-springextension-used-for/
 @ExtendWith(MockitoExtension.class)
 @TestPropertySource(properties = {
@@ -59,6 +63,12 @@ public class FrontendElasticSearchServiceTest {
     @Autowired
     ObjectMapper objectMapper;
 
+    @Autowired
+    OrganizationVisibilityCache visibilityCache;
+
+    @Autowired
+    SearchResultCache resultCache;
+
     // service under test
     @Autowired
     FrontendElasticSearchService service;
@@ -72,6 +82,9 @@ public class FrontendElasticSearchServiceTest {
         assertNotNull(esClient);
         assertNotNull(objectMapper);
 
+        // don't serve results cached by other tests
+        resultCache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+
         this.initLogWatcher();
     }
 
@@ -240,6 +253,229 @@ public class FrontendElasticSearchServiceTest {
         assertNoLogErrors();
     }
 
+    @Test
+    public void searchWithConceptsAsContributor() throws Exception {
+        var conceptsResponse = EsUtils.getMockMultiResponse(
+                "/es/response/concept_msearch_response.json");
+        var vocabulariesResponse = EsUtils.getMockResponse(
+                "/es/response/vocabulary_response.json");
+
+        var orgId = UUID.randomUUID();
+        Map<UUID, Set<Role>> roles = new HashMap<>();
+        roles.put(orgId, Set.of(Role.TERMINOLOGY_EDITOR));
+        doReturn(this.createMockUser(false, roles))
+                .when(this.userProvider)
+                .getUser();
+
+        doReturn(conceptsResponse)
+                .when(this.esClient)
+                .msearch(any(), any());
+        doReturn(vocabulariesResponse)
+                .when(this.esClient)
+                .search(argThat(i -> isVocabularyQuery(i)), any());
+
+        var request = new TerminologySearchRequest();
+        request.setQuery("test");
+        request.setSearchConcepts(true);
+        var response = service.searchTerminology(request);
+
+        // contributor terminology lookup and concept query are sent together
+        ArgumentCaptor<MultiSearchRequest> msCaptor = ArgumentCaptor.forClass(MultiSearchRequest.class);
+        verify(this.esClient, times(1))
+                .msearch(msCaptor.capture(), any(RequestOptions.class));
+        var requests = msCaptor.getValue().requests();
+        assertEquals(2, requests.size());
+        assertTrue(isVocabularyQuery(requests.get(0)));
+        assertTrue(requests.get(0).source().toString().contains(orgId.toString()));
+        assertTrue(isConceptQuery(requests.get(1)));
+
+        ArgumentCaptor<SearchRequest> srCaptor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(this.esClient, times(1))
+                .search(srCaptor.capture(), any(RequestOptions.class));
+        assertTrue(isVocabularyQuery(srCaptor.getValue()));
+        verifyNoMoreInteractions(esClient);
+
+        // INCOMPLETE terminology is shown to its contributor
+        var deepHits = response.getDeepHits();
+        assertEquals(Set.of("ac96b29b-8760-482a-be28-bc162b30e8c9", "02084501-2d02-42ec-b25d-d5c9590f652e"), deepHits.keySet());
+        assertNoLogErrors();
+    }
+
+    @Test
+    public void hiddenConceptsDoNotRankTerminologiesForNonContributor() throws Exception {
+        var conceptsResponse = EsUtils.getMockMultiResponse(
+                "/es/response/concept_msearch_hidden_response.json");
+        var vocabulariesResponse = EsUtils.getMockResponse(
+                "/es/response/vocabulary_response.json");
+
+        Map<UUID, Set<Role>> roles = new HashMap<>();
+        roles.put(UUID.randomUUID(), Set.of(Role.TERMINOLOGY_EDITOR));
+        doReturn(this.createMockUser(false, roles))
+                .when(this.userProvider)
+                .getUser();
+
+        doReturn(conceptsResponse)
+                .when(this.esClient)
+                .msearch(any(), any());
+        doReturn(vocabulariesResponse)
+                .when(this.esClient)
+                .search(argThat(i -> isVocabularyQuery(i)), any());
+
+        var request = new TerminologySearchRequest();
+        request.setQuery("test");
+        request.setSearchConcepts(true);
+        var response = service.searchTerminology(request);
+
+        // terminologies are ordered and capped by their best visible concept
+        ArgumentCaptor<MultiSearchRequest> msCaptor = ArgumentCaptor.forClass(MultiSearchRequest.class);
+        verify(this.esClient, times(1))
+                .msearch(msCaptor.capture(), any(RequestOptions.class));
+        var conceptQuery = objectMapper.readTree(msCaptor.getValue().requests().get(1).source().toString());
+        var order = conceptQuery.at("/aggregations/group_by_terminology/terms/order");
+        assertEquals("desc", order.at("/0/visible_concepts>best_concept_hit").asText());
+        assertEquals("desc", order.at("/1/best_concept_hit").asText());
+        assertEquals("_score", conceptQuery.at("/aggregations/group_by_terminology/aggregations/visible_concepts/aggregations/best_concept_hit/max/script/source").asText());
+
+        // the higher scoring INCOMPLETE concept is neither shown nor counted
+        var hitLists = response.getDeepHits().get("ac96b29b-8760-482a-be28-bc162b30e8c9");
+        assertEquals(1, hitLists.size());
+        assertEquals(1, hitLists.get(0).getTotalHitCount());
+        var topHits = hitLists.get(0).getTopHits().stream()
+                .map(hit -> ((ConceptSimpleDTO) hit).getId())
+                .collect(Collectors.toList());
+        assertEquals(List.of("73098675-c940-46f7-ac4d-15a47fb95704"), topHits);
+        assertNoLogErrors();
+    }
+
+    @Test
+    public void repeatedSearchUsesCachedContributorTerminologies() throws Exception {
+        var conceptsMultiResponse = EsUtils.getMockMultiResponse(
+                "/es/response/concept_msearch_response.json");
+        var conceptsResponse = EsUtils.getMockResponse(
+                "/es/response/concept_response.json");
+        var vocabulariesResponse = EsUtils.getMockResponse(
+                "/es/response/vocabulary_response.json");
+
+        Map<UUID, Set<Role>> roles = new HashMap<>();
+        roles.put(UUID.randomUUID(), Set.of(Role.TERMINOLOGY_EDITOR));
+        doReturn(this.createMockUser(false, roles))
+                .when(this.userProvider)
+                .getUser();
+
+        doReturn(conceptsMultiResponse)
+                .when(this.esClient)
+                .msearch(any(), any());
+        doReturn(conceptsResponse)
+                .when(this.esClient)
+                .search(argThat(i -> isConceptQuery(i)), any());
+        doReturn(vocabulariesResponse)
+                .when(this.esClient)
+                .search(argThat(i -> isVocabularyQuery(i)), any());
+
+        var request = new TerminologySearchRequest();
+        request.setQuery("test");
+        request.setSearchConcepts(true);
+        service.searchTerminology(request);
+        // concept index changes invalidate only search results
+        resultCache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+        service.searchTerminology(request);
+
+        // contributor terminologies are resolved only on the first search
+        verify(this.esClient, times(1))
+                .msearch(any(), any(RequestOptions.class));
+        ArgumentCaptor<SearchRequest> srCaptor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(this.esClient, times(3))
+                .search(srCaptor.capture(), any(RequestOptions.class));
+        var cachedConceptQuery = srCaptor.getAllValues().get(1);
+        assertTrue(isConceptQuery(cachedConceptQuery));
+        assertTrue(cachedConceptQuery.source().toString().contains("02084501-2d02-42ec-b25d-d5c9590f652e"));
+
+        // vocabulary index changes invalidate the cache
+        visibilityCache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+        resultCache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+        service.searchTerminology(request);
+        verify(this.esClient, times(2))
+                .msearch(any(), any(RequestOptions.class));
+        assertNoLogErrors();
+    }
+
+    @Test
+    public void repeatedSearchIsServedFromCache() throws Exception {
+        var vocabulariesResponse = EsUtils.getMockResponse(
+                "/es/response/vocabulary_response.json");
+
+        doReturn(this.createMockUser(true, Collections.emptyMap()))
+                .when(this.userProvider)
+                .getUser();
+        doReturn(vocabulariesResponse)
+                .when(this.esClient)
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+
+        var request = new TerminologySearchRequest();
+        request.setQuery(" test ");
+        var first = service.searchTerminology(request);
+
+        var sameRequest = new TerminologySearchRequest();
+        sameRequest.setQuery("test");
+        // served as a copy of the cached result
+        assertEquals(objectMapper.writeValueAsString(first),
+                objectMapper.writeValueAsString(service.searchTerminology(sameRequest)));
+        verify(this.esClient, times(1))
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+
+        // a different visibility scope is not served from the same entry
+        doReturn(this.createMockUser(false, Collections.emptyMap()))
+                .when(this.userProvider)
+                .getUser();
+        service.searchTerminology(sameRequest);
+        verify(this.esClient, times(2))
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+
+        // index changes invalidate all results
+        long generation = resultCache.generation();
+        resultCache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+        assertEquals(generation + 1, resultCache.generation());
+        service.searchTerminology(sameRequest);
+        verify(this.esClient, times(3))
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+        assertNoLogErrors();
+    }
+
+    @Test
+    public void countsAreServedFromMemoryUntilIndexChanges() throws Exception {
+        var countResponse = EsUtils.getMockResponse(
+                "/es/response/vocabulary_count_response.json");
+        doReturn(countResponse)
+                .when(this.esClient)
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+
+        // identical to the live aggregation
+        var live = new CountQueryFactory(objectMapper).parseResponse(countResponse);
+        var counts = service.getCounts();
+        assertEquals(objectMapper.writeValueAsString(live), objectMapper.writeValueAsString(counts));
+
+        assertEquals(objectMapper.writeValueAsString(counts), objectMapper.writeValueAsString(service.getCounts()));
+        verify(this.esClient, times(1))
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+
+        // concept counts are per terminology
+        var terminology = UUID.fromString("bab3aa74-a2c2-4750-ad5b-4fd7f007edca");
+        var conceptCounts = service.getConceptCounts(terminology);
+        assertEquals(objectMapper.writeValueAsString(conceptCounts),
+                objectMapper.writeValueAsString(service.getConceptCounts(terminology)));
+        service.getConceptCounts(UUID.randomUUID());
+        verify(this.esClient, times(3))
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+
+        // recomputed after the index changes
+        resultCache.onSearchIndexChanged(new SearchIndexChangedEvent("vocabularies"));
+        var recomputed = service.getCounts();
+        assertEquals(objectMapper.writeValueAsString(live), objectMapper.writeValueAsString(recomputed));
+        verify(this.esClient, times(4))
+                .search(any(SearchRequest.class), any(RequestOptions.class));
+        assertNoLogErrors();
+    }
+
     @Test
     public void testOrganizationQuery() throws Exception {
         var request = new TerminologySearchRequest();
@@ -20,7 +20,6 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
@@ -46,7 +45,9 @@ import static java.util.Arrays.*;
 
 @ExtendWith(SpringExtension.class)
 @Import({
-        FrontendTermedService.class
+        FrontendTermedService.class,
+        UserDirectory.class,
+        TermedUserRegistry.class
 })
 @TestPropertySource(properties = {
         "namespace.root=http://uri.suomi.fi/terminology/"
@@ -65,15 +66,12 @@ class FrontendTermedServiceTest {
     @MockBean
     TermedRequester termedRequester;
 
+    @MockBean
+    VocabularyVersionService versionService;
+
     @Autowired
     FrontendTermedService frontEndTermedService;
 
-    @Captor
-    ArgumentCaptor<Dump> dumpCaptor;
-
-    @Captor
-    ArgumentCaptor<String> stringCaptor;
-
     ObjectMapper mapper = new ObjectMapper();
 
     final String groupsJsonData = "[" +
@@ -498,97 +496,34 @@ class FrontendTermedServiceTest {
     }
 
     @Test
-    public void testCreateNewVersion() throws Exception {
+    public void testCreateNewVersion() {
         UUID vocabularyId = UUID.randomUUID();
-        UUID organizationId = UUID.randomUUID();
         UUID userId = UUID.randomUUID();
+        UUID jobToken = UUID.randomUUID();
 
         mockTermedGetGraphs();
         mockAuthorization();
         mockUser(userId);
-        mockTermedGetDump(new GraphId(vocabularyId), "prefix", organizationId);
+        when(termedRequester.exchange(
+                eq("/graphs/" + vocabularyId),
+                eq(HttpMethod.GET),
+                any(Parameters.class),
+                eq(Graph.class)))
+                    .thenReturn(new Graph(vocabularyId, "prefix", "http://uri.suomi.fi/terminology/prefix",
+                            emptyList(), emptyMap(), emptyMap()));
+        when(versionService.start(eq(vocabularyId), any(UUID.class), eq("prefix_v2"), eq(userId.toString())))
+                .thenReturn(jobToken);
 
         var dto = new CreateVersionDTO(vocabularyId, "prefix_v2");
 
         var versionResponse = frontEndTermedService.createVersion(dto);
 
-        verify(termedRequester).exchange(
-                eq("/dump"),
-                eq(HttpMethod.POST),
-                any(Parameters.class),
-                eq(String.class),
-                dumpCaptor.capture(),
-                stringCaptor.capture(),
-                anyString());
-
-        // Modified new version data sent to termed-api
-        Dump dump = dumpCaptor.getValue();
-        String requestUserId = stringCaptor.getValue();
-
-        Graph graph = dump.getGraphs().get(0);
-        String newUri = "http://uri.suomi.fi/terminology/" + dto.getNewCode() + "/";
-
-        assertEquals(userId.toString(), requestUserId);
-
-        assertEquals(newUri, versionResponse.getUri());
-
-        assertEquals(dto.getNewCode(), graph.getCode());
-        assertEquals(newUri, graph.getUri());
-
-        // graph with new id is created
-        assertNotEquals(graph.getId(), vocabularyId);
-
-        MetaNode metaNode = dump.getTypes().get(0);
-        assertEquals(graph.getId(), metaNode.getGraph().getId());
-        assertEquals("Concept", metaNode.getId());
-        assertEquals("http://www.w3.org/concept", metaNode.getUri());
-        assertEquals("metanode_prop", metaNode.getProperties().get("prop").get(0).getValue());
-
-        List<GenericNode> nodes = dump.getNodes();
-
-        // each node should have status = DRAFT and they should belong to new graph
-        nodes.forEach(n -> n.getProperties()
-                .getOrDefault("status", new ArrayList<>())
-                .stream()
-                .forEach(p -> {
-                    assertEquals("DRAFT", p.getValue());
-                    assertEquals(graph.getId(), n.getType().getGraphId());
-                }));
-
-        var vocabularyNode = getNodeByType(nodes, NodeType.TerminologicalVocabulary);
-        var conceptNode = getNodeByType(nodes, NodeType.Concept);
-        var termNode = getNodeByType(nodes, NodeType.Term);
-        var collectionNode = getNodeByType(nodes, NodeType.Collection);
-
-        // add new property 'origin' to vocabulary node
-        assertEquals(getUri("prefix", "vocabulary-1234"),
-                vocabularyNode.getProperties().get("origin").get(0).getValue());
-
-        // add suffix to terminology name
-        assertTrue(vocabularyNode.getProperties().get("prefLabel").get(0).getValue().endsWith(" (Copy)"));
-
-        // contributor's id remains the same and it should have its own graph id
-        Identifier contributor = vocabularyNode.getReferences().get("contributor").get(0);
-        assertNotEquals(graph.getId(), contributor.getType().getGraphId());
-        assertEquals(organizationId, contributor.getId());
-
-        // codes remain the same
-        assertEquals("vocabulary-1234", vocabularyNode.getCode());
-        assertEquals("concept-1234", conceptNode.getCode());
-        assertEquals("term-1234", termNode.getCode());
-
-        // uris contain new prefix
-        assertEquals(getUri(dto.getNewCode(), vocabularyNode), vocabularyNode.getUri());
-        assertEquals(getUri(dto.getNewCode(), conceptNode), conceptNode.getUri());
-        assertEquals(getUri(dto.getNewCode(), termNode), termNode.getUri());
-
-        // term and concept refer still each other
-        assertEquals(conceptNode.getReferences().get("prefLabelXl").get(0).getId(),
-                termNode.getId());
-        assertEquals(termNode.getReferrers().get("prefLabelXl").get(0).getId(),
-                conceptNode.getId());
-
-        assertEquals(conceptNode.getId(), collectionNode.getReferences().get("member").get(0).getId());
+        // copying is started in the background with a new graph id
+        verify(versionService).start(eq(vocabularyId), eq(versionResponse.getNewGraphId()), eq("prefix_v2"),
+                eq(userId.toString()));
+        assertNotEquals(vocabularyId, versionResponse.getNewGraphId());
+        assertEquals("http://uri.suomi.fi/terminology/prefix_v2/", versionResponse.getUri());
+        assertEquals(jobToken, versionResponse.getJobToken());
     }
 
     @Test
@@ -609,21 +544,6 @@ class FrontendTermedServiceTest {
         assertEquals(1L, collectionCount);
     }
 
-    private String getUri(String prefix, String code) {
-        return "http://uri.suomi.fi/terminology/" + prefix + "/" + code;
-    }
-
-    private String getUri(String prefix, GenericNode node) {
-        return getUri(prefix, node.getCode());
-    }
-
-    private GenericNode getNodeByType(List<GenericNode> nodes, NodeType nodeType) {
-        return nodes.stream()
-                .filter(n -> n.getType().getId().equals(nodeType))
-                .findFirst()
-                .get();
-    }
-
     private void mockAuthorization() {
         when(authorizationManager.canCreateNewVersion(any(UUID.class))).thenReturn(true);
     }
@@ -658,119 +578,4 @@ class FrontendTermedServiceTest {
                 any(ParameterizedTypeReference.class)))
                     .thenReturn(response);
     }
-
-    private void mockTermedGetDump(GraphId graphId, String code, UUID orgId) {
-
-        var organizationGraphId = new GraphId(UUID.randomUUID());
-
-        var graph = new Graph(
-                graphId.getId(),
-                code,
-                "http://uri.suomi.fi/terminology/" + code,
-                emptyList(),
-                emptyMap(),
-                emptyMap());
-
-        var metaNode = new MetaNode(
-                "Concept",
-                "http://www.w3.org/concept",
-                1L,
-                graphId,
-                emptyMap(),
-                Map.of("prop", asList(new Property("fi", "metanode_prop"))),
-                emptyList(),
-                emptyList());
-
-        var organizationIdentifier = new Identifier(
-                orgId,
-                new TypeId(
-                        NodeType.Organization,
-                        organizationGraphId)
-        );
-        var termIdentifier = new Identifier(
-                UUID.randomUUID(),
-                new TypeId(
-                        NodeType.Term,
-                        graphId)
-        );
-        var conceptIdentifier = new Identifier(
-                UUID.randomUUID(),
-                new TypeId(
-                        NodeType.Concept,
-                        graphId));
-
-        var vocabularyNode = new GenericNode(
-                UUID.randomUUID(),
-                "vocabulary-1234",
-                getUri(code, "vocabulary-1234"),
-                1L,
-                "creator_user",
-                new Date(),
-                "modifier_user",
-                new Date(),
-                new TypeId(NodeType.TerminologicalVocabulary, graphId, null),
-                Map.of(
-                        "prefLabel", asList(new Attribute("fi", "value")),
-                        "status", asList(new Attribute("fi", "VALID"))),
-                Map.of("contributor", asList(organizationIdentifier)),
-                emptyMap()
-        );
-
-        var conceptNode = new GenericNode(
-                conceptIdentifier.getId(),
-                "concept-1234",
-                getUri(code, "concept-1234"),
-                1L,
-                "creator_user",
-                new Date(),
-                "modifier_user",
-                new Date(),
-                new TypeId(NodeType.Concept, graphId),
-                Map.of("status", asList(new Attribute("fi", "DRAFT"))),
-                Map.of("prefLabelXl", asList(termIdentifier)),
-                emptyMap()
-        );
-
-        var termNode = new GenericNode(
-                termIdentifier.getId(),
-                "term-1234",
-                getUri(code, "term-1234"),
-                1L,
-                "creator_user",
-                new Date(),
-                "modifier_user",
-                new Date(),
-                new TypeId(NodeType.Term, graphId),
-                Map.of(
-                        "prefLabel", asList(new Attribute("fi", "value")),
-                        "status", asList(new Attribute("fi", "VALID"))),
-                emptyMap(),
-                Map.of("prefLabelXl", asList(conceptIdentifier))
-        );
-
-        var collectionNode = new GenericNode(
-                UUID.randomUUID(),
-                "collection-1234",
-                getUri(code, "collection-1234"),
-                1L,
-                "creator_user",
-                new Date(),
-                "modifier_user",
-                new Date(),
-                new TypeId(NodeType.Collection, graphId),
-                Map.of("prefLabel", asList(new Attribute("fi", "value"))),
-                Map.of("member", asList(conceptIdentifier)),
-                emptyMap());
-
-        when(termedRequester.exchange(
-                eq("/graphs/" + graphId.getId() + "/dump"),
-                eq(HttpMethod.GET),
-                any(Parameters.class),
-                eq(Dump.class)))
-                    .thenReturn(new Dump(
-                            asList(graph),
-                            asList(metaNode),
-                            asList(vocabularyNode, conceptNode, termNode, collectionNode)
-                    ));
-    }
 }
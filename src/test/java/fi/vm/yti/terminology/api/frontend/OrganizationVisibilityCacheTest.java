@@ -0,0 +1,42 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrganizationVisibilityCacheTest {
+
+    private final OrganizationVisibilityCache cache = new OrganizationVisibilityCache(60L);
+
+    @Test
+    public void organizationOrderDoesNotMatter() {
+        cache.put(List.of("org-1", "org-2"), Set.of("terminology-1"), cache.generation());
+
+        assertEquals(Set.of("terminology-1"), cache.getIfPresent(List.of("org-2", "org-1")));
+        assertNull(cache.getIfPresent(List.of("org-1")));
+    }
+
+    @Test
+    public void invalidatedOnVocabularyIndexChange() {
+        cache.put(List.of("org-1"), Set.of("terminology-1"), cache.generation());
+
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+        assertNotNull(cache.getIfPresent(List.of("org-1")));
+
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+        assertNull(cache.getIfPresent(List.of("org-1")));
+    }
+
+    @Test
+    public void valueLoadedBeforeInvalidationIsNotStored() {
+        long generation = cache.generation();
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+        cache.put(List.of("org-1"), Set.of("terminology-1"), generation);
+
+        assertNull(cache.getIfPresent(List.of("org-1")));
+    }
+}
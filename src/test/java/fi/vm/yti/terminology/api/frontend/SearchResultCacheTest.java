@@ -0,0 +1,100 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptDTO;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchRequest;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchResponse;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSuggestionDTO;
+import fi.vm.yti.terminology.api.frontend.searchdto.CountDTO;
+import fi.vm.yti.terminology.api.frontend.searchdto.CountSearchResponse;
+import fi.vm.yti.terminology.api.frontend.searchdto.TerminologySimpleDTO;
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchResultCacheTest {
+
+    private final SearchResultCache cache = new SearchResultCache(new ObjectMapper(), 60L, 10L);
+
+    @Test
+    public void exposesHitRatioAndSize() {
+        var registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        var request = new ConceptSearchRequest();
+        request.setQuery("test");
+        var searches = new AtomicInteger();
+        cache.get("concept", "", request, Integer.class, searches::incrementAndGet);
+        cache.get("concept", "", request, Integer.class, searches::incrementAndGet);
+        cache.get("concept", "org-1", request, Integer.class, searches::incrementAndGet);
+
+        assertEquals(2, searches.get());
+        assertEquals(2.0, registry.get("cache.size").tag("cache", SearchResultCache.CACHE_NAME).gauge().value());
+        assertEquals(1.0 / 3, registry.get("search.result.cache.hit.ratio").gauge().value(), 0.001);
+    }
+
+    @Test
+    public void resultsReadBeforeIndexChangeAreNotReturned() {
+        var request = new ConceptSearchRequest();
+        var searches = new AtomicInteger();
+        cache.get("concept", "", request, Integer.class, () -> {
+            // index changes while the search is running
+            cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+            return searches.incrementAndGet();
+        });
+
+        assertEquals(2, (int) cache.get("concept", "", request, Integer.class, searches::incrementAndGet));
+    }
+
+    @Test
+    public void cachedResultsAreNotShared() {
+        var counts = new CountSearchResponse();
+        counts.setCounts(new CountDTO(new HashMap<>(Map.of("concept", 2L)), Map.of(), Map.of(), Map.of()));
+
+        cache.get("counts", "*", "", CountSearchResponse.class, () -> counts)
+                .getCounts().getCategories().put("collection", 1L);
+
+        var cached = cache.get("counts", "*", "", CountSearchResponse.class, () -> counts);
+        assertEquals(Map.of("concept", 2L), cached.getCounts().getCategories());
+        assertNotSame(cached, cache.get("counts", "*", "", CountSearchResponse.class, () -> counts));
+    }
+
+    @Test
+    public void conceptResultsAreCopiedWithAllFields() throws Exception {
+        var mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        var conceptCache = new SearchResultCache(mapper, 60L, 10L);
+        var terminology = new TerminologySimpleDTO("t1", "test", "http://uri.suomi.fi/terminology/test/", "DRAFT",
+                "TERMINOLOGICAL_VOCABULARY", Map.of("fi", "sanasto"));
+        var concept = new ConceptDTO("c1", "http://uri.suomi.fi/terminology/test/c1", "DRAFT", Map.of("fi", "käsite"),
+                Map.of(), Map.of("fi", "määritelmä"), Instant.parse("2021-01-01T00:00:00Z"), List.of("c2"), List.of(),
+                terminology);
+        var response = new ConceptSearchResponse(1, 0, List.of(concept));
+        var suggestions = List.of(new ConceptSuggestionDTO("c1", "käsite", Map.of("fi", "käsite"), terminology));
+
+        var cachedResponse = conceptCache.get("concept", "", "", ConceptSearchResponse.class, () -> response);
+        var cachedSuggestions = conceptCache.get("suggest", "", "",
+                new TypeReference<List<ConceptSuggestionDTO>>() {}, () -> suggestions);
+
+        assertEquals(mapper.writeValueAsString(response), mapper.writeValueAsString(cachedResponse));
+        assertEquals(mapper.writeValueAsString(suggestions), mapper.writeValueAsString(cachedSuggestions));
+    }
+
+    @Test
+    public void searchErrorsAreNotCached() {
+        var request = new ConceptSearchRequest();
+        assertThrows(IllegalStateException.class, () -> cache.get("concept", "", request, String.class, () -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals("ok", cache.get("concept", "", request, String.class, () -> "ok"));
+    }
+}
@@ -0,0 +1,88 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import fi.vm.yti.terminology.api.TermedRequester;
+import fi.vm.yti.terminology.api.util.Parameters;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.POST;
+
+public class TermedUserRegistryTest {
+
+    private final TermedRequester termedRequester = mock(TermedRequester.class);
+    private final TermedUserRegistry registry = new TermedUserRegistry(termedRequester);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void preloadedUsersAreNotLookedUp() {
+        when(termedRequester.exchange(eq("/users"), eq(GET), any(Parameters.class), any(ParameterizedTypeReference.class)))
+                .thenReturn(List.of(new TermedUser("user-1", "user", "ADMIN")));
+
+        registry.preload();
+        registry.ensure("user-1");
+
+        verify(termedRequester, never()).exchange(eq("/users"), eq(GET), any(Parameters.class), eq(TermedUser.class));
+        verify(termedRequester, never()).exchange(eq("/users"), eq(POST), any(Parameters.class), eq(String.class), any());
+    }
+
+    @Test
+    public void existingUserIsLookedUpOnce() {
+        when(termedRequester.exchange(eq("/users"), eq(GET), any(Parameters.class), eq(TermedUser.class)))
+                .thenReturn(new TermedUser("user-1", "user", "ADMIN"));
+
+        registry.ensure("user-1");
+        registry.ensure("user-1");
+
+        verify(termedRequester, times(1)).exchange(eq("/users"), eq(GET), any(Parameters.class), eq(TermedUser.class));
+        verify(termedRequester, never()).exchange(eq("/users"), eq(POST), any(Parameters.class), eq(String.class), any());
+    }
+
+    @Test
+    public void newUserIsCreatedOnceByConcurrentWriters() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    registry.ensure("user-2");
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(termedRequester, times(1)).exchange(eq("/users"), eq(GET), any(Parameters.class), eq(TermedUser.class));
+        verify(termedRequester, times(1)).exchange(eq("/users"), eq(POST), any(Parameters.class), eq(String.class), any(TermedUser.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failedPreloadFallsBackToLookup() {
+        when(termedRequester.exchange(eq("/users"), eq(GET), any(Parameters.class), any(ParameterizedTypeReference.class)))
+                .thenThrow(new RuntimeException("termed down"));
+
+        registry.preload();
+        registry.ensure("user-3");
+
+        verify(termedRequester, times(1)).exchange(eq("/users"), eq(GET), any(Parameters.class), eq(TermedUser.class));
+        verify(termedRequester, times(1)).exchange(eq("/users"), eq(POST), any(Parameters.class), eq(String.class), any(TermedUser.class));
+    }
+}
@@ -0,0 +1,154 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserDirectoryTest {
+
+    private static final String USER_1 = "11111111-1111-1111-1111-111111111111";
+    private static final String USER_2 = "22222222-2222-2222-2222-222222222222";
+    private static final String USER_3 = "33333333-3333-3333-3333-333333333333";
+    private static final String UNKNOWN = "99999999-9999-9999-9999-999999999999";
+
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final AtomicInteger userRequests = new AtomicInteger();
+
+    private HttpServer server;
+    private String users;
+    private FrontendGroupManagementService groupManagementService;
+    private UserDirectory directory;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        users = "[" + user(USER_1, "First") + "," + user(USER_2, "Second") + "]";
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/public-api/users", exchange -> {
+            listRequests.incrementAndGet();
+            respond(exchange, 200, users);
+        });
+        server.createContext("/public-api/user", exchange -> {
+            userRequests.incrementAndGet();
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null && query.equals("id=" + USER_3)) {
+                respond(exchange, 200, user(USER_3, "Third"));
+            } else {
+                respond(exchange, 404, "");
+            }
+        });
+        server.start();
+
+        groupManagementService = new FrontendGroupManagementService(
+                "http://localhost:" + server.getAddress().getPort(), new RestTemplate(), null);
+        directory = new UserDirectory(groupManagementService, 60L, 600L);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void prewarmedUsersAreResolvedWithoutRequests() {
+        directory.refresh();
+
+        Map<String, String> names = directory.displayNames(List.of(USER_1, USER_2, "not-a-uuid"));
+
+        assertEquals("First User", names.get(USER_1));
+        assertEquals("Second User", names.get(USER_2));
+        assertEquals("", names.get("not-a-uuid"));
+        assertEquals(1, listRequests.get());
+        assertEquals(0, userRequests.get());
+    }
+
+    @Test
+    public void severalMissingUsersAreResolvedWithOneListRequest() {
+        Map<String, String> names = directory.displayNames(List.of(USER_1, USER_2, UNKNOWN));
+
+        assertEquals("First User", names.get(USER_1));
+        assertEquals("Second User", names.get(USER_2));
+        assertEquals("", names.get(UNKNOWN));
+        assertEquals(1, listRequests.get());
+        assertEquals(0, userRequests.get());
+    }
+
+    @Test
+    public void singleMissingUserIsFetchedById() {
+        directory.refresh();
+
+        assertEquals("Third User", directory.displayNames(List.of(USER_1, USER_3)).get(USER_3));
+        assertEquals("Third User", directory.displayNames(List.of(USER_3)).get(USER_3));
+
+        assertEquals(1, listRequests.get());
+        assertEquals(1, userRequests.get());
+    }
+
+    @Test
+    public void unknownUsersAreRemembered() {
+        directory.refresh();
+
+        assertEquals("", directory.displayNames(List.of(UNKNOWN)).get(UNKNOWN));
+        assertEquals("", directory.displayNames(List.of(UNKNOWN)).get(UNKNOWN));
+
+        assertEquals(1, userRequests.get());
+    }
+
+    @Test
+    public void missingUsersAreFetchedByIdWhenListIsFresh() {
+        directory.refresh();
+        users = "[" + user(USER_1, "First") + "," + user(USER_2, "Second") + "," + user(USER_3, "Third") + "]";
+
+        Map<String, String> names = directory.displayNames(List.of(USER_3, UNKNOWN));
+
+        assertEquals("Third User", names.get(USER_3));
+        assertEquals("", names.get(UNKNOWN));
+        assertEquals(1, listRequests.get());
+        assertEquals(2, userRequests.get());
+
+        assertEquals("Third User", directory.displayNames(List.of(USER_3, UNKNOWN)).get(USER_3));
+        assertEquals(2, userRequests.get());
+    }
+
+    @Test
+    public void missingUsersAreResolvedWithReloadAfterInterval() throws InterruptedException {
+        directory = new UserDirectory(groupManagementService, 1L, 600L);
+        directory.refresh();
+        users = "[" + user(USER_1, "First") + "," + user(USER_2, "Second") + "," + user(USER_3, "Third") + "]";
+
+        Thread.sleep(1100);
+        Map<String, String> names = directory.displayNames(List.of(USER_3, UNKNOWN));
+
+        assertEquals("Third User", names.get(USER_3));
+        assertEquals("", names.get(UNKNOWN));
+        assertEquals(2, listRequests.get());
+        assertEquals(0, userRequests.get());
+    }
+
+    private static String user(String id, String firstName) {
+        return "{\"id\":\"" + id + "\",\"email\":\"" + firstName.toLowerCase() + "@example.org\"," +
+                "\"firstName\":\"" + firstName + "\",\"lastName\":\"User\"}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
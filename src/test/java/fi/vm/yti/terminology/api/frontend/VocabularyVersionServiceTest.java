@@ -0,0 +1,368 @@
+package fi.vm.yti.terminology.api.frontend;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.TermedContentType;
+import fi.vm.yti.terminology.api.TermedRequester;
+import fi.vm.yti.terminology.api.importapi.ImportStatusResponse;
+import fi.vm.yti.terminology.api.importapi.ImportStatusResponse.ImportStatus;
+import fi.vm.yti.terminology.api.importapi.YtiMQService;
+import fi.vm.yti.terminology.api.model.termed.*;
+import fi.vm.yti.terminology.api.mscr.PIDService;
+import fi.vm.yti.terminology.api.util.Parameters;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class VocabularyVersionServiceTest {
+
+    private static final String PID = "urn:pid:new-version";
+    private static final String USERNAME = "ff2f1f8a-5f10-4e46-8b53-0c0a7e6c5f4a";
+
+    private final TermedRequester termedRequester = mock(TermedRequester.class);
+    private final PIDService pidService = mock(PIDService.class);
+    private final YtiMQService ytiMQService = mock(YtiMQService.class);
+    private final Map<String, String> statuses = new HashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final VocabularyVersionService service =
+            new VocabularyVersionService(termedRequester, pidService, Runnable::run, mapper, ytiMQService, 2, 1800L);
+
+    private final GraphId graphId = new GraphId(UUID.randomUUID());
+    private final UUID organizationId = UUID.randomUUID();
+    private final UUID newGraphId = UUID.randomUUID();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        when(pidService.mint(newGraphId.toString())).thenReturn(PID);
+        // status queue keeps the latest status of each job
+        when(ytiMQService.setStatus(anyInt(), anyString(), any(), anyString(), anyString())).thenAnswer(invocation -> {
+            statuses.put(invocation.getArgument(1), invocation.getArgument(4));
+            return null;
+        });
+        when(ytiMQService.getStatus(any(UUID.class), any(StringBuffer.class))).thenAnswer(invocation -> {
+            String status = statuses.get(invocation.getArgument(0).toString());
+            if (status == null) {
+                return HttpStatus.NO_CONTENT;
+            }
+            ((StringBuffer) invocation.getArgument(1)).append(status);
+            return HttpStatus.OK;
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void vocabularyIsCopiedInChunks() throws Exception {
+        mockDump(dump("prefix"));
+
+        UUID jobToken = service.start(graphId.getId(), newGraphId, "prefix_v2", USERNAME);
+
+        // graph and types are created without nodes
+        ArgumentCaptor<Dump> dumpCaptor = ArgumentCaptor.forClass(Dump.class);
+        verify(termedRequester).exchange(eq("/dump"), eq(HttpMethod.POST), any(Parameters.class), eq(String.class),
+                dumpCaptor.capture(), eq(USERNAME), anyString());
+        Dump dump = dumpCaptor.getValue();
+        Graph graph = dump.getGraphs().get(0);
+        assertEquals(newGraphId, graph.getId());
+        assertEquals("prefix_v2", graph.getCode());
+        assertEquals(PID, graph.getUri());
+        assertEquals(jobToken.toString(),
+                graph.getProperties().get(VocabularyVersionService.VERSION_JOB_PROPERTY).get(0).getValue());
+        assertTrue(dump.getNodes().isEmpty());
+
+        // marker is removed when the copy is complete
+        ArgumentCaptor<Graph> savedGraph = ArgumentCaptor.forClass(Graph.class);
+        verify(termedRequester).exchange(eq("/graphs/" + newGraphId), eq(HttpMethod.PUT), any(Parameters.class),
+                eq(String.class), savedGraph.capture());
+        assertFalse(savedGraph.getValue().getProperties().containsKey(VocabularyVersionService.VERSION_JOB_PROPERTY));
+
+        MetaNode metaNode = dump.getTypes().get(0);
+        assertEquals(newGraphId, metaNode.getGraph().getId());
+        assertEquals("Concept", metaNode.getId());
+        assertEquals("metanode_prop", metaNode.getProperties().get("prop").get(0).getValue());
+
+        // four nodes are saved and patched in chunks of two
+        ArgumentCaptor<GenericDeleteAndSave> changesets = ArgumentCaptor.forClass(GenericDeleteAndSave.class);
+        verify(termedRequester, times(4)).exchange(eq("/nodes"), eq(HttpMethod.POST), any(Parameters.class),
+                eq(String.class), changesets.capture(), eq(USERNAME), anyString());
+        changesets.getAllValues().forEach(changeset ->
+                assertEquals(2, changeset.getSave().size() + changeset.getPatch().size()));
+
+        List<GenericNode> saved = changesets.getAllValues().stream()
+                .flatMap(changeset -> changeset.getSave().stream())
+                .collect(Collectors.toList());
+        List<GenericNode> patched = changesets.getAllValues().stream()
+                .flatMap(changeset -> changeset.getPatch().stream())
+                .collect(Collectors.toList());
+        assertEquals(4, saved.size());
+        assertEquals(4, patched.size());
+
+        // saved nodes belong to new graph, have DRAFT status and no references
+        saved.forEach(n -> {
+            assertEquals(newGraphId, n.getType().getGraphId());
+            assertTrue(n.getReferences().isEmpty());
+            n.getProperties().getOrDefault("status", emptyList())
+                    .forEach(p -> assertEquals("DRAFT", p.getValue()));
+        });
+
+        var vocabularyNode = getNodeByType(saved, NodeType.TerminologicalVocabulary);
+        var conceptNode = getNodeByType(saved, NodeType.Concept);
+        var termNode = getNodeByType(saved, NodeType.Term);
+
+        // add new property 'origin' to vocabulary node and suffix to its name
+        assertEquals(getUri("prefix", "vocabulary-1234"),
+                vocabularyNode.getProperties().get("origin").get(0).getValue());
+        assertTrue(vocabularyNode.getProperties().get("prefLabel").get(0).getValue().endsWith(" (Copy)"));
+
+        // codes remain the same, uris come from the new PID
+        assertEquals("vocabulary-1234", vocabularyNode.getCode());
+        assertEquals("concept-1234", conceptNode.getCode());
+        assertEquals(PID, vocabularyNode.getUri());
+        assertEquals(PID + "@concept=" + conceptNode.getId(), conceptNode.getUri());
+
+        // patches contain only references, rewritten to new nodes
+        patched.forEach(n -> assertTrue(n.getProperties().isEmpty()));
+        var patchedVocabulary = getNodeByType(patched, NodeType.TerminologicalVocabulary);
+        var patchedConcept = getNodeByType(patched, NodeType.Concept);
+        var patchedCollection = getNodeByType(patched, NodeType.Collection);
+
+        assertEquals(vocabularyNode.getId(), patchedVocabulary.getId());
+        assertEquals(termNode.getId(), patchedConcept.getReferences().get("prefLabelXl").get(0).getId());
+        assertEquals(newGraphId, patchedConcept.getReferences().get("prefLabelXl").get(0).getType().getGraphId());
+        assertEquals(conceptNode.getId(), patchedCollection.getReferences().get("member").get(0).getId());
+
+        // contributor's id remains the same and it keeps its own graph id
+        Identifier contributor = patchedVocabulary.getReferences().get("contributor").get(0);
+        assertEquals(organizationId, contributor.getId());
+        assertNotEquals(newGraphId, contributor.getType().getGraphId());
+
+        ImportStatusResponse status = service.getStatus(jobToken);
+        assertEquals(ImportStatus.SUCCESS, status.getStatus());
+        assertEquals(8, status.getProcessingTotal());
+        assertEquals(8, status.getProcessingProgress());
+        assertEquals(4, status.getResultsCreated());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failedVersionIsRemoved() throws Exception {
+        mockDump(dump("prefix"));
+        when(termedRequester.exchange(eq("/nodes"), eq(HttpMethod.POST), any(Parameters.class), eq(String.class),
+                any(GenericDeleteAndSave.class), anyString(), anyString()))
+                .thenThrow(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR));
+
+        UUID jobToken = service.start(graphId.getId(), newGraphId, "prefix_v2", USERNAME);
+
+        ImportStatusResponse status = service.getStatus(jobToken);
+        assertEquals(ImportStatus.FAILURE, status.getStatus());
+        assertFalse(status.getStatusMessage().isEmpty());
+        verify(termedRequester).exchange(eq("/graphs/" + newGraphId), eq(HttpMethod.DELETE), any(Parameters.class),
+                eq(String.class));
+    }
+
+    @Test
+    public void missingVocabularyFails() {
+        UUID jobToken = service.start(graphId.getId(), newGraphId, "prefix_v2", USERNAME);
+
+        assertEquals(ImportStatus.FAILURE, service.getStatus(jobToken).getStatus());
+        verify(termedRequester, never()).exchange(eq("/dump"), eq(HttpMethod.POST), any(Parameters.class),
+                eq(String.class), any(), anyString(), anyString());
+    }
+
+    @Test
+    public void typesAfterNodesFail() {
+        String dump = "{\"graphs\":[{\"id\":\"" + graphId.getId() + "\"}],\"nodes\":[],\"types\":[]}";
+        VocabularyVersionService.DumpReader reader = new VocabularyVersionService.DumpReader() {
+            @Override
+            void node(GenericNode node) {
+            }
+        };
+
+        assertThrows(IllegalStateException.class, () ->
+                service.readDump(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)), reader));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void abandonedVersionIsRemoved() {
+        UUID abandonedJob = UUID.randomUUID();
+        Graph abandoned = versionInProgress(newGraphId, abandonedJob, Instant.now().minus(1, ChronoUnit.HOURS));
+        Graph running = versionInProgress(UUID.randomUUID(), UUID.randomUUID(), Instant.now());
+        Graph complete = new Graph(graphId.getId(), "prefix", "", emptyList(), emptyMap(), emptyMap());
+        when(termedRequester.exchange(eq("/graphs"), eq(HttpMethod.GET), any(Parameters.class),
+                any(ParameterizedTypeReference.class)))
+                .thenReturn(List.of(abandoned, running, complete));
+
+        service.removeAbandonedVersions();
+
+        verify(termedRequester).exchange(eq("/graphs/" + newGraphId), eq(HttpMethod.DELETE), any(Parameters.class),
+                eq(String.class));
+        verify(termedRequester, times(1)).exchange(startsWith("/graphs/"), eq(HttpMethod.DELETE),
+                any(Parameters.class), eq(String.class));
+        assertEquals(ImportStatus.FAILURE, service.getStatus(abandonedJob).getStatus());
+    }
+
+    @Test
+    public void unknownJob() {
+        assertEquals(ImportStatus.NOT_FOUND, service.getStatus(UUID.randomUUID()).getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockDump(Dump dump) throws Exception {
+        byte[] json = mapper.writeValueAsBytes(dump);
+        when(termedRequester.stream(eq("/graphs/" + graphId.getId() + "/dump"), eq(HttpMethod.GET),
+                any(Parameters.class), eq(TermedContentType.JSON), any(ResponseExtractor.class)))
+                .thenAnswer(invocation -> {
+                    ClientHttpResponse response = mock(ClientHttpResponse.class);
+                    when(response.getBody()).thenReturn(new ByteArrayInputStream(json));
+                    return ((ResponseExtractor<?>) invocation.getArgument(4)).extractData(response);
+                });
+    }
+
+    private static Graph versionInProgress(UUID id, UUID jobToken, Instant updated) {
+        return new Graph(id, "prefix_v2", "", emptyList(), emptyMap(), Map.of(
+                VocabularyVersionService.VERSION_JOB_PROPERTY, List.of(new Property("", jobToken.toString())),
+                VocabularyVersionService.VERSION_JOB_UPDATED_PROPERTY, List.of(new Property("", updated.toString()))));
+    }
+
+    private String getUri(String prefix, String code) {
+        return "http://uri.suomi.fi/terminology/" + prefix + "/" + code;
+    }
+
+    private GenericNode getNodeByType(List<GenericNode> nodes, NodeType nodeType) {
+        return nodes.stream()
+                .filter(n -> n.getType().getId().equals(nodeType))
+                .findFirst()
+                .get();
+    }
+
+    private Dump dump(String code) {
+
+        var organizationGraphId = new GraphId(UUID.randomUUID());
+
+        var graph = new Graph(
+                graphId.getId(),
+                code,
+                "http://uri.suomi.fi/terminology/" + code,
+                emptyList(),
+                emptyMap(),
+                emptyMap());
+
+        var metaNode = new MetaNode(
+                "Concept",
+                "http://www.w3.org/concept",
+                1L,
+                graphId,
+                emptyMap(),
+                Map.of("prop", asList(new Property("fi", "metanode_prop"))),
+                emptyList(),
+                emptyList());
+
+        var organizationIdentifier = new Identifier(
+                organizationId,
+                new TypeId(
+                        NodeType.Organization,
+                        organizationGraphId)
+        );
+        var termIdentifier = new Identifier(
+                UUID.randomUUID(),
+                new TypeId(
+                        NodeType.Term,
+                        graphId)
+        );
+        var conceptIdentifier = new Identifier(
+                UUID.randomUUID(),
+                new TypeId(
+                        NodeType.Concept,
+                        graphId));
+
+        var vocabularyNode = new GenericNode(
+                UUID.randomUUID(),
+                "vocabulary-1234",
+                getUri(code, "vocabulary-1234"),
+                1L,
+                "creator_user",
+                new Date(),
+                "modifier_user",
+                new Date(),
+                new TypeId(NodeType.TerminologicalVocabulary, graphId, null),
+                Map.of(
+                        "prefLabel", asList(new Attribute("fi", "value")),
+                        "status", asList(new Attribute("fi", "VALID"))),
+                Map.of("contributor", asList(organizationIdentifier)),
+                emptyMap()
+        );
+
+        var conceptNode = new GenericNode(
+                conceptIdentifier.getId(),
+                "concept-1234",
+                getUri(code, "concept-1234") + "@concept=" + conceptIdentifier.getId(),
+                1L,
+                "creator_user",
+                new Date(),
+                "modifier_user",
+                new Date(),
+                new TypeId(NodeType.Concept, graphId),
+                Map.of("status", asList(new Attribute("fi", "DRAFT"))),
+                Map.of("prefLabelXl", asList(termIdentifier)),
+                emptyMap()
+        );
+
+        var termNode = new GenericNode(
+                termIdentifier.getId(),
+                "term-1234",
+                getUri(code, "term-1234"),
+                1L,
+                "creator_user",
+                new Date(),
+                "modifier_user",
+                new Date(),
+                new TypeId(NodeType.Term, graphId),
+                Map.of(
+                        "prefLabel", asList(new Attribute("fi", "value")),
+                        "status", asList(new Attribute("fi", "VALID"))),
+                emptyMap(),
+                Map.of("prefLabelXl", asList(conceptIdentifier))
+        );
+
+        var collectionNode = new GenericNode(
+                UUID.randomUUID(),
+                "collection-1234",
+                getUri(code, "collection-1234"),
+                1L,
+                "creator_user",
+                new Date(),
+                "modifier_user",
+                new Date(),
+                new TypeId(NodeType.Collection, graphId),
+                Map.of("prefLabel", asList(new Attribute("fi", "value"))),
+                Map.of("member", asList(conceptIdentifier)),
+                emptyMap());
+
+        return new Dump(
+                asList(graph),
+                asList(metaNode),
+                asList(vocabularyNode, conceptNode, termNode, collectionNode));
+    }
+}
@@ -54,6 +54,8 @@ public class ImportServiceTest {
     AuthorizationManager authorizationManager;
     @MockBean
     YtiMQService ytiMQService;
+    @MockBean
+    NtrfDocumentStore documentStore;
 
     @Autowired
     ImportService importService;
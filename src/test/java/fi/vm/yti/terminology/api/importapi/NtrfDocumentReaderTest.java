@@ -0,0 +1,102 @@
+package fi.vm.yti.terminology.api.importapi;
+
+import fi.vm.yti.terminology.api.model.ntrf.DIAG;
+import fi.vm.yti.terminology.api.model.ntrf.RECORD;
+import fi.vm.yti.terminology.api.model.ntrf.REF;
+import fi.vm.yti.terminology.api.model.ntrf.REFERENCES;
+import fi.vm.yti.terminology.api.model.ntrf.VOCABULARY;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NtrfDocumentReaderTest {
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!DOCTYPE VOCABULARY SYSTEM \"file://localhost/x:/NTRF.dtd\">\n" +
+            "<VOCABULARY>\n" +
+            "    <HEADER><YEAR>2022</YEAR></HEADER>\n" +
+            "    <RECORD numb=\"c100\" stat=\"VALID\">\n" +
+            "        <LANG value=\"fi\"><TE><TERM>termi 1</TERM></TE></LANG>\n" +
+            "    </RECORD>\n" +
+            "    <!-- comment between records -->\n" +
+            "    <RECORD numb=\"c200\" stat=\"VALID\"><LANG value=\"fi\"><TE><TERM>termi 2</TERM></TE></LANG></RECORD>\n" +
+            "    <DIAG numb=\"d1\" name=\"Kokoelma\"><LINK href=\"#c100\">termi 1</LINK></DIAG>\n" +
+            "    <RECORD numb=\"c300\" stat=\"VALID\"><LANG value=\"fi\"><TE><TERM>termi 3</TERM></TE></LANG></RECORD>\n" +
+            "    <REFERENCES><REF><REFNAME>Lähde</REFNAME><REFTEXT>Lähteen kuvaus</REFTEXT></REF></REFERENCES>\n" +
+            "</VOCABULARY>\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void countsTopLevelElements() throws Exception {
+        var reader = new NtrfDocumentReader(write(DOCUMENT.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(3, reader.count(RECORD.class));
+        assertEquals(1, reader.count(DIAG.class));
+        assertEquals(1, reader.count(REFERENCES.class));
+    }
+
+    @Test
+    public void streamsElementsInDocumentOrder() throws Exception {
+        var reader = new NtrfDocumentReader(write(DOCUMENT.getBytes(StandardCharsets.UTF_8)));
+        List<String> records = new ArrayList<>();
+        List<String> diags = new ArrayList<>();
+
+        assertEquals(3, reader.forEach(RECORD.class, r -> records.add(r.getNumb())));
+        assertEquals(1, reader.forEach(DIAG.class, d -> diags.add(d.getName())));
+
+        assertEquals(List.of("c100", "c200", "c300"), records);
+        assertEquals(List.of("Kokoelma"), diags);
+    }
+
+    @Test
+    public void readsSameElementsAsUnmarshalledDocument() throws Exception {
+        VOCABULARY vocabulary = NtrfUtil.unmarshallXmlDocument(DOCUMENT);
+        var streamed = new NtrfDocumentReader(write(DOCUMENT.getBytes(StandardCharsets.UTF_8)));
+        var inMemory = new NtrfDocumentReader(vocabulary);
+
+        List<String> streamedRecords = new ArrayList<>();
+        List<String> inMemoryRecords = new ArrayList<>();
+        streamed.forEach(RECORD.class, r -> streamedRecords.add(r.getNumb()));
+        inMemory.forEach(RECORD.class, r -> inMemoryRecords.add(r.getNumb()));
+
+        assertEquals(inMemoryRecords, streamedRecords);
+        assertEquals(inMemory.count(DIAG.class), streamed.count(DIAG.class));
+        assertEquals(inMemory.count(REFERENCES.class), streamed.count(REFERENCES.class));
+    }
+
+    @Test
+    public void readsDocumentWithDeclaredEncoding() throws Exception {
+        String latin1 = DOCUMENT.replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"");
+        var reader = new NtrfDocumentReader(write(latin1.getBytes(StandardCharsets.ISO_8859_1)));
+        List<String> references = new ArrayList<>();
+
+        reader.forEach(REFERENCES.class, r -> references.add(((REF) r.getREFOrREFHEAD().get(0)).getREFNAME()));
+
+        assertEquals(List.of("Lähde"), references);
+    }
+
+    @Test
+    public void readsDocumentWithByteOrderMark() throws Exception {
+        byte[] bom = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+        byte[] utf8 = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        byte[] document = new byte[bom.length + utf8.length];
+        System.arraycopy(bom, 0, document, 0, bom.length);
+        System.arraycopy(utf8, 0, document, bom.length, utf8.length);
+
+        assertEquals(3, new NtrfDocumentReader(write(document)).count(RECORD.class));
+    }
+
+    private Path write(byte[] document) throws IOException {
+        return Files.write(directory.resolve("document.xml"), document);
+    }
+}
@@ -0,0 +1,69 @@
+package fi.vm.yti.terminology.api.importapi;
+
+import fi.vm.yti.terminology.api.model.ntrf.RECORD;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NtrfDocumentStoreTest {
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<VOCABULARY>\n" +
+            "    <RECORD numb=\"c100\" stat=\"VALID\"><LANG value=\"fi\"><TE><TERM>termi 1</TERM></TE></LANG></RECORD>\n" +
+            "    <RECORD numb=\"c200\" stat=\"VALID\"><LANG value=\"fi\"><TE><TERM>termi 2</TERM></TE></LANG></RECORD>\n" +
+            "</VOCABULARY>\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void storedDocumentIsReadByReference() throws Exception {
+        var store = new NtrfDocumentStore(directory.resolve("import").toString(), 24);
+        UUID operationId = UUID.randomUUID();
+
+        String reference = store.store(operationId, upload());
+
+        assertEquals(operationId.toString(), reference);
+        var reader = store.reader(reference);
+        assertEquals(2, reader.count(RECORD.class));
+        assertEquals(2, reader.count(RECORD.class));
+
+        store.remove(reference);
+        assertEquals(0, Files.list(directory.resolve("import")).count());
+    }
+
+    @Test
+    public void referenceMustBeOperationId() {
+        var store = new NtrfDocumentStore(directory.toString(), 24);
+
+        assertThrows(IllegalArgumentException.class, () -> store.reader("../application.properties"));
+    }
+
+    @Test
+    public void abandonedDocumentsAreRemoved() throws Exception {
+        var store = new NtrfDocumentStore(directory.toString(), 24);
+        String abandoned = store.store(UUID.randomUUID(), upload());
+        String pending = store.store(UUID.randomUUID(), upload());
+        Files.setLastModifiedTime(directory.resolve(abandoned + ".xml"),
+                FileTime.from(Instant.now().minus(25, ChronoUnit.HOURS)));
+
+        store.removeAbandonedDocuments();
+
+        assertFalse(Files.exists(directory.resolve(abandoned + ".xml")));
+        assertTrue(Files.exists(directory.resolve(pending + ".xml")));
+    }
+
+    private static ByteArrayInputStream upload() {
+        return new ByteArrayInputStream(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+    }
+}
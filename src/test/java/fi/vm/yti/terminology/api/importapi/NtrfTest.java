@@ -18,11 +18,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.client.HttpServerErrorException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -62,6 +65,9 @@ public class NtrfTest {
     @Autowired
     NtrfMapper mapper;
 
+    @Autowired
+    ObjectProvider<NtrfMapper> mappers;
+
     @Captor
     ArgumentCaptor<GenericDeleteAndSave> deleteAndSaveArgumentCaptor;
 
@@ -268,6 +274,26 @@ public class NtrfTest {
         assertEquals(prefixNote + expected, note);
     }
 
+    @Test
+    void importStateIsNotSharedBetweenImports() throws Exception {
+        var vocabulary = NtrfUtil.unmarshallXmlDocument(getContent("term-and-concept-info.xml"));
+
+        doThrow(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR))
+                .doReturn(null)
+                .when(termedRequester).exchange(eq("/nodes"), eq(HttpMethod.POST), any(Parameters.class),
+                        eq(String.class), any(GenericDeleteAndSave.class), anyString(), anyString());
+
+        // each import gets its own mapper, like in ImportJmsListener
+        var failed = ImportStatusResponse.fromString(
+                mappers.getObject().mapNtrfDocument("xyz", UUID.randomUUID(), vocabulary, UUID.randomUUID()));
+        var succeeded = ImportStatusResponse.fromString(
+                mappers.getObject().mapNtrfDocument("abc", UUID.randomUUID(), vocabulary, UUID.randomUUID()));
+
+        assertEquals(ImportStatusResponse.ImportStatus.FAILURE, failed.getStatus());
+        assertEquals(ImportStatusResponse.ImportStatus.SUCCESS, succeeded.getStatus());
+        assertEquals(0, succeeded.getResultsError());
+    }
+
     private GenericNode getConceptNode(List<GenericNode> nodes, String code) {
         return nodes.stream()
                 .filter(n -> code.equals(n.getCode()))
@@ -0,0 +1,84 @@
+package fi.vm.yti.terminology.api.importapi;
+
+import fi.vm.yti.terminology.api.model.ntrf.RECORD;
+import fi.vm.yti.terminology.api.model.ntrf.VOCABULARY;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Unmarshaller;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NtrfUtilTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(NtrfUtilTest.class);
+
+    private static final String DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!DOCTYPE VOCABULARY SYSTEM \"file://localhost/x:/NTRF.dtd\">\n" +
+            "<VOCABULARY>\n" +
+            "    <RECORD numb=\"c100\" stat=\"VALID\"><LANG value=\"fi\"><TE><TERM>termi 1</TERM></TE></LANG></RECORD>\n" +
+            "    <RECORD numb=\"c200\" stat=\"VALID\"><LANG value=\"fi\"><TE><TERM>termi 2</TERM></TE></LANG></RECORD>\n" +
+            "</VOCABULARY>\n";
+
+    @Test
+    public void contextIsShared() {
+        assertSame(NtrfUtil.getContext(), NtrfUtil.getContext());
+    }
+
+    @Test
+    public void unmarshallerIsReusedWithinThread() throws Exception {
+        Unmarshaller unmarshaller = NtrfUtil.getUnmarshaller();
+        assertSame(unmarshaller, NtrfUtil.getUnmarshaller());
+
+        Unmarshaller other = CompletableFuture.supplyAsync(NtrfUtil::getUnmarshaller).get();
+        assertNotSame(unmarshaller, other);
+    }
+
+    @Test
+    public void unmarshallsDocument() throws Exception {
+        VOCABULARY vocabulary = NtrfUtil.unmarshallXmlDocument(DOCUMENT);
+
+        assertEquals(2, vocabulary.getRECORDAndHEADAndDIAG().size());
+        assertEquals("c100", ((RECORD) vocabulary.getRECORDAndHEADAndDIAG().get(0)).getNumb());
+    }
+
+    /**
+     * Compares per-import setup cost of creating a new context for every document
+     * against the shared context. Timings are only logged, run with
+     * <pre>
+     * NTRF_BENCHMARK=true ./gradlew test --tests '*NtrfUtilTest'
+     * </pre>
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "NTRF_BENCHMARK", matches = "true")
+    public void sharedContextBenchmark() throws Exception {
+        int rounds = 5;
+        // Warm up class loading for both paths
+        NtrfUtil.unmarshallXmlDocument(DOCUMENT);
+
+        VOCABULARY fresh = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JAXBContext jc = JAXBContext.newInstance(VOCABULARY.class);
+            fresh = (VOCABULARY) jc.createUnmarshaller()
+                    .unmarshal(NtrfUtil.createXMLStreamReader(new StringReader(DOCUMENT)));
+        }
+        long perImportFresh = (System.nanoTime() - start) / rounds;
+
+        VOCABULARY shared = null;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            shared = NtrfUtil.unmarshallXmlDocument(DOCUMENT);
+        }
+        long perImportShared = (System.nanoTime() - start) / rounds;
+
+        logger.info("NTRF unmarshalling per import: new context {} µs, shared context {} µs",
+                perImportFresh / 1000, perImportShared / 1000);
+        assertEquals(fresh.getRECORDAndHEADAndDIAG().size(), shared.getRECORDAndHEADAndDIAG().size());
+    }
+}
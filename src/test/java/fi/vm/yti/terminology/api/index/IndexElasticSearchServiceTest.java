@@ -0,0 +1,396 @@
+package fi.vm.yti.terminology.api.index;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fi.vm.yti.terminology.api.frontend.OrganizationVisibilityCache;
+import fi.vm.yti.terminology.api.util.RestHighLevelClientWrapper;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class IndexElasticSearchServiceTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final IndexTermedService termedService = mock(IndexTermedService.class);
+    private final RestHighLevelClientWrapper clientWrapper = mock(RestHighLevelClientWrapper.class);
+    private final OrganizationVisibilityCache visibilityCache = new OrganizationVisibilityCache(60L);
+
+    private final List<SearchIndexChangedEvent> events = new ArrayList<>();
+    /** Last request made before each event */
+    private final List<EsRequest> requestsBeforeEvents = new ArrayList<>();
+    private final List<EsRequest> requests = new ArrayList<>();
+    private BiFunction<String, String, String> responses = (method, endpoint) -> "{}";
+    private final Set<String> missing = new HashSet<>();
+
+    private final UUID graphId = UUID.randomUUID();
+    private final UUID conceptId = UUID.randomUUID();
+
+    private IndexElasticSearchService service;
+
+    @BeforeEach
+    public void setUp() {
+        RestClient restClient = mock(RestClient.class, invocation -> {
+            if (!invocation.getMethod().getName().equals("performRequest")) {
+                return null;
+            }
+            Object[] args = invocation.getArguments();
+            EsRequest request = new EsRequest((String) args[0], (String) args[1],
+                    args.length > 2 && args[2] instanceof Map ? (Map<String, String>) args[2] : Map.of(),
+                    args.length > 3 && args[3] instanceof HttpEntity ? EntityUtils.toString((HttpEntity) args[3]) : null);
+            requests.add(request);
+            if (!request.method.equals("PUT") && !request.method.equals("POST") && missing.contains(request.endpoint)) {
+                return response(404, "{}");
+            }
+            String body = responses.apply(request.method, request.endpoint);
+            return body != null ? response(200, body) : response(500, "{}");
+        });
+        when(clientWrapper.getLowLevelClient()).thenReturn(restClient);
+
+        service = new IndexElasticSearchService("localhost", 9200, "http",
+                "create_index_default.json", "create_concept_mappings.json,create_vocabulary_mappings.json",
+                "concepts,vocabularies", "concept,vocabulary", false, 180,
+                termedService, mapper, clientWrapper, event -> {
+                    events.add((SearchIndexChangedEvent) event);
+                    requestsBeforeEvents.add(requests.isEmpty() ? null : requests.get(requests.size() - 1));
+                    visibilityCache.onSearchIndexChanged((SearchIndexChangedEvent) event);
+                });
+    }
+
+    @Test
+    public void conceptUpdateDoesNotInvalidateVisibilityCache() {
+        visibilityCache.put(List.of("org-1"), Set.of(graphId.toString()), visibilityCache.generation());
+        Concept concept = concept();
+        when(termedService.getConcepts(eq(graphId), anyCollection())).thenReturn(List.of(concept));
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterUpdate(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+
+        assertTrue(requests.stream().anyMatch(r -> r.endpoint.equals("/_bulk")));
+        assertEquals(Set.of(SearchIndexChangedEvent.CONCEPTS), indexesChanged());
+        assertNotNull(visibilityCache.getIfPresent(List.of("org-1")));
+    }
+
+    @Test
+    public void conceptDeleteDoesNotInvalidateVisibilityCache() {
+        visibilityCache.put(List.of("org-1"), Set.of(graphId.toString()), visibilityCache.generation());
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+
+        assertFalse(events.stream().anyMatch(SearchIndexChangedEvent::isVocabularyIndex));
+        assertNotNull(visibilityCache.getIfPresent(List.of("org-1")));
+    }
+
+    @Test
+    public void conceptDeletePublishesTerminologyAsChangedGraph() {
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+
+        assertFalse(events.isEmpty());
+        assertTrue(events.stream().allMatch(e -> e.getGraphId() == null || graphId.equals(e.getGraphId())));
+    }
+
+    @Test
+    public void vocabularyDeleteInvalidatesVisibilityCache() {
+        visibilityCache.put(List.of("org-1"), Set.of(graphId.toString()), visibilityCache.generation());
+
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, List.of(graphId), emptyList()));
+
+        assertTrue(indexesChanged().contains(SearchIndexChangedEvent.VOCABULARIES));
+        assertNull(visibilityCache.getIfPresent(List.of("org-1")));
+    }
+
+    @Test
+    public void conceptDeletionIsSearchableBeforeIndexChangeIsPublished() {
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, List.of(graphId), emptyList()));
+        service.removeExpiredTombstones();
+
+        assertTrue(requests.stream().filter(r -> r.endpoint.endsWith("/_delete_by_query")).count() >= 3);
+        assertRefreshedBeforeEvents(SearchIndexChangedEvent.CONCEPTS);
+        assertRefreshedBeforeEvents(IndexElasticSearchService.TOMBSTONE_INDEX);
+    }
+
+    @Test
+    public void visibilityCacheIsInvalidatedAfterVocabularyDeletionIsSearchable() {
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, List.of(graphId), emptyList()));
+
+        EsRequest delete = request("POST", "/vocabularies/_delete_by_query");
+        assertEquals("true", delete.params.get("refresh"));
+        assertTrue(events.stream().anyMatch(SearchIndexChangedEvent::isVocabularyIndex));
+        assertRefreshedBeforeEvents(SearchIndexChangedEvent.VOCABULARIES);
+    }
+
+    @Test
+    public void conceptDocumentsHaveIndexedTime() throws Exception {
+        Instant before = Instant.now();
+        Concept concept = concept();
+        when(termedService.getConcepts(eq(graphId), anyCollection())).thenReturn(List.of(concept));
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterUpdate(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+
+        String[] lines = request("POST", "/_bulk").body.split("\n");
+        assertEquals("concepts", mapper.readTree(lines[0]).at("/index/_index").asText());
+        Instant indexed = Instant.parse(mapper.readTree(lines[1]).get("indexed").asText());
+        assertFalse(indexed.isBefore(before));
+    }
+
+    @Test
+    public void tombstonesAreCopiedFromConceptIndex() throws Exception {
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+
+        JsonNode body = mapper.readTree(request("POST", "/_reindex").body);
+        assertEquals("concepts", body.at("/source/index").asText());
+        assertEquals(IndexElasticSearchService.TOMBSTONE_INDEX, body.at("/dest/index").asText());
+        assertTrue(body.at("/script/source").asText().contains("ctx._source.indexed = params.deleted"));
+    }
+
+    @Test
+    public void conceptsNotFoundInReindexingGetTombstones() throws Exception {
+        when(termedService.fetchAllAvailableGraphIds()).thenReturn(List.of(graphId));
+        Concept concept = concept();
+        when(termedService.getAllConceptsForGraph(graphId)).thenReturn(List.of(concept));
+        Instant before = Instant.now();
+
+        service.reindex();
+
+        // concepts are overwritten, not deleted before indexing
+        assertTrue(requests.stream().noneMatch(r -> r.endpoint.equals("/concepts,vocabularies/_delete_by_query")));
+        int bulk = requests.indexOf(request("POST", "/_bulk"));
+        int tombstones = requests.indexOf(request("POST", "/_reindex"));
+        int delete = requests.indexOf(request("POST", "/concepts/_delete_by_query"));
+        assertTrue(bulk < tombstones && tombstones < delete);
+
+        JsonNode query = mapper.readTree(request("POST", "/_reindex").body).at("/source/query");
+        assertEquals(query, mapper.readTree(request("POST", "/concepts/_delete_by_query").body).get("query"));
+        Instant started = Instant.parse(query.at("/bool/should/0/range/indexed/lt").asText());
+        assertFalse(started.isBefore(before));
+    }
+
+    @Test
+    public void conceptsAreKeptWhenReindexingFails() {
+        when(termedService.fetchAllAvailableGraphIds()).thenReturn(List.of(graphId));
+        Concept concept = concept();
+        when(termedService.getAllConceptsForGraph(graphId)).thenReturn(List.of(concept));
+        responses = (method, endpoint) -> endpoint.equals("/_bulk") ? null : "{}";
+
+        service.reindex();
+
+        assertTrue(requests.stream().noneMatch(r -> r.endpoint.equals("/_reindex")));
+        assertTrue(requests.stream().noneMatch(r -> r.endpoint.equals("/concepts/_delete_by_query")));
+    }
+
+    @Test
+    public void conceptsAreReadWithRouting() {
+        when(termedService.getConcepts(eq(graphId), anyCollection())).thenReturn(List.of(concept()));
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget") ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterUpdate(new AffectedNodes(graphId, emptyList(), List.of(conceptId)));
+
+        EsRequest mget = request("GET", "/concepts/concept/_mget");
+        assertEquals(graphId.toString(), mget.params.get("routing"));
+    }
+
+    @Test
+    public void bulkWritesAreRouted() throws Exception {
+        UUID updatedId = UUID.randomUUID();
+        Concept concept = concept();
+        when(termedService.getConcepts(eq(graphId), anyCollection())).thenReturn(List.of(concept));
+        responses = (method, endpoint) -> endpoint.endsWith("/_mget")
+                ? "{\"docs\":[]}" : "{}";
+
+        service.updateIndexAfterDelete(new AffectedNodes(graphId, emptyList(), List.of(updatedId)));
+
+        String[] lines = request("POST", "/_bulk").body.split("\n");
+        JsonNode index = mapper.readTree(lines[0]).get("index");
+        assertEquals("concepts", index.get("_index").asText());
+        assertEquals(graphId.toString(), index.get("routing").asText());
+        JsonNode delete = mapper.readTree(lines[2]).get("delete");
+        assertEquals("concepts", delete.get("_index").asText());
+        assertEquals(graphId + "/" + updatedId, delete.get("_id").asText());
+        assertEquals(graphId.toString(), delete.get("routing").asText());
+    }
+
+    @Test
+    public void missingIndexIsCreatedBehindAlias() throws Exception {
+        missing.addAll(List.of("/concepts", "/concepts_v4", "/_alias/concepts"));
+
+        service.initIndex("concepts", "create_concept_mappings.json", "concept");
+
+        request("PUT", "/concepts_v4");
+        request("PUT", "/concepts_v4/_mapping/concept");
+        JsonNode add = mapper.readTree(request("POST", "/_aliases").body).at("/actions/0/add");
+        assertEquals("concepts_v4", add.get("index").asText());
+        assertEquals("concepts", add.get("alias").asText());
+        assertTrue(requests.stream().noneMatch(r -> r.method.equals("PUT") && r.endpoint.equals("/concepts")));
+    }
+
+    @Test
+    public void outdatedIndexIsRebuiltBeforeAliasIsMoved() throws Exception {
+        when(termedService.fetchAllAvailableGraphIds()).thenReturn(List.of(graphId));
+        when(termedService.getAllConceptsForGraph(graphId)).thenReturn(List.of(concept()));
+        missing.add("/concepts_v4");
+        responses = outdatedConceptIndex(true);
+
+        service.initIndex("concepts", "create_concept_mappings.json", "concept");
+
+        assertTrue(requests.stream().noneMatch(r -> r.method.equals("DELETE")));
+        int create = requests.indexOf(request("PUT", "/concepts_v4"));
+        EsRequest bulk = request("POST", "/_bulk");
+        int swap = requests.indexOf(request("POST", "/_aliases"));
+        assertTrue(create < requests.indexOf(bulk) && requests.indexOf(bulk) < swap);
+        assertEquals("concepts_v4", mapper.readTree(bulk.body.split("\n")[0]).at("/index/_index").asText());
+
+        JsonNode actions = mapper.readTree(request("POST", "/_aliases").body).get("actions");
+        assertEquals("concepts_v4", actions.at("/0/add/index").asText());
+        assertEquals("concepts", actions.at("/0/add/alias").asText());
+        assertEquals("concepts_v2", actions.at("/1/remove_index/index").asText());
+    }
+
+    @Test
+    public void outdatedIndexIsKeptWhenRebuildFails() {
+        when(termedService.fetchAllAvailableGraphIds()).thenReturn(List.of(graphId));
+        when(termedService.getAllConceptsForGraph(graphId)).thenReturn(List.of(concept()));
+        missing.add("/concepts_v4");
+        responses = outdatedConceptIndex(false);
+
+        service.initIndex("concepts", "create_concept_mappings.json", "concept");
+
+        assertTrue(requests.stream().noneMatch(r -> r.endpoint.equals("/_aliases")));
+        assertTrue(requests.stream().noneMatch(r -> r.method.equals("DELETE") && !r.endpoint.equals("/concepts_v4")));
+        request("DELETE", "/concepts_v4");
+    }
+
+    @Test
+    public void upToDateIndexIsNotRebuilt() {
+        responses = (method, endpoint) -> endpoint.equals("/concepts/_mapping/concept")
+                ? "{\"concepts_v4\":{\"mappings\":{\"concept\":{\"_meta\":{\"version\":4}}}}}" : "{}";
+
+        service.initIndex("concepts", "create_concept_mappings.json", "concept");
+
+        assertTrue(requests.stream().noneMatch(r -> r.method.equals("PUT") || r.method.equals("DELETE")));
+        assertTrue(requests.stream().noneMatch(r -> r.endpoint.equals("/_aliases") || r.endpoint.equals("/_bulk")));
+    }
+
+    @Test
+    public void expiredTombstonesAreRemoved() throws Exception {
+        service.removeExpiredTombstones();
+
+        JsonNode body = mapper.readTree(request("POST", "/" + IndexElasticSearchService.TOMBSTONE_INDEX + "/_delete_by_query").body);
+        Instant expired = Instant.parse(body.at("/query/range/modified/lt").asText());
+        assertTrue(expired.isBefore(Instant.now().minus(179, ChronoUnit.DAYS)));
+        assertTrue(expired.isAfter(Instant.now().minus(181, ChronoUnit.DAYS)));
+    }
+
+    /**
+     * Concept index of mapping version 2 created before indices were aliased
+     */
+    private BiFunction<String, String, String> outdatedConceptIndex(boolean bulkSucceeds) {
+        return (method, endpoint) -> {
+            switch (endpoint) {
+                case "/concepts/_mapping/concept":
+                    return "{\"concepts\":{\"mappings\":{\"concept\":{\"_meta\":{\"version\":2}}}}}";
+                case "/_alias/concepts":
+                    return "{\"concepts_v2\":{\"aliases\":{\"concepts\":{}}}}";
+                case "/_bulk":
+                    return bulkSucceeds ? "{}" : null;
+                default:
+                    return "{}";
+            }
+        };
+    }
+
+    private EsRequest request(String method, String endpoint) {
+        return requests.stream()
+                .filter(r -> r.method.equals(method) && r.endpoint.equals(endpoint))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No request " + method + " " + endpoint));
+    }
+
+    /**
+     * Each change event of the index must follow a write to it that was refreshed, so that
+     * results cached after the event cannot contain the old documents.
+     */
+    private void assertRefreshedBeforeEvents(String index) {
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).getIndex().equals(index)) {
+                EsRequest write = requestsBeforeEvents.get(i);
+                assertNotNull(write, "No write before change of " + index);
+                assertEquals("POST", write.method);
+                String refresh = write.params.get("refresh");
+                assertTrue("true".equals(refresh) || "wait_for".equals(refresh),
+                        "Change of " + index + " published before " + write.endpoint + " was refreshed");
+            }
+        }
+    }
+
+    private Set<String> indexesChanged() {
+        return events.stream().map(SearchIndexChangedEvent::getIndex).collect(Collectors.toSet());
+    }
+
+    private Concept concept() {
+        ObjectNode json = mapper.createObjectNode();
+        json.put("id", conceptId.toString());
+        json.put("status", "DRAFT");
+        json.putArray("broader");
+        json.putArray("narrower");
+        json.putObject("label").putArray("fi").add("käsite");
+        for (String field : List.of("definition", "altLabel", "searchTerm", "hiddenTerm", "notRecommendedSynonym")) {
+            json.putObject(field);
+        }
+        ObjectNode vocabulary = json.putObject("vocabulary");
+        vocabulary.put("id", graphId.toString());
+        vocabulary.put("uri", "http://uri.suomi.fi/terminology/test/");
+        vocabulary.put("status", "DRAFT");
+        vocabulary.putObject("label").putArray("fi").add("sanasto");
+        return Concept.createFromIndex(mapper, json);
+    }
+
+    private static Response response(int status, String body) {
+        Response response = mock(Response.class);
+        StatusLine statusLine = mock(StatusLine.class);
+        when(statusLine.getStatusCode()).thenReturn(status);
+        when(response.getStatusLine()).thenReturn(statusLine);
+        when(response.getEntity()).thenReturn(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return response;
+    }
+
+    private static final class EsRequest {
+
+        final String method;
+        final String endpoint;
+        final Map<String, String> params;
+        final String body;
+
+        EsRequest(String method, String endpoint, Map<String, String> params, String body) {
+            this.method = method;
+            this.endpoint = endpoint;
+            this.params = params;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package fi.vm.yti.terminology.api.integration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.index.IndexElasticSearchService;
+import fi.vm.yti.terminology.api.model.integration.IntegrationContainerRequest;
+import fi.vm.yti.terminology.api.model.integration.IntegrationResourceRequest;
+import fi.vm.yti.terminology.api.util.SearchAfterCursor;
+import fi.vm.yti.terminology.api.util.SearchHitStream;
+import org.elasticsearch.action.search.SearchRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class IntegrationServiceTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private IndexElasticSearchService elasticSearchService;
+    private IntegrationService service;
+
+    @BeforeEach
+    void setup() {
+        elasticSearchService = mock(IndexElasticSearchService.class);
+        service = new IntegrationService(null, null, null, elasticSearchService, null, new VocabularyEnumCache(60L),
+                "concepts,vocabularies", "http://uri.suomi.fi/terminology/", 30);
+    }
+
+    @Test
+    public void changeFeedIsSortedByIndexingAndIncludesTombstones() throws Exception {
+        doAnswer(invocation -> hits("{\"hits\":{\"total\":0,\"hits\":[]}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        IntegrationResourceRequest request = changesRequest(100);
+        request.setAfter("2021-01-01T00:00:00.000Z");
+        request.setSearchAfter(SearchAfterCursor.encode(new Object[] { 1609459200000L, "id-1" }));
+        service.handleResources(request);
+
+        ArgumentCaptor<SearchRequest> captor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(elasticSearchService).searchHitStream(captor.capture());
+        SearchRequest sr = captor.getValue();
+        assertEquals(List.of("concepts", IndexElasticSearchService.TOMBSTONE_INDEX), Arrays.asList(sr.indices()));
+
+        JsonNode source = mapper.readTree(sr.source().toString());
+        assertEquals("asc", source.at("/sort/0/indexed/order").asText());
+        assertEquals("asc", source.at("/sort/1/id/order").asText());
+        assertEquals(1609459200000L, source.at("/search_after/0").asLong());
+
+        // recent writes, possibly not yet searchable, are left for the next poll
+        JsonNode lag = StreamSupport.stream(source.at("/query/bool/must").spliterator(), false)
+                .filter(query -> query.has("range") && query.get("range").has("indexed"))
+                .findFirst()
+                .get();
+        Instant indexedBefore = Instant.parse(lag.at("/range/indexed/to").asText());
+        assertFalse(lag.at("/range/indexed/include_upper").asBoolean());
+        assertTrue(indexedBefore.isBefore(Instant.now().minusSeconds(29)));
+    }
+
+    @Test
+    public void changeFeedReturnsTombstonesAndFinalCursor() throws Exception {
+        doAnswer(invocation -> hits("{\"hits\":{\"total\":2,\"hits\":[" +
+                "{\"_source\":{\"id\":\"c1\",\"uri\":\"http://uri.suomi.fi/terminology/test/c1\",\"status\":\"VALID\"," +
+                "\"created\":\"2021-01-01T10:00:00.000+02:00\",\"modified\":\"2021-01-02T10:00:00.000+02:00\",\"label\":{\"fi\":[\"käsite\"]}}," +
+                "\"sort\":[1609574400000,\"c1\"]}," +
+                "{\"_source\":{\"id\":\"c2\",\"uri\":\"http://uri.suomi.fi/terminology/test/c2\",\"status\":\"DRAFT\"," +
+                "\"created\":\"2021-01-01T10:00:00.000+02:00\",\"modified\":\"2021-01-03T08:00:00Z\",\"deleted\":true}," +
+                "\"sort\":[1609660800000,\"c2\"]}]}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        JsonNode response = body(service.handleResources(changesRequest(100)));
+
+        JsonNode results = response.get("results");
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).has("deleted"));
+        assertEquals("http://uri.suomi.fi/terminology/test/c2", results.get(1).get("uri").asText());
+        assertTrue(results.get(1).get("deleted").asBoolean());
+        assertEquals("http://uri.suomi.fi/terminology/test/", results.get(1).get("container").asText());
+
+        // last page of the feed still has a cursor to continue from on the next poll
+        Object[] cursor = SearchAfterCursor.decode(response.at("/meta/searchAfter").asText());
+        assertEquals("c2", cursor[1]);
+    }
+
+    @Test
+    public void emptyChangeFeedPageKeepsCursor() throws Exception {
+        doAnswer(invocation -> hits("{\"hits\":{\"total\":0,\"hits\":[]}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        String cursor = SearchAfterCursor.encode(new Object[] { 1609660800000L, "c2" });
+        IntegrationResourceRequest request = changesRequest(100);
+        request.setSearchAfter(cursor);
+        request.setPageFrom(5000);
+        JsonNode response = body(service.handleResources(request));
+
+        assertEquals(cursor, response.at("/meta/searchAfter").asText());
+        // offset of a cursor page is not known
+        assertTrue(response.at("/meta/from").isMissingNode());
+    }
+
+    @Test
+    public void containersAreStreamedWithMetaAfterResults() throws Exception {
+        doAnswer(invocation -> hits("{\"took\":1,\"hits\":{\"total\":3,\"max_score\":null,\"hits\":[" +
+                "{\"_source\":{\"uri\":\"http://uri.suomi.fi/terminology/a\",\"status\":\"VALID\"},\"sort\":[\"a\",\"a\"]}," +
+                "{\"_source\":{\"uri\":\"http://uri.suomi.fi/terminology/b\",\"status\":\"VALID\"},\"sort\":[\"b\",\"b\"]}]}," +
+                "\"aggregations\":{}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        IntegrationContainerRequest request = new IntegrationContainerRequest();
+        request.setIncludeIncomplete(true);
+        request.setPageSize(2);
+        JsonNode response = body(service.handleContainers(request));
+
+        JsonNode results = response.get("results");
+        assertEquals(2, results.size());
+        assertEquals("http://uri.suomi.fi/terminology/b/", results.get(1).get("uri").asText());
+        assertEquals(3, response.at("/meta/totalResults").asInt());
+        assertEquals(2, response.at("/meta/resultCount").asInt());
+        assertEquals("b", SearchAfterCursor.decode(response.at("/meta/searchAfter").asText())[1]);
+    }
+
+    @Test
+    public void vocabularyAsEnumReadsAllPagesOfLabels() throws Exception {
+        StringBuilder page = new StringBuilder("{\"hits\":{\"total\":1001,\"hits\":[");
+        for (int i = 0; i < 1000; i++) {
+            page.append(i > 0 ? "," : "").append(enumHit("c" + i));
+        }
+        page.append("]}}");
+        String lastPage = "{\"hits\":{\"total\":1001,\"hits\":[" + enumHit("c1000") + "]}}";
+        doAnswer(invocation -> hits(page.toString()))
+                .doAnswer(invocation -> hits(lastPage))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        JsonNode response = mapper.readTree(service.vocabularyAsEnum("http://uri.suomi.fi/terminology/test/terminological-vocabulary-0", "fi"));
+        assertEquals(1001, response.get("enum").size());
+        assertEquals("label c1000", response.get("enum").get(1000).asText());
+
+        ArgumentCaptor<SearchRequest> captor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(elasticSearchService, times(2)).searchHitStream(captor.capture());
+        JsonNode first = mapper.readTree(captor.getAllValues().get(0).source().toString());
+        assertEquals(List.of("uri", "label.fi", "vocabulary.id"), mapper.convertValue(first.at("/_source/includes"), List.class));
+        JsonNode second = mapper.readTree(captor.getAllValues().get(1).source().toString());
+        assertEquals("c999", second.at("/search_after/1").asText());
+
+        // served from cache until the terminology changes
+        service.vocabularyAsEnum("http://uri.suomi.fi/terminology/test/terminological-vocabulary-0", "fi");
+        verify(elasticSearchService, times(2)).searchHitStream(any(SearchRequest.class));
+    }
+
+    @Test
+    public void vocabularyAsEnumIsSortedBySortLabelOfLanguage() throws Exception {
+        doAnswer(invocation -> hits("{\"hits\":{\"total\":0,\"hits\":[]}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        service.vocabularyAsEnum("http://uri.suomi.fi/terminology/test/terminological-vocabulary-0", "sv");
+
+        ArgumentCaptor<SearchRequest> captor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(elasticSearchService).searchHitStream(captor.capture());
+        JsonNode source = mapper.readTree(captor.getValue().source().toString());
+        assertEquals(List.of("sortByLabel.sv", "id"), sortFields(source));
+        assertEquals("asc", source.at("/sort/0/sortByLabel.sv/order").asText());
+        // concepts without status are not listed, as in resources
+        assertTrue(StreamSupport.stream(source.at("/query/bool/filter").spliterator(), false)
+                .anyMatch(filter -> "status".equals(filter.at("/exists/field").asText())));
+    }
+
+    @Test
+    public void resourcesAreSortedBySortLabelOfLanguage() throws Exception {
+        doAnswer(invocation -> hits("{\"hits\":{\"total\":0,\"hits\":[]}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        IntegrationResourceRequest request = new IntegrationResourceRequest();
+        request.setUri(Set.of("http://uri.suomi.fi/terminology/test/c1"));
+        request.setLanguage("sv");
+        body(service.handleResources(request));
+
+        ArgumentCaptor<SearchRequest> captor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(elasticSearchService).searchHitStream(captor.capture());
+        List<String> sort = sortFields(mapper.readTree(captor.getValue().source().toString()));
+        assertEquals("sortByLabel.sv", sort.get(0));
+        assertEquals(Set.of("sortByLabel.fi", "sortByLabel.en"), Set.copyOf(sort.subList(1, 3)));
+        assertEquals(List.of("sortByLabel.fi", "id"), sort.subList(3, 5));
+    }
+
+    @Test
+    public void resourcesOfResolvedContainersAreRouted() throws Exception {
+        SearchRequest sr = resourcesSearch(vocabularyHits("a", "b"));
+
+        assertEquals(Set.of("graph-a", "graph-b"), Set.of(sr.routing().split(",")));
+    }
+
+    @Test
+    public void resourcesAreNotRoutedIfSomeContainerIsNotResolved() throws Exception {
+        SearchRequest sr = resourcesSearch(vocabularyHits("a"));
+
+        assertNull(sr.routing());
+    }
+
+    private SearchRequest resourcesSearch(JsonNode vocabularies) throws IOException {
+        when(elasticSearchService.freeSearchFromIndex(any(SearchRequest.class))).thenReturn(vocabularies);
+        doAnswer(invocation -> hits("{\"hits\":{\"total\":0,\"hits\":[]}}"))
+                .when(elasticSearchService).searchHitStream(any(SearchRequest.class));
+
+        IntegrationResourceRequest request = new IntegrationResourceRequest();
+        request.setContainer(Set.of("http://uri.suomi.fi/terminology/a/", "http://uri.suomi.fi/terminology/b/"));
+        request.setIncludeIncomplete(true);
+        body(service.handleResources(request));
+
+        ArgumentCaptor<SearchRequest> captor = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(elasticSearchService).searchHitStream(captor.capture());
+        return captor.getValue();
+    }
+
+    private JsonNode vocabularyHits(String... prefixes) throws IOException {
+        String hits = Arrays.stream(prefixes)
+                .map(prefix -> "{\"_source\":{\"uri\":\"http://uri.suomi.fi/terminology/" + prefix +
+                        "/terminological-vocabulary-0\",\"type\":{\"graph\":{\"id\":\"graph-" + prefix + "\"}}}}")
+                .collect(Collectors.joining(","));
+        return mapper.readTree("{\"hits\":{\"total\":" + prefixes.length + ",\"hits\":[" + hits + "]}}");
+    }
+
+    private static List<String> sortFields(JsonNode source) {
+        return StreamSupport.stream(source.get("sort").spliterator(), false)
+                .map(sort -> sort.fieldNames().next())
+                .collect(Collectors.toList());
+    }
+
+    private static String enumHit(String id) {
+        return "{\"_source\":{\"uri\":\"http://uri.suomi.fi/terminology/test/" + id + "\"," +
+                "\"label\":{\"fi\":[\"label " + id + "\"]},\"vocabulary\":{\"id\":\"graph-1\"}}," +
+                "\"sort\":[\"label " + id + "\",\"" + id + "\"]}";
+    }
+
+    private SearchHitStream hits(String response) throws IOException {
+        return new SearchHitStream(mapper, new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private JsonNode body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return mapper.readTree(out.toByteArray());
+    }
+
+    private static IntegrationResourceRequest changesRequest(int pageSize) {
+        IntegrationResourceRequest request = new IntegrationResourceRequest();
+        request.setChanges(true);
+        request.setIncludeIncomplete(true);
+        request.setPageSize(pageSize);
+        return request;
+    }
+}
@@ -0,0 +1,68 @@
+package fi.vm.yti.terminology.api.integration;
+
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VocabularyEnumCacheTest {
+
+    private static final UUID GRAPH_ID = UUID.fromString("11111111-1111-1111-1111-111111111111");
+    private static final UUID OTHER_GRAPH_ID = UUID.fromString("22222222-2222-2222-2222-222222222222");
+
+    private final VocabularyEnumCache cache = new VocabularyEnumCache(60L);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void invalidatedOnlyByChangeInSameTerminology() {
+        assertEquals("{\"enum\":[\"1\"]}", get());
+        assertEquals("{\"enum\":[\"1\"]}", get());
+
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts", OTHER_GRAPH_ID));
+        assertEquals("{\"enum\":[\"1\"]}", get());
+
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts", GRAPH_ID));
+        assertEquals("{\"enum\":[\"2\"]}", get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void invalidatedByChangeWithoutTerminology() {
+        get();
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+        get();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void valueLoadedAcrossChangeIsNotStored() {
+        cache.get("http://uri.suomi.fi/terminology/test/", "fi", () -> {
+            cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts", OTHER_GRAPH_ID));
+            return new VocabularyEnumCache.VocabularyEnum(GRAPH_ID.toString(), "{\"enum\":[]}");
+        });
+        get();
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void tracksOnlyTerminologiesWithCachedEntries() {
+        get();
+        for (int i = 0; i < 100; i++) {
+            cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts", UUID.randomUUID()));
+        }
+        get();
+
+        assertEquals(1, cache.trackedTerminologies());
+        assertEquals(1, loads.get());
+    }
+
+    private String get() {
+        return cache.get("http://uri.suomi.fi/terminology/test/", "fi", () ->
+                new VocabularyEnumCache.VocabularyEnum(GRAPH_ID.toString(), "{\"enum\":[\"" + loads.incrementAndGet() + "\"]}"));
+    }
+}
@@ -0,0 +1,108 @@
+package fi.vm.yti.terminology.api.mscr;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.vocabulary.SKOS;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SKOSStreamMapperTest {
+
+    // Concept is read before its term and before the concept scheme
+    private static final String TERMED_EXPORT = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n" +
+            "@prefix skosxl: <http://www.w3.org/2008/05/skos-xl#> .\n" +
+            "@prefix termed: <http://purl.org/termed/properties/> .\n" +
+            "<http://example.org/voc/concept-1> a skos:Concept ;\n" +
+            "    termed:createdDate \"2024-03-03T10:52:20\" ;\n" +
+            "    skos:definition \"definition\"@en ;\n" +
+            "    skos:broader <http://example.org/voc/concept-2> ;\n" +
+            "    skosxl:prefLabel <http://example.org/voc/term-1> .\n" +
+            "<http://example.org/voc/term-1> a skosxl:Label ;\n" +
+            "    skosxl:literalForm \"concept 1\"@en .\n" +
+            "<http://example.org/voc/term-2> a skosxl:Label ;\n" +
+            "    skosxl:literalForm \"concept 2\"@en .\n" +
+            "<http://example.org/voc> a skos:ConceptScheme ;\n" +
+            "    termed:number \"0\" ;\n" +
+            "    skos:prefLabel \"Vocabulary\"@en .\n" +
+            "<http://example.org/voc/concept-2> a skos:Concept ;\n" +
+            "    skosxl:prefLabel <http://example.org/voc/term-2> .\n" +
+            "<http://example.org/other/concept-3> a skos:Concept ;\n" +
+            "    skos:definition \"not in scheme\"@en .\n";
+
+    @Test
+    public void producesSameGraphAsModelMapping() {
+        Model expected = new SKOSMapper().mapTermedToSKOS(read(TERMED_EXPORT));
+        Model actual = streamToModel(new ByteArrayInputStream(TERMED_EXPORT.getBytes(StandardCharsets.UTF_8)), Lang.TTL);
+
+        assertTrue(expected.isIsomorphicWith(actual));
+        assertEquals(2, actual.listSubjectsWithProperty(SKOS.inScheme).toList().size());
+        assertEquals("concept 1", actual.getResource("http://example.org/voc/concept-1").getProperty(SKOS.prefLabel).getString());
+    }
+
+    @Test
+    public void producesSameGraphForTermedExport() {
+        Model expected = new SKOSMapper().mapTermedToSKOS(read(getClass().getClassLoader().getResourceAsStream("exportapi/clarin1-termed.ttl")));
+        Model actual = streamToModel(getClass().getClassLoader().getResourceAsStream("exportapi/clarin1-termed.ttl"), Lang.NTRIPLES);
+
+        assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test
+    public void writesNonStreamingFormats() {
+        Model expected = new SKOSMapper().mapTermedToSKOS(read(TERMED_EXPORT));
+        Model actual = streamToModel(new ByteArrayInputStream(TERMED_EXPORT.getBytes(StandardCharsets.UTF_8)), Lang.JSONLD);
+
+        assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test
+    public void mapsOnlyFirstPrefLabelTerm() {
+        String export = TERMED_EXPORT.replace(
+                "skosxl:prefLabel <http://example.org/voc/term-1> .",
+                "skosxl:prefLabel <http://example.org/voc/term-1>, <http://example.org/voc/term-3> .") +
+                "<http://example.org/voc/term-3> a skosxl:Label ;\n" +
+                "    skosxl:literalForm \"käsite 1\"@fi .\n";
+
+        Model actual = streamToModel(new ByteArrayInputStream(export.getBytes(StandardCharsets.UTF_8)), Lang.TTL);
+
+        var prefLabels = actual.getResource("http://example.org/voc/concept-1").listProperties(SKOS.prefLabel).toList();
+        assertEquals(1, prefLabels.size());
+        assertEquals("concept 1", prefLabels.get(0).getString());
+    }
+
+    @Test
+    public void failsWhenNodeIsNotInOneBlock() {
+        String export = TERMED_EXPORT +
+                "<http://example.org/voc/concept-1> skos:note \"written after the block\"@en .\n";
+
+        assertThrows(RiotException.class,
+                () -> streamToModel(new ByteArrayInputStream(export.getBytes(StandardCharsets.UTF_8)), Lang.TTL));
+    }
+
+    private Model read(String document) {
+        return read(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Model read(InputStream is) {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(is, null, "TTL");
+        return model;
+    }
+
+    private Model streamToModel(InputStream is, Lang lang) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SKOSStreamMapper.map(is, out, lang);
+
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new ByteArrayInputStream(out.toByteArray()), null, lang.getName());
+        return model;
+    }
+}
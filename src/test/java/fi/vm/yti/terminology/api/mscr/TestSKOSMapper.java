@@ -1,22 +1,126 @@
 package fi.vm.yti.terminology.api.mscr;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
 import org.junit.jupiter.api.Test;
 
+import fi.vm.yti.terminology.api.exception.ExcelParseException;
+import fi.vm.yti.terminology.api.model.termed.GenericNode;
+import fi.vm.yti.terminology.api.model.termed.NodeType;
+
 class TestSKOSMapper {
 
+	private static final String HIERARCHY = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n" +
+			"@prefix ex: <http://example.org/> .\n" +
+			"ex:root a skos:Concept ; skos:prefLabel \"root\"@en ; skos:narrower ex:a .\n" +
+			"ex:a a skos:Concept ; skos:prefLabel \"a\"@en ; skos:definition \"definition of a\"@en .\n" +
+			"ex:b a skos:Concept ; skos:prefLabel \"b\"@en ; skos:broader ex:root .\n" +
+			"ex:c a skos:Concept ; skos:prefLabel \"c\"@en ; skos:broader ex:a ; skos:broader ex:b .\n" +
+			"ex:loose a skos:Concept ; skos:prefLabel \"loose\"@en .\n" +
+			"ex:x a skos:Concept ; skos:broader ex:y .\n" +
+			"ex:y a skos:Concept ; skos:broader ex:x .\n";
 	
 	@Test
 	void test() throws Exception {
 		SKOSMapper m = new SKOSMapper();
 		InputStream is = getClass().getClassLoader().getResourceAsStream("importapi/skos/data-stewardship-terminology.ttl");
-		m.mapToSimpleExcel(is);
+		m.mapToSimpleExcel(is).delete();
 		
 	}
 
+	@Test
+	void testHierarchyOrder() {
+		SKOSMapper m = new SKOSMapper();
+		Model model = ModelFactory.createDefaultModel();
+		model.read(new ByteArrayInputStream(HIERARCHY.getBytes(StandardCharsets.UTF_8)), null, "TTL");
+
+		List<String> ordered = m.getConceptsInHierarchyOrder(model).stream()
+				.map(Resource::getLocalName)
+				.collect(Collectors.toList());
+
+		// every concept once, parents before their children
+		assertEquals(7, ordered.size());
+		assertEquals(7, ordered.stream().distinct().count());
+		assertTrue(ordered.indexOf("root") < ordered.indexOf("a"));
+		assertTrue(ordered.indexOf("root") < ordered.indexOf("b"));
+		assertTrue(ordered.indexOf("a") < ordered.indexOf("c"));
+		assertTrue(ordered.containsAll(List.of("loose", "x", "y")));
+	}
+
+	@Test
+	void testMapToNodes() {
+		SKOSMapper m = new SKOSMapper();
+		UUID terminologyId = UUID.randomUUID();
+
+		List<GenericNode> nodes = m.mapToNodes(new ByteArrayInputStream(HIERARCHY.getBytes(StandardCharsets.UTF_8)),
+				terminologyId, List.of("fi", "en"));
+
+		List<GenericNode> concepts = nodes.stream()
+				.filter(n -> n.getType().getId() == NodeType.Concept)
+				.collect(Collectors.toList());
+		assertEquals(7, concepts.size());
+		assertEquals(14, nodes.size());
+
+		GenericNode a = concepts.stream().filter(n -> "http://example.org/a".equals(n.getUri())).findFirst().orElseThrow();
+		assertEquals("DRAFT", a.getProperties().get("status").get(0).getValue());
+		assertEquals("en", a.getProperties().get("definition").get(0).getLang());
+		assertEquals(1, a.getReferences().get("prefLabelXl").size());
+		assertEquals(terminologyId, a.getType().getGraphId());
+	}
+
+	@Test
+	void testHierarchyOrderWithUntypedRelations() {
+		String document = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n" +
+				"@prefix ex: <http://example.org/> .\n" +
+				"ex:a a skos:Concept ; skos:prefLabel \"a\"@en ; skos:broader ex:scheme ; skos:narrower ex:note .\n" +
+				"ex:b a skos:Concept ; skos:prefLabel \"b\"@en ; skos:broader ex:a .\n";
+		SKOSMapper m = new SKOSMapper();
+		Model model = ModelFactory.createDefaultModel();
+		model.read(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), null, "TTL");
+
+		List<String> ordered = m.getConceptsInHierarchyOrder(model).stream()
+				.map(Resource::getLocalName)
+				.collect(Collectors.toList());
+		List<GenericNode> nodes = m.mapToNodes(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)),
+				UUID.randomUUID(), List.of("en"));
+
+		assertEquals(List.of("a", "b"), ordered);
+		assertEquals(List.of("http://example.org/a", "http://example.org/b"), nodes.stream()
+				.filter(n -> n.getType().getId() == NodeType.Concept)
+				.map(GenericNode::getUri)
+				.collect(Collectors.toList()));
+	}
+
+	@Test
+	void testMapToNodesWithoutPrefLabel() {
+		String document = "@prefix skos: <http://www.w3.org/2004/02/skos/core#> .\n" +
+				"<http://example.org/a> a skos:Concept ; skos:prefLabel \" \"@en .\n";
+		SKOSMapper m = new SKOSMapper();
+		InputStream is = new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+
+		ExcelParseException e = assertThrows(ExcelParseException.class, () -> m.mapToNodes(is, UUID.randomUUID(), List.of("en")));
+		assertEquals("prefLabel-row-missing", e.getMessage());
+	}
+
+	@Test
+	void testMapToNodesWithoutEnglish() {
+		SKOSMapper m = new SKOSMapper();
+		InputStream is = new ByteArrayInputStream(HIERARCHY.getBytes(StandardCharsets.UTF_8));
+
+		assertThrows(ExcelParseException.class, () -> m.mapToNodes(is, UUID.randomUUID(), List.of("fi")));
+	}
 	
 	@Test
 	void testSKOSGeneration() {
@@ -0,0 +1,67 @@
+package fi.vm.yti.terminology.api.publicapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.util.RestHighLevelClientWrapper;
+import fi.vm.yti.terminology.elasticsearch.EsUtils;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class PublicApiElasticSearchServiceTest {
+
+    private static final String VOCABULARY_ID = "8c2a0e45-8b8e-4bd6-8b38-3ea1e3a4aa8b";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void statusAndTerminologyAreFilteredInQuery() throws Exception {
+        SearchRequest sr = PublicApiElasticSearchService.createConceptQuery("auto", VOCABULARY_ID, "valid", "fi", 20, 10);
+
+        assertEquals(VOCABULARY_ID, sr.routing());
+        JsonNode source = mapper.readTree(sr.source().toString());
+        assertEquals(20, source.get("from").asInt());
+        assertEquals(10, source.get("size").asInt());
+        assertEquals("label.fi", source.at("/query/bool/must/0/multi_match/fields/0").asText().replaceAll("\\^.*", ""));
+        assertEquals(VOCABULARY_ID, source.at("/query/bool/filter/0/term/vocabulary.id/value").asText());
+        assertEquals("VALID", source.at("/query/bool/filter/1/term/status/value").asText());
+    }
+
+    @Test
+    public void allLanguagesAndTerminologiesWithoutFilters() throws Exception {
+        SearchRequest sr = PublicApiElasticSearchService.createConceptQuery("auto", "0", null, "f*", 0, 5000);
+
+        assertNull(sr.routing());
+        JsonNode source = mapper.readTree(sr.source().toString());
+        assertEquals(PublicApiElasticSearchService.MAX_PAGE_SIZE, source.get("size").asInt());
+        assertEquals("label.*", source.at("/query/bool/must/0/multi_match/fields/0").asText().replaceAll("\\^.*", ""));
+        assertTrue(source.at("/query/bool/filter").isMissingNode());
+    }
+
+    @Test
+    public void hitsAreDecodedWithPresentLanguages() throws Exception {
+        RestHighLevelClientWrapper client = mock(RestHighLevelClientWrapper.class);
+        when(client.search(any(SearchRequest.class), any(RequestOptions.class)))
+                .thenReturn(EsUtils.getMockResponse("/es/response/public_concept_response.json"));
+        PublicApiElasticSearchService service = new PublicApiElasticSearchService(client, mapper);
+
+        List<PublicApiConcept> concepts = service.searchConcept("auto", VOCABULARY_ID, "VALID", "fi", 0, 100);
+
+        assertEquals(2, concepts.size());
+        PublicApiConcept concept = concepts.get(0);
+        assertEquals(UUID.fromString("c5a4b2f1-0f4b-4f5d-9d36-77bb0d2b6a50"), concept.getId());
+        assertEquals(UUID.fromString(VOCABULARY_ID), concept.getVocabularyId());
+        assertEquals(Map.of("fi", "auto", "en", "car"), concept.getPrefLabel());
+        assertEquals(Map.of("fi", "moottoriajoneuvo"), concept.getDefinition());
+        assertEquals(Map.of("fi", "Testisanasto", "en", "Test vocabulary"), concept.getVocabularyPrefLabel());
+        assertTrue(concepts.get(1).getDefinition().isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+package fi.vm.yti.terminology.api.publicapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptSource;
+import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import fi.vm.yti.terminology.elasticsearch.EsUtils;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares per hit cost of decoding public concept search hits into typed sources and iterating
+ * languages present in them with the previous way: source parsed into a JSON tree and every
+ * language known to the JVM looked up from each localized field. Both must decode the same labels.
+ */
+public class PublicConceptDecodingBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PublicConceptDecodingBenchmarkTest.class);
+
+    private static final int PAGE_SIZE = 100;
+    private static final int ROUNDS = 200;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void typedDecodingMatchesLocaleLookup() throws Exception {
+        Set<String> languages = availableLanguages();
+
+        for (SearchHit hit : mockHits()) {
+            PublicApiConcept locales = decodeLocales(hit, languages);
+            PublicApiConcept typed = decodeTyped(hit);
+            assertEquals(locales.getPrefLabel(), typed.getPrefLabel());
+            assertEquals(locales.getDefinition(), typed.getDefinition());
+            assertEquals(locales.getVocabularyPrefLabel(), typed.getVocabularyPrefLabel());
+        }
+    }
+
+    /**
+     * Timings are only logged, run with
+     * <pre>
+     * DECODING_BENCHMARK=true ./gradlew test --tests '*PublicConceptDecodingBenchmarkTest'
+     * </pre>
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "DECODING_BENCHMARK", matches = "true")
+    public void typedDecodingBenchmark() throws Exception {
+        SearchHit[] hits = mockHits();
+        List<SearchHit> page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page.add(hits[i % hits.length]);
+        }
+        Set<String> languages = availableLanguages();
+
+        // first rounds are not measured
+        for (int i = 0; i < ROUNDS; i++) {
+            decodeLocales(page, languages);
+            decodeTyped(page);
+        }
+
+        long locales = measure(() -> decodeLocales(page, languages));
+        long typed = measure(() -> decodeTyped(page));
+
+        logger.info("Decoding per public concept hit: locale lookup {} ns ({} languages), typed source {} ns",
+                locales, languages.size(), typed);
+    }
+
+    private static SearchHit[] mockHits() throws Exception {
+        SearchResponse response = EsUtils.getMockResponse("/es/response/public_concept_response.json");
+        return response.getHits().getHits();
+    }
+
+    private static Set<String> availableLanguages() {
+        Set<String> languages = new LinkedHashSet<>();
+        for (Locale locale : Locale.getAvailableLocales()) {
+            if (!locale.getLanguage().isEmpty()) {
+                languages.add(locale.getLanguage());
+            }
+        }
+        return languages;
+    }
+
+    private void decodeTyped(List<SearchHit> page) throws Exception {
+        for (SearchHit hit : page) {
+            decodeTyped(hit);
+        }
+    }
+
+    private PublicApiConcept decodeTyped(SearchHit hit) throws Exception {
+        return PublicApiElasticSearchService.toPublicApiConcept(
+                ElasticRequestUtils.readSource(objectMapper, hit, ConceptSource.class));
+    }
+
+    private void decodeLocales(List<SearchHit> page, Set<String> languages) throws Exception {
+        for (SearchHit hit : page) {
+            decodeLocales(hit, languages);
+        }
+    }
+
+    private PublicApiConcept decodeLocales(SearchHit hit, Set<String> languages) throws Exception {
+        JsonNode source = objectMapper.readTree(hit.getSourceAsString());
+        PublicApiConcept concept = new PublicApiConcept();
+        concept.setPrefLabel(localeLookup(source, "label", languages));
+        // the previous way failed on concepts without a definition
+        concept.setDefinition(source.has("definition")
+                ? localeLookup(source, "definition", languages)
+                : new HashMap<>());
+        concept.setVocabularyPrefLabel(localeLookup(source.path("vocabulary"), "label", languages));
+        return concept;
+    }
+
+    private static HashMap<String, String> localeLookup(JsonNode node, String fieldName, Set<String> languages) {
+        HashMap<String, String> result = new HashMap<>();
+        languages.forEach(language -> {
+            JsonNode theNode = node.get(fieldName).get(language);
+            if (theNode != null) {
+                result.put(language, Jsoup.clean(node.get(fieldName).get(language).get(0).textValue(), Whitelist.none()));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return nanoseconds per hit
+     */
+    private static long measure(Decoder decoder) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            decoder.decode();
+        }
+        return (System.nanoTime() - start) / ((long) ROUNDS * PAGE_SIZE);
+    }
+
+    @FunctionalInterface
+    private interface Decoder {
+
+        void decode() throws Exception;
+    }
+}
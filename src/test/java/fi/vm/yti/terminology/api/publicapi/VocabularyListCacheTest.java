@@ -0,0 +1,76 @@
+package fi.vm.yti.terminology.api.publicapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VocabularyListCacheTest {
+
+    private final VocabularyListCache cache = new VocabularyListCache(new ObjectMapper(), 60L);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void snapshotIsReusedUntilVocabularyIndexChanges() {
+        VocabularyListCache.Snapshot first = cache.get(this::load);
+        assertSame(first, cache.get(this::load));
+
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent("concepts"));
+        assertSame(first, cache.get(this::load));
+
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES, UUID.randomUUID()));
+        VocabularyListCache.Snapshot second = cache.get(this::load);
+        assertNotSame(first, second);
+        assertEquals(2, loads.get());
+
+        // equal content keeps the ETag, so clients get 304 after a rebuild
+        assertEquals(first.getETag(), second.getETag());
+    }
+
+    @Test
+    public void eTagChangesWithContent() {
+        String first = cache.get(() -> List.of(vocabulary("VALID"))).getETag();
+        cache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+
+        assertNotEquals(first, cache.get(() -> List.of(vocabulary("RETIRED"))).getETag());
+    }
+
+    @Test
+    public void snapshotLoadedAcrossInvalidationIsNotStored() {
+        cache.get(() -> {
+            cache.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+            return load();
+        });
+        cache.get(this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void expiredSnapshotIsRebuilt() {
+        VocabularyListCache expiring = new VocabularyListCache(new ObjectMapper(), 0L);
+        expiring.get(this::load);
+        expiring.get(this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    private List<PublicApiVocabulary> load() {
+        loads.incrementAndGet();
+        return List.of(vocabulary("VALID"));
+    }
+
+    private static PublicApiVocabulary vocabulary(String status) {
+        PublicApiVocabulary vocabulary = new PublicApiVocabulary();
+        vocabulary.setId(UUID.fromString("8c2a0e45-8b8e-4bd6-8b38-3ea1e3a4aa8b"));
+        vocabulary.setUri("http://uri.suomi.fi/terminology/testi/terminological-vocabulary-0");
+        vocabulary.setStatus(status);
+        vocabulary.setLanguages(List.of("fi"));
+        return vocabulary;
+    }
+}
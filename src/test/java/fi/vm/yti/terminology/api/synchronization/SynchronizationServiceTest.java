@@ -0,0 +1,139 @@
+package fi.vm.yti.terminology.api.synchronization;
+
+import fi.vm.yti.terminology.api.TermedRequester;
+import fi.vm.yti.terminology.api.model.termed.*;
+import fi.vm.yti.terminology.api.util.Parameters;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+
+import static fi.vm.yti.terminology.api.util.CollectionUtils.mapToList;
+import static java.util.Collections.emptyMap;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SynchronizationServiceTest {
+
+    private static final String ORGANIZATION_GRAPH = "228cce1b-af24-4f8a-9a39-3d3fb34ae0ab";
+
+    private final RestTemplate restTemplate = mock(RestTemplate.class);
+    private final TermedRequester termedRequester = mock(TermedRequester.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private SynchronizationService service;
+
+    private final UUID unchanged = UUID.randomUUID();
+    private final UUID renamed = UUID.randomUUID();
+    private final UUID created = UUID.randomUUID();
+    private final UUID removedUnused = UUID.randomUUID();
+    private final UUID removedInUse = UUID.randomUUID();
+
+    @BeforeEach
+    public void setUp() {
+        service = new SynchronizationService("http://groupmanagement", ORGANIZATION_GRAPH, restTemplate, termedRequester);
+        service.bindTo(registry);
+    }
+
+    @Test
+    public void nothingIsSentWhenOrganizationsAreUnchanged() {
+        mockGroupManagement(organization(unchanged, Map.of("fi", "Virasto", "en", "Agency"), false));
+        mockTermed(node(unchanged, Map.of("en", "Agency", "fi", "Virasto"), false));
+
+        service.synchronize();
+
+        verify(termedRequester, never()).exchange(eq("/nodes"), eq(HttpMethod.POST), any(Parameters.class), eq(String.class), any());
+        assertEquals(0, registry.get("organization.synchronization.last.changes").gauge().value());
+    }
+
+    @Test
+    public void onlyDifferencesAreSent() {
+        mockGroupManagement(
+                organization(unchanged, Map.of("fi", "Virasto"), false),
+                organization(renamed, Map.of("fi", "Uusi nimi"), false),
+                organization(created, Map.of("fi", "Uusi"), false),
+                organization(removedUnused, Map.of("fi", "Poistettu"), true),
+                organization(removedInUse, Map.of("fi", "Käytössä"), true));
+        mockTermed(
+                node(unchanged, Map.of("fi", "Virasto"), false),
+                node(renamed, Map.of("fi", "Vanha nimi"), false),
+                node(removedUnused, Map.of("fi", "Poistettu"), false),
+                node(removedInUse, Map.of("fi", "Käytössä"), true));
+
+        service.synchronize();
+
+        ArgumentCaptor<DeleteAndSaveOrganizations> changeset = ArgumentCaptor.forClass(DeleteAndSaveOrganizations.class);
+        verify(termedRequester).exchange(eq("/nodes"), eq(HttpMethod.POST), any(Parameters.class), eq(String.class), changeset.capture());
+
+        assertEquals(Set.of(renamed, created), new HashSet<>(mapToList(changeset.getValue().getSave(), OrganizationNode::getId)));
+        assertEquals(List.of(removedUnused), mapToList(changeset.getValue().getDelete(), Identifier::getId));
+
+        assertEquals(1, registry.get("organization.synchronization.changes").tag("change", "added").functionCounter().count());
+        assertEquals(1, registry.get("organization.synchronization.changes").tag("change", "changed").functionCounter().count());
+        assertEquals(1, registry.get("organization.synchronization.changes").tag("change", "removed").functionCounter().count());
+        assertEquals(3, registry.get("organization.synchronization.last.changes").gauge().value());
+    }
+
+    @Test
+    public void changesAreNotCountedWhenSavingFails() {
+        mockGroupManagement(organization(created, Map.of("fi", "Uusi"), false));
+        mockTermed();
+        when(termedRequester.exchange(eq("/nodes"), eq(HttpMethod.POST), any(Parameters.class), eq(String.class), any(DeleteAndSaveOrganizations.class)))
+                .thenThrow(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR));
+
+        assertThrows(HttpServerErrorException.class, () -> service.synchronize());
+
+        assertEquals(0, registry.get("organization.synchronization.changes").tag("change", "added").functionCounter().count());
+        assertEquals(0, registry.get("organization.synchronization.last.changes").gauge().value());
+    }
+
+    @Test
+    public void contentHashIgnoresAttributeOrder() {
+        Map<String, List<Attribute>> a = Map.of("prefLabel", List.of(new Attribute("fi", "Virasto"), new Attribute("en", "Agency")));
+        Map<String, List<Attribute>> b = Map.of("prefLabel", List.of(new Attribute("en", "Agency"), new Attribute("fi", "Virasto")));
+        Map<String, List<Attribute>> c = Map.of("prefLabel", List.of(new Attribute("en", "Agency")));
+
+        assertEquals(SynchronizationService.contentHash(a), SynchronizationService.contentHash(b));
+        assertNotEquals(SynchronizationService.contentHash(a), SynchronizationService.contentHash(c));
+        assertEquals(SynchronizationService.contentHash(emptyMap()),
+                SynchronizationService.contentHash(Map.of("prefLabel", List.of())));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockGroupManagement(GroupManagementOrganization... organizations) {
+        when(restTemplate.exchange(eq("http://groupmanagement/public-api/organizations"), eq(HttpMethod.GET), isNull(),
+                any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(Arrays.asList(organizations)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockTermed(OrganizationReferrersNode... nodes) {
+        when(termedRequester.exchange(eq("/node-trees"), eq(HttpMethod.GET), any(Parameters.class),
+                any(ParameterizedTypeReference.class)))
+                .thenReturn(Arrays.asList(nodes));
+    }
+
+    private static GroupManagementOrganization organization(UUID id, Map<String, String> prefLabel, boolean removed) {
+        return new GroupManagementOrganization(id, prefLabel, emptyMap(), "", removed);
+    }
+
+    private static OrganizationReferrersNode node(UUID id, Map<String, String> prefLabel, boolean referred) {
+        TypeId type = new TypeId(NodeType.Organization, new GraphId(UUID.fromString(ORGANIZATION_GRAPH)));
+        List<Attribute> labels = new ArrayList<>();
+        prefLabel.forEach((lang, value) -> labels.add(new Attribute(lang, value)));
+        Map<String, List<GenericNode>> referrers = referred
+                ? Map.of("contributor", List.of(new GenericNode(UUID.randomUUID(), null, null, 1L, "creator", new Date(),
+                        "modifier", new Date(), type, emptyMap(), emptyMap(), emptyMap())))
+                : emptyMap();
+        return new OrganizationReferrersNode(id, type, Map.of("prefLabel", labels), referrers);
+    }
+}
@@ -1,5 +1,6 @@
 package fi.vm.yti.terminology.elasticsearch;
 
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.ParseField;
 import org.elasticsearch.common.xcontent.ContextParser;
@@ -8,15 +9,20 @@ import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.filter.FilterAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.ParsedFilter;
 import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
 import org.elasticsearch.search.aggregations.metrics.max.MaxAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.max.ParsedMax;
 import org.elasticsearch.search.aggregations.metrics.tophits.ParsedTopHits;
 import org.elasticsearch.search.aggregations.metrics.tophits.TopHitsAggregationBuilder;
+import org.elasticsearch.search.suggest.Suggest;
+import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +39,10 @@ public class EsUtils {
         return getSearchResponseFromJson(getJsonString(path));
     }
 
+    public static MultiSearchResponse getMockMultiResponse(String path) throws Exception {
+        return getMultiSearchResponseFromJson(getJsonString(path));
+    }
+
     // for use with getSearchResponseFromJson
     private static List<NamedXContentRegistry.Entry> getDefaultNamedXContents() {
         Map<String, ContextParser<Object, ? extends Aggregation>> map = new HashMap<>();
@@ -46,12 +56,20 @@ public class EsUtils {
                 ParsedStringTerms.fromXContent(p, (String) c));
         map.put(MaxAggregationBuilder.NAME, (p, c) ->
                 ParsedMax.fromXContent(p, (String) c));
-        return map.entrySet().stream()
+        map.put(FilterAggregationBuilder.NAME, (p, c) ->
+                ParsedFilter.fromXContent(p, (String) c));
+        List<NamedXContentRegistry.Entry> entries = map.entrySet().stream()
                 .map(entry -> new NamedXContentRegistry.Entry(
                         Aggregation.class,
                         new ParseField(entry.getKey()),
                         entry.getValue()))
-                .collect(Collectors.toList());
+                .collect(Collectors.toCollection(ArrayList::new));
+        // suggestions are typed the same way, e.g. "completion#fi"
+        entries.add(new NamedXContentRegistry.Entry(
+                Suggest.Suggestion.class,
+                new ParseField(CompletionSuggestion.NAME),
+                (p, c) -> CompletionSuggestion.fromXContent(p, (String) c)));
+        return entries;
     }
 
     // helper method for generating elasticsearch SearchResponse from JSON
@@ -65,4 +83,15 @@ public class EsUtils {
         SearchResponse searchResponse = SearchResponse.fromXContent(parser);
         return searchResponse;
     }
+
+    // helper method for generating elasticsearch MultiSearchResponse from JSON
+    private static MultiSearchResponse getMultiSearchResponseFromJson(String jsonResponse) throws IOException {
+        NamedXContentRegistry registry = new NamedXContentRegistry(
+                getDefaultNamedXContents());
+        XContentParser parser = JsonXContent.jsonXContent.createParser(
+                registry,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION,
+                jsonResponse);
+        return MultiSearchResponse.fromXContext(parser);
+    }
 }
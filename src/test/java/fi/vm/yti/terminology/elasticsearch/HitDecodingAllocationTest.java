@@ -0,0 +1,115 @@
+package fi.vm.yti.terminology.elasticsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptSource;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.TerminologySource;
+import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares memory allocated by decoding hits of the es/response fixtures from source bytes into
+ * typed sources with the previous way, source String parsed into a JSON tree. Hits are repeated
+ * to 100 per page.
+ */
+public class HitDecodingAllocationTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(HitDecodingAllocationTest.class);
+
+    private static final int PAGE_SIZE = 100;
+    private static final int ROUNDS = 200;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void conceptHitsAllocateLessThanJsonTree() throws Exception {
+        SearchResponse response = EsUtils.getMockResponse("/es/response/concept_response.json");
+        List<SearchHit> hits = new ArrayList<>();
+        Terms groupBy = response.getAggregations().get("group_by_terminology");
+        for (Terms.Bucket bucket : groupBy.getBuckets()) {
+            TopHits topHits = bucket.getAggregations().get("top_concept_hits");
+            hits.addAll(Arrays.asList(topHits.getHits().getHits()));
+        }
+
+        compare("concept", page(hits), ConceptSource.class);
+    }
+
+    @Test
+    public void terminologyHitsAllocateLessThanJsonTree() throws Exception {
+        SearchResponse response = EsUtils.getMockResponse("/es/response/vocabulary_response.json");
+
+        compare("terminology", page(Arrays.asList(response.getHits().getHits())), TerminologySource.class);
+    }
+
+    private void compare(String name, List<SearchHit> page, Class<?> type) throws Exception {
+        com.sun.management.ThreadMXBean threadBean = threadBean();
+
+        // warm up both, so that the measurement does not include class loading and JIT
+        for (int i = 0; i < ROUNDS; i++) {
+            decodeTree(page);
+            decodeSource(page, type);
+        }
+
+        long tree = measure(threadBean, () -> decodeTree(page));
+        long source = measure(threadBean, () -> decodeSource(page, type));
+
+        logger.info("Allocated per {} page of {} hits: JSON tree {} bytes, typed source {} bytes",
+                name, PAGE_SIZE, tree, source);
+        assertTrue(source < tree, "typed source " + source + " bytes, JSON tree " + tree + " bytes");
+    }
+
+    private void decodeTree(List<SearchHit> page) throws Exception {
+        for (SearchHit hit : page) {
+            objectMapper.readTree(hit.getSourceAsString());
+        }
+    }
+
+    private void decodeSource(List<SearchHit> page, Class<?> type) throws Exception {
+        for (SearchHit hit : page) {
+            ElasticRequestUtils.readSource(objectMapper, hit, type);
+        }
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threadBean, Decoder decoder) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++) {
+            decoder.decode();
+        }
+        return (threadBean.getThreadAllocatedBytes(threadId) - before) / ROUNDS;
+    }
+
+    private static List<SearchHit> page(List<SearchHit> hits) {
+        List<SearchHit> page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page.add(hits.get(i % hits.size()));
+        }
+        return page;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+        return threadBean;
+    }
+
+    @FunctionalInterface
+    private interface Decoder {
+
+        void decode() throws Exception;
+    }
+}
@@ -48,6 +48,26 @@ public class IndexUtilTest {
         checkSortLabels(title, sortLabels, "fi", "sv", "en", "de");
     }
 
+    @Test
+    public void suggestInputsStartFromEachWord() {
+        List<String> inputs = IndexUtil.createSuggestInputs(List.of("kansallinen  palveluväylä", "väylä", " "));
+
+        assertEquals(List.of("kansallinen  palveluväylä", "palveluväylä", "väylä"), inputs);
+    }
+
+    @Test
+    public void suggestContexts() {
+        assertEquals(List.of("t1"), IndexUtil.createSuggestContexts("t1", true));
+        assertEquals(List.of("t1", "public", "public:t1"), IndexUtil.createSuggestContexts("t1", false));
+    }
+
+    @Test
+    public void conceptRouting() {
+        assertNull(IndexUtil.conceptRouting(List.of()));
+        assertEquals("t1", IndexUtil.conceptRouting(List.of("t1")));
+        assertEquals("t1,t2", IndexUtil.conceptRouting(List.of("t1", "t2", "t1")));
+    }
+
     private void checkSortLabels(String label, Map<String, List<String>> sortLabels, String...languages) {
         Arrays.asList(languages).forEach(lang -> {
             assertEquals(label.toLowerCase(), sortLabels.get(lang).get(0));
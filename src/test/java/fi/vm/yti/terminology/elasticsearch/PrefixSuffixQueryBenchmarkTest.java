@@ -0,0 +1,175 @@
+package fi.vm.yti.terminology.elasticsearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptQueryFactory;
+import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the query_string wildcard query with the edge n-gram field query on a synthetic
+ * terminology. Needs an Elasticsearch 6 instance, e.g.
+ * <pre>
+ * docker run -p 9200:9200 -e discovery.type=single-node docker.elastic.co/elasticsearch/elasticsearch:6.8.23
+ * SEARCH_BENCHMARK_URL=http://localhost:9200 ./gradlew test --tests '*PrefixSuffixQueryBenchmarkTest'
+ * </pre>
+ * Number of concepts can be set with SEARCH_BENCHMARK_SIZE (default 100000). Data is generated
+ * with a fixed seed, so runs are comparable.
+ */
+@EnabledIfEnvironmentVariable(named = "SEARCH_BENCHMARK_URL", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PrefixSuffixQueryBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrefixSuffixQueryBenchmarkTest.class);
+
+    private static final String INDEX = "benchmark_concepts";
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ta", "ve", "su", "ri", "no", "pa", "he", "ju", "sa", "to", "li", "ne", "vo"
+    };
+    private static final int ROUNDS = 5;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Random random = new Random(42);
+    private final List<String> words = new ArrayList<>();
+    /** Total hits of the first query of a search term, later queries must match it */
+    private final Map<String, Long> totalHits = new HashMap<>();
+    private RestClient client;
+
+    @BeforeAll
+    void createIndex() throws Exception {
+        client = RestClient.builder(HttpHost.create(System.getenv("SEARCH_BENCHMARK_URL"))).build();
+        int size = Integer.parseInt(System.getenv().getOrDefault("SEARCH_BENCHMARK_SIZE", "100000"));
+
+        try {
+            client.performRequest(new Request("DELETE", "/" + INDEX));
+        } catch (ResponseException e) {
+            // index does not exist
+        }
+        perform("PUT", "/" + INDEX, EsUtils.getJsonString("/create_index_default.json"));
+        perform("PUT", "/" + INDEX + "/_mapping/concept", EsUtils.getJsonString("/create_concept_mappings.json"));
+
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            String label = word() + " " + word();
+            if (words.size() < 100) {
+                words.add(label.split(" ")[0]);
+            }
+            ObjectNode concept = objectMapper.createObjectNode().put("id", String.valueOf(i));
+            concept.putObject("label").putArray("fi").add(label);
+            concept.putObject("definition").putArray("fi").add(word() + " " + word() + " " + word() + " " + word());
+            bulk.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n").append(concept).append('\n');
+            if (bulk.length() > 5_000_000 || i == size - 1) {
+                perform("POST", "/" + INDEX + "/concept/_bulk", bulk.toString());
+                bulk.setLength(0);
+            }
+        }
+        perform("POST", "/" + INDEX + "/_refresh", null);
+        logger.info("Indexed {} concepts", size);
+    }
+
+    @AfterAll
+    void deleteIndex() throws IOException {
+        if (client != null) {
+            client.performRequest(new Request("DELETE", "/" + INDEX));
+            client.close();
+        }
+    }
+
+    @Test
+    public void compareQueries() throws IOException {
+        // prefixes, suffixes and whole words of indexed labels
+        List<String> searchTerms = new ArrayList<>();
+        for (String word : words) {
+            searchTerms.add(word.substring(0, 3));
+            searchTerms.add(word.substring(word.length() - 3));
+            searchTerms.add(word);
+        }
+
+        Function<String, QueryBuilder> wildcardQuery = term -> {
+            QueryStringQueryBuilder query = ElasticRequestUtils.buildPrefixSuffixQuery(term);
+            ConceptQueryFactory.TEXT_FIELDS.forEach((field, boost) -> query.field(field + ".*", boost));
+            return query;
+        };
+        Function<String, QueryBuilder> ngramQuery = term ->
+                ElasticRequestUtils.buildPrefixSuffixFieldQuery(term, ConceptQueryFactory.TEXT_FIELDS);
+
+        // warm up
+        run(searchTerms, wildcardQuery);
+        run(searchTerms, ngramQuery);
+
+        long wildcardTook = 0;
+        long ngramTook = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            wildcardTook += run(searchTerms, wildcardQuery);
+            ngramTook += run(searchTerms, ngramQuery);
+        }
+        logger.info("Average query took: wildcard {} ms, n-gram fields {} ms",
+                (double) wildcardTook / (ROUNDS * searchTerms.size()),
+                (double) ngramTook / (ROUNDS * searchTerms.size()));
+    }
+
+    /**
+     * @return sum of "took" of all queries, total hits must be equal for both queries
+     */
+    private long run(List<String> searchTerms, Function<String, QueryBuilder> query) throws IOException {
+        long took = 0;
+        for (String term : searchTerms) {
+            took += search(term, query).get("took").asLong();
+        }
+        return took;
+    }
+
+    private JsonNode search(String term, Function<String, QueryBuilder> query) throws IOException {
+        JsonNode response = perform("POST", "/" + INDEX + "/_search?request_cache=false",
+                new SearchSourceBuilder().query(query.apply(term)).size(10).toString());
+        long hits = response.get("hits").get("total").asLong();
+        assertEquals((long) totalHits.computeIfAbsent(term, t -> hits), hits, "total hits of '" + term + "'");
+        return response;
+    }
+
+    private String word() {
+        StringBuilder sb = new StringBuilder();
+        int length = 2 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return sb.toString();
+    }
+
+    private JsonNode perform(String method, String endpoint, String body) throws IOException {
+        Request request = new Request(method, endpoint);
+        if (body != null) {
+            request.setEntity(new NStringEntity(body, ContentType.APPLICATION_JSON));
+        }
+        Response response = client.performRequest(request);
+        return objectMapper.readTree(new String(response.getEntity().getContent().readAllBytes(), StandardCharsets.UTF_8));
+    }
+}
@@ -4,12 +4,19 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptQueryFactory;
 import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSearchRequest;
 import fi.vm.yti.terminology.elasticsearch.EsUtils;
+import fi.vm.yti.terminology.api.exception.InvalidQueryException;
+import fi.vm.yti.terminology.api.util.SearchAfterCursor;
 import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 public class ConceptQueryFactoryTest {
 
     ConceptQueryFactory factory = new ConceptQueryFactory(new ObjectMapper(), "testNamespace");
@@ -25,6 +32,86 @@ public class ConceptQueryFactoryTest {
         SearchRequest searchRequest = factory.createQuery(request, true, limitToTheseTerminologyIds -> null);
 
         JSONAssert.assertEquals(jsonExpected.toString(), searchRequest.source().toString(), JSONCompareMode.LENIENT);
+        assertNull(searchRequest.routing());
+    }
+
+    @Test
+    public void terminologyFilterRoutesToTerminologyShards() {
+        ConceptSearchRequest request = new ConceptSearchRequest();
+        request.setQuery("test");
+        request.setTerminologyId(new String[] { "bab3aa74-a2c2-4750-ad5b-4fd7f007edca", "6f505105-5cc8-3293-aff6-64a58114bbe8" });
+
+        SearchRequest searchRequest = factory.createQuery(request, true, limitToTheseTerminologyIds -> null);
+
+        assertEquals("bab3aa74-a2c2-4750-ad5b-4fd7f007edca,6f505105-5cc8-3293-aff6-64a58114bbe8", searchRequest.routing());
+    }
+
+    @Test
+    public void createQueryWithSearchAfter() throws Exception {
+        ConceptSearchRequest request = new ConceptSearchRequest();
+        request.setQuery("");
+        request.setPageSize(10);
+        request.setPageFrom(5000);
+        request.setSearchAfter(SearchAfterCursor.encode(new Object[] { "label", "concept-id" }));
+
+        SearchRequest searchRequest = factory.createQuery(request, true, limitToTheseTerminologyIds -> null);
+
+        var expected = new JSONObject()
+                .put("from", 0)
+                .put("size", 10)
+                .put("search_after", new JSONArray().put("label").put("concept-id"))
+                .put("sort", new JSONArray()
+                        .put(new JSONObject().put("sortByLabel.fi", new JSONObject().put("order", "asc")))
+                        .put(new JSONObject().put("id", new JSONObject().put("order", "asc"))));
+        JSONAssert.assertEquals(expected.toString(), searchRequest.source().toString(), JSONCompareMode.LENIENT);
+    }
+
+    @Test
+    public void resultStartIsOmittedWithSearchAfter() throws Exception {
+        var searchResponse = EsUtils.getMockResponse("/es/response/concept_response.json");
+        ConceptSearchRequest request = new ConceptSearchRequest();
+        request.setPageFrom(20);
+
+        assertEquals(20, factory.parseResponse(searchResponse, request).getResultStart());
+
+        request.setSearchAfter(SearchAfterCursor.encode(new Object[] { "label", "concept-id" }));
+        assertNull(factory.parseResponse(searchResponse, request).getResultStart());
+    }
+
+    @Test
+    public void relevanceQueryHasTieBreaker() throws Exception {
+        ConceptSearchRequest request = new ConceptSearchRequest();
+        request.setQuery("test");
+
+        SearchRequest searchRequest = factory.createQuery(request, true, limitToTheseTerminologyIds -> null);
+
+        var expected = new JSONObject()
+                .put("sort", new JSONArray()
+                        .put(new JSONObject().put("_score", new JSONObject().put("order", "desc")))
+                        .put(new JSONObject().put("id", new JSONObject().put("order", "asc"))));
+        JSONAssert.assertEquals(expected.toString(), searchRequest.source().toString(), JSONCompareMode.LENIENT);
+    }
+
+    @Test
+    public void invalidSearchAfter() {
+        ConceptSearchRequest request = new ConceptSearchRequest();
+        request.setSearchAfter("not a cursor");
+
+        assertThrows(InvalidQueryException.class,
+                () -> factory.createQuery(request, true, limitToTheseTerminologyIds -> null));
+    }
+
+    @Test
+    public void nextCursorFromLastHitOfFullPage() {
+        SearchHit first = new SearchHit(1);
+        first.sortValues(new Object[] { "a", "id-1" }, new DocValueFormat[] { DocValueFormat.RAW, DocValueFormat.RAW });
+        SearchHit last = new SearchHit(2);
+        last.sortValues(new Object[] { "b", "id-2" }, new DocValueFormat[] { DocValueFormat.RAW, DocValueFormat.RAW });
+
+        String cursor = SearchAfterCursor.nextCursor(new SearchHit[] { first, last }, 2);
+        assertArrayEquals(new Object[] { "b", "id-2" }, SearchAfterCursor.decode(cursor));
 
+        // partial page is the last one
+        assertNull(SearchAfterCursor.nextCursor(new SearchHit[] { first, last }, 3));
     }
 }
@@ -0,0 +1,72 @@
+package fi.vm.yti.terminology.elasticsearch.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptSuggestQueryFactory;
+import fi.vm.yti.terminology.api.frontend.searchdto.ConceptSuggestionDTO;
+import fi.vm.yti.terminology.elasticsearch.EsUtils;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.junit.jupiter.api.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConceptSuggestQueryFactoryTest {
+
+    ConceptSuggestQueryFactory factory = new ConceptSuggestQueryFactory(new ObjectMapper());
+
+    @Test
+    public void createQuery() throws Exception {
+        String expected = EsUtils.getJsonString("/es/request/concept_suggest_request.json");
+
+        SearchRequest request = factory.createQuery("kans", List.of("fi", "en"), List.of(), false, List.of("t1"), 10);
+
+        JSONAssert.assertEquals(expected, request.source().toString(), JSONCompareMode.LENIENT);
+        assertEquals("concepts", request.indices()[0]);
+        assertNull(request.routing());
+    }
+
+    @Test
+    public void superUserQueryHasNoContexts() {
+        SearchRequest request = factory.createQuery("kans", List.of("fi"), List.of(), true, List.of(), 10);
+
+        assertFalse(request.source().toString().contains("contexts"));
+    }
+
+    @Test
+    public void terminologyFilterShowsOnlyPublicSuggestionsOfOtherTerminologies() {
+        SearchRequest request = factory.createQuery("kans", List.of("fi"), List.of("t1", "t2"), false, List.of("t1"), 10);
+
+        String source = request.source().toString();
+        assertTrue(source.contains("\"context\":\"t1\""));
+        assertTrue(source.contains("\"context\":\"public:t2\""));
+        assertFalse(source.contains("\"context\":\"public\""));
+        assertEquals("t1,t2", request.routing());
+    }
+
+    @Test
+    public void parseResponse() throws Exception {
+        SearchResponse response = EsUtils.getMockResponse("/es/response/concept_suggest_response.json");
+
+        List<ConceptSuggestionDTO> suggestions = factory.parseResponse(response, 10);
+
+        // best first, concept suggested many times is returned once
+        assertEquals(List.of(
+                "2f5b1a7e-5d4c-4a0b-9b3f-0c9f8a2d6b11",
+                "c4a7b9d3-6e1f-4f2a-8b5c-1d2e3f4a5b33",
+                "8c0e6c52-2a54-4e0a-a3a4-7d4c8f3e9d22"),
+                suggestions.stream().map(ConceptSuggestionDTO::getId).collect(Collectors.toList()));
+
+        ConceptSuggestionDTO first = suggestions.get(0);
+        assertEquals("kansallinen palveluväylä", first.getText());
+        assertEquals("national data exchange layer", first.getLabel().get("en"));
+        assertEquals("bab3aa74-a2c2-4750-ad5b-4fd7f007edca", first.getTerminology().getId());
+        assertEquals("Testisanasto", first.getTerminology().getLabel().get("fi"));
+
+        assertEquals(2, factory.parseResponse(response, 2).size());
+    }
+}
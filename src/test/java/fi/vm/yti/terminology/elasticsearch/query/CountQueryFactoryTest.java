@@ -48,6 +48,7 @@ public class CountQueryFactoryTest {
         SearchRequest request = factory.createConceptCountQuery(UUID.fromString("bab3aa74-a2c2-4750-ad5b-4fd7f007edca"));
 
         JSONAssert.assertEquals(expected, request.source().toString(), JSONCompareMode.LENIENT);
+        assertEquals("bab3aa74-a2c2-4750-ad5b-4fd7f007edca", request.routing());
     }
 
     @Test
@@ -56,4 +56,71 @@ public class DeepConceptQueryFactoryTest {
         assertEquals("http://uri.suomi.fi/terminology/jhs/concept-1234", conceptSimpleDTO.getUri());
         assertEquals("<b>Test</b>", conceptSimpleDTO.getLabel().get("fi"));
     }
+
+    @Test
+    public void testParseResponseWithVisibleConceptHits() throws Exception {
+        SearchResponse searchResponse = EsUtils.getMockMultiResponse("/es/response/concept_msearch_response.json")
+                .getResponses()[1].getResponse();
+        TerminologySearchRequest searchRequest = new TerminologySearchRequest();
+        searchRequest.setQuery("test");
+
+        // INCOMPLETE terminology is not visible to non-contributors
+        var parsedResponse = factory.parseResponse(searchResponse, searchRequest, Set.of());
+        assertEquals(Set.of("ac96b29b-8760-482a-be28-bc162b30e8c9"), parsedResponse.keySet());
+
+        parsedResponse = factory.parseResponse(searchResponse, searchRequest, Set.of("02084501-2d02-42ec-b25d-d5c9590f652e"));
+        assertEquals(2, parsedResponse.keySet().size());
+    }
+
+    @Test
+    public void testDeepConceptQueryWithoutIncompleteFilter() {
+        SearchRequest request = factory.createQuery("test", new String[]{ "DRAFT" }, "fi");
+        String source = request.source().toString();
+
+        // INCOMPLETE filtering is done in aggregation, not in the query
+        assertFalse(request.source().query().toString().contains("INCOMPLETE"));
+        assertTrue(source.contains("visible_concepts"));
+    }
+
+    @Test
+    public void testTerminologyIdsQueryHasNoTopHits() throws Exception {
+        SearchRequest request = factory.createTerminologyIdsQuery("test", new String[]{ "DRAFT" }, false, Set.of("e447089c-dd4e-4744-8b22-4aa97cf6c354"));
+        String source = request.source().toString();
+
+        assertFalse(source.contains("top_hits"));
+        // terminologies are ranked by their best concept like in the aggregated deep query
+        var groupBy = new JSONObject(source).getJSONObject("aggregations").getJSONObject("group_by_terminology");
+        assertEquals("_score", groupBy.getJSONObject("aggregations").getJSONObject("best_concept_hit")
+                .getJSONObject("max").getJSONObject("script").getString("source"));
+        assertEquals("desc", groupBy.getJSONObject("terms").getJSONArray("order").getJSONObject(0)
+                .getString("best_concept_hit"));
+
+        SearchResponse searchResponse = EsUtils.getMockResponse("/es/response/concept_response.json");
+        assertEquals(List.of("ac96b29b-8760-482a-be28-bc162b30e8c9", "02084501-2d02-42ec-b25d-d5c9590f652e"),
+                List.copyOf(factory.parseTerminologyIdsResponse(searchResponse)));
+    }
+
+    @Test
+    public void testCollapsedDeepConceptQuery() throws Exception {
+        var jsonExpected = new JSONObject(EsUtils.getJsonString("/es/request/deep_concept_collapse_request.json"));
+        var terminologyIds = List.of("ac96b29b-8760-482a-be28-bc162b30e8c9", "02084501-2d02-42ec-b25d-d5c9590f652e");
+
+        SearchRequest request = factory.createCollapsedQuery("test", new String[]{ "DRAFT" }, false, Set.of("e447089c-dd4e-4744-8b22-4aa97cf6c354"), terminologyIds);
+
+        JSONAssert.assertEquals(jsonExpected.toString(), request.source().toString(), JSONCompareMode.LENIENT);
+        assertEquals(String.join(",", terminologyIds), request.routing());
+    }
+
+    @Test
+    public void testCollapsedResponseMatchesAggregatedResponse() throws Exception {
+        TerminologySearchRequest searchRequest = new TerminologySearchRequest();
+        searchRequest.setQuery("test");
+        ObjectMapper mapper = new ObjectMapper();
+
+        var aggregated = factory.parseResponse(EsUtils.getMockResponse("/es/response/concept_response.json"), searchRequest);
+        var collapsed = factory.parseCollapsedResponse(EsUtils.getMockResponse("/es/response/deep_concept_collapse_response.json"), searchRequest);
+
+        assertEquals(2, collapsed.size());
+        assertEquals(mapper.valueToTree(aggregated), mapper.valueToTree(collapsed));
+    }
 }
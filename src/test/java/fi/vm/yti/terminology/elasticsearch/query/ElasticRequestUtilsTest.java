@@ -1,11 +1,26 @@
 package fi.vm.yti.terminology.elasticsearch.query;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.vm.yti.terminology.api.exception.InvalidQueryException;
+import fi.vm.yti.terminology.api.frontend.elasticqueries.ConceptSource;
 import fi.vm.yti.terminology.api.util.ElasticRequestUtils;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MultiMatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class ElasticRequestUtilsTest {
 
@@ -17,5 +32,67 @@ class ElasticRequestUtilsTest {
         assertEquals("\\" + prefix + " \\" + prefix + "* *\\" + prefix, request.queryString());
     }
 
+    @Test
+    void testPrefixSuffixFieldQuery() {
+        QueryBuilder query = ElasticRequestUtils.buildPrefixSuffixFieldQuery(" Foo  bar ", Map.of("label", 2.0f));
+
+        var words = ((BoolQueryBuilder) query).must();
+        assertEquals(2, words.size());
+        var fields = ((BoolQueryBuilder) words.get(0)).should().stream()
+                .map(q -> (MultiMatchQueryBuilder) q)
+                .peek(q -> assertEquals("foo", q.value()))
+                .flatMap(q -> q.fields().keySet().stream())
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("label.*", "prefix.label", "suffix.label"), fields);
+        assertFalse(query.toString().contains("*foo"));
+    }
+
+    @Test
+    void testPrefixSuffixFieldQueryWithWildcards() {
+        var fields = Map.of("label", 1.0f);
+
+        var prefix = (MultiMatchQueryBuilder) ElasticRequestUtils.buildPrefixSuffixFieldQuery("Foo*", fields);
+        assertEquals("foo", prefix.value());
+        assertEquals(Set.of("prefix.label"), prefix.fields().keySet());
+
+        var suffix = (MultiMatchQueryBuilder) ElasticRequestUtils.buildPrefixSuffixFieldQuery("*foo", fields);
+        assertEquals("foo", suffix.value());
+        assertEquals(Set.of("suffix.label"), suffix.fields().keySet());
+
+        var both = (BoolQueryBuilder) ElasticRequestUtils.buildPrefixSuffixFieldQuery("*foo*", fields);
+        assertEquals(3, both.should().size());
+
+        var inner = (QueryStringQueryBuilder) ElasticRequestUtils.buildPrefixSuffixFieldQuery("f*o:", fields);
+        assertEquals("f*o\\:", inner.queryString());
+        assertEquals(Set.of("label.*"), inner.fields().keySet());
+    }
 
+    @ParameterizedTest
+    @ValueSource(strings = {"*", "**", "foo **bar", "foo *"})
+    void testPrefixSuffixFieldQueryWithOnlyWildcards(String searchTerm) {
+        assertThrows(InvalidQueryException.class,
+                () -> ElasticRequestUtils.buildPrefixSuffixFieldQuery(searchTerm, Map.of("label", 1.0f)));
+    }
+
+    @Test
+    void testPrefixSuffixFieldQueryWithoutSearchTerm() {
+        assertThrows(InvalidQueryException.class,
+                () -> ElasticRequestUtils.buildPrefixSuffixFieldQuery(" ", Map.of("label", 1.0f)));
+    }
+
+    @Test
+    void testReadSource() throws Exception {
+        SearchHit hit = new SearchHit(1);
+        hit.sourceRef(new BytesArray(("{\"id\":\"c1\",\"label\":{\"fi\":[\"käsite\",\"toinen\"],\"en\":\"concept\"}," +
+                "\"suggest\":{\"fi\":[{\"input\":[\"käsite\"]}]},\"vocabulary\":{\"id\":\"t1\"}}").getBytes(StandardCharsets.UTF_8)));
+
+        ConceptSource source = ElasticRequestUtils.readSource(new ObjectMapper(), hit, ConceptSource.class);
+
+        assertEquals("c1", source.getId());
+        assertEquals("t1", source.getVocabulary().getId());
+        assertEquals(List.of("concept"), source.getLabel().get("en"));
+        assertEquals(Map.of("fi", "käsite", "en", "concept"), ElasticRequestUtils.labelFromLocalizable(source.getLabel()));
+        assertNull(ElasticRequestUtils.labelFromLocalizable(source.getAltLabel()));
+        assertNull(ElasticRequestUtils.readSource(new ObjectMapper(), new SearchHit(2), ConceptSource.class));
+    }
 }
@@ -1,21 +1,26 @@
 package fi.vm.yti.terminology.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import fi.vm.yti.terminology.api.TermedRequester;
+import fi.vm.yti.terminology.api.index.SearchIndexChangedEvent;
 import fi.vm.yti.terminology.api.model.termed.*;
 import fi.vm.yti.terminology.api.security.DefaultAuthorizationTermedService;
 import fi.vm.yti.terminology.api.util.Parameters;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpMethod;
-import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,97 +30,149 @@ import java.util.*;
 @Import({
         DefaultAuthorizationTermedService.class,
 })
-@TestPropertySource(properties = {
-        "termed.cache.expiration=3"
-})
 public class DefaultAuthorizationTermedServiceTest {
 
     @MockBean
     TermedRequester requester;
 
+    @MockBean(name = "specificTaskExecutor")
+    TaskExecutor taskExecutor;
+
     @Autowired
     DefaultAuthorizationTermedService service;
 
+    private final ObjectMapper mapper = new ObjectMapper();
+
     private UUID organizationId = UUID.fromString("9adc94fb-65ab-4fd1-a9ef-de126b26cbe6");
+    private UUID otherOrganizationId = UUID.fromString("d9c76d52-03d3-4480-8c2c-b6ff6dab7a74");
+
+    @Test
+    public void allOrganizationsLoadedWithOneRequest() {
+        UUID graphId = UUID.randomUUID();
+        UUID otherGraphId = UUID.randomUUID();
+        mockAllRequest(vocabularies(vocabulary(graphId, organizationId), vocabulary(otherGraphId, otherOrganizationId)));
+
+        service.refresh();
+
+        assertEquals(Set.of(organizationId), service.getOrganizationIds(graphId));
+        assertEquals(Set.of(otherOrganizationId), service.getOrganizationIds(otherGraphId));
+        verify(requester, times(1)).exchange(eq("/node-trees"),
+                eq(HttpMethod.GET),
+                any(Parameters.class),
+                eq(JsonNode.class));
+    }
 
     @Test
     public void cachedOrganizations() {
         UUID graphId = UUID.randomUUID();
-        mockTermedRequest(graphId);
+        mockGraphRequest(graphId, vocabularies(vocabulary(graphId, organizationId)));
 
         Set<UUID> ids = service.getOrganizationIds(graphId);
         service.getOrganizationIds(graphId);
 
         // expect only one requester interaction, because result is cached
-        verify(requester).exchange(eq(getPath(graphId)),
+        verify(requester).exchange(eq("/node-trees"),
                 eq(HttpMethod.GET),
-                any(Parameters.class),
-                any(ParameterizedTypeReference.class));
+                argThat(params -> params.toString().contains("graph.id:" + graphId)),
+                eq(JsonNode.class));
         assertEquals(organizationId, ids.iterator().next());
     }
 
     @Test
-    public void cachedOrganizationsExpired() throws Exception {
+    public void organizationsReloadedOnVocabularyChange() {
         UUID graphId = UUID.randomUUID();
-        mockTermedRequest(graphId);
+        mockAllRequest(vocabularies(vocabulary(graphId, organizationId)));
+        service.refresh();
 
-        Set<UUID> ids = service.getOrganizationIds(graphId);
+        mockGraphRequest(graphId, vocabularies(vocabulary(graphId, otherOrganizationId)));
+        service.onSearchIndexChanged(new SearchIndexChangedEvent("concepts", graphId));
+        assertEquals(Set.of(organizationId), service.getOrganizationIds(graphId));
 
-        // Wait for cache expiration
-        Thread.sleep(4000);
+        service.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES, graphId));
+        assertEquals(Set.of(otherOrganizationId), service.getOrganizationIds(graphId));
+    }
 
-        service.getOrganizationIds(graphId);
+    @Test
+    public void removedVocabularyHasNoOrganizations() {
+        UUID graphId = UUID.randomUUID();
+        mockAllRequest(vocabularies(vocabulary(graphId, organizationId)));
+        service.refresh();
 
-        // expect two requester interactions, because cache has been expired
-        verify(requester, times(2)).exchange(eq(getPath(graphId)),
+        mockGraphRequest(graphId, vocabularies());
+        service.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES, graphId));
+
+        assertEquals(Set.of(), service.getOrganizationIds(graphId));
+    }
+
+    @Test
+    public void organizationsKeptWhenReloadFails() {
+        UUID graphId = UUID.randomUUID();
+        mockAllRequest(vocabularies(vocabulary(graphId, organizationId)));
+        service.refresh();
+
+        when(requester.exchange(eq("/node-trees"),
                 eq(HttpMethod.GET),
-                any(Parameters.class),
-                any(ParameterizedTypeReference.class));
+                argThat(params -> params != null && params.toString().contains("graph.id:" + graphId)),
+                eq(JsonNode.class))
+        ).thenThrow(new RuntimeException("Termed unavailable"));
+        service.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES, graphId));
 
-        assertEquals(organizationId, ids.iterator().next());
+        assertEquals(Set.of(organizationId), service.getOrganizationIds(graphId));
+    }
+
+    @Test
+    public void vocabularyIndexRewriteReloadedInBackground() {
+        UUID graphId = UUID.randomUUID();
+        mockAllRequest(vocabularies(vocabulary(graphId, organizationId)));
+        service.refresh();
+
+        mockAllRequest(vocabularies(vocabulary(graphId, otherOrganizationId)));
+        service.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+        service.onSearchIndexChanged(new SearchIndexChangedEvent(SearchIndexChangedEvent.VOCABULARIES));
+
+        // nothing loaded on the publishing thread, repeated events are coalesced
+        assertEquals(Set.of(organizationId), service.getOrganizationIds(graphId));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(taskExecutor).execute(task.capture());
+
+        task.getValue().run();
+        assertEquals(Set.of(otherOrganizationId), service.getOrganizationIds(graphId));
     }
 
-    private List<GenericNode> getSampleNode() {
-        var node = new GenericNode(
-                UUID.randomUUID(),
-                null,
-                null,
-                1L,
-                "creator",
-                new Date(),
-                "modifier",
-                new Date(),
-                new TypeId(
-                        NodeType.TerminologicalVocabulary,
-                        new GraphId(UUID.randomUUID())),
-                Collections.emptyMap(),
-                Map.of("contributor",
-                        List.of(new Identifier(
-                                organizationId,
-                                        new TypeId(
-                                                NodeType.Organization,
-                                                new GraphId(UUID.randomUUID())
-                                        )
-                                )
-                        )
-                ),
-                Collections.emptyMap()
-        );
-
-        return Arrays.asList(node);
+    private ArrayNode vocabularies(ObjectNode... vocabularies) {
+        ArrayNode result = mapper.createArrayNode();
+        result.addAll(Arrays.asList(vocabularies));
+        return result;
     }
 
-    private void mockTermedRequest(UUID graphId) {
+    private ObjectNode vocabulary(UUID graphId, UUID contributorId) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("id", UUID.randomUUID().toString());
+        ObjectNode type = node.putObject("type");
+        type.put("id", NodeType.TerminologicalVocabulary.name());
+        type.putObject("graph").put("id", graphId.toString());
+        ObjectNode contributor = node.putObject("references").putArray("contributor").addObject();
+        contributor.put("id", contributorId.toString());
+        return node;
+    }
+
+    private void mockAllRequest(JsonNode response) {
         when(requester
-                .exchange(eq(getPath(graphId)),
+                .exchange(eq("/node-trees"),
                         eq(HttpMethod.GET),
-                        any(Parameters.class),
-                        any(ParameterizedTypeReference.class)
+                        argThat(params -> params != null && !params.toString().contains("graph.id:")),
+                        eq(JsonNode.class)
                 )
-        ).thenReturn(getSampleNode());
+        ).thenReturn(response);
     }
 
-    private String getPath(UUID graphId) {
-        return String.format("/graphs/%s/types/%s/nodes", graphId, NodeType.TerminologicalVocabulary);
+    private void mockGraphRequest(UUID graphId, JsonNode response) {
+        when(requester
+                .exchange(eq("/node-trees"),
+                        eq(HttpMethod.GET),
+                        argThat(params -> params != null && params.toString().contains("graph.id:" + graphId)),
+                        eq(JsonNode.class)
+                )
+        ).thenReturn(response);
     }
 }